@@ -132,8 +132,12 @@ dependencies {
     // 数据存储 - 使用Room
     implementation(libs.androidx.room.runtime)
     implementation(libs.androidx.room.ktx)
+    implementation(libs.androidx.room.paging)
     kapt(libs.androidx.room.compiler)
 
+    // 分页加载
+    implementation(libs.androidx.paging.runtime.ktx)
+
     // 网络请求
     implementation(libs.retrofit)
     implementation(libs.retrofit.converter.gson)
@@ -8,6 +8,7 @@ import android.os.Build
 import android.util.Log
 import dagger.hilt.android.HiltAndroidApp
 import javax.inject.Inject
+import com.lanhe.gongjuxiang.utils.MonitoringDataRecorder
 import com.lanhe.gongjuxiang.utils.ShizukuManager
 
 /**
@@ -178,6 +179,11 @@ class LanheApplication : Application() {
     override fun onTrimMemory(level: Int) {
         super.onTrimMemory(level)
         Log.d("LanheApplication", "Memory trim requested with level: $level")
+
+        // 界面不可见时把监控数据的写入队列落盘，避免进程被回收时丢失
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            MonitoringDataRecorder.flushIfCreated()
+        }
         
         when (level) {
             TRIM_MEMORY_RUNNING_CRITICAL -> {
@@ -7,12 +7,15 @@ import android.widget.Toast
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import androidx.appcompat.widget.SearchView
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.lanhe.gongjuxiang.R
 import com.lanhe.gongjuxiang.adapters.BookmarkAdapter
 import com.lanhe.gongjuxiang.databinding.ActivityBookmarkBinding
 import com.lanhe.gongjuxiang.utils.BrowserManager
 import com.lanhe.mokuai.bookmark.BookmarkManager
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
 
 /**
  * 书签管理Activity
@@ -31,6 +34,7 @@ class BookmarkActivity : AppCompatActivity() {
 
     private var currentFolderId: String = "default"
     private var allBookmarks: List<BookmarkManager.Bookmark> = emptyList()
+    private var loadJob: Job? = null
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -73,18 +77,22 @@ class BookmarkActivity : AppCompatActivity() {
     }
 
     private fun loadBookmarks() {
-        allBookmarks = browserManager.getAllBookmarks()
-        val filteredBookmarks = if (currentFolderId == "default") {
-            allBookmarks
-        } else {
-            allBookmarks.filter { it.folderId == currentFolderId }
-        }
-        adapter.submitList(filteredBookmarks)
+        // 新的加载或搜索开始时取消上一次，避免旧结果覆盖新结果
+        loadJob?.cancel()
+        loadJob = lifecycleScope.launch {
+            allBookmarks = browserManager.getAllBookmarks()
+            val filteredBookmarks = if (currentFolderId == "default") {
+                allBookmarks
+            } else {
+                allBookmarks.filter { it.folderId == currentFolderId }
+            }
+            adapter.submitList(filteredBookmarks)
 
-        binding.emptyView.visibility = if (filteredBookmarks.isEmpty()) {
-            android.view.View.VISIBLE
-        } else {
-            android.view.View.GONE
+            binding.emptyView.visibility = if (filteredBookmarks.isEmpty()) {
+                android.view.View.VISIBLE
+            } else {
+                android.view.View.GONE
+            }
         }
     }
 
@@ -122,9 +130,11 @@ class BookmarkActivity : AppCompatActivity() {
             .setTitle("删除书签")
             .setMessage("确定要删除 \"${bookmark.title}\" 吗？")
             .setPositiveButton("删除") { _, _ ->
-                if (browserManager.deleteBookmark(bookmark.id)) {
-                    Toast.makeText(this, "已删除", Toast.LENGTH_SHORT).show()
-                    loadBookmarks()
+                lifecycleScope.launch {
+                    if (browserManager.deleteBookmark(bookmark.id)) {
+                        Toast.makeText(this@BookmarkActivity, "已删除", Toast.LENGTH_SHORT).show()
+                        loadBookmarks()
+                    }
                 }
             }
             .setNegativeButton("取消", null)
@@ -165,13 +175,16 @@ class BookmarkActivity : AppCompatActivity() {
     }
 
     private fun searchBookmarks(query: String) {
-        val results = browserManager.searchBookmarks(query)
-        adapter.submitList(results)
-
-        binding.emptyView.visibility = if (results.isEmpty()) {
-            android.view.View.VISIBLE
-        } else {
-            android.view.View.GONE
+        loadJob?.cancel()
+        loadJob = lifecycleScope.launch {
+            val results = browserManager.searchBookmarks(query)
+            adapter.submitList(results)
+
+            binding.emptyView.visibility = if (results.isEmpty()) {
+                android.view.View.VISIBLE
+            } else {
+                android.view.View.GONE
+            }
         }
     }
 
@@ -208,12 +221,14 @@ class BookmarkActivity : AppCompatActivity() {
     }
 
     private fun exportBookmarks() {
-        try {
-            val json = browserManager.bookmarkManager.exportToJson()
-            // TODO: 保存到文件
-            Toast.makeText(this, "导出成功", Toast.LENGTH_SHORT).show()
-        } catch (e: Exception) {
-            Toast.makeText(this, "导出失败", Toast.LENGTH_SHORT).show()
+        lifecycleScope.launch {
+            try {
+                val json = browserManager.bookmarkManager.exportToJson()
+                // TODO: 保存到文件
+                Toast.makeText(this@BookmarkActivity, "导出成功", Toast.LENGTH_SHORT).show()
+            } catch (e: Exception) {
+                Toast.makeText(this@BookmarkActivity, "导出失败", Toast.LENGTH_SHORT).show()
+            }
         }
     }
 }
@@ -19,16 +19,19 @@ import android.webkit.WebViewClient
 import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import com.google.android.material.bottomsheet.BottomSheetDialog
+import com.google.android.material.snackbar.Snackbar
 import com.lanhe.gongjuxiang.R
 import com.lanhe.gongjuxiang.databinding.ActivityChromiumBrowserBinding
 import com.lanhe.gongjuxiang.utils.BrowserManager
 import com.lanhe.mokuai.bookmark.BookmarkManager
+import com.lanhe.mokuai.password.PasswordManager
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
+import org.json.JSONObject
 import java.io.File
 import java.util.UUID
 
@@ -41,6 +44,7 @@ import java.util.UUID
  * - ✅ 多标签页支持（TabManager）
  * - ✅ 下载管理器集成（DownloadManager）
  * - ✅ 广告拦截引擎（AdBlocker）
+ * - ✅ 登录页凭据填充（PasswordManager）
  * - ✅ 智能地址栏（搜索和URL识别）
  * - ✅ Material Design 3.0 UI
  *
@@ -275,34 +279,35 @@ class ChromiumBrowserActivity : AppCompatActivity() {
             return
         }
 
-        if (isBookmarked) {
-            // 删除书签
-            val bookmarks = browserManager.getAllBookmarks()
-            val bookmark = bookmarks.find { it.url == currentUrl }
-            bookmark?.let {
-                if (browserManager.deleteBookmark(it.id)) {
-                    isBookmarked = false
-                    updateBookmarkStatus()
-                    Toast.makeText(this, "已删除书签", Toast.LENGTH_SHORT).show()
+        val url = currentUrl
+        scope.launch {
+            if (isBookmarked) {
+                // 删除书签
+                browserManager.findBookmarkByUrl(url)?.let {
+                    if (browserManager.deleteBookmark(it.id)) {
+                        isBookmarked = false
+                        showBookmarkStatus()
+                        Toast.makeText(this@ChromiumBrowserActivity, "已删除书签", Toast.LENGTH_SHORT).show()
+                    }
                 }
-            }
-        } else {
-            // 添加书签
-            val newBookmark = BookmarkManager.Bookmark(
-                id = UUID.randomUUID().toString(),
-                title = currentTitle.ifEmpty { "未命名" },
-                url = currentUrl,
-                createdAt = System.currentTimeMillis(),
-                updatedAt = System.currentTimeMillis()
-            )
-            if (browserManager.addBookmark(newBookmark)) {
-                isBookmarked = true
-                updateBookmarkStatus()
-                Toast.makeText(this, "已添加书签", Toast.LENGTH_SHORT).show()
-
-                // 标记历史记录
-                scope.launch(Dispatchers.IO) {
-                    browserManager.markAsBookmark(currentUrl)
+            } else {
+                // 添加书签
+                val newBookmark = BookmarkManager.Bookmark(
+                    id = UUID.randomUUID().toString(),
+                    title = currentTitle.ifEmpty { "未命名" },
+                    url = url,
+                    createdAt = System.currentTimeMillis(),
+                    updatedAt = System.currentTimeMillis()
+                )
+                if (browserManager.addBookmark(newBookmark)) {
+                    isBookmarked = true
+                    showBookmarkStatus()
+                    Toast.makeText(this@ChromiumBrowserActivity, "已添加书签", Toast.LENGTH_SHORT).show()
+
+                    // 标记历史记录
+                    withContext(Dispatchers.IO) {
+                        browserManager.markAsBookmark(url)
+                    }
                 }
             }
         }
@@ -312,15 +317,102 @@ class ChromiumBrowserActivity : AppCompatActivity() {
      * 更新书签按钮状态
      */
     private fun updateBookmarkStatus() {
-        val bookmarks = browserManager.getAllBookmarks()
-        isBookmarked = bookmarks.any { it.url == currentUrl }
+        val url = currentUrl
+        scope.launch {
+            val bookmarked = browserManager.isBookmarked(url)
+            // 查询期间已跳转到其他页面时丢弃结果
+            if (url != currentUrl) return@launch
+            isBookmarked = bookmarked
+            showBookmarkStatus()
+        }
+    }
 
+    private fun showBookmarkStatus() {
         binding.btnBookmark?.setImageResource(
             if (isBookmarked) android.R.drawable.star_on
             else android.R.drawable.star_off
         )
     }
 
+    /**
+     * 查找当前页面的已保存凭据，页面有密码输入框时提示填充
+     * 只在 https 页面提示，明文 http 页面上填入的密码可能被网络中间人截获
+     */
+    private fun offerCredentials(url: String) {
+        if (!url.startsWith("https://")) return
+
+        scope.launch {
+            val credentials = browserManager.findCredentials(url)
+            if (credentials.isEmpty() || url != currentUrl) return@launch
+
+            binding.webView.evaluateJavascript(HAS_PASSWORD_FIELD_JS) { result ->
+                if (result == "true" && url == currentUrl) {
+                    showCredentialSuggestion(credentials, url)
+                }
+            }
+        }
+    }
+
+    /**
+     * 显示凭据填充提示，多个凭据时先选择账号
+     */
+    private fun showCredentialSuggestion(credentials: List<PasswordManager.PasswordSummary>, pageUrl: String) {
+        val first = credentials.first()
+        val message = if (credentials.size == 1) {
+            "使用已保存的账号 ${first.username} 登录"
+        } else {
+            "此网站有 ${credentials.size} 个已保存的账号"
+        }
+
+        Snackbar.make(binding.root, message, Snackbar.LENGTH_LONG)
+            .setAction("填充") {
+                if (credentials.size == 1) {
+                    fillCredential(first, pageUrl)
+                } else {
+                    androidx.appcompat.app.AlertDialog.Builder(this)
+                        .setTitle("选择账号")
+                        .setItems(credentials.map { it.username.ifEmpty { it.title } }.toTypedArray()) { _, which ->
+                            fillCredential(credentials[which], pageUrl)
+                        }
+                        .setNegativeButton("取消", null)
+                        .show()
+                }
+            }
+            .show()
+    }
+
+    /**
+     * 解密选中的凭据并填入页面
+     * 提示显示期间用户可能已跳转到其他网站，执行脚本前确认当前页面仍是提示时的 https 页面所在的站点，
+     * 且属于凭据保存的站点
+     */
+    private fun fillCredential(credential: PasswordManager.PasswordSummary, pageUrl: String) {
+        scope.launch {
+            val site = browserManager.passwordManager.siteOf(credential.url)
+            if (site == null || !isCredentialPage(pageUrl, site)) {
+                Toast.makeText(this@ChromiumBrowserActivity, "页面与保存的网站不符，未填充", Toast.LENGTH_SHORT).show()
+                return@launch
+            }
+            val entry = browserManager.openCredential(credential.id)
+            if (entry == null) {
+                Toast.makeText(this@ChromiumBrowserActivity, "无法读取已保存的密码", Toast.LENGTH_SHORT).show()
+                return@launch
+            }
+            // 解密期间页面可能已跳转，在主线程上检查后立即执行脚本，中间不再挂起
+            val currentUrl = binding.webView.url
+            if (currentUrl == null || !isCredentialPage(currentUrl, site)) {
+                Toast.makeText(this@ChromiumBrowserActivity, "页面已跳转，未填充密码", Toast.LENGTH_SHORT).show()
+                return@launch
+            }
+            val script = "($FILL_CREDENTIAL_JS)(${JSONObject.quote(entry.username)}, ${JSONObject.quote(entry.password)})"
+            binding.webView.evaluateJavascript(script, null)
+        }
+    }
+
+    private fun isCredentialPage(url: String, site: String): Boolean {
+        return url.startsWith("https://") && PasswordManager.isOnSite(url, site)
+    }
+
     /**
      * 处理文件下载
      */
@@ -646,6 +738,9 @@ class ChromiumBrowserActivity : AppCompatActivity() {
 
                 // 更新书签状态
                 updateBookmarkStatus()
+
+                // 登录页提示已保存的凭据
+                offerCredentials(it)
             }
 
             // 更新导航按钮状态
@@ -684,6 +779,25 @@ class ChromiumBrowserActivity : AppCompatActivity() {
     }
 
     companion object {
+        private const val HAS_PASSWORD_FIELD_JS = "document.querySelector('input[type=password]') !== null"
+
+        // 填入密码框所在表单的第一个用户名输入框和密码框，并触发 input/change 事件让页面脚本感知
+        private const val FILL_CREDENTIAL_JS = """function(u, p) {
+            var pw = document.querySelector('input[type=password]');
+            if (!pw) return;
+            var scope = pw.form || document;
+            var user = scope.querySelector('input[type=email], input[type=text], input[type=tel], input:not([type])');
+            function set(el, v) {
+                if (!el) return;
+                el.focus();
+                el.value = v;
+                el.dispatchEvent(new Event('input', { bubbles: true }));
+                el.dispatchEvent(new Event('change', { bubbles: true }));
+            }
+            set(user, u);
+            set(pw, p);
+        }"""
+
         /**
          * 使用内置Chromium浏览器打开URL
          *
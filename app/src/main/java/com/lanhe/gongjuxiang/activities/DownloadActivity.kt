@@ -8,6 +8,7 @@ import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import androidx.appcompat.widget.SearchView
 import androidx.lifecycle.lifecycleScope
+import androidx.paging.LoadState
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.lanhe.gongjuxiang.R
 import com.lanhe.gongjuxiang.adapters.DownloadAdapter
@@ -15,6 +16,7 @@ import com.lanhe.gongjuxiang.databinding.ActivityDownloadBinding
 import com.lanhe.gongjuxiang.utils.BrowserDownloadEntity
 import com.lanhe.gongjuxiang.utils.BrowserManager
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -34,7 +36,8 @@ class DownloadActivity : AppCompatActivity() {
     private lateinit var browserManager: BrowserManager
     private lateinit var adapter: DownloadAdapter
 
-    private var allDownloads: List<BrowserDownloadEntity> = emptyList()
+    // 当前搜索关键词，为空时展示全部下载
+    private val searchQuery = MutableStateFlow("")
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -81,29 +84,32 @@ class DownloadActivity : AppCompatActivity() {
             layoutManager = LinearLayoutManager(this@DownloadActivity)
             adapter = this@DownloadActivity.adapter
         }
+
+        adapter.addLoadStateListener { loadStates ->
+            val isEmpty = loadStates.refresh is LoadState.NotLoading && adapter.itemCount == 0
+            binding.emptyView.visibility = if (isEmpty) {
+                android.view.View.VISIBLE
+            } else {
+                android.view.View.GONE
+            }
+        }
     }
 
+    /**
+     * 只在 onCreate 中调用一次：下载表变化时 Room 分页源会自动失效并重新加载，
+     * 重复调用会叠加多个收集协程
+     */
     private fun observeDownloads() {
         lifecycleScope.launch {
-            browserManager.getAllDownloads().collectLatest { downloadList ->
-                withContext(Dispatchers.Main) {
-                    allDownloads = downloadList
-                    updateDownloadList(downloadList)
+            // 关键词变化时取消旧的分页流，切换到新的查询
+            searchQuery.collectLatest { query ->
+                browserManager.pageDownloads(query).collectLatest { pagingData ->
+                    adapter.submitData(pagingData)
                 }
             }
         }
     }
 
-    private fun updateDownloadList(downloadList: List<BrowserDownloadEntity>) {
-        adapter.submitList(downloadList)
-
-        binding.emptyView.visibility = if (downloadList.isEmpty()) {
-            android.view.View.VISIBLE
-        } else {
-            android.view.View.GONE
-        }
-    }
-
     private fun handleDownloadClick(download: BrowserDownloadEntity) {
         when (download.status) {
             "completed" -> openDownloadedFile(download)
@@ -286,16 +292,12 @@ class DownloadActivity : AppCompatActivity() {
         searchView.queryHint = "搜索下载"
         searchView.setOnQueryTextListener(object : SearchView.OnQueryTextListener {
             override fun onQueryTextSubmit(query: String): Boolean {
-                searchDownloads(query)
+                searchQuery.value = query
                 return true
             }
 
             override fun onQueryTextChange(newText: String): Boolean {
-                if (newText.isEmpty()) {
-                    updateDownloadList(allDownloads)
-                } else {
-                    searchDownloads(newText)
-                }
+                searchQuery.value = newText
                 return true
             }
         })
@@ -303,16 +305,6 @@ class DownloadActivity : AppCompatActivity() {
         return true
     }
 
-    private fun searchDownloads(query: String) {
-        lifecycleScope.launch {
-            browserManager.searchDownloads(query).collectLatest { results ->
-                withContext(Dispatchers.Main) {
-                    updateDownloadList(results)
-                }
-            }
-        }
-    }
-
     override fun onOptionsItemSelected(item: MenuItem): Boolean {
         return when (item.itemId) {
             android.R.id.home -> {
@@ -375,10 +367,4 @@ class DownloadActivity : AppCompatActivity() {
             }
         }
     }
-
-    override fun onResume() {
-        super.onResume()
-        // 刷新下载列表
-        observeDownloads()
-    }
 }
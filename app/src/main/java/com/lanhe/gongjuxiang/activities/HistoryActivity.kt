@@ -8,6 +8,7 @@ import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import androidx.appcompat.widget.SearchView
 import androidx.lifecycle.lifecycleScope
+import androidx.paging.LoadState
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.lanhe.gongjuxiang.R
 import com.lanhe.gongjuxiang.adapters.HistoryAdapter
@@ -15,6 +16,7 @@ import com.lanhe.gongjuxiang.databinding.ActivityHistoryBinding
 import com.lanhe.gongjuxiang.utils.BrowserHistoryEntity
 import com.lanhe.gongjuxiang.utils.BrowserManager
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -34,7 +36,8 @@ class HistoryActivity : AppCompatActivity() {
     private lateinit var browserManager: BrowserManager
     private lateinit var adapter: HistoryAdapter
 
-    private var allHistory: List<BrowserHistoryEntity> = emptyList()
+    // 当前搜索关键词，为空时展示全部历史
+    private val searchQuery = MutableStateFlow("")
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -74,25 +77,25 @@ class HistoryActivity : AppCompatActivity() {
             layoutManager = LinearLayoutManager(this@HistoryActivity)
             adapter = this@HistoryActivity.adapter
         }
-    }
 
-    private fun observeHistory() {
-        lifecycleScope.launch(Dispatchers.IO) {
-            val historyList = browserManager.getRecentHistory(1000)
-            withContext(Dispatchers.Main) {
-                allHistory = historyList
-                updateHistoryList(historyList)
+        adapter.addLoadStateListener { loadStates ->
+            val isEmpty = loadStates.refresh is LoadState.NotLoading && adapter.itemCount == 0
+            binding.emptyView.visibility = if (isEmpty) {
+                android.view.View.VISIBLE
+            } else {
+                android.view.View.GONE
             }
         }
     }
 
-    private fun updateHistoryList(historyList: List<BrowserHistoryEntity>) {
-        adapter.submitList(historyList)
-
-        binding.emptyView.visibility = if (historyList.isEmpty()) {
-            android.view.View.VISIBLE
-        } else {
-            android.view.View.GONE
+    private fun observeHistory() {
+        lifecycleScope.launch {
+            // 关键词变化时取消旧的分页流，切换到新的查询
+            searchQuery.collectLatest { query ->
+                browserManager.pageHistory(query).collectLatest { pagingData ->
+                    adapter.submitData(pagingData)
+                }
+            }
         }
     }
 
@@ -170,16 +173,12 @@ class HistoryActivity : AppCompatActivity() {
         searchView.queryHint = "搜索历史记录"
         searchView.setOnQueryTextListener(object : SearchView.OnQueryTextListener {
             override fun onQueryTextSubmit(query: String): Boolean {
-                searchHistory(query)
+                searchQuery.value = query
                 return true
             }
 
             override fun onQueryTextChange(newText: String): Boolean {
-                if (newText.isEmpty()) {
-                    updateHistoryList(allHistory)
-                } else {
-                    searchHistory(newText)
-                }
+                searchQuery.value = newText
                 return true
             }
         })
@@ -187,16 +186,6 @@ class HistoryActivity : AppCompatActivity() {
         return true
     }
 
-    private fun searchHistory(query: String) {
-        lifecycleScope.launch {
-            browserManager.searchHistory(query).collectLatest { results ->
-                withContext(Dispatchers.Main) {
-                    updateHistoryList(results)
-                }
-            }
-        }
-    }
-
     override fun onOptionsItemSelected(item: MenuItem): Boolean {
         return when (item.itemId) {
             android.R.id.home -> {
@@ -15,11 +15,13 @@ import com.lanhe.gongjuxiang.databinding.ActivityPerformanceComparisonBinding
 import com.lanhe.gongjuxiang.models.PerformanceData
 import com.lanhe.gongjuxiang.models.BatteryInfo
 import com.lanhe.gongjuxiang.models.MemoryInfo
+import com.lanhe.gongjuxiang.utils.DataManager
 import com.lanhe.gongjuxiang.utils.PerformanceMonitor
 import com.lanhe.gongjuxiang.utils.PerformanceMonitorManager
 import com.lanhe.gongjuxiang.utils.ShizukuManager
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import java.util.concurrent.TimeUnit
 import kotlin.math.roundToInt
 
 /**
@@ -28,9 +30,14 @@ import kotlin.math.roundToInt
  */
 class PerformanceComparisonActivity : AppCompatActivity() {
 
+    companion object {
+        private const val BASELINE_HOURS = 1L
+    }
+
     private lateinit var binding: ActivityPerformanceComparisonBinding
     private lateinit var performanceMonitor: PerformanceMonitor
     private lateinit var performanceManager: PerformanceMonitorManager
+    private lateinit var dataManager: DataManager
 
     // 优化前后的数据
     private var beforeData: PerformanceData? = null
@@ -43,6 +50,7 @@ class PerformanceComparisonActivity : AppCompatActivity() {
 
         performanceMonitor = PerformanceMonitor(this)
         performanceManager = PerformanceMonitorManager(this)
+        dataManager = DataManager(this)
 
         setupToolbar()
         setupClickListeners()
@@ -75,39 +83,13 @@ class PerformanceComparisonActivity : AppCompatActivity() {
         // 从Intent中获取优化前的数据
         beforeData = intent.getSerializableExtra("before_data") as? PerformanceData
 
-        // 如果没有传入数据，则模拟一些数据用于演示
-        if (beforeData == null) {
-            beforeData = PerformanceData(
-                timestamp = System.currentTimeMillis(),
-                cpuUsage = 45.2f,
-                memoryUsage = MemoryInfo(
-                    total = 8L * 1024 * 1024 * 1024, // 8GB
-                    available = 2L * 1024 * 1024 * 1024, // 2GB
-                    used = 6L * 1024 * 1024 * 1024, // 6GB
-                    usagePercent = 75f
-                ),
-                storageUsage = 60f,
-                batteryInfo = BatteryInfo(
-                    level = 65,
-                    temperature = 38.5f,
-                    voltage = 4.2f,
-                    current = 0.0f,
-                    status = 0,
-                    health = 0,
-                    technology = "Li-ion",
-                    capacity = 4000L,
-                    isCharging = false,
-                    chargeType = "None",
-                    timeToFull = 0L,
-                    timeToEmpty = 0L
-                ),
-                networkType = "WiFi",
-                deviceTemperature = 35.0f
-            )
-        }
-
         // 获取当前数据作为优化后的数据
         lifecycleScope.launch {
+            // 没有传入数据时，用最近一段时间的历史汇总作为对比基线
+            if (beforeData == null) {
+                beforeData = loadBaselineFromHistory() ?: createDemoBaseline()
+            }
+
             // 等待一段时间让性能监控器收集数据
             delay(1000)
             afterData = performanceManager.getCurrentPerformance()
@@ -118,6 +100,86 @@ class PerformanceComparisonActivity : AppCompatActivity() {
         }
     }
 
+    /**
+     * 从分钟级汇总中计算基线：最近一小时的平均值
+     */
+    private suspend fun loadBaselineFromHistory(): PerformanceData? {
+        val endTime = System.currentTimeMillis()
+        val startTime = endTime - TimeUnit.HOURS.toMillis(BASELINE_HOURS)
+        val rollups = try {
+            dataManager.getPerformanceHistory(startTime, endTime)
+        } catch (e: Exception) {
+            emptyList()
+        }
+        val samples = rollups.sumOf { it.sampleCount }
+        if (samples == 0) return null
+
+        val avgCpu = (rollups.sumOf { it.cpuSum } / samples).toFloat()
+        val avgMemory = rollups.sumOf { it.memorySum }.toFloat() / samples
+        val avgBatteryTemp = (rollups.sumOf { it.batteryTempSum } / samples).toFloat()
+        val avgDeviceTemp = (rollups.sumOf { it.deviceTempSum } / samples).toFloat()
+
+        return PerformanceData(
+            timestamp = rollups.first().bucketStart,
+            cpuUsage = avgCpu,
+            memoryUsage = MemoryInfo(
+                total = 0L,
+                available = 0L,
+                used = 0L,
+                usagePercent = avgMemory
+            ),
+            storageUsage = 0f,
+            batteryInfo = BatteryInfo(
+                level = rollups.first().batteryLevelMax,
+                temperature = avgBatteryTemp,
+                voltage = 0f,
+                current = 0.0f,
+                status = 0,
+                health = 0,
+                technology = "",
+                capacity = 0L,
+                isCharging = false,
+                chargeType = "None",
+                timeToFull = 0L,
+                timeToEmpty = 0L
+            ),
+            deviceTemperature = avgDeviceTemp
+        )
+    }
+
+    /**
+     * 没有任何历史数据时使用的演示数据
+     */
+    private fun createDemoBaseline(): PerformanceData {
+        return PerformanceData(
+            timestamp = System.currentTimeMillis(),
+            cpuUsage = 45.2f,
+            memoryUsage = MemoryInfo(
+                total = 8L * 1024 * 1024 * 1024, // 8GB
+                available = 2L * 1024 * 1024 * 1024, // 2GB
+                used = 6L * 1024 * 1024 * 1024, // 6GB
+                usagePercent = 75f
+            ),
+            storageUsage = 60f,
+            batteryInfo = BatteryInfo(
+                level = 65,
+                temperature = 38.5f,
+                voltage = 4.2f,
+                current = 0.0f,
+                status = 0,
+                health = 0,
+                technology = "Li-ion",
+                capacity = 4000L,
+                isCharging = false,
+                chargeType = "None",
+                timeToFull = 0L,
+                timeToEmpty = 0L
+            ),
+            networkType = "WiFi",
+            deviceTemperature = 35.0f
+        )
+    }
+
     private fun updateComparisonDisplay() {
         beforeData?.let { before ->
             afterData?.let { after ->
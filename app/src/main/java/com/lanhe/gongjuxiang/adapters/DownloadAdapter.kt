@@ -3,8 +3,8 @@ package com.lanhe.gongjuxiang.adapters
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import androidx.paging.PagingDataAdapter
 import androidx.recyclerview.widget.DiffUtil
-import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
 import com.lanhe.gongjuxiang.databinding.ItemDownloadBinding
 import com.lanhe.gongjuxiang.utils.BrowserDownloadEntity
@@ -14,6 +14,7 @@ import java.util.Locale
 
 /**
  * 下载列表适配器
+ * 基于Paging 3分页加载，只持有已加载的页
  */
 class DownloadAdapter(
     private val onDownloadClick: (BrowserDownloadEntity) -> Unit,
@@ -21,7 +22,7 @@ class DownloadAdapter(
     private val onPauseClick: (BrowserDownloadEntity) -> Unit,
     private val onResumeClick: (BrowserDownloadEntity) -> Unit,
     private val onCancelClick: (BrowserDownloadEntity) -> Unit
-) : ListAdapter<BrowserDownloadEntity, DownloadAdapter.DownloadViewHolder>(DownloadDiffCallback()) {
+) : PagingDataAdapter<BrowserDownloadEntity, DownloadAdapter.DownloadViewHolder>(DownloadDiffCallback()) {
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): DownloadViewHolder {
         val binding = ItemDownloadBinding.inflate(
@@ -33,7 +34,7 @@ class DownloadAdapter(
     }
 
     override fun onBindViewHolder(holder: DownloadViewHolder, position: Int) {
-        holder.bind(getItem(position))
+        getItem(position)?.let { holder.bind(it) }
     }
 
     inner class DownloadViewHolder(
@@ -2,8 +2,8 @@ package com.lanhe.gongjuxiang.adapters
 
 import android.view.LayoutInflater
 import android.view.ViewGroup
+import androidx.paging.PagingDataAdapter
 import androidx.recyclerview.widget.DiffUtil
-import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
 import com.lanhe.gongjuxiang.databinding.ItemHistoryBinding
 import com.lanhe.gongjuxiang.utils.BrowserHistoryEntity
@@ -13,11 +13,12 @@ import java.util.Locale
 
 /**
  * 浏览历史列表适配器
+ * 基于Paging 3分页加载，只持有已加载的页
  */
 class HistoryAdapter(
     private val onHistoryClick: (BrowserHistoryEntity) -> Unit,
     private val onHistoryLongClick: (BrowserHistoryEntity) -> Boolean
-) : ListAdapter<BrowserHistoryEntity, HistoryAdapter.HistoryViewHolder>(HistoryDiffCallback()) {
+) : PagingDataAdapter<BrowserHistoryEntity, HistoryAdapter.HistoryViewHolder>(HistoryDiffCallback()) {
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): HistoryViewHolder {
         val binding = ItemHistoryBinding.inflate(
@@ -29,7 +30,7 @@ class HistoryAdapter(
     }
 
     override fun onBindViewHolder(holder: HistoryViewHolder, position: Int) {
-        holder.bind(getItem(position))
+        getItem(position)?.let { holder.bind(it) }
     }
 
     inner class HistoryViewHolder(
@@ -14,6 +14,8 @@ import kotlinx.coroutines.withContext
 import java.io.File
 import java.io.RandomAccessFile
 import com.lanhe.gongjuxiang.refactored.interfaces.IAnalyzer
+import com.lanhe.gongjuxiang.utils.DirectorySizeIndex
+import com.lanhe.gongjuxiang.utils.StorageWalker
 
 /**
  * 存储分析器 - 负责存储分析和统计
@@ -28,6 +30,7 @@ class StorageAnalyzer(private val context: Context) : IAnalyzer<StorageAnalysisR
     }
 
     private val packageManager = context.packageManager
+    private val sizeIndex = DirectorySizeIndex.getInstance(context)
 
     // 分析状态
     private val _analysisState = MutableStateFlow<StorageAnalysisResult?>(null)
@@ -136,37 +139,26 @@ class StorageAnalyzer(private val context: Context) : IAnalyzer<StorageAnalysisR
      * 分析空间分布
      */
     private suspend fun analyzeSpaceDistribution(): Map<String, Long> = withContext(Dispatchers.IO) {
-        val distribution = mutableMapOf<String, Long>()
-
-        // 分析各类文件占用
+        // 各分类目录大小来自增量索引，只重新列出有变化的目录
         val sdCard = Environment.getExternalStorageDirectory()
-
-        // 图片
-        val picturesDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES)
-        distribution["图片"] = calculateDirectorySize(picturesDir)
-
-        // 视频
-        val moviesDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES)
-        distribution["视频"] = calculateDirectorySize(moviesDir)
-
-        // 音频
-        val musicDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC)
-        distribution["音频"] = calculateDirectorySize(musicDir)
-
-        // 下载
-        val downloadDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)
-        distribution["下载"] = calculateDirectorySize(downloadDir)
-
-        // 文档
-        val documentsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS)
-        distribution["文档"] = calculateDirectorySize(documentsDir)
-
-        // 应用数据
         val androidDataDir = File(sdCard, "Android/data")
-        distribution["应用数据"] = calculateDirectorySize(androidDataDir)
+        val distribution = linkedMapOf(
+            "图片" to sizeIndex.sizeOf(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES)),
+            "视频" to sizeIndex.sizeOf(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES)),
+            "音频" to sizeIndex.sizeOf(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC)),
+            "下载" to sizeIndex.sizeOf(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)),
+            "文档" to sizeIndex.sizeOf(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS))
+        )
 
-        // 系统缓存
-        distribution["缓存"] = calculateCacheSize()
+        // 应用外部缓存位于 Android/data 下，只计入"缓存"
+        val cacheDirs = getCacheDirectories(sdCard)
+        val cacheSizes = cacheDirs.associateWith { sizeIndex.sizeOf(it) }
+        val androidDataPath = StorageWalker.normalize(androidDataDir)
+        val cacheInAndroidData = cacheSizes
+            .filterKeys { StorageWalker.isUnder(StorageWalker.normalize(it), androidDataPath) }
+            .values.sum()
+        distribution["应用数据"] = (sizeIndex.sizeOf(androidDataDir) - cacheInAndroidData).coerceAtLeast(0L)
+        distribution["缓存"] = cacheSizes.values.sum()
 
         // 其他
         val totalUsed = distribution.values.sum()
@@ -343,51 +335,12 @@ class StorageAnalyzer(private val context: Context) : IAnalyzer<StorageAnalysisR
 
     // ========== 辅助方法 ==========
 
-    private fun calculateDirectorySize(dir: File?): Long {
-        if (dir == null || !dir.exists() || !dir.isDirectory) return 0L
-
-        var size = 0L
-        try {
-            dir.listFiles()?.forEach { file ->
-                size += if (file.isDirectory) {
-                    calculateDirectorySize(file)
-                } else {
-                    file.length()
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Error calculating directory size: ${dir.absolutePath}", e)
-        }
-        return size
-    }
-
-    private fun calculateCacheSize(): Long {
-        var totalCacheSize = 0L
-
-        // 内部缓存
-        context.cacheDir?.let {
-            totalCacheSize += calculateDirectorySize(it)
-        }
-
-        // 外部缓存
-        context.externalCacheDir?.let {
-            totalCacheSize += calculateDirectorySize(it)
-        }
-
-        // 系统缓存目录
-        val sdCard = Environment.getExternalStorageDirectory()
-        val systemCacheDirs = listOf(
-            File(sdCard, ".cache"),
-            File(sdCard, "Android/data")
+    private fun getCacheDirectories(sdCard: File): List<File> {
+        return listOfNotNull(
+            context.cacheDir,
+            context.externalCacheDir,
+            File(sdCard, ".cache")
         )
-
-        systemCacheDirs.forEach { dir ->
-            if (dir.exists() && dir.name.contains("cache", ignoreCase = true)) {
-                totalCacheSize += calculateDirectorySize(dir)
-            }
-        }
-
-        return totalCacheSize
     }
 
     private fun getAppSize(appInfo: ApplicationInfo): AppSize {
@@ -10,6 +10,7 @@ import kotlinx.coroutines.withContext
 import com.lanhe.gongjuxiang.refactored.interfaces.IOptimizer
 import com.lanhe.gongjuxiang.refactored.interfaces.CleanResult
 import com.lanhe.gongjuxiang.refactored.interfaces.CleanableItem
+import com.lanhe.gongjuxiang.refactored.interfaces.CleanableType
 
 /**
  * 存储优化器 - 主控制器
@@ -137,14 +138,15 @@ class StorageOptimizer(private val context: Context) : IOptimizer<StorageOptimiz
         // 基于分析结果的建议
         suggestions.addAll(analysis.recommendations)
 
-        // 基于扫描结果的建议
-        val duplicates = scanner.scanDuplicateFiles()
+        // 基于扫描结果的建议（重复文件和大文件共用一次遍历）
+        val scanResults = scanner.scan(setOf(CleanableType.DUPLICATE_FILE, CleanableType.LARGE_FILE))
+        val duplicates = scanResults.duplicateFiles
         if (duplicates.isNotEmpty()) {
             val duplicateSize = duplicates.values.flatten().sumOf { it.length() }
             suggestions.add("发现${duplicates.size}组重复文件，可释放${formatFileSize(duplicateSize)}空间")
         }
 
-        val largeFiles = scanner.scanLargeFiles()
+        val largeFiles = scanResults.largeFiles
         if (largeFiles.size > 10) {
             suggestions.add("发现${largeFiles.size}个大文件，建议检查并清理不需要的文件")
         }
@@ -175,20 +177,28 @@ class StorageOptimizer(private val context: Context) : IOptimizer<StorageOptimiz
         _optimizationState.value = OptimizationState.CLEANING
 
         try {
-            // 扫描所有类型的文件
+            // 一次遍历扫描所有类型的文件
+            val scanResults = scanner.scan(
+                setOf(
+                    CleanableType.CACHE,
+                    CleanableType.APK_FILE,
+                    CleanableType.EMPTY_FOLDER,
+                    CleanableType.DUPLICATE_FILE
+                )
+            )
             val allCleanableItems = mutableListOf<CleanableItem>()
 
             // 缓存文件
-            allCleanableItems.addAll(scanner.scanCacheFiles())
+            allCleanableItems.addAll(scanResults.cacheFiles)
 
             // APK文件
-            allCleanableItems.addAll(scanner.scanApkFiles())
+            allCleanableItems.addAll(scanResults.apkFiles)
 
             // 空文件夹
-            allCleanableItems.addAll(scanner.scanEmptyFolders())
+            allCleanableItems.addAll(scanResults.emptyFolders)
 
             // 重复文件（只保留一份）
-            val duplicates = scanner.scanDuplicateFiles()
+            val duplicates = scanResults.duplicateFiles
             duplicates.forEach { (_, files) ->
                 if (files.size > 1) {
                     // 跳过第一个文件，将其余标记为可清理
@@ -198,7 +208,7 @@ class StorageOptimizer(private val context: Context) : IOptimizer<StorageOptimiz
                                 name = file.name,
                                 path = file.absolutePath,
                                 size = file.length(),
-                                type = com.lanhe.gongjuxiang.refactored.interfaces.CleanableType.DUPLICATE_FILE,
+                                type = CleanableType.DUPLICATE_FILE,
                                 canDelete = true
                             )
                         )
@@ -242,30 +252,26 @@ class StorageOptimizer(private val context: Context) : IOptimizer<StorageOptimiz
     }
 
     private suspend fun performTargetedScan(strategy: OptimizationStrategy): ScanResults {
-        val results = ScanResults()
-
-        when (strategy) {
-            OptimizationStrategy.AGGRESSIVE -> {
-                // 扫描所有类型
-                results.cacheFiles = scanner.scanCacheFiles()
-                results.duplicateFiles = scanner.scanDuplicateFiles()
-                results.largeFiles = scanner.scanLargeFiles()
-                results.apkFiles = scanner.scanApkFiles()
-                results.emptyFolders = scanner.scanEmptyFolders()
-            }
-            OptimizationStrategy.BALANCED -> {
-                // 扫描主要类型
-                results.cacheFiles = scanner.scanCacheFiles()
-                results.duplicateFiles = scanner.scanDuplicateFiles()
-                results.apkFiles = scanner.scanApkFiles()
-            }
-            OptimizationStrategy.CONSERVATIVE -> {
-                // 只扫描安全类型
-                results.cacheFiles = scanner.scanCacheFiles()
-            }
+        val types = when (strategy) {
+            // 扫描所有类型
+            OptimizationStrategy.AGGRESSIVE -> setOf(
+                CleanableType.CACHE,
+                CleanableType.DUPLICATE_FILE,
+                CleanableType.LARGE_FILE,
+                CleanableType.APK_FILE,
+                CleanableType.EMPTY_FOLDER
+            )
+            // 扫描主要类型
+            OptimizationStrategy.BALANCED -> setOf(
+                CleanableType.CACHE,
+                CleanableType.DUPLICATE_FILE,
+                CleanableType.APK_FILE
+            )
+            // 只扫描安全类型
+            OptimizationStrategy.CONSERVATIVE -> setOf(CleanableType.CACHE)
         }
 
-        return results
+        return scanner.scan(types)
     }
 
     private suspend fun performTargetedClean(
@@ -291,7 +297,7 @@ class StorageOptimizer(private val context: Context) : IOptimizer<StorageOptimiz
                                     name = file.name,
                                     path = file.absolutePath,
                                     size = file.length(),
-                                    type = com.lanhe.gongjuxiang.refactored.interfaces.CleanableType.DUPLICATE_FILE,
+                                    type = CleanableType.DUPLICATE_FILE,
                                     canDelete = true
                                 )
                             )
@@ -316,7 +322,7 @@ class StorageOptimizer(private val context: Context) : IOptimizer<StorageOptimiz
                                     name = file.name,
                                     path = file.absolutePath,
                                     size = file.length(),
-                                    type = com.lanhe.gongjuxiang.refactored.interfaces.CleanableType.DUPLICATE_FILE,
+                                    type = CleanableType.DUPLICATE_FILE,
                                     canDelete = true
                                 )
                             )
@@ -9,13 +9,17 @@ import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.withContext
 import java.io.File
-import java.security.MessageDigest
 import com.lanhe.gongjuxiang.refactored.interfaces.CleanableItem
 import com.lanhe.gongjuxiang.refactored.interfaces.CleanableType
+import com.lanhe.gongjuxiang.utils.DuplicateFileFinder
+import com.lanhe.gongjuxiang.utils.EmptyDirClassifier
+import com.lanhe.gongjuxiang.utils.FileMatchClassifier
+import com.lanhe.gongjuxiang.utils.StorageWalker
 
 /**
  * 存储扫描器 - 负责文件扫描
  * 包括重复文件、大文件、缓存文件扫描
+ * 所有扫描都基于 [StorageWalker]，组合扫描使用 [scan] 只遍历一次
  */
 class StorageScanner(private val context: Context) {
 
@@ -23,9 +27,12 @@ class StorageScanner(private val context: Context) {
         private const val TAG = "StorageScanner"
         private const val LARGE_FILE_THRESHOLD = 100 * 1024 * 1024L // 100MB
         private const val DUPLICATE_FILE_MIN_SIZE = 1024 * 1024L // 1MB
-        private const val CACHE_SCAN_DEPTH = 5 // 缓存扫描深度
+        private val TEMP_FILE_PATTERNS = listOf(".tmp", ".temp", "~", ".bak", ".old")
     }
 
+    private val walker = StorageWalker()
+    private val duplicateFileFinder by lazy { DuplicateFileFinder.create(context) }
+
     // 扫描状态
     private val _scanProgress = MutableStateFlow(0f)
     val scanProgress: StateFlow<Float> = _scanProgress.asStateFlow()
@@ -34,46 +41,126 @@ class StorageScanner(private val context: Context) {
     val isScanning: StateFlow<Boolean> = _isScanning.asStateFlow()
 
     /**
-     * 扫描重复文件
-     * @param directories 要扫描的目录列表
-     * @return 重复文件映射（文件哈希 -> 文件列表）
+     * 一次遍历完成多种类型的扫描
+     * 各类型注册为同一次遍历的分类器，"深度清理"等组合扫描只需遍历一次存储
+     * @param types 要扫描的类型，TEMP_FILE 随 CACHE 一起扫描
+     * @param directories 重复文件和大文件的扫描目录
+     * @param largeFileThreshold 大文件阈值（字节）
+     * @return 扫描结果
      */
-    suspend fun scanDuplicateFiles(
-        directories: List<File> = getDefaultScanDirectories()
-    ): Map<String, List<File>> = withContext(Dispatchers.IO) {
+    suspend fun scan(
+        types: Set<CleanableType>,
+        directories: List<File> = getDefaultScanDirectories(),
+        largeFileThreshold: Long = LARGE_FILE_THRESHOLD
+    ): ScanResults = withContext(Dispatchers.IO) {
         _isScanning.value = true
         _scanProgress.value = 0f
 
-        val fileHashMap = mutableMapOf<String, MutableList<File>>()
-        val allFiles = mutableListOf<File>()
+        val results = ScanResults()
 
         try {
-            // 收集所有文件
-            directories.forEach { dir ->
-                if (dir.exists() && dir.canRead()) {
-                    collectFiles(dir, allFiles, DUPLICATE_FILE_MIN_SIZE)
+            val sdCard = Environment.getExternalStorageDirectory()
+            val roots = mutableListOf<File>()
+            val classifiers = mutableListOf<StorageWalker.Classifier>()
+
+            val cacheClassifier = if (CleanableType.CACHE in types) {
+                val androidData = StorageWalker.normalize(File(sdCard, "Android/data"))
+                // Android/data 下只收集各应用的 cache 目录
+                FileMatchClassifier(includeHidden = true, scope = getCacheDirectories(sdCard)) { entry ->
+                    !entry.isUnder(androidData) || entry.path.contains("/cache/", ignoreCase = true)
+                }.also {
+                    classifiers.add(it)
+                    roots.addAll(getCacheDirectories(sdCard))
                 }
-            }
+            } else null
+
+            val tempClassifier = if (CleanableType.CACHE in types) {
+                FileMatchClassifier(scope = listOf(sdCard)) { entry ->
+                    TEMP_FILE_PATTERNS.any { entry.name.endsWith(it) }
+                }.also {
+                    classifiers.add(it)
+                    roots.add(sdCard)
+                }
+            } else null
 
-            // 计算文件哈希
-            allFiles.forEachIndexed { index, file ->
-                try {
-                    if (file.exists() && file.canRead() && file.length() >= DUPLICATE_FILE_MIN_SIZE) {
-                        val hash = calculateFileHash(file)
-                        fileHashMap.getOrPut(hash) { mutableListOf() }.add(file)
-                    }
-                } catch (e: Exception) {
-                    Log.w(TAG, "Error hashing file: ${file.absolutePath}", e)
+            val duplicateClassifier = if (CleanableType.DUPLICATE_FILE in types) {
+                FileMatchClassifier(scope = directories) { it.size >= DUPLICATE_FILE_MIN_SIZE }.also {
+                    classifiers.add(it)
+                    roots.addAll(directories)
+                }
+            } else null
+
+            val largeFileClassifier = if (CleanableType.LARGE_FILE in types) {
+                FileMatchClassifier(scope = directories) { it.size >= largeFileThreshold }.also {
+                    classifiers.add(it)
+                    roots.addAll(directories)
+                }
+            } else null
+
+            val apkClassifier = if (CleanableType.APK_FILE in types) {
+                val apkDirs = getApkDirectories(sdCard)
+                FileMatchClassifier(scope = apkDirs) { it.extension == "apk" }.also {
+                    classifiers.add(it)
+                    roots.addAll(apkDirs)
                 }
-                _scanProgress.value = (index + 1).toFloat() / allFiles.size
+            } else null
+
+            val emptyDirClassifier = if (CleanableType.EMPTY_FOLDER in types) {
+                EmptyDirClassifier().also {
+                    classifiers.add(it)
+                    roots.add(sdCard)
+                }
+            } else null
+
+            if (classifiers.isNotEmpty()) {
+                val stats = walker.walk(roots, classifiers)
+                Log.d(TAG, "Storage walk: ${stats.filesVisited} files, ${stats.directoriesVisited} dirs in ${stats.durationMs}ms")
             }
+            _scanProgress.value = 0.5f
 
-            // 过滤出重复文件（多于1个的哈希组）
-            fileHashMap.filter { it.value.size > 1 }
+            val cacheItems = mutableListOf<CleanableItem>()
+            cacheClassifier?.matches?.mapTo(cacheItems) { it.toCleanableItem(CleanableType.CACHE) }
+            tempClassifier?.matches?.mapTo(cacheItems) { it.toCleanableItem(CleanableType.TEMP_FILE) }
+            results.cacheFiles = cacheItems
+
+            results.largeFiles = largeFileClassifier?.matches
+                ?.map { it.toCleanableItem(CleanableType.LARGE_FILE) }
+                ?.sortedByDescending { it.size }
+                ?: emptyList()
+
+            results.apkFiles = apkClassifier?.matches
+                ?.map { it.toCleanableItem(CleanableType.APK_FILE, canDelete = isApkSafeToDelete(it.file)) }
+                ?: emptyList()
+
+            val sdCardPath = StorageWalker.normalize(sdCard)
+            results.emptyFolders = emptyDirClassifier?.leafDirectories
+                ?.filter { it.isUnder(sdCardPath) }
+                ?.map { it.toCleanableItem(CleanableType.EMPTY_FOLDER) }
+                ?: emptyList()
+
+            // 按大小、部分哈希、完整哈希逐级过滤，只返回多于1个文件的组
+            results.duplicateFiles = duplicateClassifier?.let { classifier ->
+                duplicateFileFinder.findDuplicates(classifier.matches.map { it.file }) { progress ->
+                    _scanProgress.value = 0.5f + progress / 2
+                }
+            } ?: emptyMap()
         } finally {
             _isScanning.value = false
             _scanProgress.value = 1f
         }
+
+        results
+    }
+
+    /**
+     * 扫描重复文件
+     * @param directories 要扫描的目录列表
+     * @return 重复文件映射（文件哈希 -> 文件列表）
+     */
+    suspend fun scanDuplicateFiles(
+        directories: List<File> = getDefaultScanDirectories()
+    ): Map<String, List<File>> {
+        return scan(setOf(CleanableType.DUPLICATE_FILE), directories).duplicateFiles
     }
 
     /**
@@ -85,122 +172,32 @@ class StorageScanner(private val context: Context) {
     suspend fun scanLargeFiles(
         directories: List<File> = getDefaultScanDirectories(),
         threshold: Long = LARGE_FILE_THRESHOLD
-    ): List<CleanableItem> = withContext(Dispatchers.IO) {
-        _isScanning.value = true
-        _scanProgress.value = 0f
-
-        val largeFiles = mutableListOf<CleanableItem>()
-
-        try {
-            directories.forEachIndexed { dirIndex, dir ->
-                if (dir.exists() && dir.canRead()) {
-                    scanLargeFilesRecursive(dir, threshold, largeFiles)
-                }
-                _scanProgress.value = (dirIndex + 1).toFloat() / directories.size
-            }
-
-            // 按文件大小降序排序
-            largeFiles.sortByDescending { it.size }
-        } finally {
-            _isScanning.value = false
-            _scanProgress.value = 1f
-        }
-
-        largeFiles
+    ): List<CleanableItem> {
+        return scan(setOf(CleanableType.LARGE_FILE), directories, threshold).largeFiles
     }
 
     /**
      * 扫描缓存文件
      * @return 缓存文件列表
      */
-    suspend fun scanCacheFiles(): List<CleanableItem> = withContext(Dispatchers.IO) {
-        _isScanning.value = true
-        _scanProgress.value = 0f
-
-        val cacheFiles = mutableListOf<CleanableItem>()
-
-        try {
-            // 扫描应用内部缓存
-            scanAppInternalCache(cacheFiles)
-            _scanProgress.value = 0.25f
-
-            // 扫描应用外部缓存
-            scanAppExternalCache(cacheFiles)
-            _scanProgress.value = 0.5f
-
-            // 扫描系统缓存目录
-            scanSystemCacheDirectories(cacheFiles)
-            _scanProgress.value = 0.75f
-
-            // 扫描临时文件
-            scanTempFiles(cacheFiles)
-            _scanProgress.value = 1f
-
-        } finally {
-            _isScanning.value = false
-        }
-
-        cacheFiles
+    suspend fun scanCacheFiles(): List<CleanableItem> {
+        return scan(setOf(CleanableType.CACHE)).cacheFiles
     }
 
     /**
      * 扫描APK文件
      * @return APK文件列表
      */
-    suspend fun scanApkFiles(): List<CleanableItem> = withContext(Dispatchers.IO) {
-        _isScanning.value = true
-        _scanProgress.value = 0f
-
-        val apkFiles = mutableListOf<CleanableItem>()
-
-        try {
-            val downloadDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)
-            if (downloadDir.exists() && downloadDir.canRead()) {
-                scanApkFilesRecursive(downloadDir, apkFiles)
-            }
-
-            // 扫描其他常见APK存放位置
-            val sdCard = Environment.getExternalStorageDirectory()
-            val apkDirs = listOf(
-                File(sdCard, "Download"),
-                File(sdCard, "APKs"),
-                File(sdCard, "backups")
-            )
-
-            apkDirs.forEach { dir ->
-                if (dir.exists() && dir.canRead()) {
-                    scanApkFilesRecursive(dir, apkFiles)
-                }
-            }
-        } finally {
-            _isScanning.value = false
-            _scanProgress.value = 1f
-        }
-
-        apkFiles
+    suspend fun scanApkFiles(): List<CleanableItem> {
+        return scan(setOf(CleanableType.APK_FILE)).apkFiles
     }
 
     /**
      * 扫描空文件夹
      * @return 空文件夹列表
      */
-    suspend fun scanEmptyFolders(): List<CleanableItem> = withContext(Dispatchers.IO) {
-        _isScanning.value = true
-        _scanProgress.value = 0f
-
-        val emptyFolders = mutableListOf<CleanableItem>()
-
-        try {
-            val sdCard = Environment.getExternalStorageDirectory()
-            if (sdCard.exists() && sdCard.canRead()) {
-                scanEmptyFoldersRecursive(sdCard, emptyFolders)
-            }
-        } finally {
-            _isScanning.value = false
-            _scanProgress.value = 1f
-        }
-
-        emptyFolders
+    suspend fun scanEmptyFolders(): List<CleanableItem> {
+        return scan(setOf(CleanableType.EMPTY_FOLDER)).emptyFolders
     }
 
     // ========== 私有辅助方法 ==========
@@ -232,154 +229,32 @@ class StorageScanner(private val context: Context) {
         return dirs
     }
 
-    private fun collectFiles(dir: File, allFiles: MutableList<File>, minSize: Long) {
-        try {
-            dir.listFiles()?.forEach { file ->
-                when {
-                    file.isFile && file.length() >= minSize -> allFiles.add(file)
-                    file.isDirectory && !file.name.startsWith(".") -> collectFiles(file, allFiles, minSize)
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Error collecting files from: ${dir.absolutePath}", e)
-        }
-    }
-
-    private fun calculateFileHash(file: File): String {
-        val md = MessageDigest.getInstance("MD5")
-        file.inputStream().use { input ->
-            val buffer = ByteArray(8192)
-            var bytesRead: Int
-            while (input.read(buffer).also { bytesRead = it } != -1) {
-                md.update(buffer, 0, bytesRead)
-            }
-        }
-        return md.digest().joinToString("") { "%02x".format(it) }
-    }
-
-    private fun scanLargeFilesRecursive(dir: File, threshold: Long, largeFiles: MutableList<CleanableItem>) {
-        try {
-            dir.listFiles()?.forEach { file ->
-                when {
-                    file.isFile && file.length() >= threshold -> {
-                        largeFiles.add(
-                            CleanableItem(
-                                name = file.name,
-                                path = file.absolutePath,
-                                size = file.length(),
-                                type = CleanableType.LARGE_FILE,
-                                canDelete = true
-                            )
-                        )
-                    }
-                    file.isDirectory && !file.name.startsWith(".") -> {
-                        scanLargeFilesRecursive(file, threshold, largeFiles)
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Error scanning directory: ${dir.absolutePath}", e)
-        }
-    }
-
-    private fun scanAppInternalCache(cacheFiles: MutableList<CleanableItem>) {
-        context.cacheDir?.let { cacheDir ->
-            if (cacheDir.exists()) {
-                scanCacheDirectory(cacheDir, cacheFiles)
-            }
-        }
-    }
-
-    private fun scanAppExternalCache(cacheFiles: MutableList<CleanableItem>) {
-        context.externalCacheDir?.let { externalCacheDir ->
-            if (externalCacheDir.exists()) {
-                scanCacheDirectory(externalCacheDir, cacheFiles)
-            }
-        }
-    }
-
-    private fun scanSystemCacheDirectories(cacheFiles: MutableList<CleanableItem>) {
-        val sdCard = Environment.getExternalStorageDirectory()
-        val cacheDirs = listOf(
+    private fun getCacheDirectories(sdCard: File): List<File> {
+        return listOfNotNull(
+            context.cacheDir,
+            context.externalCacheDir,
             File(sdCard, ".cache"),
             File(sdCard, "Android/data"),
             File(sdCard, "DCIM/.thumbnails")
         )
-
-        cacheDirs.forEach { dir ->
-            if (dir.exists() && dir.canRead()) {
-                scanCacheDirectory(dir, cacheFiles, depth = 2)
-            }
-        }
-    }
-
-    private fun scanTempFiles(cacheFiles: MutableList<CleanableItem>) {
-        val tempPatterns = listOf(".tmp", ".temp", "~", ".bak", ".old")
-        val sdCard = Environment.getExternalStorageDirectory()
-
-        scanForPatterns(sdCard, tempPatterns) { file ->
-            cacheFiles.add(
-                CleanableItem(
-                    name = file.name,
-                    path = file.absolutePath,
-                    size = file.length(),
-                    type = CleanableType.TEMP_FILE,
-                    canDelete = true
-                )
-            )
-        }
     }
 
-    private fun scanCacheDirectory(dir: File, cacheFiles: MutableList<CleanableItem>, depth: Int = CACHE_SCAN_DEPTH) {
-        if (depth <= 0) return
-
-        try {
-            dir.listFiles()?.forEach { file ->
-                when {
-                    file.isFile -> {
-                        cacheFiles.add(
-                            CleanableItem(
-                                name = file.name,
-                                path = file.absolutePath,
-                                size = file.length(),
-                                type = CleanableType.CACHE,
-                                canDelete = true
-                            )
-                        )
-                    }
-                    file.isDirectory && file.name.toLowerCase().contains("cache") -> {
-                        scanCacheDirectory(file, cacheFiles, depth - 1)
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Error scanning cache directory: ${dir.absolutePath}", e)
-        }
+    private fun getApkDirectories(sdCard: File): List<File> {
+        return listOf(
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
+            File(sdCard, "APKs"),
+            File(sdCard, "backups")
+        )
     }
 
-    private fun scanApkFilesRecursive(dir: File, apkFiles: MutableList<CleanableItem>) {
-        try {
-            dir.listFiles()?.forEach { file ->
-                when {
-                    file.isFile && file.name.endsWith(".apk", ignoreCase = true) -> {
-                        apkFiles.add(
-                            CleanableItem(
-                                name = file.name,
-                                path = file.absolutePath,
-                                size = file.length(),
-                                type = CleanableType.APK_FILE,
-                                canDelete = isApkSafeToDelete(file)
-                            )
-                        )
-                    }
-                    file.isDirectory && !file.name.startsWith(".") -> {
-                        scanApkFilesRecursive(file, apkFiles)
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Error scanning APK files: ${dir.absolutePath}", e)
-        }
+    private fun StorageWalker.Entry.toCleanableItem(type: CleanableType, canDelete: Boolean = true): CleanableItem {
+        return CleanableItem(
+            name = name,
+            path = path,
+            size = size,
+            type = type,
+            canDelete = canDelete
+        )
     }
 
     private fun isApkSafeToDelete(apkFile: File): Boolean {
@@ -403,46 +278,4 @@ class StorageScanner(private val context: Context) {
         }
         return false
     }
-
-    private fun scanEmptyFoldersRecursive(dir: File, emptyFolders: MutableList<CleanableItem>) {
-        try {
-            dir.listFiles()?.forEach { file ->
-                if (file.isDirectory && !file.name.startsWith(".")) {
-                    val children = file.listFiles()
-                    if (children == null || children.isEmpty()) {
-                        emptyFolders.add(
-                            CleanableItem(
-                                name = file.name,
-                                path = file.absolutePath,
-                                size = 0L,
-                                type = CleanableType.EMPTY_FOLDER,
-                                canDelete = true
-                            )
-                        )
-                    } else {
-                        scanEmptyFoldersRecursive(file, emptyFolders)
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Error scanning empty folders: ${dir.absolutePath}", e)
-        }
-    }
-
-    private fun scanForPatterns(dir: File, patterns: List<String>, onFileFound: (File) -> Unit) {
-        try {
-            dir.listFiles()?.forEach { file ->
-                when {
-                    file.isFile && patterns.any { pattern -> file.name.endsWith(pattern) } -> {
-                        onFileFound(file)
-                    }
-                    file.isDirectory && !file.name.startsWith(".") -> {
-                        scanForPatterns(file, patterns, onFileFound)
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Error scanning for patterns: ${dir.absolutePath}", e)
-        }
-    }
-}
\ No newline at end of file
+}
@@ -121,6 +121,12 @@ class CommandValidator {
             "logcat"                // 日志查看
         )
 
+        // ========================================
+        // 需要逐个校验参数的命令：只按前缀放行会放过任意包名和路径
+        // ========================================
+        private val PM_INSTALL = Regex("^pm install -r '([^']+\\.apk)'$")  // 路径须为单引号转义的APK
+        private val PM_UNINSTALL = Regex("^pm uninstall ([A-Za-z0-9_.]+)$")
+
         // ========================================
         // 黑名单：危险命令模式
         // ========================================
@@ -275,6 +281,11 @@ class CommandValidator {
             return false
         }
 
+        // 安装和卸载按完整格式校验参数
+        if (trimmedCommand.startsWith("pm install") || trimmedCommand.startsWith("pm uninstall")) {
+            return validatePackageCommand(trimmedCommand)
+        }
+
         // 检查是否在白名单中
         val isAllowed = ALLOWED_COMMANDS.any { allowedCmd ->
             trimmedCommand.startsWith(allowedCmd)
@@ -478,6 +489,25 @@ class CommandValidator {
     // 私有辅助方法
     // ========================================
 
+    /**
+     * 校验安装、卸载命令：安装只接受允许目录中的APK，卸载拒绝受保护的系统包
+     */
+    private fun validatePackageCommand(command: String): Boolean {
+        PM_INSTALL.matchEntire(command)?.let { match ->
+            val path = match.groupValues[1]
+            val valid = path.startsWith("/") && validateFilePath(path)
+            if (!valid) Log.e(TAG, "拒绝执行：安装路径不安全 - $command")
+            return valid
+        }
+        PM_UNINSTALL.matchEntire(command)?.let { match ->
+            val valid = validatePackageName(match.groupValues[1])
+            if (!valid) Log.e(TAG, "拒绝执行：不允许卸载该应用 - $command")
+            return valid
+        }
+        Log.w(TAG, "拒绝执行：安装或卸载命令格式不正确 - $command")
+        return false
+    }
+
     /**
      * 检查命令是否包含路径遍历攻击
      */
@@ -18,6 +18,9 @@ import java.io.File
  * v1: 初始版本 - PerformanceDataEntity, OptimizationHistoryEntity, BatteryStatsEntity
  * v2: 新增字段和表 - 扩展现有实体，新增NetworkUsageEntity和SystemEventsEntity
  * v3: 浏览器功能集成 - 新增BrowserHistoryEntity, BrowserTabEntity, BrowserDownloadEntity
+ * v4: 时序数据优化 - 监控表新增时间戳/复合索引，新增PerformanceRollupEntity分钟/小时/天汇总
+ * v5: 存储扫描优化 - 新增FileHashEntity文件哈希缓存
+ * v6: 存储分析优化 - 新增DirectorySizeEntity目录大小增量索引
  *
  * 并发安全改进：
  * - 使用标准DCL（Double-Checked Locking）模式
@@ -33,9 +36,12 @@ import java.io.File
         SystemEventsEntity::class,
         BrowserHistoryEntity::class,
         BrowserTabEntity::class,
-        BrowserDownloadEntity::class
+        BrowserDownloadEntity::class,
+        PerformanceRollupEntity::class,
+        FileHashEntity::class,
+        DirectorySizeEntity::class
     ],
-    version = 3,
+    version = 6,
     exportSchema = true
 )
 @TypeConverters(Converters::class)
@@ -49,6 +55,9 @@ abstract class AppDatabase : RoomDatabase() {
     abstract fun browserHistoryDao(): BrowserHistoryDao
     abstract fun browserTabDao(): BrowserTabDao
     abstract fun browserDownloadDao(): BrowserDownloadDao
+    abstract fun performanceRollupDao(): PerformanceRollupDao
+    abstract fun fileHashDao(): FileHashDao
+    abstract fun directorySizeDao(): DirectorySizeDao
 
     companion object {
         private const val TAG = "AppDatabase"
@@ -61,6 +70,132 @@ abstract class AppDatabase : RoomDatabase() {
         @Volatile
         private var INSTANCE: AppDatabase? = null
 
+        /**
+         * 迁移5到6版本
+         * 主要变更：
+         * 1. 新增directory_size_index表 - 目录大小增量索引
+         */
+        private val MIGRATION_5_6 = object : Migration(5, 6) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                Log.d(TAG, "Starting migration from version 5 to 6")
+
+                try {
+                    database.execSQL("""
+                        CREATE TABLE IF NOT EXISTS directory_size_index (
+                            path TEXT PRIMARY KEY NOT NULL,
+                            parentPath TEXT NOT NULL,
+                            lastModified INTEGER NOT NULL,
+                            fileBytes INTEGER NOT NULL,
+                            fileCount INTEGER NOT NULL,
+                            totalSize INTEGER NOT NULL,
+                            updatedAt INTEGER NOT NULL
+                        )
+                    """)
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_directory_size_index_parentPath ON directory_size_index(parentPath)")
+
+                    Log.d(TAG, "Migration from version 5 to 6 completed successfully")
+                } catch (e: Exception) {
+                    Log.e(TAG, "Error during migration from version 5 to 6", e)
+                    throw e
+                }
+            }
+        }
+
+        /**
+         * 迁移4到5版本
+         * 主要变更：
+         * 1. 新增file_hash_cache表 - 重复文件扫描的哈希缓存
+         */
+        private val MIGRATION_4_5 = object : Migration(4, 5) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                Log.d(TAG, "Starting migration from version 4 to 5")
+
+                try {
+                    database.execSQL("""
+                        CREATE TABLE IF NOT EXISTS file_hash_cache (
+                            path TEXT PRIMARY KEY NOT NULL,
+                            size INTEGER NOT NULL,
+                            lastModified INTEGER NOT NULL,
+                            partialHash TEXT,
+                            fullHash TEXT,
+                            verifiedAt INTEGER NOT NULL
+                        )
+                    """)
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_file_hash_cache_verifiedAt ON file_hash_cache(verifiedAt)")
+
+                    Log.d(TAG, "Migration from version 4 to 5 completed successfully")
+                } catch (e: Exception) {
+                    Log.e(TAG, "Error during migration from version 4 to 5", e)
+                    throw e
+                }
+            }
+        }
+
+        /**
+         * 迁移3到4版本
+         * 主要变更：
+         * 1. performance_data、battery_stats、network_usage、system_events新增时间戳及复合索引
+         * 2. 移除v2遗留的、与实体声明不一致的单列索引
+         * 3. 新增performance_rollup汇总表，并用现有原始数据回填
+         */
+        private val MIGRATION_3_4 = object : Migration(3, 4) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                Log.d(TAG, "Starting migration from version 3 to 4")
+
+                try {
+                    // 1. 移除遗留索引（由复合索引替代）
+                    database.execSQL("DROP INDEX IF EXISTS index_network_usage_appPackageName")
+                    database.execSQL("DROP INDEX IF EXISTS index_system_events_eventType")
+                    database.execSQL("DROP INDEX IF EXISTS index_system_events_severity")
+
+                    // 2. 创建时序索引
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_performance_data_timestamp ON performance_data(timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_performance_data_dataType_timestamp ON performance_data(dataType, timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_battery_stats_timestamp ON battery_stats(timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_battery_stats_isCharging_timestamp ON battery_stats(isCharging, timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_network_usage_timestamp ON network_usage(timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_network_usage_appPackageName_timestamp ON network_usage(appPackageName, timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_system_events_timestamp ON system_events(timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_system_events_eventType_timestamp ON system_events(eventType, timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_system_events_severity_timestamp ON system_events(severity, timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_system_events_category_timestamp ON system_events(category, timestamp)")
+                    database.execSQL("CREATE INDEX IF NOT EXISTS index_system_events_resolved ON system_events(resolved)")
+
+                    // 3. 创建performance_rollup表
+                    database.execSQL("""
+                        CREATE TABLE IF NOT EXISTS performance_rollup (
+                            resolution TEXT NOT NULL,
+                            bucketStart INTEGER NOT NULL,
+                            sampleCount INTEGER NOT NULL,
+                            cpuMin REAL NOT NULL,
+                            cpuMax REAL NOT NULL,
+                            cpuSum REAL NOT NULL,
+                            memoryMin INTEGER NOT NULL,
+                            memoryMax INTEGER NOT NULL,
+                            memorySum INTEGER NOT NULL,
+                            batteryTempMin REAL NOT NULL,
+                            batteryTempMax REAL NOT NULL,
+                            batteryTempSum REAL NOT NULL,
+                            deviceTempMin REAL NOT NULL,
+                            deviceTempMax REAL NOT NULL,
+                            deviceTempSum REAL NOT NULL,
+                            batteryLevelMin INTEGER NOT NULL,
+                            batteryLevelMax INTEGER NOT NULL,
+                            PRIMARY KEY(resolution, bucketStart)
+                        )
+                    """)
+
+                    // 4. 用已有原始数据回填汇总表
+                    DatabaseMigrationHelper.backfillPerformanceRollups(database)
+
+                    Log.d(TAG, "Migration from version 3 to 4 completed successfully")
+                } catch (e: Exception) {
+                    Log.e(TAG, "Error during migration from version 3 to 4", e)
+                    throw e
+                }
+            }
+        }
+
         /**
          * 迁移2到3版本
          * 主要变更：
@@ -338,7 +473,7 @@ abstract class AppDatabase : RoomDatabase() {
                     AppDatabase::class.java,
                     DATABASE_NAME
                 )
-                .addMigrations(MIGRATION_1_2, MIGRATION_2_3)  // 添加迁移路径
+                .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6)  // 添加迁移路径
                 .addCallback(databaseCallback)  // 添加回调监听
                 // 移除了 fallbackToDestructiveMigration() 以保护用户数据
                 .build()
@@ -369,6 +504,11 @@ abstract class AppDatabase : RoomDatabase() {
                 db.browserTabDao().getTabCount()
                 db.browserDownloadDao().getDownloadCount()
 
+                // 测试汇总表
+                db.performanceRollupDao().getBuckets(RollupResolution.DAY.name, emptyList())
+                db.fileHashDao().getCount()
+                db.directorySizeDao().getCount()
+
                 Log.d(TAG, "Database migration validation successful")
                 true
             } catch (e: Exception) {
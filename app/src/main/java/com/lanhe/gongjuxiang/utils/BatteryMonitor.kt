@@ -124,10 +124,10 @@ class BatteryMonitor(private val context: Context) {
                 // 更新屏幕状态统计
                 updateScreenTimeStats(currentStats.isScreenOn)
 
-                // 保存到数据库
+                // 交给写后管道批量保存到数据库
                 try {
                     val lifeEstimate = estimateBatteryLife()
-                    dataManager.saveBatteryStats(
+                    dataManager.recordBatteryStats(
                         batteryLevel = currentStats.level,
                         temperature = currentStats.temperature,
                         voltage = currentStats.voltage,
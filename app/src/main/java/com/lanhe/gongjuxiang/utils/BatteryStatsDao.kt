@@ -1,5 +1,6 @@
 package com.lanhe.gongjuxiang.utils
 
+import androidx.paging.PagingSource
 import androidx.room.*
 import kotlinx.coroutines.flow.Flow
 
@@ -42,10 +43,36 @@ interface BatteryStatsDao {
 
     /**
      * 获取所有电池统计数据
+     * 每次写入都会重新查询并物化整张表，列表展示请改用 [pageBatteryStats] 或 [observeRecentBatteryStats]
      */
+    @Deprecated("全表Flow随数据增长线性变慢", ReplaceWith("pageBatteryStats()"))
     @Query("SELECT * FROM battery_stats ORDER BY timestamp DESC")
     fun getAllBatteryStats(): Flow<List<BatteryStatsEntity>>
 
+    /**
+     * 分页获取电池统计数据（按时间降序），供Paging 3使用
+     */
+    @Query("SELECT * FROM battery_stats ORDER BY timestamp DESC, id DESC")
+    fun pageBatteryStats(): PagingSource<Int, BatteryStatsEntity>
+
+    /**
+     * 观察最近N条电池统计数据，窗口大小固定，不随表增长
+     */
+    @Query("SELECT * FROM battery_stats ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    fun observeRecentBatteryStats(limit: Int): Flow<List<BatteryStatsEntity>>
+
+    /**
+     * 键集分页：获取排在 (beforeTimestamp, beforeId) 之后的一页数据
+     * 首页传 Long.MAX_VALUE，后续传上一页最后一条的 timestamp 和 id
+     */
+    @Query("""
+        SELECT * FROM battery_stats
+        WHERE timestamp < :beforeTimestamp OR (timestamp = :beforeTimestamp AND id < :beforeId)
+        ORDER BY timestamp DESC, id DESC
+        LIMIT :limit
+    """)
+    suspend fun getBatteryStatsPage(beforeTimestamp: Long, beforeId: Long, limit: Int): List<BatteryStatsEntity>
+
     /**
      * 根据时间范围获取电池统计数据
      */
@@ -1,6 +1,7 @@
 package com.lanhe.gongjuxiang.utils
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import java.io.Serializable
 
@@ -8,7 +9,13 @@ import java.io.Serializable
  * 电池统计实体类
  * 用于存储电池使用统计数据
  */
-@Entity(tableName = "battery_stats")
+@Entity(
+    tableName = "battery_stats",
+    indices = [
+        Index("timestamp"),                // 时间范围查询与排序
+        Index("isCharging", "timestamp")   // 充电/放电记录筛选
+    ]
+)
 data class BatteryStatsEntity(
     @PrimaryKey(autoGenerate = true)
     val id: Long = 0,
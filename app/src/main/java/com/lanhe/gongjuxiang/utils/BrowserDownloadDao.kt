@@ -1,5 +1,6 @@
 package com.lanhe.gongjuxiang.utils
 
+import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Delete
 import androidx.room.Insert
@@ -36,10 +37,29 @@ interface BrowserDownloadDao {
 
     /**
      * 获取所有下载记录（按创建时间降序）
+     * 下载进度每次更新都会重新物化整张表，列表展示请改用 [pageDownloads]
      */
+    @Deprecated("全表Flow随数据增长线性变慢", ReplaceWith("pageDownloads()"))
     @Query("SELECT * FROM browser_downloads ORDER BY createTime DESC")
     fun getAllDownloads(): Flow<List<BrowserDownloadEntity>>
 
+    /**
+     * 分页获取下载记录（按创建时间降序），供Paging 3使用
+     */
+    @Query("SELECT * FROM browser_downloads ORDER BY createTime DESC, downloadId DESC")
+    fun pageDownloads(): PagingSource<Int, BrowserDownloadEntity>
+
+    /**
+     * 分页搜索下载记录（文件名或URL）
+     */
+    @Query("""
+        SELECT * FROM browser_downloads
+        WHERE fileName LIKE '%' || :keyword || '%'
+           OR url LIKE '%' || :keyword || '%'
+        ORDER BY createTime DESC, downloadId DESC
+    """)
+    fun pageSearchDownloads(keyword: String): PagingSource<Int, BrowserDownloadEntity>
+
     /**
      * 获取进行中的下载
      */
@@ -1,5 +1,6 @@
 package com.lanhe.gongjuxiang.utils
 
+import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Delete
 import androidx.room.Insert
@@ -41,9 +42,28 @@ interface BrowserHistoryDao {
      * 获取所有历史记录（按访问时间降序）
      * @return 历史记录Flow，实时更新
      */
+    @Deprecated("全表Flow随数据增长线性变慢", ReplaceWith("pageHistory()"))
     @Query("SELECT * FROM browser_history ORDER BY visitTime DESC")
     fun getAllHistory(): Flow<List<BrowserHistoryEntity>>
 
+    /**
+     * 分页获取历史记录（按访问时间降序），供Paging 3使用
+     * 数据变更时Room会让当前PagingSource失效，只重新加载可见页
+     */
+    @Query("SELECT * FROM browser_history ORDER BY visitTime DESC, id DESC")
+    fun pageHistory(): PagingSource<Int, BrowserHistoryEntity>
+
+    /**
+     * 分页搜索历史记录（标题或URL包含关键词）
+     */
+    @Query("""
+        SELECT * FROM browser_history
+        WHERE title LIKE '%' || :keyword || '%'
+           OR url LIKE '%' || :keyword || '%'
+        ORDER BY visitTime DESC, id DESC
+    """)
+    fun pageSearchHistory(keyword: String): PagingSource<Int, BrowserHistoryEntity>
+
     /**
      * 获取最近的N条历史记录
      * @param limit 数量限制
@@ -2,11 +2,16 @@ package com.lanhe.gongjuxiang.utils
 
 import android.content.Context
 import android.util.Log
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
 import com.lanhe.mokuai.bookmark.BookmarkManager
 import com.lanhe.mokuai.download.DownloadManager
+import com.lanhe.mokuai.password.PasswordManager
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -25,12 +30,15 @@ import java.util.UUID
  * 2. 历史记录管理（记录、查询、清除）
  * 3. 书签管理集成（BookmarkManager代理）
  * 4. 下载管理集成（DownloadManager代理）
- * 5. 浏览器设置管理
+ * 5. 登录页凭据查找（PasswordManager代理）
+ * 6. 浏览器设置管理
  */
 class BrowserManager private constructor(private val context: Context) {
 
     companion object {
         private const val TAG = "BrowserManager"
+        private const val PAGE_SIZE = 50 // 历史/下载列表每页条数
+        private const val BOOKMARK_SEARCH_LIMIT = 200 // 书签搜索最多返回的条数
 
         @Volatile
         private var INSTANCE: BrowserManager? = null
@@ -59,6 +67,8 @@ class BrowserManager private constructor(private val context: Context) {
     // 模块集成
     val bookmarkManager = BookmarkManager(context)
     val downloadManager = DownloadManager(context)
+    val passwordManager = PasswordManager(context)
+    val downloadScheduler = DownloadScheduler(downloadManager, downloadDao, scope)
 
     // 当前标签页列表（StateFlow，支持响应式订阅）
     private val _tabs = MutableStateFlow<List<BrowserTabEntity>>(emptyList())
@@ -71,6 +81,7 @@ class BrowserManager private constructor(private val context: Context) {
     init {
         // 初始化时加载标签页
         loadTabsFromDatabase()
+        restoreDownloadQueue()
     }
 
     // ================== 标签页管理 ==================
@@ -275,6 +286,15 @@ class BrowserManager private constructor(private val context: Context) {
      */
     fun searchHistory(keyword: String) = historyDao.searchHistory(keyword)
 
+    /**
+     * 分页获取历史记录，关键词为空时返回全部
+     */
+    fun pageHistory(keyword: String? = null): Flow<PagingData<BrowserHistoryEntity>> {
+        return Pager(pagingConfig()) {
+            if (keyword.isNullOrBlank()) historyDao.pageHistory() else historyDao.pageSearchHistory(keyword)
+        }.flow
+    }
+
     /**
      * 清除所有历史记录
      */
@@ -337,65 +357,129 @@ class BrowserManager private constructor(private val context: Context) {
     /**
      * 添加书签
      */
-    fun addBookmark(bookmark: BookmarkManager.Bookmark): Boolean {
+    suspend fun addBookmark(bookmark: BookmarkManager.Bookmark): Boolean {
         return bookmarkManager.addBookmark(bookmark)
     }
 
     /**
      * 获取所有书签
      */
-    fun getAllBookmarks(): List<BookmarkManager.Bookmark> {
+    suspend fun getAllBookmarks(): List<BookmarkManager.Bookmark> {
         return bookmarkManager.getAllBookmarks()
     }
 
+    /**
+     * 按URL查找书签
+     */
+    suspend fun findBookmarkByUrl(url: String): BookmarkManager.Bookmark? {
+        return bookmarkManager.findBookmarkByUrl(url)
+    }
+
+    /**
+     * URL是否已加入书签
+     */
+    suspend fun isBookmarked(url: String): Boolean {
+        return bookmarkManager.isBookmarked(url)
+    }
+
     /**
      * 搜索书签
+     * 按词前缀匹配标题、URL、描述和标签，结果按相关度排序
      */
-    fun searchBookmarks(query: String): List<BookmarkManager.Bookmark> {
-        return bookmarkManager.searchBookmarks(query)
+    suspend fun searchBookmarks(query: String, limit: Int = BOOKMARK_SEARCH_LIMIT): List<BookmarkManager.Bookmark> {
+        return bookmarkManager.searchBookmarks(query, limit)
     }
 
     /**
      * 删除书签
      */
-    fun deleteBookmark(id: String): Boolean {
+    suspend fun deleteBookmark(id: String): Boolean {
         return bookmarkManager.deleteBookmark(id)
     }
 
     /**
      * 获取收藏的书签
      */
-    fun getFavoriteBookmarks(): List<BookmarkManager.Bookmark> {
+    suspend fun getFavoriteBookmarks(): List<BookmarkManager.Bookmark> {
         return bookmarkManager.getFavoriteBookmarks()
     }
 
+    // ================== 密码自动填充（代理） ==================
+
+    /**
+     * 查找页面可用的已保存凭据，按可注册域名索引查找，不遍历密码库
+     */
+    suspend fun findCredentials(url: String): List<PasswordManager.PasswordSummary> {
+        return try {
+            passwordManager.findCredentials(url)
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to find credentials", e)
+            emptyList()
+        }
+    }
+
+    /**
+     * 打开凭据（解密密码）并记录使用
+     */
+    suspend fun openCredential(id: String): PasswordManager.PasswordEntry? {
+        return passwordManager.getPassword(id)?.also {
+            passwordManager.recordPasswordUsage(id)
+        }
+    }
+
     // ================== 下载管理（代理） ==================
 
+    /**
+     * 恢复上次未完成的下载队列
+     */
+    private fun restoreDownloadQueue() {
+        scope.launch {
+            try {
+                downloadScheduler.restore()
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to restore download queue", e)
+            }
+        }
+    }
+
     /**
      * 创建下载任务
+     * @param priority 调度优先级，浏览时点击的下载使用 INTERACTIVE，批量下载使用 BULK
      */
     fun createDownload(
         url: String,
         fileName: String,
         savePath: String,
         headers: Map<String, String> = emptyMap(),
-        threadCount: Int = 4
+        threadCount: Int = 4,
+        priority: DownloadScheduler.Priority = DownloadScheduler.Priority.INTERACTIVE
     ): String {
-        return downloadManager.createDownload(url, fileName, savePath, headers, threadCount)
+        return downloadManager.createDownload(
+            url, fileName, savePath, headers, threadCount,
+            metadata = mapOf("priority" to priority.name)
+        )
     }
 
     /**
-     * 开始下载
+     * 开始下载，任务进入调度队列，有空闲连接时开始
      */
     fun startDownload(downloadId: String) {
-        downloadManager.startDownload(downloadId)
+        downloadScheduler.enqueue(downloadId)
     }
 
     /**
      * 暂停下载
      */
     fun pauseDownload(downloadId: String) {
-        downloadManager.pauseDownload(downloadId)
+        downloadScheduler.pause(downloadId)
+    }
+
+    /**
+     * 设置全局下载限速，下载进行中立即生效
+     * @param bytesPerSecond 字节/秒，0 表示不限速
+     */
+    fun setDownloadSpeedLimit(bytesPerSecond: Long) {
+        downloadScheduler.setBandwidthLimit(bytesPerSecond)
     }
 
     /**
@@ -404,9 +488,13 @@ class BrowserManager private constructor(private val context: Context) {
     fun getDownloadState(downloadId: String) = downloadManager.getDownloadState(downloadId)
 
     /**
-     * 获取所有下载任务
+     * 分页获取下载任务，关键词为空时返回全部
      */
-    fun getAllDownloads() = downloadDao.getAllDownloads()
+    fun pageDownloads(keyword: String? = null): Flow<PagingData<BrowserDownloadEntity>> {
+        return Pager(pagingConfig()) {
+            if (keyword.isNullOrBlank()) downloadDao.pageDownloads() else downloadDao.pageSearchDownloads(keyword)
+        }.flow
+    }
 
     /**
      * 搜索下载
@@ -418,8 +506,7 @@ class BrowserManager private constructor(private val context: Context) {
      */
     suspend fun cancelDownload(downloadId: String) {
         try {
-            downloadDao.updateDownloadStatus(downloadId, "cancelled")
-            downloadManager.pauseDownload(downloadId) // 停止下载线程
+            downloadScheduler.cancel(downloadId) // 停止下载线程并移出队列
             Log.d(TAG, "Cancelled download: $downloadId")
         } catch (e: Exception) {
             Log.e(TAG, "Failed to cancel download", e)
@@ -431,8 +518,7 @@ class BrowserManager private constructor(private val context: Context) {
      */
     suspend fun retryDownload(downloadId: String) {
         try {
-            downloadDao.updateDownloadStatus(downloadId, "pending")
-            downloadManager.startDownload(downloadId)
+            downloadScheduler.enqueue(downloadId)
             Log.d(TAG, "Retrying download: $downloadId")
         } catch (e: Exception) {
             Log.e(TAG, "Failed to retry download", e)
@@ -508,7 +594,7 @@ class BrowserManager private constructor(private val context: Context) {
      */
     suspend fun pauseAllDownloads() {
         try {
-            val activeDownloads = downloadDao.getDownloadsByStatus("downloading")
+            val activeDownloads = downloadDao.getDownloadsByStatus("DOWNLOADING")
             activeDownloads.forEach { download ->
                 pauseDownload(download.downloadId)
             }
@@ -577,4 +663,9 @@ class BrowserManager private constructor(private val context: Context) {
     fun setSaveHistoryEnabled(enabled: Boolean) {
         preferences.putBoolean("save_history", enabled)
     }
+
+    private fun pagingConfig() = PagingConfig(
+        pageSize = PAGE_SIZE,
+        enablePlaceholders = false
+    )
 }
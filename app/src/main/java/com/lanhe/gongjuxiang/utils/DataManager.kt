@@ -1,6 +1,9 @@
 package com.lanhe.gongjuxiang.utils
 
 import android.content.Context
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
 import kotlinx.coroutines.*
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flowOn
@@ -15,10 +18,17 @@ import com.lanhe.gongjuxiang.models.BatteryInfo
  */
 class DataManager(private val context: Context) {
 
+    companion object {
+        private const val RECENT_WINDOW = 300 // 实时数据流窗口，2秒采样约10分钟
+        private const val PAGE_SIZE = 100 // 历史数据分页大小
+    }
+
     private val database = AppDatabase.getDatabase(context)
     private val performanceDataDao = database.performanceDataDao()
     private val optimizationHistoryDao = database.optimizationHistoryDao()
     private val batteryStatsDao = database.batteryStatsDao()
+    private val rollupDao = database.performanceRollupDao()
+    private val recorder = MonitoringDataRecorder.getInstance(context)
 
     private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
 
@@ -115,28 +125,79 @@ class DataManager(private val context: Context) {
         healthStatus: String
     ): Long {
         return withContext(Dispatchers.IO) {
-            val entity = BatteryStatsEntity(
-                timestamp = System.currentTimeMillis(),
-                batteryLevel = batteryLevel,
-                temperature = temperature,
-                voltage = voltage,
-                isCharging = isCharging,
-                isPlugged = isPlugged,
-                screenOnTime = screenOnTime,
-                screenOffTime = screenOffTime,
-                estimatedLifeHours = estimatedLifeHours,
-                drainRate = drainRate,
-                healthStatus = healthStatus
+            val entity = buildBatteryStatsEntity(
+                batteryLevel, temperature, voltage, isCharging, isPlugged,
+                screenOnTime, screenOffTime, estimatedLifeHours, drainRate, healthStatus
             )
             batteryStatsDao.insert(entity)
         }
     }
 
     /**
-     * 获取性能数据流
+     * 记录周期性电池采样
+     * 不直接写库，而是交给 [MonitoringDataRecorder] 的写后管道批量落盘
+     * @return 是否已进入写入队列
      */
-    fun getPerformanceDataFlow(): Flow<List<PerformanceDataEntity>> {
-        return performanceDataDao.getAllPerformanceData().flowOn(Dispatchers.IO)
+    fun recordBatteryStats(
+        batteryLevel: Int,
+        temperature: Float,
+        voltage: Float,
+        isCharging: Boolean,
+        isPlugged: Boolean,
+        screenOnTime: Long,
+        screenOffTime: Long,
+        estimatedLifeHours: Int,
+        drainRate: Float,
+        healthStatus: String
+    ): Boolean {
+        val entity = buildBatteryStatsEntity(
+            batteryLevel, temperature, voltage, isCharging, isPlugged,
+            screenOnTime, screenOffTime, estimatedLifeHours, drainRate, healthStatus
+        )
+        return recorder.recordBatteryStats(entity)
+    }
+
+    private fun buildBatteryStatsEntity(
+        batteryLevel: Int,
+        temperature: Float,
+        voltage: Float,
+        isCharging: Boolean,
+        isPlugged: Boolean,
+        screenOnTime: Long,
+        screenOffTime: Long,
+        estimatedLifeHours: Int,
+        drainRate: Float,
+        healthStatus: String
+    ): BatteryStatsEntity {
+        return BatteryStatsEntity(
+            timestamp = System.currentTimeMillis(),
+            batteryLevel = batteryLevel,
+            temperature = temperature,
+            voltage = voltage,
+            isCharging = isCharging,
+            isPlugged = isPlugged,
+            screenOnTime = screenOnTime,
+            screenOffTime = screenOffTime,
+            estimatedLifeHours = estimatedLifeHours,
+            drainRate = drainRate,
+            healthStatus = healthStatus
+        )
+    }
+
+    /**
+     * 获取最近一段窗口内的性能数据流，窗口大小固定，不随表增长
+     */
+    fun getPerformanceDataFlow(limit: Int = RECENT_WINDOW): Flow<List<PerformanceDataEntity>> {
+        return performanceDataDao.observeRecentPerformanceData(limit).flowOn(Dispatchers.IO)
+    }
+
+    /**
+     * 分页浏览全部性能数据
+     */
+    fun getPerformanceDataPager(): Flow<PagingData<PerformanceDataEntity>> {
+        return Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false)) {
+            performanceDataDao.pagePerformanceData()
+        }.flow
     }
 
     /**
@@ -154,10 +215,19 @@ class DataManager(private val context: Context) {
     }
 
     /**
-     * 获取电池统计数据流
+     * 获取最近一段窗口内的电池统计数据流，窗口大小固定，不随表增长
      */
-    fun getBatteryStatsFlow(): Flow<List<BatteryStatsEntity>> {
-        return batteryStatsDao.getAllBatteryStats().flowOn(Dispatchers.IO)
+    fun getBatteryStatsFlow(limit: Int = RECENT_WINDOW): Flow<List<BatteryStatsEntity>> {
+        return batteryStatsDao.observeRecentBatteryStats(limit).flowOn(Dispatchers.IO)
+    }
+
+    /**
+     * 分页浏览全部电池统计数据
+     */
+    fun getBatteryStatsPager(): Flow<PagingData<BatteryStatsEntity>> {
+        return Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false)) {
+            batteryStatsDao.pageBatteryStats()
+        }.flow
     }
 
     /**
@@ -179,26 +249,13 @@ class DataManager(private val context: Context) {
     }
 
     /**
-     * 获取性能统计信息
+     * 获取性能历史曲线
+     * 根据时间跨度自动选择分钟/小时/天汇总，返回点数与表中原始数据量无关
      */
-    suspend fun getPerformanceStatistics(hours: Int = 24): PerformanceStatistics {
+    suspend fun getPerformanceHistory(startTime: Long, endTime: Long): List<PerformanceRollupEntity> {
         return withContext(Dispatchers.IO) {
-            val endTime = System.currentTimeMillis()
-            val startTime = endTime - TimeUnit.HOURS.toMillis(hours.toLong())
-
-            val avgCpuUsage = performanceDataDao.getAverageCpuUsage(startTime, endTime) ?: 0f
-            val avgMemoryUsage = performanceDataDao.getAverageMemoryUsage(startTime, endTime) ?: 0f
-            val tempStats = performanceDataDao.getBatteryTemperatureStats(startTime, endTime)
-
-            PerformanceStatistics(
-                averageCpuUsage = avgCpuUsage,
-                averageMemoryUsage = avgMemoryUsage,
-                minTemperature = tempStats?.minTemp ?: 0f,
-                maxTemperature = tempStats?.maxTemp ?: 0f,
-                avgTemperature = tempStats?.avgTemp ?: 0f,
-                dataPoints = 0, // 可以后续计算
-                timeRangeHours = hours
-            )
+            val resolution = RollupResolution.forRange(startTime, endTime)
+            rollupDao.getRollups(resolution.name, resolution.bucketStart(startTime), endTime)
         }
     }
 
@@ -271,6 +328,7 @@ class DataManager(private val context: Context) {
     suspend fun clearAllData() {
         withContext(Dispatchers.IO) {
             performanceDataDao.clearAllData()
+            rollupDao.clearAll()
             optimizationHistoryDao.clearAllHistory()
             batteryStatsDao.clearAllStats()
         }
@@ -314,19 +372,6 @@ class DataManager(private val context: Context) {
     }
 }
 
-/**
- * 性能统计数据类
- */
-data class PerformanceStatistics(
-    val averageCpuUsage: Float = 0f,
-    val averageMemoryUsage: Float = 0f,
-    val minTemperature: Float = 0f,
-    val maxTemperature: Float = 0f,
-    val avgTemperature: Float = 0f,
-    val dataPoints: Int = 0,
-    val timeRangeHours: Int = 24
-)
-
 /**
  * 优化统计数据类
  */
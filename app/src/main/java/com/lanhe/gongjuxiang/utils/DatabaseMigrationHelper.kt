@@ -2,9 +2,11 @@ package com.lanhe.gongjuxiang.utils
 
 import android.content.Context
 import android.util.Log
+import androidx.sqlite.db.SupportSQLiteDatabase
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.withContext
+import java.util.TimeZone
 
 /**
  * 数据库迁移辅助工具
@@ -12,6 +14,7 @@ import kotlinx.coroutines.withContext
  */
 object DatabaseMigrationHelper {
     private const val TAG = "DatabaseMigrationHelper"
+    private const val TARGET_VERSION = 6
 
     /**
      * 执行迁移前的准备工作
@@ -91,6 +94,30 @@ object DatabaseMigrationHelper {
                 results.add("SystemEvents表验证失败: ${e.message}")
             }
 
+            try {
+                db.performanceRollupDao().getBuckets(RollupResolution.DAY.name, emptyList())
+                results.add("PerformanceRollup表（v4）验证成功")
+            } catch (e: Exception) {
+                success = false
+                results.add("PerformanceRollup表验证失败: ${e.message}")
+            }
+
+            try {
+                db.fileHashDao().getCount()
+                results.add("FileHashCache表（v5）验证成功")
+            } catch (e: Exception) {
+                success = false
+                results.add("FileHashCache表验证失败: ${e.message}")
+            }
+
+            try {
+                db.directorySizeDao().getCount()
+                results.add("DirectorySizeIndex表（v6）验证成功")
+            } catch (e: Exception) {
+                success = false
+                results.add("DirectorySizeIndex表验证失败: ${e.message}")
+            }
+
             Log.d(TAG, "Migration verification completed. Success: $success")
             MigrationVerificationResult(success, results)
         } catch (e: Exception) {
@@ -102,6 +129,40 @@ object DatabaseMigrationHelper {
         }
     }
 
+    /**
+     * 用performance_data中的原始采样回填performance_rollup
+     * 在迁移事务内执行，每个粒度一条 INSERT ... SELECT ... GROUP BY，
+     * 天粒度按迁移时的本地时区偏移对齐到零点，与 [RollupResolution.bucketStart] 一致
+     */
+    fun backfillPerformanceRollups(database: SupportSQLiteDatabase) {
+        val dayOffset = TimeZone.getDefault().getOffset(System.currentTimeMillis()).toLong()
+        RollupResolution.values().forEach { resolution ->
+            val millis = resolution.bucketMillis
+            val offset = if (resolution == RollupResolution.DAY) dayOffset else 0L
+            val bucketExpr = "(((timestamp + $offset) / $millis) * $millis - $offset)"
+            database.execSQL("""
+                INSERT OR REPLACE INTO performance_rollup (
+                    resolution, bucketStart, sampleCount,
+                    cpuMin, cpuMax, cpuSum,
+                    memoryMin, memoryMax, memorySum,
+                    batteryTempMin, batteryTempMax, batteryTempSum,
+                    deviceTempMin, deviceTempMax, deviceTempSum,
+                    batteryLevelMin, batteryLevelMax
+                )
+                SELECT '${resolution.name}', $bucketExpr, COUNT(*),
+                    MIN(cpuUsage), MAX(cpuUsage), SUM(cpuUsage),
+                    MIN(memoryUsagePercent), MAX(memoryUsagePercent), SUM(memoryUsagePercent),
+                    MIN(batteryTemperature), MAX(batteryTemperature), SUM(batteryTemperature),
+                    MIN(deviceTemperature), MAX(deviceTemperature), SUM(deviceTemperature),
+                    MIN(batteryLevel), MAX(batteryLevel)
+                FROM performance_data
+                WHERE dataType = '${PerformanceRollupWriter.ROLLUP_DATA_TYPE}'
+                GROUP BY $bucketExpr
+            """)
+            Log.d(TAG, "Backfilled ${resolution.name} rollups")
+        }
+    }
+
     /**
      * 清理临时文件
      */
@@ -150,16 +211,29 @@ object DatabaseMigrationHelper {
 
         val currentVersion = getDatabaseVersion(context)
         builder.appendLine("当前版本: $currentVersion")
-        builder.appendLine("目标版本: 2")
+        builder.appendLine("目标版本: $TARGET_VERSION")
 
-        if (needsMigration(currentVersion, 2)) {
+        if (needsMigration(currentVersion, TARGET_VERSION)) {
             builder.appendLine("需要迁移: 是")
             builder.appendLine("\n迁移内容:")
-            builder.appendLine("1. performance_data表新增6个字段")
-            builder.appendLine("2. optimization_history表新增2个字段")
-            builder.appendLine("3. battery_stats表新增5个字段")
-            builder.appendLine("4. 新增network_usage表")
-            builder.appendLine("5. 新增system_events表")
+            if (currentVersion < 2) {
+                builder.appendLine("- performance_data表新增6个字段")
+                builder.appendLine("- optimization_history表新增2个字段")
+                builder.appendLine("- battery_stats表新增5个字段")
+                builder.appendLine("- 新增network_usage表")
+                builder.appendLine("- 新增system_events表")
+            }
+            if (currentVersion < 3) {
+                builder.appendLine("- 新增browser_history、browser_tabs、browser_downloads表")
+            }
+            if (currentVersion < 4) {
+                builder.appendLine("- 监控数据表新增时间戳及复合索引")
+                builder.appendLine("- 新增performance_rollup汇总表并回填历史数据")
+            }
+            if (currentVersion < 5) {
+                builder.appendLine("- 新增file_hash_cache文件哈希缓存表")
+            }
+            builder.appendLine("- 新增directory_size_index目录大小索引表")
         } else {
             builder.appendLine("需要迁移: 否（已是最新版本）")
         }
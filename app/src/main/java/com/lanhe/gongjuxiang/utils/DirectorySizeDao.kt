@@ -0,0 +1,41 @@
+package com.lanhe.gongjuxiang.utils
+
+import androidx.room.*
+
+/**
+ * 目录大小索引DAO接口
+ * 子树查询用前缀比较而不是 LIKE，避免路径中的 "_"、"%" 被当作通配符
+ */
+@Dao
+interface DirectorySizeDao {
+
+    /**
+     * 获取目录及其子树中的全部索引
+     */
+    @Query("SELECT * FROM directory_size_index WHERE path = :root OR substr(path, 1, length(:root) + 1) = :root || '/'")
+    suspend fun getTree(root: String): List<DirectorySizeEntity>
+
+    /**
+     * 写入（覆盖）索引
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun upsertAll(entries: List<DirectorySizeEntity>)
+
+    /**
+     * 删除目录及其子树的索引（目录已被删除）
+     */
+    @Query("DELETE FROM directory_size_index WHERE path = :root OR substr(path, 1, length(:root) + 1) = :root || '/'")
+    suspend fun deleteTree(root: String): Int
+
+    /**
+     * 获取索引条数
+     */
+    @Query("SELECT COUNT(*) FROM directory_size_index")
+    suspend fun getCount(): Int
+
+    /**
+     * 清空索引
+     */
+    @Query("DELETE FROM directory_size_index")
+    suspend fun clearAll()
+}
@@ -0,0 +1,30 @@
+package com.lanhe.gongjuxiang.utils
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * 目录大小索引实体
+ * 每个目录一行，记录目录自身的修改时间、直接包含的文件大小以及整棵子树的大小
+ *
+ * 字段说明：
+ * - parentPath: 上级目录路径，用于在未变化的目录下找到已知子目录而无需重新列目录
+ * - lastModified: 目录的修改时间，目录中增删、重命名条目时会变化
+ * - fileBytes/fileCount: 目录中直接包含的文件总大小和数量（不含子目录）
+ * - totalSize: 整棵子树的文件总大小
+ */
+@Entity(
+    tableName = "directory_size_index",
+    indices = [Index("parentPath")]
+)
+data class DirectorySizeEntity(
+    @PrimaryKey
+    val path: String,
+    val parentPath: String,
+    val lastModified: Long,
+    val fileBytes: Long,
+    val fileCount: Int,
+    val totalSize: Long,
+    val updatedAt: Long
+)
@@ -0,0 +1,304 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.content.Context
+import android.os.Build
+import android.os.Environment
+import android.os.FileObserver
+import android.util.Log
+import kotlinx.coroutines.*
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 增量目录大小索引
+ * 持久化每个目录的修改时间和子树大小，再次计算时：
+ * - 修改时间未变的目录不再列目录，直接复用记录的文件大小和已知子目录，只检查子目录的修改时间
+ * - 修改时间变化的目录才重新列目录，已被删除的子目录连同其子树从索引中移除
+ *
+ * 目录修改时间只反映条目的增删和重命名，文件被原地改写时不会变化，
+ * 因此常用目录另外注册 [FileObserver]，收到写入事件后把目录标记为脏并在短暂合并后增量刷新。
+ *
+ * @param dao 索引持久化，为null时只在内存中维护
+ */
+class DirectorySizeIndex internal constructor(private val dao: DirectorySizeDao?) {
+
+    companion object {
+        private const val TAG = "DirectorySizeIndex"
+        private const val REFRESH_DEBOUNCE_MS = 2_000L // 合并短时间内的连续文件事件
+        private const val WRITE_CHUNK = 500
+        private const val OBSERVER_MASK = FileObserver.CREATE or FileObserver.DELETE or
+            FileObserver.MOVED_FROM or FileObserver.MOVED_TO or FileObserver.CLOSE_WRITE or
+            FileObserver.DELETE_SELF or FileObserver.MOVE_SELF
+
+        @Volatile
+        private var INSTANCE: DirectorySizeIndex? = null
+
+        fun getInstance(context: Context): DirectorySizeIndex {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: DirectorySizeIndex(AppDatabase.getDatabase(context).directorySizeDao()).also {
+                    INSTANCE = it
+                    it.warmUp(hotDirectories(context.applicationContext))
+                }
+            }
+        }
+
+        /**
+         * 存储页面展示的常用目录
+         */
+        fun hotDirectories(context: Context): List<File> {
+            return listOfNotNull(
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES),
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC),
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS),
+                context.filesDir,
+                context.cacheDir
+            )
+        }
+    }
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val mutex = Mutex()
+
+    // 以下结构只在持有 mutex 时修改；entries 可无锁读取用于即时展示
+    private val entries = ConcurrentHashMap<String, DirectorySizeEntity>()
+    private val children = HashMap<String, MutableSet<String>>()
+    private val loadedRoots = HashSet<String>()
+
+    // 收到文件事件、需要重新列目录的目录
+    private val dirtyPaths = ConcurrentHashMap.newKeySet<String>()
+    private val pendingRefresh = ConcurrentHashMap<String, Job>()
+    private val observers = ConcurrentHashMap<String, FileObserver>()
+
+    private val _sizes = MutableStateFlow<Map<String, Long>>(emptyMap())
+    /**
+     * 已计算过的根目录大小（规范化路径 -> 字节数），刷新后更新
+     */
+    val sizes: StateFlow<Map<String, Long>> = _sizes.asStateFlow()
+
+    /**
+     * 从内存中读取目录大小，不访问磁盘；尚未建立索引时返回null
+     */
+    fun cachedSize(dir: File): Long? {
+        return entries[StorageWalker.normalize(dir)]?.totalSize
+    }
+
+    /**
+     * 增量计算目录大小，只重新列出修改时间发生变化或被标记为脏的目录
+     */
+    suspend fun sizeOf(dir: File): Long = withContext(Dispatchers.IO) {
+        val root = StorageWalker.normalize(dir)
+        mutex.withLock {
+            ensureLoaded(root)
+            val changed = ArrayList<DirectorySizeEntity>()
+            val removed = ArrayList<String>()
+            val total = refresh(root, File(root).parent ?: "", changed, removed)
+            persist(changed, removed)
+            _sizes.value = _sizes.value + (root to total)
+            total
+        }
+    }
+
+    /**
+     * 标记目录内容已变化，下次计算时重新列出该目录
+     */
+    fun markDirty(dir: File) {
+        dirtyPaths.add(StorageWalker.normalize(dir))
+    }
+
+    /**
+     * 在后台增量刷新目录大小，结果通过 [sizes] 发布
+     */
+    fun refreshInBackground(dirs: List<File>) {
+        scope.launch {
+            for (dir in dirs) {
+                try {
+                    sizeOf(dir)
+                } catch (e: Exception) {
+                    Log.w(TAG, "刷新目录大小失败: ${dir.path}", e)
+                }
+            }
+        }
+    }
+
+    /**
+     * 监听目录的文件变化，变化后自动增量刷新
+     * FileObserver 不递归，只监听给定目录本身
+     */
+    fun watch(dirs: List<File>) {
+        for (dir in dirs) {
+            if (!dir.isDirectory) continue
+            val path = StorageWalker.normalize(dir)
+            if (observers.containsKey(path)) continue
+
+            val observer = createObserver(File(path)) { event ->
+                if ((event and FileObserver.ALL_EVENTS) != 0) {
+                    dirtyPaths.add(path)
+                    scheduleRefresh(path)
+                }
+            }
+            observers[path] = observer
+            observer.startWatching()
+        }
+    }
+
+    /**
+     * 停止所有目录监听
+     */
+    fun stopWatching() {
+        observers.values.forEach { it.stopWatching() }
+        observers.clear()
+    }
+
+    /**
+     * 载入已持久化的索引并在后台增量刷新、开始监听
+     */
+    private fun warmUp(dirs: List<File>) {
+        scope.launch {
+            try {
+                for (dir in dirs) {
+                    val root = StorageWalker.normalize(dir)
+                    mutex.withLock { ensureLoaded(root) }
+                    entries[root]?.let { _sizes.value = _sizes.value + (root to it.totalSize) }
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "载入目录大小索引失败", e)
+            }
+            refreshInBackground(dirs)
+            watch(dirs)
+        }
+    }
+
+    private fun scheduleRefresh(root: String) {
+        if (pendingRefresh[root]?.isActive == true) return
+        pendingRefresh[root] = scope.launch {
+            delay(REFRESH_DEBOUNCE_MS)
+            // 刷新开始前移除，刷新过程中的新事件会重新调度
+            pendingRefresh.remove(root)
+            try {
+                sizeOf(File(root))
+            } catch (e: Exception) {
+                Log.w(TAG, "刷新目录大小失败: $root", e)
+            }
+        }
+    }
+
+    @Suppress("DEPRECATION")
+    private fun createObserver(dir: File, listener: (Int) -> Unit): FileObserver {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            object : FileObserver(dir, OBSERVER_MASK) {
+                override fun onEvent(event: Int, path: String?) = listener(event)
+            }
+        } else {
+            object : FileObserver(dir.path, OBSERVER_MASK) {
+                override fun onEvent(event: Int, path: String?) = listener(event)
+            }
+        }
+    }
+
+    private suspend fun ensureLoaded(root: String) {
+        if (loadedRoots.any { StorageWalker.isUnder(root, it) }) return
+        dao?.getTree(root)?.forEach { put(it) }
+        loadedRoots.add(root)
+    }
+
+    /**
+     * 递归刷新目录，返回子树总大小；有变化的条目加入 changed，被删除的子树根加入 removed
+     */
+    private fun refresh(
+        path: String,
+        parentPath: String,
+        changed: MutableList<DirectorySizeEntity>,
+        removed: MutableList<String>
+    ): Long {
+        val dir = File(path)
+        if (!dir.isDirectory) {
+            if (entries.containsKey(path)) {
+                removeTree(path)
+                removed.add(path)
+            }
+            return 0L
+        }
+
+        val lastModified = dir.lastModified()
+        val cached = entries[path]
+        val dirty = dirtyPaths.remove(path)
+        val fileBytes: Long
+        val fileCount: Int
+        val childDirs: List<String>
+
+        if (cached != null && cached.lastModified == lastModified && !dirty) {
+            fileBytes = cached.fileBytes
+            fileCount = cached.fileCount
+            childDirs = children[path]?.toList() ?: emptyList()
+        } else {
+            var bytes = 0L
+            var count = 0
+            val dirs = ArrayList<String>()
+            dir.listFiles()?.forEach { child ->
+                if (child.isDirectory) {
+                    dirs.add(child.path)
+                } else if (child.isFile) {
+                    bytes += child.length()
+                    count++
+                }
+            }
+            val present = HashSet(dirs)
+            children[path]?.filter { it !in present }?.forEach { gone ->
+                removeTree(gone)
+                removed.add(gone)
+            }
+            fileBytes = bytes
+            fileCount = count
+            childDirs = dirs
+        }
+
+        var totalSize = fileBytes
+        for (child in childDirs) {
+            totalSize += refresh(child, path, changed, removed)
+        }
+
+        if (cached == null || cached.lastModified != lastModified || cached.fileBytes != fileBytes ||
+            cached.fileCount != fileCount || cached.totalSize != totalSize
+        ) {
+            val entity = DirectorySizeEntity(
+                path = path,
+                parentPath = parentPath,
+                lastModified = lastModified,
+                fileBytes = fileBytes,
+                fileCount = fileCount,
+                totalSize = totalSize,
+                updatedAt = System.currentTimeMillis()
+            )
+            put(entity)
+            changed.add(entity)
+        }
+        return totalSize
+    }
+
+    private fun put(entity: DirectorySizeEntity) {
+        entries[entity.path] = entity
+        children.getOrPut(entity.parentPath) { HashSet() }.add(entity.path)
+    }
+
+    private fun removeTree(path: String) {
+        children.remove(path)?.forEach { removeTree(it) }
+        entries.remove(path)?.let { children[it.parentPath]?.remove(path) }
+    }
+
+    private suspend fun persist(changed: List<DirectorySizeEntity>, removed: List<String>) {
+        val dao = dao ?: return
+        try {
+            removed.forEach { dao.deleteTree(it) }
+            changed.chunked(WRITE_CHUNK).forEach { dao.upsertAll(it) }
+        } catch (e: Exception) {
+            Log.w(TAG, "保存目录大小索引失败", e)
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.util.Log
+import com.lanhe.mokuai.download.DownloadManager
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.net.URI
+
+/**
+ * 全局下载调度器
+ * 所有浏览器下载先进入队列，由调度器按优先级决定何时开始、每个任务使用几个连接，
+ * 保证同时打开的连接数不超过全局上限和单个主机的上限。
+ *
+ * 调度规则：
+ * 1. 队列按优先级、入队时间排序，INTERACTIVE（用户点击的下载）优先
+ * 2. BULK（批量下载）每个任务只用一个连接，且不能占用为交互下载预留的连接
+ * 3. 空闲连接不够时新的 INTERACTIVE 任务会暂停最近开始的 BULK 任务，被暂停的任务回到队列，稍后断点续传
+ * 4. 失败的任务按 2^重试次数 指数退避后重新排队，重试次数与 [BrowserDownloadDao.getRetryableFailedDownloads] 的上限一致
+ *
+ * 队列状态持久化在 browser_downloads 表中，应用重启后通过 [restore] 恢复未完成和可重试的任务。
+ * 全局限速使用令牌桶，可通过 [setBandwidthLimit] 在下载进行中随时开关。
+ */
+class DownloadScheduler(
+    private val downloadManager: DownloadManager,
+    private val downloadDao: BrowserDownloadDao,
+    private val scope: CoroutineScope,
+    private val maxConnections: Int = DEFAULT_MAX_CONNECTIONS,
+    private val maxConnectionsPerHost: Int = DEFAULT_MAX_CONNECTIONS_PER_HOST,
+    private val reservedConnections: Int = DEFAULT_RESERVED_CONNECTIONS,
+    private val clock: () -> Long = { System.currentTimeMillis() }
+) {
+
+    companion object {
+        private const val TAG = "DownloadScheduler"
+        private const val DEFAULT_MAX_CONNECTIONS = 8
+        private const val DEFAULT_MAX_CONNECTIONS_PER_HOST = 4
+        private const val DEFAULT_RESERVED_CONNECTIONS = 2 // BULK 任务不能使用的连接数
+        private const val MAX_RETRY_COUNT = 3 // 与 getRetryableFailedDownloads 的条件一致
+        private const val RETRY_BASE_DELAY = 5_000L
+        private const val RETRY_MAX_DELAY = 5 * 60_000L
+        private const val PROGRESS_PERSIST_INTERVAL = 2_000L
+        private const val METADATA_PRIORITY = "priority"
+
+        /**
+         * 第 retryCount 次失败后的退避时间
+         */
+        fun backoffDelay(retryCount: Int): Long {
+            val shift = (retryCount - 1).coerceIn(0, 16)
+            return (RETRY_BASE_DELAY shl shift).coerceAtMost(RETRY_MAX_DELAY)
+        }
+
+        /**
+         * 根据队列和正在运行的任务计算本轮要开始和要让出的任务，不修改任何状态
+         * @param queue 等待中的任务，顺序不限
+         * @param running 正在运行的任务
+         * @return 要开始的任务及分配的连接数，以及需要暂停让出连接的任务
+         */
+        internal fun plan(
+            queue: List<QueuedDownload>,
+            running: List<ActiveDownload>,
+            maxConnections: Int,
+            maxConnectionsPerHost: Int,
+            reservedConnections: Int,
+            now: Long
+        ): Plan {
+            val active = running.toMutableList()
+            val starts = mutableListOf<Pair<QueuedDownload, Int>>()
+            val preempted = mutableListOf<String>()
+
+            val ordered = queue.sortedWith(compareBy<QueuedDownload>({ it.priority.ordinal }, { it.enqueuedAt }))
+            for (item in ordered) {
+                if (item.notBefore > now) continue
+
+                val limit = if (item.priority == Priority.BULK) {
+                    maxConnections - reservedConnections
+                } else {
+                    maxConnections
+                }
+                val wanted = if (item.priority == Priority.BULK) 1 else item.connections.coerceAtLeast(1)
+
+                // 交互下载的空闲连接不够时，让最近开始的批量下载让出连接
+                if (item.priority == Priority.INTERACTIVE) {
+                    while (limit - active.sumOf { it.connections } < wanted) {
+                        val victim = active.lastOrNull { it.priority == Priority.BULK } ?: break
+                        active.remove(victim)
+                        preempted.add(victim.downloadId)
+                    }
+                }
+
+                val free = limit - active.sumOf { it.connections }
+                val hostFree = maxConnectionsPerHost - active.filter { it.host == item.host }.sumOf { it.connections }
+                val granted = minOf(wanted, free, hostFree)
+                if (granted <= 0) continue
+
+                starts.add(item to granted)
+                active.add(ActiveDownload(item.downloadId, item.host, item.priority, granted))
+            }
+            return Plan(starts, preempted)
+        }
+
+        internal fun hostOf(url: String): String {
+            return try {
+                URI(url).host?.lowercase() ?: ""
+            } catch (e: Exception) {
+                ""
+            }
+        }
+    }
+
+    /**
+     * 下载优先级
+     */
+    enum class Priority {
+        INTERACTIVE, // 用户在浏览时直接发起的下载
+        NORMAL,
+        BULK         // 批量或后台下载
+    }
+
+    /**
+     * 等待中的任务
+     * @param connections 任务希望使用的连接数
+     * @param notBefore 重试退避期间的最早开始时间
+     */
+    internal data class QueuedDownload(
+        val downloadId: String,
+        val host: String,
+        val priority: Priority,
+        val connections: Int,
+        val enqueuedAt: Long,
+        val notBefore: Long = 0
+    )
+
+    /**
+     * 正在运行的任务及其占用的连接数
+     */
+    internal data class ActiveDownload(
+        val downloadId: String,
+        val host: String,
+        val priority: Priority,
+        val connections: Int
+    )
+
+    internal data class Plan(
+        val starts: List<Pair<QueuedDownload, Int>>,
+        val preempted: List<String>
+    )
+
+    private val lock = Any()
+    private val queue = mutableListOf<QueuedDownload>()
+    private val running = LinkedHashMap<String, ActiveDownload>()
+    private val queuedAt = HashMap<String, Long>() // 被暂停让出的任务保留原来的排队顺序
+    private val preempting = HashMap<String, Priority>() // 正在让出连接、协程尚未结束的任务
+    private var wakeJob: Job? = null
+    private var progressJob: Job? = null
+
+    // 数据库写入按提交顺序串行执行，避免同一任务的状态更新乱序
+    private val dbWrites = Channel<suspend () -> Unit>(Channel.UNLIMITED)
+
+    init {
+        // 重试和退避由调度器负责
+        downloadManager.autoRetryEnabled = false
+        scope.launch {
+            for (write in dbWrites) {
+                try {
+                    write()
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to persist download state", e)
+                }
+            }
+        }
+    }
+
+    /**
+     * 把任务加入队列
+     * @param priority 为 null 时使用任务创建时记录的优先级
+     */
+    fun enqueue(downloadId: String, priority: Priority? = null) {
+        val task = downloadManager.getDownload(downloadId) ?: return
+        val actualPriority = priority ?: priorityOf(task)
+
+        synchronized(lock) {
+            if (running.containsKey(downloadId) || queue.any { it.downloadId == downloadId }) return
+            queue.add(queuedDownload(task, actualPriority, notBefore = 0))
+        }
+
+        persist {
+            val existing = downloadDao.getDownloadById(downloadId)
+            if (existing == null) {
+                downloadDao.insertDownload(
+                    BrowserDownloadEntity(
+                        downloadId = downloadId,
+                        url = task.url,
+                        fileName = task.fileName,
+                        filePath = task.savePath,
+                        fileSize = task.fileSize,
+                        downloadedSize = task.downloadedSize,
+                        status = "PENDING",
+                        createTime = task.createTime
+                    )
+                )
+            } else {
+                downloadDao.updateDownloadStatus(downloadId, "PENDING")
+            }
+        }
+        schedule()
+    }
+
+    /**
+     * 暂停任务并移出队列
+     */
+    fun pause(downloadId: String) {
+        val wasRunning = synchronized(lock) {
+            queue.removeAll { it.downloadId == downloadId }
+            queuedAt.remove(downloadId)
+            preempting.remove(downloadId)
+            running.remove(downloadId) != null
+        }
+        if (wasRunning) {
+            downloadManager.pauseDownload(downloadId)
+        }
+        persist { downloadDao.updateDownloadStatus(downloadId, "PAUSED") }
+        schedule()
+    }
+
+    /**
+     * 取消任务并移出队列
+     */
+    fun cancel(downloadId: String) {
+        synchronized(lock) {
+            queue.removeAll { it.downloadId == downloadId }
+            queuedAt.remove(downloadId)
+            preempting.remove(downloadId)
+            running.remove(downloadId)
+        }
+        downloadManager.cancelDownload(downloadId)
+        persist { downloadDao.updateDownloadStatus(downloadId, "CANCELLED") }
+        schedule()
+    }
+
+    /**
+     * 设置全局限速，下载进行中立即生效
+     * @param bytesPerSecond 字节/秒，0 表示不限速
+     */
+    fun setBandwidthLimit(bytesPerSecond: Long) {
+        downloadManager.setSpeedLimit(bytesPerSecond)
+    }
+
+    fun getBandwidthLimit(): Long = downloadManager.getSettings().speedLimit
+
+    /**
+     * 从数据库恢复队列：上次中断的任务立即排队，可重试的失败任务按退避时间排队
+     */
+    suspend fun restore() {
+        val now = clock()
+        val interrupted = downloadDao.getDownloadsByStatus("DOWNLOADING") +
+                downloadDao.getDownloadsByStatus("PENDING")
+        val retryable = downloadDao.getRetryableFailedDownloads(limit = maxConnections * 2)
+
+        synchronized(lock) {
+            interrupted.forEach { entity ->
+                val task = downloadManager.getDownload(entity.downloadId) ?: return@forEach
+                if (queue.none { it.downloadId == entity.downloadId } && !running.containsKey(entity.downloadId)) {
+                    queue.add(queuedDownload(task, priorityOf(task), notBefore = 0))
+                }
+            }
+            retryable.forEach { entity ->
+                val task = downloadManager.getDownload(entity.downloadId) ?: return@forEach
+                if (queue.none { it.downloadId == entity.downloadId } && !running.containsKey(entity.downloadId)) {
+                    queue.add(queuedDownload(task, priorityOf(task), notBefore = now + backoffDelay(entity.retryCount)))
+                }
+            }
+        }
+        Log.d(TAG, "恢复下载队列: ${interrupted.size} 个中断, ${retryable.size} 个待重试")
+        schedule()
+    }
+
+    /**
+     * 当前排队中的任务数
+     */
+    fun getQueuedCount(): Int = synchronized(lock) { queue.size }
+
+    /**
+     * 当前占用的连接数
+     */
+    fun getActiveConnections(): Int = synchronized(lock) { running.values.sumOf { it.connections } }
+
+    /**
+     * 按当前队列和连接占用情况开始或让出任务
+     */
+    private fun schedule() {
+        val now = clock()
+        val plan: Plan
+        val preempted: List<ActiveDownload>
+        synchronized(lock) {
+            plan = plan(queue.toList(), running.values.toList(), maxConnections,
+                maxConnectionsPerHost, reservedConnections, now)
+            preempted = plan.preempted.mapNotNull { running.remove(it) }
+            // 等原来的下载协程保存完分段进度后再回到队列，见 onFinished
+            preempted.forEach { preempting[it.downloadId] = it.priority }
+            plan.starts.forEach { (item, connections) ->
+                queue.remove(item)
+                running[item.downloadId] = ActiveDownload(item.downloadId, item.host, item.priority, connections)
+            }
+        }
+
+        preempted.forEach { active ->
+            Log.d(TAG, "暂停批量下载 ${active.downloadId}，让出 ${active.connections} 个连接")
+            downloadManager.pauseDownload(active.downloadId)
+            persist { downloadDao.updateDownloadStatus(active.downloadId, "PENDING") }
+        }
+
+        plan.starts.forEach { (item, connections) ->
+            val job = downloadManager.startDownload(item.downloadId, connections)
+            if (job == null) {
+                synchronized(lock) { running.remove(item.downloadId) }
+                return@forEach
+            }
+            synchronized(lock) { queuedAt.remove(item.downloadId) }
+            persist { downloadDao.updateDownloadStatus(item.downloadId, "DOWNLOADING") }
+            job.invokeOnCompletion { onFinished(item.downloadId) }
+        }
+
+        scheduleWakeUp(now)
+        updateProgressJob()
+    }
+
+    /**
+     * 下载协程结束（完成、失败或被暂停）
+     */
+    private fun onFinished(downloadId: String) {
+        val finished = synchronized(lock) {
+            preempting.remove(downloadId)?.let { priority ->
+                downloadManager.getDownload(downloadId)?.let { task ->
+                    queue.add(queuedDownload(task, priority, notBefore = 0))
+                }
+            }
+            running.remove(downloadId)
+        }
+        // 被调度器暂停或取消的任务已在别处处理
+        if (finished != null) {
+            val task = downloadManager.getDownload(downloadId)
+            when (task?.status) {
+                DownloadManager.DownloadStatus.COMPLETED -> persist {
+                    downloadDao.markDownloadCompleted(downloadId, task.completeTime, task.downloadedSize)
+                }
+                DownloadManager.DownloadStatus.FAILED -> persist {
+                    downloadDao.markDownloadFailed(downloadId)
+                    val retryCount = downloadDao.getDownloadById(downloadId)?.retryCount ?: MAX_RETRY_COUNT
+                    if (retryCount < MAX_RETRY_COUNT) {
+                        val delayMs = backoffDelay(retryCount)
+                        Log.d(TAG, "下载失败，${delayMs}ms 后第 $retryCount 次重试: $downloadId")
+                        synchronized(lock) {
+                            queue.add(queuedDownload(task, finished.priority, notBefore = clock() + delayMs))
+                        }
+                        scheduleWakeUp(clock())
+                    }
+                }
+                else -> persist { downloadDao.updateDownloadProgress(downloadId, task?.downloadedSize ?: 0L) }
+            }
+        }
+        schedule()
+    }
+
+    private fun queuedDownload(task: DownloadManager.DownloadTask, priority: Priority, notBefore: Long): QueuedDownload {
+        val enqueuedAt = synchronized(lock) { queuedAt.getOrPut(task.id) { clock() } }
+        return QueuedDownload(task.id, hostOf(task.url), priority, task.threadCount, enqueuedAt, notBefore)
+    }
+
+    private fun priorityOf(task: DownloadManager.DownloadTask): Priority {
+        return task.metadata[METADATA_PRIORITY]
+            ?.let { name -> Priority.values().firstOrNull { it.name == name } }
+            ?: Priority.NORMAL
+    }
+
+    /**
+     * 队列中有处于退避期的任务时，在最早的到期时间重新调度
+     */
+    private fun scheduleWakeUp(now: Long) {
+        synchronized(lock) {
+            val next = queue.filter { it.notBefore > now }.minOfOrNull { it.notBefore }
+            wakeJob?.cancel()
+            wakeJob = next?.let { time ->
+                scope.launch {
+                    delay(time - now)
+                    schedule()
+                }
+            }
+        }
+    }
+
+    /**
+     * 有任务运行时定期把进度写入数据库，供下载列表展示
+     */
+    private fun updateProgressJob() {
+        synchronized(lock) {
+            if (running.isEmpty()) {
+                progressJob?.cancel()
+                progressJob = null
+            } else if (progressJob?.isActive != true) {
+                progressJob = scope.launch {
+                    while (isActive) {
+                        delay(PROGRESS_PERSIST_INTERVAL)
+                        val ids = synchronized(lock) { running.keys.toList() }
+                        ids.forEach { id ->
+                            val downloaded = downloadManager.getDownload(id)?.downloadedSize ?: return@forEach
+                            persist { downloadDao.updateDownloadProgress(id, downloaded) }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private fun persist(write: suspend () -> Unit) {
+        dbWrites.trySend(write)
+    }
+}
@@ -0,0 +1,221 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.content.Context
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.io.File
+import java.io.FileInputStream
+import java.io.RandomAccessFile
+import java.security.MessageDigest
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 重复文件查找器
+ * 分三级过滤，只有前一级仍然"可能相同"的文件才进入下一级：
+ * 1. 按文件大小分组，大小唯一的文件直接排除，不读取内容
+ * 2. 对大小相同的文件计算首尾各4KB的部分哈希
+ * 3. 部分哈希仍相同的文件才计算完整哈希
+ *
+ * 哈希计算在有界并发下进行，结果按 (路径, 大小, 修改时间) 缓存到数据库，
+ * 再次扫描时只有新增或被修改过的文件需要读取。
+ *
+ * @param hashCache 哈希缓存，为null时不使用缓存
+ * @param parallelism 同时进行哈希计算的文件数
+ */
+class DuplicateFileFinder(
+    private val hashCache: FileHashDao?,
+    private val parallelism: Int = DEFAULT_PARALLELISM
+) {
+
+    companion object {
+        private const val TAG = "DuplicateFileFinder"
+        const val EDGE_BYTES = 4096 // 部分哈希读取的首尾字节数
+        private const val FULL_HASH_BUFFER = 64 * 1024
+        private const val QUERY_CHUNK = 500 // SQLite单条语句参数上限为999
+        private val CACHE_RETENTION = TimeUnit.DAYS.toMillis(30) // 30天未被扫描到的缓存视为失效
+        private val DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+
+        fun create(context: Context): DuplicateFileFinder {
+            return DuplicateFileFinder(AppDatabase.getDatabase(context).fileHashDao())
+        }
+    }
+
+    /**
+     * 单个文件的扫描状态，大小和修改时间只读取一次
+     */
+    private class Candidate(val file: File, val size: Long, val lastModified: Long) {
+        @Volatile var partialHash: String? = null
+        @Volatile var fullHash: String? = null
+    }
+
+    /**
+     * 查找重复文件
+     * @param files 待比较的文件
+     * @param onProgress 哈希阶段的进度回调（0-1）
+     * @return 重复文件映射（完整哈希 -> 文件列表），只包含多于1个文件的组
+     */
+    suspend fun findDuplicates(
+        files: Collection<File>,
+        onProgress: ((Float) -> Unit)? = null
+    ): Map<String, List<File>> = coroutineScope {
+        // 1. 按大小分组
+        val candidates = files
+            .distinctBy { it.absolutePath }
+            .map { Candidate(it, it.length(), it.lastModified()) }
+            .filter { it.size > 0 }
+            .groupBy { it.size }
+            .values
+            .filter { it.size > 1 }
+            .flatten()
+        if (candidates.isEmpty()) {
+            onProgress?.invoke(1f)
+            return@coroutineScope emptyMap()
+        }
+
+        loadCachedHashes(candidates)
+
+        // 2. 部分哈希
+        val semaphore = Semaphore(parallelism)
+        val partialPending = candidates.filter { it.partialHash == null }
+        hashAll(partialPending, semaphore, onProgress, 0f, 0.5f) { candidate ->
+            candidate.partialHash = partialHash(candidate.file, candidate.size)
+            // 小文件的部分哈希已覆盖整个文件
+            if (candidate.size <= EDGE_BYTES * 2L) {
+                candidate.fullHash = candidate.partialHash
+            }
+        }
+
+        val partialCollisions = candidates
+            .filter { it.partialHash != null }
+            .groupBy { "${it.size}:${it.partialHash}" }
+            .values
+            .filter { it.size > 1 }
+            .flatten()
+
+        // 3. 完整哈希
+        val fullPending = partialCollisions.filter { it.fullHash == null }
+        hashAll(fullPending, semaphore, onProgress, 0.5f, 1f) { candidate ->
+            candidate.fullHash = fullHash(candidate.file)
+        }
+
+        saveHashes(candidates)
+        onProgress?.invoke(1f)
+
+        partialCollisions
+            .filter { it.fullHash != null }
+            .groupBy { it.fullHash!! }
+            .filterValues { it.size > 1 }
+            .mapValues { (_, group) -> group.map { it.file } }
+    }
+
+    private suspend fun hashAll(
+        candidates: List<Candidate>,
+        semaphore: Semaphore,
+        onProgress: ((Float) -> Unit)?,
+        progressStart: Float,
+        progressEnd: Float,
+        block: (Candidate) -> Unit
+    ) = coroutineScope {
+        if (candidates.isEmpty()) return@coroutineScope
+        val done = AtomicInteger(0)
+        candidates.map { candidate ->
+            async(Dispatchers.IO) {
+                semaphore.withPermit {
+                    try {
+                        block(candidate)
+                    } catch (e: Exception) {
+                        Log.w(TAG, "计算文件哈希失败: ${candidate.file.absolutePath}", e)
+                    }
+                }
+                val progress = done.incrementAndGet().toFloat() / candidates.size
+                onProgress?.invoke(progressStart + (progressEnd - progressStart) * progress)
+            }
+        }.awaitAll()
+    }
+
+    private suspend fun loadCachedHashes(candidates: List<Candidate>) {
+        val dao = hashCache ?: return
+        try {
+            for (chunk in candidates.chunked(QUERY_CHUNK)) {
+                val cached = dao.getByPaths(chunk.map { it.file.absolutePath }).associateBy { it.path }
+                for (candidate in chunk) {
+                    val entry = cached[candidate.file.absolutePath] ?: continue
+                    if (entry.matches(candidate.size, candidate.lastModified)) {
+                        candidate.partialHash = entry.partialHash
+                        candidate.fullHash = entry.fullHash
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "读取哈希缓存失败，将重新计算", e)
+        }
+    }
+
+    private suspend fun saveHashes(candidates: List<Candidate>) {
+        val dao = hashCache ?: return
+        val now = System.currentTimeMillis()
+        try {
+            dao.upsertAll(candidates.filter { it.partialHash != null }.map {
+                FileHashEntity(
+                    path = it.file.absolutePath,
+                    size = it.size,
+                    lastModified = it.lastModified,
+                    partialHash = it.partialHash,
+                    fullHash = it.fullHash,
+                    verifiedAt = now
+                )
+            })
+            dao.deleteNotVerifiedSince(now - CACHE_RETENTION)
+        } catch (e: Exception) {
+            Log.w(TAG, "保存哈希缓存失败", e)
+        }
+    }
+
+    /**
+     * 计算文件首尾各 [EDGE_BYTES] 字节的MD5，不超过两倍该长度的文件计算整个文件
+     */
+    internal fun partialHash(file: File, size: Long = file.length()): String {
+        if (size <= EDGE_BYTES * 2L) {
+            return fullHash(file)
+        }
+        val digest = MessageDigest.getInstance("MD5")
+        val buffer = ByteArray(EDGE_BYTES)
+        RandomAccessFile(file, "r").use { raf ->
+            raf.readFully(buffer)
+            digest.update(buffer)
+            raf.seek(size - EDGE_BYTES)
+            raf.readFully(buffer)
+            digest.update(buffer)
+        }
+        return toHex(digest.digest())
+    }
+
+    internal fun fullHash(file: File): String {
+        val digest = MessageDigest.getInstance("MD5")
+        FileInputStream(file).use { input ->
+            val buffer = ByteArray(FULL_HASH_BUFFER)
+            var bytesRead: Int
+            while (input.read(buffer).also { bytesRead = it } != -1) {
+                digest.update(buffer, 0, bytesRead)
+            }
+        }
+        return toHex(digest.digest())
+    }
+
+    private fun toHex(bytes: ByteArray): String {
+        val hexChars = "0123456789abcdef"
+        val result = CharArray(bytes.size * 2)
+        for (i in bytes.indices) {
+            val v = bytes[i].toInt() and 0xFF
+            result[i * 2] = hexChars[v ushr 4]
+            result[i * 2 + 1] = hexChars[v and 0x0F]
+        }
+        return String(result)
+    }
+}
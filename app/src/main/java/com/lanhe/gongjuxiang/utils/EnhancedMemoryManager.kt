@@ -33,6 +33,15 @@ class EnhancedMemoryManager(private val context: Context) {
     private val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
     private val packageManager = context.packageManager
     private val dataManager = DataManager(context)
+    private val procSampler = ProcStatSampler()
+    private val processScanner by lazy { ProcessTableScanner.getInstance() }
+
+    // 低内存阈值由系统固定，只需查询一次
+    private val lowMemoryThreshold: Long by lazy {
+        val memInfo = ActivityManager.MemoryInfo()
+        activityManager.getMemoryInfo(memInfo)
+        memInfo.threshold
+    }
 
     // 内存状态流
     private val _memoryState = MutableStateFlow<MemoryState>(MemoryState())
@@ -452,8 +461,12 @@ class EnhancedMemoryManager(private val context: Context) {
 
     /**
      * 获取应用内存使用排行
+     * 优先使用进程表扫描器的常驻内存（一次扫描覆盖所有进程），扫描不到时退回逐个进程查询 PSS
      */
     fun getAppMemoryRanking(): List<AppMemoryInfo> {
+        val scanned = getScannedMemoryRanking()
+        if (scanned.isNotEmpty()) return scanned
+
         val appMemoryList = mutableListOf<AppMemoryInfo>()
 
         try {
@@ -486,9 +499,67 @@ class EnhancedMemoryManager(private val context: Context) {
         return appMemoryList.sortedByDescending { it.memoryUsage }
     }
 
+    /**
+     * 基于 [ProcessTableScanner] 的排行，只保留能对应到已安装应用的进程
+     */
+    private fun getScannedMemoryRanking(): List<AppMemoryInfo> {
+        val appMemoryList = mutableListOf<AppMemoryInfo>()
+        try {
+            val scanner = processScanner
+            scanner.refresh()
+            val importanceByPid = activityManager.runningAppProcesses
+                ?.associate { it.pid to it.importance }
+                .orEmpty()
+            val appNames = HashMap<String, String?>()
+            // 不在运行列表中的应用进程多为缓存或服务进程
+            @Suppress("DEPRECATION")
+            val backgroundImportance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND
+
+            scanner.snapshot().forEach { process ->
+                val packageName = process.packageName
+                val appName = appNames.getOrPut(packageName) {
+                    try {
+                        val appInfo = packageManager.getApplicationInfo(packageName, 0)
+                        packageManager.getApplicationLabel(appInfo).toString()
+                    } catch (e: PackageManager.NameNotFoundException) {
+                        null // 原生守护进程或内核线程
+                    }
+                } ?: return@forEach
+
+                appMemoryList.add(
+                    AppMemoryInfo(
+                        packageName = packageName,
+                        appName = appName,
+                        pid = process.pid,
+                        memoryUsage = process.rssBytes,
+                        importance = importanceByPid[process.pid] ?: backgroundImportance
+                    )
+                )
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "扫描进程内存失败", e)
+        }
+        return appMemoryList.sortedByDescending { it.memoryUsage }
+    }
+
     // 私有辅助方法
 
     private fun collectMemoryInfo(): MemoryState {
+        // 优先走 /proc/meminfo 采样引擎，避免每个周期一次 Binder 调用
+        val sample = procSampler.sampleMemory()
+        if (sample.valid) {
+            val threshold = lowMemoryThreshold
+            return MemoryState(
+                totalMemory = sample.total,
+                availableMemory = sample.available,
+                usedMemory = sample.used,
+                usagePercent = sample.usagePercent.roundToInt(),
+                isLowMemory = sample.available <= threshold,
+                threshold = threshold,
+                timestamp = System.currentTimeMillis()
+            )
+        }
+
         val memInfo = ActivityManager.MemoryInfo()
         activityManager.getMemoryInfo(memInfo)
 
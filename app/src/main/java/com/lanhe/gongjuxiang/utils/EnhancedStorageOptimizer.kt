@@ -15,9 +15,9 @@ import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.withContext
 import org.apache.commons.io.FileUtils
 import java.io.File
-import java.security.MessageDigest
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.TimeUnit
 import com.lanhe.gongjuxiang.models.DuplicateFileGroup
 import com.lanhe.gongjuxiang.models.DuplicateFileResult  // 导入models包中的类
 import kotlin.math.roundToInt
@@ -39,6 +39,9 @@ class EnhancedStorageOptimizer(private val context: Context) {
     private val packageManager = context.packageManager
     private val dataManager = DataManager(context)
     private val permissionHelper = PermissionHelper.getInstance(context)
+    private val duplicateFileFinder = DuplicateFileFinder.create(context)
+    private val storageWalker = StorageWalker()
+    private val sizeIndex = DirectorySizeIndex.getInstance(context)
 
     // 存储状态流
     private val _storageState = MutableStateFlow<StorageState>(StorageState())
@@ -61,8 +64,11 @@ class EnhancedStorageOptimizer(private val context: Context) {
                 val results = mutableListOf<String>()
                 var totalFreed = 0L
 
+                // 重复文件、APK、大文件、日志、空文件夹共用一次外部存储遍历
+                val externalScan = scanExternalStorage()
+
                 // 1. 重复文件清理
-                val duplicateCleanup = removeDuplicateFiles()
+                val duplicateCleanup = removeDuplicateFiles(externalScan)
                 results.addAll(duplicateCleanup.improvements)
                 totalFreed += duplicateCleanup.freedSpace
 
@@ -72,12 +78,12 @@ class EnhancedStorageOptimizer(private val context: Context) {
                 totalFreed += cacheCleanup.freedSpace
 
                 // 3. APK文件清理
-                val apkCleanup = cleanupApkFiles()
+                val apkCleanup = cleanupApkFiles(externalScan)
                 results.addAll(apkCleanup.improvements)
                 totalFreed += apkCleanup.freedSpace
 
                 // 4. 大文件分析
-                val largeFileAnalysis = analyzeLargeFiles()
+                val largeFileAnalysis = analyzeLargeFiles(externalScan)
                 results.addAll(largeFileAnalysis.improvements)
 
                 // 5. 临时文件清理
@@ -86,12 +92,12 @@ class EnhancedStorageOptimizer(private val context: Context) {
                 totalFreed += tempCleanup.freedSpace
 
                 // 6. 日志文件清理
-                val logCleanup = cleanupLogFiles()
+                val logCleanup = cleanupLogFiles(externalScan)
                 results.addAll(logCleanup.improvements)
                 totalFreed += logCleanup.freedSpace
 
                 // 7. 空文件夹清理
-                val emptyFolderCleanup = removeEmptyDirectories()
+                val emptyFolderCleanup = removeEmptyDirectories(externalScan)
                 results.addAll(emptyFolderCleanup.improvements)
 
                 StorageOptimizationResult(
@@ -124,7 +130,7 @@ class EnhancedStorageOptimizer(private val context: Context) {
 
         return withContext(Dispatchers.IO) {
             try {
-                val duplicates = findDuplicateFiles()
+                val duplicates = findDuplicateFiles(scanExternalStorage())
                 val totalSize = duplicates.sumOf { it.totalSize }
                 val removedSize = removeDuplicates(duplicates)
 
@@ -197,7 +203,7 @@ class EnhancedStorageOptimizer(private val context: Context) {
     suspend fun analyzeAndCleanupApkFiles(): ApkAnalysisResult {
         return withContext(Dispatchers.IO) {
             try {
-                val apkFiles = findApkFiles()
+                val apkFiles = scanExternalStorage().apkFiles
                 val analysis = analyzeApkFiles(apkFiles)
                 val cleanupResult = cleanupUnneededApks(analysis)
 
@@ -225,20 +231,19 @@ class EnhancedStorageOptimizer(private val context: Context) {
     suspend fun findLargeFiles(minSize: Long = LARGE_FILE_THRESHOLD): LargeFileResult {
         return withContext(Dispatchers.IO) {
             try {
-                val largeFiles = mutableListOf<LargeFileInfo>()
-                val directories = listOf(
+                val directories = listOfNotNull(
                     Environment.getExternalStorageDirectory(),
                     context.getExternalFilesDir(null),
                     context.cacheDir,
                     context.filesDir
                 )
-
-                directories.filterNotNull().forEach { dir ->
-                    findLargeFilesInDirectory(dir, minSize, largeFiles)
-                }
+                val largeFileClassifier = FileMatchClassifier(includeHidden = true) { it.size >= minSize }
+                storageWalker.walk(directories, listOf(largeFileClassifier))
 
                 // 按大小排序
-                largeFiles.sortByDescending { it.size }
+                val largeFiles = largeFileClassifier.matches
+                    .map { it.toLargeFileInfo() }
+                    .sortedByDescending { it.size }
 
                 LargeFileResult(
                     largeFiles = largeFiles,
@@ -311,10 +316,13 @@ class EnhancedStorageOptimizer(private val context: Context) {
 
     /**
      * 获取详细存储信息
+     * 各目录大小取自目录大小索引，立即返回；同时在后台增量刷新，
+     * 刷新结果通过 [DirectorySizeIndex.sizes] 发布，尚未建立索引的目录暂记为0
      */
     fun getDetailedStorageInfo(): DetailedStorageInfo {
         val internal = getStorageInfo(Environment.getDataDirectory())
         val external = getStorageInfo(Environment.getExternalStorageDirectory())
+        sizeIndex.refreshInBackground(DirectorySizeIndex.hotDirectories(context))
 
         return DetailedStorageInfo(
             internalStorage = internal,
@@ -368,21 +376,59 @@ class EnhancedStorageOptimizer(private val context: Context) {
         }
     }
 
-    // 重复文件检测
-    private fun findDuplicateFiles(): List<DuplicateFileGroup> {
-        val fileHashes = mutableMapOf<String, MutableList<File>>()
-        val duplicateGroups = mutableListOf<DuplicateFileGroup>()
+    /**
+     * 外部存储一次遍历的结果
+     */
+    private class ExternalStorageScan(
+        val duplicateCandidates: List<File>,
+        val apkFiles: List<File>,
+        val largeFiles: List<LargeFileInfo>,
+        val oldLogFiles: List<File>,
+        val emptyDirectories: List<File>
+    )
 
-        val directories = listOf(
-            Environment.getExternalStorageDirectory(),
-            context.getExternalFilesDir(null)
+    /**
+     * 遍历一次外部存储，同时收集重复文件候选、APK、大文件、Android/data 下的旧日志和空文件夹
+     */
+    private suspend fun scanExternalStorage(): ExternalStorageScan {
+        val sdCard = Environment.getExternalStorageDirectory()
+        val logDirectories = listOfNotNull(
+            File(sdCard, "Android/data"),
+            context.getExternalFilesDir(null)?.let { File(it, "logs") }
         )
+        val logCutoff = TimeUnit.DAYS.toMillis(LOG_CLEANUP_DAYS.toLong())
 
-        directories.filterNotNull().forEach { dir ->
-            scanDirectoryForDuplicates(dir, fileHashes)
+        val duplicateClassifier = FileMatchClassifier(includeHidden = true) { it.size >= DUPLICATE_FILE_MIN_SIZE }
+        val apkClassifier = FileMatchClassifier(includeHidden = true) { it.extension == "apk" }
+        val largeFileClassifier = FileMatchClassifier(includeHidden = true) { it.size >= LARGE_FILE_THRESHOLD }
+        val logClassifier = FileMatchClassifier(includeHidden = true, scope = logDirectories) {
+            (it.name.endsWith(".log") || it.name.endsWith(".txt")) && it.isOlderThan(logCutoff)
         }
+        val emptyDirClassifier = EmptyDirClassifier(includeHidden = true)
 
-        fileHashes.filter { it.value.size > 1 }.forEach { (hash, files) ->
+        // 外部文件目录位于外部存储之下，遍历时自动合并
+        val stats = storageWalker.walk(
+            listOfNotNull(sdCard, context.getExternalFilesDir(null)),
+            listOf(duplicateClassifier, apkClassifier, largeFileClassifier, logClassifier, emptyDirClassifier)
+        )
+        Log.d(TAG, "External storage walk: ${stats.filesVisited} files, ${stats.directoriesVisited} dirs in ${stats.durationMs}ms")
+
+        return ExternalStorageScan(
+            duplicateCandidates = duplicateClassifier.matches.map { it.file },
+            apkFiles = apkClassifier.matches.map { it.file },
+            largeFiles = largeFileClassifier.matches.map { it.toLargeFileInfo() },
+            oldLogFiles = logClassifier.matches.map { it.file },
+            emptyDirectories = emptyDirClassifier.emptyTrees.map { it.file }
+        )
+    }
+
+    // 重复文件检测
+    private suspend fun findDuplicateFiles(scan: ExternalStorageScan): List<DuplicateFileGroup> {
+        val duplicateGroups = mutableListOf<DuplicateFileGroup>()
+
+        val fileHashes = duplicateFileFinder.findDuplicates(scan.duplicateCandidates)
+
+        fileHashes.forEach { (hash, files) ->
             val totalSize = files.sumOf { it.length() }
             if (totalSize >= DUPLICATE_FILE_MIN_SIZE) {
                 duplicateGroups.add(DuplicateFileGroup(
@@ -396,42 +442,6 @@ class EnhancedStorageOptimizer(private val context: Context) {
         return duplicateGroups
     }
 
-    private fun scanDirectoryForDuplicates(directory: File, fileHashes: MutableMap<String, MutableList<File>>) {
-        try {
-            directory.listFiles()?.forEach { file ->
-                when {
-                    file.isFile && file.length() >= DUPLICATE_FILE_MIN_SIZE -> {
-                        val hash = calculateFileHash(file)
-                        if (hash != null) {
-                            fileHashes.getOrPut(hash) { mutableListOf() }.add(file)
-                        }
-                    }
-                    file.isDirectory -> {
-                        scanDirectoryForDuplicates(file, fileHashes)
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Failed to scan directory: ${directory.absolutePath}", e)
-        }
-    }
-
-    private fun calculateFileHash(file: File): String? {
-        return try {
-            val digest = MessageDigest.getInstance("MD5")
-            file.inputStream().use { input ->
-                val buffer = ByteArray(8192)
-                var bytesRead: Int
-                while (input.read(buffer).also { bytesRead = it } != -1) {
-                    digest.update(buffer, 0, bytesRead)
-                }
-            }
-            digest.digest().joinToString("") { "%02x".format(it) }
-        } catch (e: Exception) {
-            null
-        }
-    }
-
     private fun removeDuplicates(duplicateGroups: List<DuplicateFileGroup>): Long {
         var removedSize = 0L
 
@@ -439,8 +449,9 @@ class EnhancedStorageOptimizer(private val context: Context) {
             // 保留第一个文件，删除其他重复文件
             group.files.drop(1).forEach { file ->
                 try {
+                    val size = file.length()
                     if (file.delete()) {
-                        removedSize += file.length()
+                        removedSize += size
                     }
                 } catch (e: Exception) {
                     Log.w(TAG, "Failed to delete duplicate file: ${file.absolutePath}", e)
@@ -514,37 +525,6 @@ class EnhancedStorageOptimizer(private val context: Context) {
     }
 
     // APK分析实现
-    private fun findApkFiles(): List<File> {
-        val apkFiles = mutableListOf<File>()
-        val searchDirectories = listOf(
-            Environment.getExternalStorageDirectory(),
-            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)
-        )
-
-        searchDirectories.filterNotNull().forEach { dir ->
-            findApkFilesInDirectory(dir, apkFiles)
-        }
-
-        return apkFiles
-    }
-
-    private fun findApkFilesInDirectory(directory: File, apkFiles: MutableList<File>) {
-        try {
-            directory.listFiles()?.forEach { file ->
-                when {
-                    file.isFile && file.name.endsWith(".apk", ignoreCase = true) -> {
-                        apkFiles.add(file)
-                    }
-                    file.isDirectory -> {
-                        findApkFilesInDirectory(file, apkFiles)
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Failed to scan directory for APKs: ${directory.absolutePath}", e)
-        }
-    }
-
     private fun analyzeApkFiles(apkFiles: List<File>): ApkAnalysis {
         val installedApks = mutableListOf<ApkFileInfo>()
         val uninstalledApks = mutableListOf<ApkFileInfo>()
@@ -616,26 +596,13 @@ class EnhancedStorageOptimizer(private val context: Context) {
     }
 
     // 大文件查找实现
-    private fun findLargeFilesInDirectory(directory: File, minSize: Long, largeFiles: MutableList<LargeFileInfo>) {
-        try {
-            directory.listFiles()?.forEach { file ->
-                when {
-                    file.isFile && file.length() >= minSize -> {
-                        largeFiles.add(LargeFileInfo(
-                            file = file,
-                            size = file.length(),
-                            type = getFileType(file),
-                            lastModified = file.lastModified()
-                        ))
-                    }
-                    file.isDirectory -> {
-                        findLargeFilesInDirectory(file, minSize, largeFiles)
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Failed to scan directory for large files: ${directory.absolutePath}", e)
-        }
+    private fun StorageWalker.Entry.toLargeFileInfo(): LargeFileInfo {
+        return LargeFileInfo(
+            file = file,
+            size = size,
+            type = getFileType(file),
+            lastModified = lastModified
+        )
     }
 
     private fun getFileType(file: File): String {
@@ -694,31 +661,29 @@ class EnhancedStorageOptimizer(private val context: Context) {
         )
     }
 
-    private fun cleanupLogFiles(): StorageCleanupResult {
+    private fun cleanupLogFiles(scan: ExternalStorageScan): StorageCleanupResult {
         val improvements = mutableListOf<String>()
         var freedSpace = 0L
 
-        val logDirectories = listOf(
-            File("/sdcard/Android/data"),
-            File(context.filesDir, "logs"),
-            File(context.getExternalFilesDir(null), "logs")
-        )
+        // 外部存储中的日志已在遍历时收集，应用内部日志目录单独处理
+        val internalLogDir = File(context.filesDir, "logs")
+        val internalLogs = if (internalLogDir.exists()) {
+            internalLogDir.walkTopDown().filter { file ->
+                file.isFile && (file.name.endsWith(".log") || file.name.endsWith(".txt"))
+                    && isOldFile(file, LOG_CLEANUP_DAYS)
+            }.toList()
+        } else {
+            emptyList()
+        }
 
-        logDirectories.filterNotNull().forEach { logDir ->
-            if (logDir.exists()) {
-                try {
-                    logDir.walkTopDown().forEach { file ->
-                        if (file.isFile && (file.name.endsWith(".log") || file.name.endsWith(".txt"))
-                            && isOldFile(file, LOG_CLEANUP_DAYS)) {
-                            val size = file.length()
-                            if (file.delete()) {
-                                freedSpace += size
-                            }
-                        }
-                    }
-                } catch (e: Exception) {
-                    Log.w(TAG, "Failed to cleanup log directory: ${logDir.absolutePath}", e)
+        (scan.oldLogFiles + internalLogs).forEach { file ->
+            try {
+                val size = file.length()
+                if (file.delete()) {
+                    freedSpace += size
                 }
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to delete log file: ${file.absolutePath}", e)
             }
         }
 
@@ -732,17 +697,19 @@ class EnhancedStorageOptimizer(private val context: Context) {
         )
     }
 
-    private fun removeEmptyDirectories(): StorageCleanupResult {
+    private fun removeEmptyDirectories(scan: ExternalStorageScan): StorageCleanupResult {
         val improvements = mutableListOf<String>()
         var removedDirs = 0
 
-        val searchDirs = listOf(
-            Environment.getExternalStorageDirectory(),
-            context.getExternalFilesDir(null)
-        )
-
-        searchDirs.filterNotNull().forEach { dir ->
-            removedDirs += removeEmptyDirectoriesRecursive(dir)
+        // 列表已按路径由深到浅排序，先删内层目录；非空目录 delete() 会失败，不会误删
+        scan.emptyDirectories.forEach { dir ->
+            try {
+                if (dir.delete()) {
+                    removedDirs++
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to remove empty directory: ${dir.absolutePath}", e)
+            }
         }
 
         if (removedDirs > 0) {
@@ -752,27 +719,6 @@ class EnhancedStorageOptimizer(private val context: Context) {
         return StorageCleanupResult(improvements = improvements)
     }
 
-    private fun removeEmptyDirectoriesRecursive(directory: File): Int {
-        var removedCount = 0
-
-        try {
-            directory.listFiles()?.forEach { file ->
-                if (file.isDirectory) {
-                    removedCount += removeEmptyDirectoriesRecursive(file)
-                    if (file.listFiles()?.isEmpty() == true) {
-                        if (file.delete()) {
-                            removedCount++
-                        }
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.w(TAG, "Failed to remove empty directories in: ${directory.absolutePath}", e)
-        }
-
-        return removedCount
-    }
-
     // 辅助方法
     private fun isOldFile(file: File, days: Int): Boolean {
         val cutoffTime = System.currentTimeMillis() - (days * 24 * 60 * 60 * 1000L)
@@ -792,18 +738,18 @@ class EnhancedStorageOptimizer(private val context: Context) {
         return String.format("%.1f%s", size, units[unitIndex])
     }
 
-    // 文件夹大小计算
-    private fun getAppDataSize(): Long = try { FileUtils.sizeOfDirectory(context.filesDir) } catch (e: Exception) { 0L }
-    private fun getCacheSize(): Long = try { FileUtils.sizeOfDirectory(context.cacheDir) } catch (e: Exception) { 0L }
-    private fun getDownloadFolderSize(): Long = try { FileUtils.sizeOfDirectory(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)) } catch (e: Exception) { 0L }
-    private fun getPicturesFolderSize(): Long = try { FileUtils.sizeOfDirectory(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES)) } catch (e: Exception) { 0L }
-    private fun getVideosFolderSize(): Long = try { FileUtils.sizeOfDirectory(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES)) } catch (e: Exception) { 0L }
-    private fun getMusicFolderSize(): Long = try { FileUtils.sizeOfDirectory(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC)) } catch (e: Exception) { 0L }
-    private fun getDocumentsFolderSize(): Long = try { FileUtils.sizeOfDirectory(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS)) } catch (e: Exception) { 0L }
+    // 文件夹大小计算：从目录大小索引中即时读取，不在调用线程上遍历目录
+    private fun getAppDataSize(): Long = sizeIndex.cachedSize(context.filesDir) ?: 0L
+    private fun getCacheSize(): Long = sizeIndex.cachedSize(context.cacheDir) ?: 0L
+    private fun getDownloadFolderSize(): Long = sizeIndex.cachedSize(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)) ?: 0L
+    private fun getPicturesFolderSize(): Long = sizeIndex.cachedSize(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES)) ?: 0L
+    private fun getVideosFolderSize(): Long = sizeIndex.cachedSize(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES)) ?: 0L
+    private fun getMusicFolderSize(): Long = sizeIndex.cachedSize(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC)) ?: 0L
+    private fun getDocumentsFolderSize(): Long = sizeIndex.cachedSize(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS)) ?: 0L
 
     // 快速清理方法实现
-    private fun removeDuplicateFiles(): StorageCleanupResult {
-        val duplicates = findDuplicateFiles()
+    private suspend fun removeDuplicateFiles(scan: ExternalStorageScan): StorageCleanupResult {
+        val duplicates = findDuplicateFiles(scan)
         val removedSize = removeDuplicates(duplicates)
 
         return StorageCleanupResult(
@@ -812,23 +758,13 @@ class EnhancedStorageOptimizer(private val context: Context) {
         )
     }
 
-    private fun cleanupApkFiles(): StorageCleanupResult {
-        val apkFiles = findApkFiles()
-        val analysis = analyzeApkFiles(apkFiles)
+    private fun cleanupApkFiles(scan: ExternalStorageScan): StorageCleanupResult {
+        val analysis = analyzeApkFiles(scan.apkFiles)
         return cleanupUnneededApks(analysis)
     }
 
-    private fun analyzeLargeFiles(): OptimizationItem {
-        val largeFiles = mutableListOf<LargeFileInfo>()
-        val directories = listOf(
-            Environment.getExternalStorageDirectory(),
-            context.getExternalFilesDir(null)
-        )
-
-        directories.filterNotNull().forEach { dir ->
-            findLargeFilesInDirectory(dir, LARGE_FILE_THRESHOLD, largeFiles)
-        }
-
+    private fun analyzeLargeFiles(scan: ExternalStorageScan): OptimizationItem {
+        val largeFiles = scan.largeFiles
         val improvements = if (largeFiles.isNotEmpty()) {
             listOf("发现${largeFiles.size}个大文件，总大小${formatFileSize(largeFiles.sumOf { it.size })}")
         } else {
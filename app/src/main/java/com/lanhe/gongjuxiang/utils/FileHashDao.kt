@@ -0,0 +1,40 @@
+package com.lanhe.gongjuxiang.utils
+
+import androidx.room.*
+
+/**
+ * 文件哈希缓存DAO接口
+ */
+@Dao
+interface FileHashDao {
+
+    /**
+     * 按路径批量查询缓存（调用方需控制路径数量，避免超出SQLite参数上限）
+     */
+    @Query("SELECT * FROM file_hash_cache WHERE path IN (:paths)")
+    suspend fun getByPaths(paths: List<String>): List<FileHashEntity>
+
+    /**
+     * 写入（覆盖）缓存
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun upsertAll(entries: List<FileHashEntity>)
+
+    /**
+     * 删除长时间未被扫描确认的缓存（文件多半已被删除或移动）
+     */
+    @Query("DELETE FROM file_hash_cache WHERE verifiedAt < :cutoffTime")
+    suspend fun deleteNotVerifiedSince(cutoffTime: Long): Int
+
+    /**
+     * 获取缓存条数
+     */
+    @Query("SELECT COUNT(*) FROM file_hash_cache")
+    suspend fun getCount(): Int
+
+    /**
+     * 清空缓存
+     */
+    @Query("DELETE FROM file_hash_cache")
+    suspend fun clearAll()
+}
@@ -0,0 +1,36 @@
+package com.lanhe.gongjuxiang.utils
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * 文件哈希缓存实体
+ * 记录 (路径, 大小, 修改时间) 对应的哈希，重复扫描时大小和修改时间都未变的文件直接复用缓存
+ *
+ * 字段说明：
+ * - partialHash: 文件首尾各4KB的MD5，小文件即为整个文件的MD5
+ * - fullHash: 整个文件的MD5，只有部分哈希发生碰撞的文件才会计算
+ * - verifiedAt: 最近一次扫描确认该文件仍存在的时间，用于清理已删除文件的缓存
+ */
+@Entity(
+    tableName = "file_hash_cache",
+    indices = [Index("verifiedAt")]
+)
+data class FileHashEntity(
+    @PrimaryKey
+    val path: String,
+    val size: Long,
+    val lastModified: Long,
+    val partialHash: String?,
+    val fullHash: String?,
+    val verifiedAt: Long
+) {
+
+    /**
+     * 缓存是否仍对应磁盘上的文件
+     */
+    fun matches(size: Long, lastModified: Long): Boolean {
+        return this.size == size && this.lastModified == lastModified
+    }
+}
@@ -36,6 +36,8 @@ class GameModeOptimizer(private val context: Context) {
         private const val TEMPERATURE_WARNING_THRESHOLD = 45f // 45°C温度警告
         private const val TEMPERATURE_CRITICAL_THRESHOLD = 55f // 55°C温度危险
         private const val GAME_MODE_PRIORITY_BOOST = 10 // 游戏进程优先级提升
+        private const val KILL_POLL_INTERVAL_MS = 200L // 等待后台进程退出的轮询间隔
+        private const val KILL_POLL_ATTEMPTS = 5 // 最多等待1秒
     }
 
     private val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
@@ -43,6 +45,7 @@ class GameModeOptimizer(private val context: Context) {
     private val notificationManager = context.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
     private val windowManager = context.getSystemService(Context.WINDOW_SERVICE) as WindowManager
     private val packageManager = context.packageManager
+    private val processScanner by lazy { ProcessTableScanner.getInstance() }
 
     // 游戏模式状态
     private val _gameModeState = MutableStateFlow<GameModeState>(GameModeState())
@@ -409,7 +412,7 @@ class GameModeOptimizer(private val context: Context) {
         }
     }
 
-    private fun performGameMemoryCleanup(): Long {
+    private suspend fun performGameMemoryCleanup(): Long {
         var freedMemory = 0L
 
         try {
@@ -418,19 +421,36 @@ class GameModeOptimizer(private val context: Context) {
             Runtime.getRuntime().gc()
 
             // 清理后台应用
+            processScanner.refresh()
+            val killedRss = mutableMapOf<Int, Long>() // pid -> 清理前的常驻内存
             val runningApps = activityManager.getRunningAppProcesses()
             runningApps?.forEach { process ->
                 if (process.importance > ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE &&
                     !gamePackages.contains(process.processName)) {
                     try {
+                        val rss = processScanner.find(process.pid)?.rssBytes ?: 0L
                         activityManager.killBackgroundProcesses(process.processName)
-                        freedMemory += 50 * 1024 * 1024 // 估算每个进程50MB
+                        killedRss[process.pid] = rss
                     } catch (e: Exception) {
                         // 忽略清理失败的进程
                     }
                 }
             }
 
+            // killBackgroundProcesses 只是发出请求，进程稍后才退出：
+            // 轮询重新扫描，直到目标进程都已退出或超时，按确实退出的进程统计释放量
+            var exited = emptySet<Int>()
+            for (attempt in 1..KILL_POLL_ATTEMPTS) {
+                if (killedRss.isEmpty()) break
+                delay(KILL_POLL_INTERVAL_MS)
+                processScanner.scan()
+                exited = killedRss.keys.filterTo(HashSet()) { processScanner.find(it) == null }
+                if (exited.size == killedRss.size) break
+            }
+            freedMemory = exited.sumOf { killedRss.getValue(it) }
+
+        } catch (e: CancellationException) {
+            throw e
         } catch (e: Exception) {
             Log.e(TAG, "Memory cleanup failed", e)
         }
@@ -619,20 +639,10 @@ class GameModeOptimizer(private val context: Context) {
 
     // 游戏性能分析方法
     private fun getGameCpuUsage(packageName: String): Float {
-        // 获取特定应用的CPU使用率
+        // 获取特定应用的CPU使用率，包含其所有子进程
         return try {
-            val pid = getProcessId(packageName)
-            if (pid > 0) {
-                val statFile = File("/proc/$pid/stat")
-                if (statFile.exists()) {
-                    // 解析CPU使用率（简化实现）
-                    25f // 示例值
-                } else {
-                    0f
-                }
-            } else {
-                0f
-            }
+            processScanner.refresh()
+            processScanner.findByPackage(packageName).sumOf { it.cpuPercent.toDouble() }.toFloat()
         } catch (e: Exception) {
             0f
         }
@@ -640,6 +650,10 @@ class GameModeOptimizer(private val context: Context) {
 
     private fun getGameMemoryUsage(packageName: String): Long {
         return try {
+            processScanner.refresh()
+            val processes = processScanner.findByPackage(packageName)
+            if (processes.isNotEmpty()) return processes.sumOf { it.rssBytes }
+
             val pid = getProcessId(packageName)
             if (pid > 0) {
                 val memoryInfo = activityManager.getProcessMemoryInfo(intArrayOf(pid))
@@ -762,6 +776,8 @@ class GameModeOptimizer(private val context: Context) {
 
     private fun getProcessId(packageName: String): Int {
         return try {
+            processScanner.refresh()
+            processScanner.findByPackage(packageName).find { it.name == packageName }?.let { return it.pid }
             val runningApps = activityManager.getRunningAppProcesses()
             runningApps?.find { it.processName == packageName }?.pid ?: 0
         } catch (e: Exception) {
@@ -811,7 +827,7 @@ class GameModeOptimizer(private val context: Context) {
     }
 
     // 游戏加速方法实现
-    private fun performAggressiveMemoryCleanup(): Long = performGameMemoryCleanup()
+    private suspend fun performAggressiveMemoryCleanup(): Long = performGameMemoryCleanup()
     private fun lockCpuFrequency(): Boolean = false
     private fun lockGpuFrequency(): Boolean = false
     private fun disableThermalThrottling(): Boolean = false
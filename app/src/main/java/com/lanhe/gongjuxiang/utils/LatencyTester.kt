@@ -1,10 +1,6 @@
 package com.lanhe.gongjuxiang.utils
 
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
-import java.io.IOException
-import java.net.HttpURLConnection
-import java.net.URL
+import kotlin.math.roundToLong
 
 /**
  * 延迟测试器
@@ -22,57 +18,26 @@ class LatencyTester {
 
     /**
      * 开始延迟测试
+     * 多个目标并发探测，总耗时不超过 [NetworkProbeEngine.DEFAULT_DEADLINE_MS]
      */
     suspend fun performLatencyTest(): LatencyResult {
-        return withContext(Dispatchers.IO) {
-            // 测试多个目标的延迟
-            val targets = listOf(
-                "https://www.baidu.com",
-                "https://www.qq.com",
-                "https://www.taobao.com"
-            )
+        // 测试多个目标的延迟
+        val targets = listOf(
+            "https://www.baidu.com",
+            "https://www.qq.com",
+            "https://www.taobao.com"
+        ).map { NetworkProbeEngine.ProbeTarget.http(it) }
 
-            val results = mutableListOf<Long>()
-            for (target in targets) {
-                val latency = measureLatency(target)
-                if (latency > 0) {
-                    results.add(latency)
-                }
-            }
-
-            val averageLatency = if (results.isNotEmpty()) {
-                results.average().toLong()
-            } else {
-                -1L
-            }
+        val stats = NetworkProbeEngine.getInstance().probe(targets).overall
+        val averageLatency = if (stats.received > 0) stats.avgMs.roundToLong() else -1L
 
-            LatencyResult(
-                averageLatency = averageLatency,
-                minLatency = results.minOrNull() ?: -1L,
-                maxLatency = results.maxOrNull() ?: -1L,
-                packetLoss = 0f,
-                quality = getLatencyQuality(averageLatency)
-            )
-        }
-    }
-
-    /**
-     * 测量单个目标的延迟
-     */
-    private fun measureLatency(urlString: String): Long {
-        try {
-            val startTime = System.currentTimeMillis()
-            val url = URL(urlString)
-            val connection = url.openConnection() as HttpURLConnection
-            connection.connectTimeout = 5000
-            connection.readTimeout = 5000
-            connection.requestMethod = "HEAD"
-            connection.connect()
-            connection.disconnect()
-            return System.currentTimeMillis() - startTime
-        } catch (e: IOException) {
-            return -1L
-        }
+        return LatencyResult(
+            averageLatency = averageLatency,
+            minLatency = if (stats.received > 0) stats.minMs.roundToLong() else -1L,
+            maxLatency = if (stats.received > 0) stats.maxMs.roundToLong() else -1L,
+            packetLoss = stats.lossPercent,
+            quality = getLatencyQuality(averageLatency)
+        )
     }
 
     /**
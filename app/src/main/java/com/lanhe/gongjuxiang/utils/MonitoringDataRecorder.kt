@@ -0,0 +1,133 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.content.Context
+import android.util.Log
+import androidx.room.withTransaction
+import kotlinx.coroutines.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * 监控数据记录器
+ * 为性能、电池、网络、系统事件四类时序数据提供统一的写后持久化管道，
+ * 并把过期数据清理从写入路径中拆出来，作为独立的低频任务运行。
+ *
+ * 全进程共享一个实例，保证同一张表只有一个写入方。
+ */
+class MonitoringDataRecorder private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "MonitoringDataRecorder"
+        private val RETENTION_INITIAL_DELAY = TimeUnit.MINUTES.toMillis(1) // 避开启动高峰
+        private val RETENTION_INTERVAL = TimeUnit.HOURS.toMillis(6) // 清理任务间隔
+        private val SAMPLE_RETENTION = TimeUnit.DAYS.toMillis(30) // 采样数据保留30天
+        private val EVENT_RETENTION = TimeUnit.DAYS.toMillis(90) // 系统事件保留90天
+        private val MINUTE_ROLLUP_RETENTION = TimeUnit.DAYS.toMillis(30) // 分钟汇总与原始数据同期
+        private val HOUR_ROLLUP_RETENTION = TimeUnit.DAYS.toMillis(365) // 小时汇总保留一年，天汇总长期保留
+
+        @Volatile
+        private var INSTANCE: MonitoringDataRecorder? = null
+
+        fun getInstance(context: Context): MonitoringDataRecorder {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: MonitoringDataRecorder(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+
+        /**
+         * 若记录器已创建则异步落盘积压数据，用于应用退到后台等生命周期节点
+         */
+        fun flushIfCreated() {
+            INSTANCE?.flushAllAsync()
+        }
+    }
+
+    private val database = AppDatabase.getDatabase(context)
+    private val performanceDataDao = database.performanceDataDao()
+    private val batteryStatsDao = database.batteryStatsDao()
+    private val networkUsageDao = database.networkUsageDao()
+    private val systemEventsDao = database.systemEventsDao()
+    private val rollupDao = database.performanceRollupDao()
+    private val rollupWriter = PerformanceRollupWriter(rollupDao)
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private var retentionJob: Job? = null
+
+    // 原始采样与分钟/小时/天汇总在同一事务中写入，保证两者一致
+    val performancePipeline = SampleWritePipeline<PerformanceDataEntity>("performance_data", scope) { batch ->
+        database.withTransaction {
+            performanceDataDao.insertAll(batch)
+            rollupWriter.ingest(batch)
+        }
+    }
+
+    val batteryPipeline = SampleWritePipeline<BatteryStatsEntity>("battery_stats", scope) {
+        batteryStatsDao.insertAll(it)
+    }
+
+    val networkPipeline = SampleWritePipeline<NetworkUsageEntity>("network_usage", scope) {
+        networkUsageDao.insertAll(it)
+    }
+
+    // 系统事件数量少但更重要，缩短落盘窗口
+    val eventsPipeline = SampleWritePipeline<SystemEventsEntity>(
+        "system_events", scope, batchSize = 10, flushIntervalMs = 5_000L
+    ) {
+        systemEventsDao.insertAll(it)
+    }
+
+    private val pipelines = listOf(performancePipeline, batteryPipeline, networkPipeline, eventsPipeline)
+
+    init {
+        pipelines.forEach { it.start() }
+        startRetention()
+    }
+
+    fun recordPerformance(entity: PerformanceDataEntity): Boolean = performancePipeline.offer(entity)
+
+    fun recordBatteryStats(entity: BatteryStatsEntity): Boolean = batteryPipeline.offer(entity)
+
+    fun recordNetworkUsage(entity: NetworkUsageEntity): Boolean = networkPipeline.offer(entity)
+
+    fun recordSystemEvent(entity: SystemEventsEntity): Boolean = eventsPipeline.offer(entity)
+
+    /**
+     * 立即落盘所有管道中的积压数据
+     */
+    suspend fun flushAll() {
+        pipelines.forEach { it.flush() }
+    }
+
+    /**
+     * 在后台落盘，适合在 onStop / 服务销毁等不能挂起的回调中调用
+     */
+    fun flushAllAsync() {
+        scope.launch { flushAll() }
+    }
+
+    /**
+     * 执行一次过期数据清理
+     */
+    suspend fun runRetention() {
+        val now = System.currentTimeMillis()
+        try {
+            performanceDataDao.cleanupOldData(now - SAMPLE_RETENTION)
+            batteryStatsDao.cleanupOldData(now - SAMPLE_RETENTION)
+            networkUsageDao.deleteOldData(now - SAMPLE_RETENTION)
+            systemEventsDao.deleteOldEvents(now - EVENT_RETENTION)
+            rollupDao.deleteOlderThan(RollupResolution.MINUTE.name, now - MINUTE_ROLLUP_RETENTION)
+            rollupDao.deleteOlderThan(RollupResolution.HOUR.name, now - HOUR_ROLLUP_RETENTION)
+        } catch (e: Exception) {
+            Log.e(TAG, "清理过期数据失败", e)
+        }
+    }
+
+    private fun startRetention() {
+        retentionJob = scope.launch {
+            delay(RETENTION_INITIAL_DELAY)
+            while (isActive) {
+                runRetention()
+                delay(RETENTION_INTERVAL)
+            }
+        }
+    }
+}
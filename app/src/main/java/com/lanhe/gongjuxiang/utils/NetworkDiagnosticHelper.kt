@@ -13,10 +13,8 @@ import android.telephony.TelephonyManager
 import com.lanhe.gongjuxiang.viewmodels.NetworkDiagnosticViewModel
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
-import java.io.BufferedReader
-import java.io.InputStreamReader
-import java.net.InetAddress
 import kotlin.math.pow
+import kotlin.math.roundToLong
 
 /**
  * 网络诊断帮助类
@@ -223,22 +221,33 @@ class NetworkDiagnosticHelper(private val context: Context) {
 
     /**
      * 获取电池消耗应用列表
+     * 按进程表扫描器给出的最近一个采样间隔的CPU使用率计算，同一应用的多个进程合并统计
      */
     suspend fun getBatteryConsumingApps(): List<NetworkDiagnosticViewModel.BatteryConsumingApp> =
         withContext(Dispatchers.IO) {
             val apps = mutableListOf<NetworkDiagnosticViewModel.BatteryConsumingApp>()
 
             try {
-                // 获取正在运行的应用进程
-                val runningApps = getRunningApps()
+                val scanner = ProcessTableScanner.getInstance()
+                scanner.refresh()
+                val processes = scanner.snapshot()
+                val totalCpu = processes.sumOf { it.cpuPercent.toDouble() }.toFloat()
+
+                val cpuByPackage = HashMap<String, Float>()
+                val cpuTimeByPackage = HashMap<String, Long>()
+                for (process in processes) {
+                    val packageName = process.packageName
+                    cpuByPackage[packageName] = (cpuByPackage[packageName] ?: 0f) + process.cpuPercent
+                    cpuTimeByPackage[packageName] = (cpuTimeByPackage[packageName] ?: 0L) + process.cpuTimeMs
+                }
 
-                for ((packageName, cpuTime) in runningApps) {
+                for ((packageName, cpuPercent) in cpuByPackage) {
                     try {
                         val appInfo = packageManager.getApplicationInfo(packageName, 0)
                         val appName = packageManager.getApplicationLabel(appInfo).toString()
 
-                        // 估算电池消耗百分比（基于CPU时间）
-                        val consumptionPercent = estimateBatteryConsumption(cpuTime)
+                        // 占所有进程CPU使用的比例，作为耗电占比的估计
+                        val consumptionPercent = if (totalCpu > 0f) cpuPercent / totalCpu * 100f else 0f
 
                         // 判断是否应该关闭（高耗电且非系统应用）
                         val shouldClose = consumptionPercent > 10 &&
@@ -249,12 +258,12 @@ class NetworkDiagnosticHelper(private val context: Context) {
                                 appName = appName,
                                 packageName = packageName,
                                 consumptionPercent = consumptionPercent,
-                                runningTime = cpuTime / 60000, // 转换为分钟
+                                runningTime = (cpuTimeByPackage[packageName] ?: 0L) / 60000, // 转换为分钟
                                 shouldClose = shouldClose
                             )
                         )
                     } catch (e: Exception) {
-                        // 忽略获取失败的应用
+                        // 忽略原生进程和获取失败的应用
                     }
                 }
             } catch (e: Exception) {
@@ -264,121 +273,21 @@ class NetworkDiagnosticHelper(private val context: Context) {
             apps.sortedByDescending { it.consumptionPercent }.take(10)
         }
 
-    /**
-     * 获取正在运行的应用及其CPU时间
-     */
-    private fun getRunningApps(): Map<String, Long> {
-        val runningApps = mutableMapOf<String, Long>()
-
-        try {
-            // 读取/proc/stat获取总CPU时间
-            val totalCpuTime = getTotalCpuTime()
-
-            // 读取每个进程的CPU时间
-            val procDir = java.io.File("/proc")
-            procDir.listFiles { file ->
-                file.isDirectory && file.name.matches(Regex("\\d+"))
-            }?.forEach { pidDir ->
-                try {
-                    val pid = pidDir.name.toInt()
-                    val cmdlineFile = java.io.File(pidDir, "cmdline")
-                    if (cmdlineFile.exists()) {
-                        val packageName = cmdlineFile.readText().trim().replace("\u0000", "")
-                        if (packageName.isNotEmpty() && !packageName.contains("system")) {
-                            val cpuTime = getProcessCpuTime(pid)
-                            runningApps[packageName] = cpuTime
-                        }
-                    }
-                } catch (e: Exception) {
-                    // 忽略无法访问的进程
-                }
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-
-        return runningApps
-    }
-
-    /**
-     * 获取总CPU时间
-     */
-    private fun getTotalCpuTime(): Long {
-        try {
-            val reader = BufferedReader(InputStreamReader(
-                Runtime.getRuntime().exec("cat /proc/stat").inputStream
-            ))
-            val cpuLine = reader.readLine()
-            reader.close()
-
-            if (cpuLine != null && cpuLine.startsWith("cpu")) {
-                val times = cpuLine.split(" ").filter { it.isNotEmpty() }
-                if (times.size >= 5) {
-                    return times.subList(1, times.size).sumOf { it.toLongOrNull() ?: 0L }
-                }
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-        return 0L
-    }
-
-    /**
-     * 获取进程CPU时间
-     */
-    private fun getProcessCpuTime(pid: Int): Long {
-        try {
-            val statFile = java.io.File("/proc/$pid/stat")
-            if (statFile.exists()) {
-                val statContent = statFile.readText()
-                val fields = statContent.substringAfter(')').trim().split(" ")
-                if (fields.size >= 15) {
-                    val utime = fields[11].toLongOrNull() ?: 0L
-                    val stime = fields[12].toLongOrNull() ?: 0L
-                    return utime + stime
-                }
-            }
-        } catch (e: Exception) {
-            // 忽略
-        }
-        return 0L
-    }
-
-    /**
-     * 估算电池消耗百分比
-     */
-    private fun estimateBatteryConsumption(cpuTime: Long): Float {
-        // 简单的估算：CPU时间越长，电池消耗越大
-        val maxCpuTime = 1000000L // 假设最大CPU时间
-        val percentage = (cpuTime.toFloat() / maxCpuTime) * 100
-        return percentage.coerceIn(0f, 100f)
-    }
-
     /**
      * 执行真实的延迟测试
+     * 依次发送5次 ICMP 探测，总耗时不超过5秒
      */
     suspend fun performRealLatencyTest(host: String = "8.8.8.8"): NetworkDiagnosticViewModel.LatencyResult =
         withContext(Dispatchers.IO) {
-            val latencies = mutableListOf<Long>()
-            var packetLoss = 0
             val testCount = 5
-
-            repeat(testCount) {
-                try {
-                    val startTime = System.currentTimeMillis()
-                    val address = InetAddress.getByName(host)
-                    val reachable = address.isReachable(5000)
-                    val endTime = System.currentTimeMillis()
-
-                    if (reachable) {
-                        latencies.add(endTime - startTime)
-                    } else {
-                        packetLoss++
-                    }
-                } catch (e: Exception) {
-                    packetLoss++
-                }
-            }
+            val report = NetworkProbeEngine.getInstance().probe(
+                targets = listOf(NetworkProbeEngine.ProbeTarget.icmp(host)),
+                attempts = testCount,
+                deadlineMs = 5_000L,
+                attemptTimeoutMs = 1_000L
+            )
+            val latencies = report.results.filter { it.success }.map { it.timing.totalMs.roundToLong() }
+            val packetLoss = testCount - latencies.size
 
             if (latencies.isEmpty()) {
                 NetworkDiagnosticViewModel.LatencyResult(
@@ -7,7 +7,7 @@ import android.net.TrafficStats
 import android.telephony.TelephonyManager
 import androidx.lifecycle.lifecycleScope
 import kotlinx.coroutines.*
-import java.net.InetAddress
+import kotlin.math.roundToLong
 
 class NetworkMonitor(private val context: Context) {
 
@@ -20,6 +20,7 @@ class NetworkMonitor(private val context: Context) {
         val isConnected: Boolean
     )
 
+    private val probeEngine = NetworkProbeEngine.getInstance()
     private var monitoringJob: Job? = null
     private var isMonitoring = false
 
@@ -155,19 +156,17 @@ class NetworkMonitor(private val context: Context) {
 
     // 测量网络延迟
     private fun measureLatency(host: String = "8.8.8.8"): String {
-        return try {
-            val startTime = System.currentTimeMillis()
-            val address = InetAddress.getByName(host)
-            val reachable = address.isReachable(3000)
-
-            if (reachable) {
-                val latency = System.currentTimeMillis() - startTime
-                "${latency}ms"
-            } else {
-                ">3000ms"
-            }
-        } catch (e: Exception) {
-            "无法测量"
+        return formatLatency(probe(NetworkProbeEngine.ProbeTarget.icmp(host), deadlineMs = 3000L).results.first())
+    }
+
+    private fun formatLatency(result: NetworkProbeEngine.ProbeResult): String {
+        return if (result.success) "${result.timing.totalMs.roundToLong()}ms" else ">3000ms"
+    }
+
+    // 所有目标并发探测，阻塞等待到全部完成或超时
+    private fun probe(vararg targets: NetworkProbeEngine.ProbeTarget, deadlineMs: Long): NetworkProbeEngine.ProbeReport {
+        return runBlocking {
+            probeEngine.probe(targets.toList(), deadlineMs = deadlineMs, attemptTimeoutMs = deadlineMs)
         }
     }
 
@@ -187,23 +186,16 @@ class NetworkMonitor(private val context: Context) {
 
     // 测试网络连通性
     fun testConnectivity(host: String = "www.baidu.com"): Boolean {
-        return try {
-            val address = InetAddress.getByName(host)
-            address.isReachable(5000)
-        } catch (e: Exception) {
-            false
-        }
+        return probe(NetworkProbeEngine.ProbeTarget.icmp(host), deadlineMs = 5000L).results.first().success
     }
 
     // 获取DNS解析时间
     fun measureDnsResolution(domain: String = "www.google.com"): Long {
-        return try {
-            val startTime = System.currentTimeMillis()
-            InetAddress.getByName(domain)
-            System.currentTimeMillis() - startTime
-        } catch (e: Exception) {
-            -1
-        }
+        return dnsMillis(probe(NetworkProbeEngine.ProbeTarget.dns(domain), deadlineMs = 5000L).results.first())
+    }
+
+    private fun dnsMillis(result: NetworkProbeEngine.ProbeResult): Long {
+        return if (result.success) result.timing.dnsNanos / 1_000_000 else -1
     }
 
     // 获取网络拥塞状态
@@ -225,8 +217,16 @@ class NetworkMonitor(private val context: Context) {
         // 基于多个因素计算网络稳定性
         var score = 100
 
+        // 延迟、连通性和DNS三项并发探测
+        val results = probe(
+            NetworkProbeEngine.ProbeTarget.icmp("8.8.8.8"),
+            NetworkProbeEngine.ProbeTarget.icmp("www.baidu.com"),
+            NetworkProbeEngine.ProbeTarget.dns("www.google.com"),
+            deadlineMs = 5000L
+        ).results
+
         // 延迟影响
-        val latency = measureLatency("8.8.8.8")
+        val latency = formatLatency(results[0])
         val latencyValue = latency.replace("ms", "").toIntOrNull() ?: 999
         score -= when {
             latencyValue > 500 -> 40
@@ -236,12 +236,12 @@ class NetworkMonitor(private val context: Context) {
         }
 
         // 连通性影响
-        if (!testConnectivity()) {
+        if (!results[1].success) {
             score -= 30
         }
 
         // DNS解析时间影响
-        val dnsTime = measureDnsResolution()
+        val dnsTime = dnsMillis(results[2])
         if (dnsTime > 1000) {
             score -= 10
         }
@@ -0,0 +1,386 @@
+package com.lanhe.gongjuxiang.utils
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.Closeable
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.net.URI
+import java.net.UnknownHostException
+import java.util.concurrent.atomic.AtomicReferenceArray
+import javax.net.ssl.HostnameVerifier
+import javax.net.ssl.HttpsURLConnection
+import javax.net.ssl.SSLPeerUnverifiedException
+import javax.net.ssl.SSLSocket
+import javax.net.ssl.SSLSocketFactory
+import kotlin.math.abs
+import kotlin.math.ceil
+
+/**
+ * 网络探测引擎
+ * 所有目标并发探测，共用一个总截止时间；同一目标的多次探测依次进行（类似 ping），以便计算抖动。
+ * 每次探测拆分为 DNS 解析、TCP 连接、TLS 握手和首字节时间(TTFB)几个阶段，使用 [System.nanoTime] 计时。
+ *
+ * - [ProbeType.ICMP]：[InetAddress.isReachable]，Android 上使用无需特权的 ICMP ping socket
+ * - [ProbeType.TCP]：解析 + 建立连接
+ * - [ProbeType.HTTP]：解析 + 连接 + TLS 握手（https）+ 发送 HEAD 请求直到读到响应首字节
+ * - [ProbeType.DNS]：只做解析
+ *
+ * 截止时间到达时仍未完成的探测计为丢失，其套接字被关闭以尽快释放线程。
+ */
+class NetworkProbeEngine(
+    private val resolver: (String) -> List<InetAddress> = { host -> InetAddress.getAllByName(host).toList() },
+    private val sslSocketFactory: SSLSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory(),
+    private val hostnameVerifier: HostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier()
+) {
+
+    companion object {
+        private const val TAG = "NetworkProbeEngine"
+        const val DEFAULT_DEADLINE_MS = 5_000L
+        const val DEFAULT_ATTEMPT_TIMEOUT_MS = 3_000L
+        private const val NANOS_PER_MS = 1_000_000L
+        private const val MAX_STATUS_LINE = 256
+
+        @Volatile
+        private var INSTANCE: NetworkProbeEngine? = null
+
+        fun getInstance(): NetworkProbeEngine {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: NetworkProbeEngine().also { INSTANCE = it }
+            }
+        }
+
+        /**
+         * 最近秩法求百分位，sorted 须已升序
+         */
+        fun percentile(sorted: LongArray, percent: Int): Long {
+            if (sorted.isEmpty()) return 0L
+            val rank = ceil(percent / 100.0 * sorted.size).toInt().coerceIn(1, sorted.size)
+            return sorted[rank - 1]
+        }
+    }
+
+    enum class ProbeType { ICMP, TCP, HTTP, DNS }
+
+    /**
+     * 探测目标
+     */
+    data class ProbeTarget(
+        val type: ProbeType,
+        val host: String,
+        val port: Int = -1,
+        val path: String = "/",
+        val secure: Boolean = false
+    ) {
+        companion object {
+            fun icmp(host: String) = ProbeTarget(ProbeType.ICMP, host)
+
+            fun tcp(host: String, port: Int) = ProbeTarget(ProbeType.TCP, host, port)
+
+            fun dns(host: String) = ProbeTarget(ProbeType.DNS, host)
+
+            /**
+             * 由 http/https URL 创建目标，未指定端口时使用协议默认端口
+             */
+            fun http(url: String): ProbeTarget {
+                val uri = URI(url)
+                val secure = uri.scheme.equals("https", ignoreCase = true)
+                require(secure || uri.scheme.equals("http", ignoreCase = true)) { "不支持的协议: $url" }
+                val host = requireNotNull(uri.host) { "URL缺少主机名: $url" }
+                val port = if (uri.port > 0) uri.port else if (secure) 443 else 80
+                val path = uri.rawPath.takeUnless { it.isNullOrEmpty() } ?: "/"
+                return ProbeTarget(ProbeType.HTTP, host, port, path, secure)
+            }
+        }
+    }
+
+    /**
+     * 一次探测各阶段耗时，单位纳秒；未经历或未完成的阶段为0
+     */
+    data class PhaseTiming(
+        val dnsNanos: Long = 0L,
+        val connectNanos: Long = 0L,
+        val tlsNanos: Long = 0L,
+        val ttfbNanos: Long = 0L
+    ) {
+        val totalNanos: Long get() = dnsNanos + connectNanos + tlsNanos + ttfbNanos
+        val totalMs: Double get() = totalNanos.toDouble() / NANOS_PER_MS
+    }
+
+    data class ProbeResult(
+        val target: ProbeTarget,
+        val attempt: Int,
+        val success: Boolean,
+        val timing: PhaseTiming,
+        /** HTTP 探测的响应状态码，其他类型为 -1 */
+        val statusCode: Int = -1,
+        val error: String? = null
+    )
+
+    /**
+     * 延迟统计，单位毫秒；没有成功样本时各延迟值为0、丢失率为100
+     */
+    data class LatencyStats(
+        val sent: Int,
+        val received: Int,
+        val minMs: Double,
+        val avgMs: Double,
+        val p50Ms: Double,
+        val p90Ms: Double,
+        val p99Ms: Double,
+        val maxMs: Double,
+        /** 相邻两次成功探测的延迟差的平均值 */
+        val jitterMs: Double,
+        val lossPercent: Float
+    )
+
+    data class TargetReport(
+        val target: ProbeTarget,
+        val results: List<ProbeResult>,
+        val stats: LatencyStats
+    )
+
+    data class ProbeReport(
+        val targets: List<TargetReport>,
+        val overall: LatencyStats,
+        val elapsedMs: Double
+    ) {
+        val results: List<ProbeResult> get() = targets.flatMap { it.results }
+    }
+
+    /**
+     * 一个目标的全部探测，结果按探测序号写入；截止时关闭进行中的套接字
+     */
+    private class TargetRun(val target: ProbeTarget, attempts: Int) {
+        val results = AtomicReferenceArray<ProbeResult>(attempts)
+
+        @Volatile
+        var aborted = false
+
+        @Volatile
+        private var active: Closeable? = null
+
+        fun register(closeable: Closeable) {
+            active = closeable
+            if (aborted) closeQuietly(closeable)
+        }
+
+        fun abort() {
+            aborted = true
+            active?.let { closeQuietly(it) }
+        }
+    }
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    /**
+     * 并发探测所有目标
+     * @param attempts 每个目标的探测次数
+     * @param deadlineMs 所有探测的总截止时间，到时未完成的探测计为丢失
+     * @param attemptTimeoutMs 单次探测的超时时间
+     * @param intervalMs 同一目标两次探测之间的间隔
+     */
+    suspend fun probe(
+        targets: List<ProbeTarget>,
+        attempts: Int = 1,
+        deadlineMs: Long = DEFAULT_DEADLINE_MS,
+        attemptTimeoutMs: Long = DEFAULT_ATTEMPT_TIMEOUT_MS,
+        intervalMs: Long = 0L
+    ): ProbeReport {
+        require(attempts > 0) { "attempts 必须大于0" }
+        val start = System.nanoTime()
+        val deadline = start + deadlineMs * NANOS_PER_MS
+        val runs = targets.map { TargetRun(it, attempts) }
+        val jobs = runs.map { run ->
+            scope.launch { execute(run, attempts, deadline, attemptTimeoutMs * NANOS_PER_MS, intervalMs) }
+        }
+        try {
+            withTimeoutOrNull(deadlineMs) { jobs.joinAll() }
+        } finally {
+            runs.forEach { it.abort() }
+            jobs.forEach { it.cancel() }
+        }
+
+        val reports = runs.map { run ->
+            val results = List(attempts) { i ->
+                run.results.get(i) ?: ProbeResult(run.target, i, false, PhaseTiming(), error = "超过截止时间")
+            }
+            TargetReport(run.target, results, computeStats(listOf(results)))
+        }
+        return ProbeReport(
+            targets = reports,
+            overall = computeStats(reports.map { it.results }),
+            elapsedMs = (System.nanoTime() - start).toDouble() / NANOS_PER_MS
+        )
+    }
+
+    private suspend fun CoroutineScope.execute(
+        run: TargetRun,
+        attempts: Int,
+        deadline: Long,
+        attemptTimeoutNanos: Long,
+        intervalMs: Long
+    ) {
+        for (attempt in 0 until attempts) {
+            if (!isActive || run.aborted) return
+            if (attempt > 0 && intervalMs > 0) delay(intervalMs)
+            val now = System.nanoTime()
+            val attemptDeadline = now + minOf(attemptTimeoutNanos, deadline - now)
+            if (attemptDeadline <= now) return
+            run.results.set(attempt, probeOnce(run, attempt, attemptDeadline))
+        }
+    }
+
+    /**
+     * 执行一次探测（阻塞），各阶段的超时都不超过 attemptDeadline
+     */
+    private fun probeOnce(run: TargetRun, attempt: Int, attemptDeadline: Long): ProbeResult {
+        val target = run.target
+        var dns = 0L
+        var connect = 0L
+        var tls = 0L
+        var ttfb = 0L
+        var status = -1
+
+        fun timing() = PhaseTiming(dns, connect, tls, ttfb)
+
+        try {
+            val dnsStart = System.nanoTime()
+            val address = resolver(target.host).firstOrNull() ?: throw UnknownHostException(target.host)
+            dns = System.nanoTime() - dnsStart
+
+            when (target.type) {
+                ProbeType.DNS -> Unit
+                ProbeType.ICMP -> {
+                    val pingStart = System.nanoTime()
+                    if (!address.isReachable(remainingMs(attemptDeadline))) {
+                        return ProbeResult(target, attempt, false, timing(), error = "主机不可达")
+                    }
+                    connect = System.nanoTime() - pingStart
+                }
+                ProbeType.TCP, ProbeType.HTTP -> {
+                    val socket = Socket()
+                    run.register(socket)
+                    socket.use {
+                        val connectStart = System.nanoTime()
+                        socket.connect(InetSocketAddress(address, target.port), remainingMs(attemptDeadline))
+                        connect = System.nanoTime() - connectStart
+                        if (target.type == ProbeType.TCP) return@use
+
+                        var stream: Socket = socket
+                        if (target.secure) {
+                            val tlsStart = System.nanoTime()
+                            val ssl = sslSocketFactory.createSocket(socket, target.host, target.port, true) as SSLSocket
+                            run.register(ssl)
+                            ssl.soTimeout = remainingMs(attemptDeadline)
+                            ssl.startHandshake()
+                            if (!hostnameVerifier.verify(target.host, ssl.session)) {
+                                throw SSLPeerUnverifiedException("证书与主机名不匹配: ${target.host}")
+                            }
+                            tls = System.nanoTime() - tlsStart
+                            stream = ssl
+                        }
+
+                        stream.soTimeout = remainingMs(attemptDeadline)
+                        val request = "HEAD ${target.path} HTTP/1.1\r\n" +
+                            "Host: ${target.host}\r\n" +
+                            "User-Agent: LanheProbe/1.0\r\n" +
+                            "Connection: close\r\n\r\n"
+                        val ttfbStart = System.nanoTime()
+                        stream.getOutputStream().apply {
+                            write(request.toByteArray(Charsets.US_ASCII))
+                            flush()
+                        }
+                        val input = stream.getInputStream()
+                        val first = input.read()
+                        if (first < 0) throw EOFException("连接在响应前被关闭")
+                        ttfb = System.nanoTime() - ttfbStart
+                        status = readStatusCode(first, input)
+                    }
+                }
+            }
+            return ProbeResult(target, attempt, true, timing(), status)
+        } catch (e: Exception) {
+            // 截止时间到达时套接字被关闭，读写随即抛出异常
+            val error = if (run.aborted) "超过截止时间" else e.message ?: e.javaClass.simpleName
+            return ProbeResult(target, attempt, false, timing(), status, error)
+        }
+    }
+
+    /**
+     * 读取状态行 "HTTP/1.1 200 OK" 中的状态码，格式不符返回 -1
+     */
+    private fun readStatusCode(first: Int, input: InputStream): Int {
+        val line = StringBuilder()
+        var b = first
+        while (b >= 0 && b != '\n'.code && line.length < MAX_STATUS_LINE) {
+            line.append(b.toChar())
+            b = input.read()
+        }
+        val parts = line.trim().split(' ')
+        if (parts.size < 2 || !parts[0].startsWith("HTTP/")) return -1
+        return parts[1].toIntOrNull() ?: -1
+    }
+
+    // Socket 超时为0表示不限时，剩余时间不足1毫秒时按1毫秒处理
+    private fun remainingMs(deadline: Long): Int {
+        val remaining = (deadline - System.nanoTime()) / NANOS_PER_MS
+        return remaining.coerceIn(1L, Int.MAX_VALUE.toLong()).toInt()
+    }
+
+    /**
+     * 汇总若干目标的探测结果；抖动在各目标内按探测顺序计算后取平均
+     */
+    private fun computeStats(groups: List<List<ProbeResult>>): LatencyStats {
+        val samples = ArrayList<Long>()
+        var sent = 0
+        var jitterSum = 0.0
+        var jitterCount = 0
+        for (results in groups) {
+            sent += results.size
+            var previous = -1L
+            for (result in results) {
+                if (!result.success) continue
+                val total = result.timing.totalNanos
+                samples.add(total)
+                if (previous >= 0) {
+                    jitterSum += abs(total - previous)
+                    jitterCount++
+                }
+                previous = total
+            }
+        }
+        val sorted = samples.toLongArray().apply { sort() }
+        fun ms(nanos: Long) = nanos.toDouble() / NANOS_PER_MS
+        return LatencyStats(
+            sent = sent,
+            received = sorted.size,
+            minMs = if (sorted.isEmpty()) 0.0 else ms(sorted.first()),
+            avgMs = if (sorted.isEmpty()) 0.0 else sorted.average() / NANOS_PER_MS,
+            p50Ms = ms(percentile(sorted, 50)),
+            p90Ms = ms(percentile(sorted, 90)),
+            p99Ms = ms(percentile(sorted, 99)),
+            maxMs = if (sorted.isEmpty()) 0.0 else ms(sorted.last()),
+            jitterMs = if (jitterCount == 0) 0.0 else jitterSum / jitterCount / NANOS_PER_MS,
+            lossPercent = if (sent == 0) 0f else (sent - sorted.size) * 100f / sent
+        )
+    }
+}
+
+private fun closeQuietly(closeable: Closeable) {
+    try {
+        closeable.close()
+    } catch (e: IOException) {
+        // 忽略
+    }
+}
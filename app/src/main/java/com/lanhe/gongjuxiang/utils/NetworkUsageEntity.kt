@@ -1,6 +1,7 @@
 package com.lanhe.gongjuxiang.utils
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import java.io.Serializable
 
@@ -8,7 +9,13 @@ import java.io.Serializable
  * 网络使用实体类
  * 用于存储应用程序的网络使用统计数据
  */
-@Entity(tableName = "network_usage")
+@Entity(
+    tableName = "network_usage",
+    indices = [
+        Index("timestamp"),                    // 时间范围查询与Top应用统计
+        Index("appPackageName", "timestamp")   // 单个应用的使用记录
+    ]
+)
 data class NetworkUsageEntity(
     @PrimaryKey(autoGenerate = true)
     val id: Long = 0,
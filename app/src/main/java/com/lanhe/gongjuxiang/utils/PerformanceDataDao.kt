@@ -1,5 +1,6 @@
 package com.lanhe.gongjuxiang.utils
 
+import androidx.paging.PagingSource
 import androidx.room.*
 import kotlinx.coroutines.flow.Flow
 
@@ -42,10 +43,36 @@ interface PerformanceDataDao {
 
     /**
      * 获取所有性能数据
+     * 每次写入都会重新查询并物化整张表，列表展示请改用 [pagePerformanceData] 或 [observeRecentPerformanceData]
      */
+    @Deprecated("全表Flow随数据增长线性变慢", ReplaceWith("pagePerformanceData()"))
     @Query("SELECT * FROM performance_data ORDER BY timestamp DESC")
     fun getAllPerformanceData(): Flow<List<PerformanceDataEntity>>
 
+    /**
+     * 分页获取性能数据（按时间降序），供Paging 3使用
+     */
+    @Query("SELECT * FROM performance_data ORDER BY timestamp DESC, id DESC")
+    fun pagePerformanceData(): PagingSource<Int, PerformanceDataEntity>
+
+    /**
+     * 观察最近N条性能数据，窗口大小固定，不随表增长
+     */
+    @Query("SELECT * FROM performance_data ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    fun observeRecentPerformanceData(limit: Int): Flow<List<PerformanceDataEntity>>
+
+    /**
+     * 键集分页：获取排在 (beforeTimestamp, beforeId) 之后的一页数据
+     * 首页传 Long.MAX_VALUE，后续传上一页最后一条的 timestamp 和 id
+     */
+    @Query("""
+        SELECT * FROM performance_data
+        WHERE timestamp < :beforeTimestamp OR (timestamp = :beforeTimestamp AND id < :beforeId)
+        ORDER BY timestamp DESC, id DESC
+        LIMIT :limit
+    """)
+    suspend fun getPerformanceDataPage(beforeTimestamp: Long, beforeId: Long, limit: Int): List<PerformanceDataEntity>
+
     /**
      * 根据时间范围获取性能数据
      */
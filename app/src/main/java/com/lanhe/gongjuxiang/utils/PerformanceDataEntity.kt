@@ -1,6 +1,7 @@
 package com.lanhe.gongjuxiang.utils
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import java.io.Serializable
 
@@ -8,7 +9,13 @@ import java.io.Serializable
  * 性能数据实体类
  * 用于存储性能监控的历史数据
  */
-@Entity(tableName = "performance_data")
+@Entity(
+    tableName = "performance_data",
+    indices = [
+        Index("timestamp"),              // 时间范围查询与排序
+        Index("dataType", "timestamp")   // 按类型筛选后按时间排序
+    ]
+)
 data class PerformanceDataEntity(
     @PrimaryKey(autoGenerate = true)
     val id: Long = 0,
@@ -9,16 +9,18 @@ import android.system.Os
 import android.system.OsConstants
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
-import java.io.BufferedReader
-import java.io.FileReader
-import java.io.IOException
 import kotlin.math.roundToInt
 
 /**
  * 性能监控工具类
  * 提供CPU、内存、存储等系统性能指标的实时监控
  */
-class PerformanceMonitor(private val context: Context) {
+class PerformanceMonitor(
+    private val context: Context,
+    private val procSampler: ProcStatSampler = ProcStatSampler(
+        privilegedReader = { path -> ShizukuManager.readPrivilegedFile(path) }
+    )
+) {
 
     private val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
 
@@ -44,16 +46,20 @@ class PerformanceMonitor(private val context: Context) {
 
     /**
      * 获取CPU使用率
+     * 基于与上一次调用之间的 /proc/stat 差值，首次调用返回开机以来的平均值
      */
     suspend fun getCpuUsage(): CpuUsage = withContext(Dispatchers.IO) {
         try {
-            val cpuInfo = readCpuInfo()
+            val sample = procSampler.sampleCpu()
             val cores = Runtime.getRuntime().availableProcessors()
+            if (!sample.valid) {
+                return@withContext CpuUsage(0f, 0f, 0f, cores)
+            }
 
             CpuUsage(
-                totalUsage = cpuInfo.total.toFloat(),
-                userUsage = cpuInfo.user.toFloat(),
-                systemUsage = cpuInfo.system.toFloat(),
+                totalUsage = sample.totalUsage,
+                userUsage = sample.userUsage,
+                systemUsage = sample.systemUsage,
                 cores = cores
             )
         } catch (e: Exception) {
@@ -112,58 +118,6 @@ class PerformanceMonitor(private val context: Context) {
         )
     }
 
-    /**
-     * 读取CPU信息
-     */
-    private fun readCpuInfo(): CpuStats {
-        var reader: BufferedReader? = null
-        try {
-            reader = BufferedReader(FileReader("/proc/stat"))
-            val line = reader.readLine()
-            if (line != null) {
-                val parts = line.split("\\s+".toRegex())
-                if (parts.size >= 8) {
-                    val user = parts[1].toLong()
-                    val nice = parts[2].toLong()
-                    val system = parts[3].toLong()
-                    val idle = parts[4].toLong()
-                    val iowait = parts[5].toLong()
-                    val irq = parts[6].toLong()
-                    val softirq = parts[7].toLong()
-
-                    val total = user + nice + system + idle + iowait + irq + softirq
-                    val active = total - idle
-
-                    return CpuStats(
-                        total = total,
-                        active = active,
-                        user = user,
-                        system = system
-                    )
-                }
-            }
-        } catch (e: IOException) {
-            // 仅在非权限错误时打印堆栈，避免刷屏
-            val msg = e.message ?: ""
-            if (!msg.contains("EACCES") && !msg.contains("Permission denied")) {
-                e.printStackTrace()
-            }
-        } finally {
-            reader?.close()
-        }
-        return CpuStats(0, 0, 0, 0)
-    }
-
-    /**
-     * CPU统计数据类
-     */
-    private data class CpuStats(
-        val total: Long,
-        val active: Long,
-        val user: Long,
-        val system: Long
-    )
-
     /**
      * 存储信息数据类
      */
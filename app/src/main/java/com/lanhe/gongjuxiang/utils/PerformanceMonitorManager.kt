@@ -41,6 +41,11 @@ class PerformanceMonitorManager(private val context: Context) {
         fun onMonitoringStarted()
         fun onMonitoringStopped()
         fun onError(error: Exception)
+
+        /**
+         * 一批性能记录写入数据库后调用
+         * @param recordCount 本批写入的记录数
+         */
         fun onDataSaved(recordCount: Long)
     }
 
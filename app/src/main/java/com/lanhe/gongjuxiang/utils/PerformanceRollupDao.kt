@@ -0,0 +1,42 @@
+package com.lanhe.gongjuxiang.utils
+
+import androidx.room.*
+
+/**
+ * 性能汇总数据DAO接口
+ * 提供分钟/小时/天粒度汇总数据的增量写入和查询
+ */
+@Dao
+interface PerformanceRollupDao {
+
+    /**
+     * 写入（覆盖）汇总数据
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertAll(rollups: List<PerformanceRollupEntity>)
+
+    /**
+     * 获取指定粒度下的若干时间桶
+     */
+    @Query("SELECT * FROM performance_rollup WHERE resolution = :resolution AND bucketStart IN (:bucketStarts)")
+    suspend fun getBuckets(resolution: String, bucketStarts: List<Long>): List<PerformanceRollupEntity>
+
+    /**
+     * 获取时间范围内的汇总数据（按时间升序，便于绘图）
+     */
+    @Query("SELECT * FROM performance_rollup WHERE resolution = :resolution AND bucketStart BETWEEN :startTime AND :endTime ORDER BY bucketStart ASC")
+    suspend fun getRollups(resolution: String, startTime: Long, endTime: Long): List<PerformanceRollupEntity>
+
+    /**
+     * 删除指定粒度下早于某时间的汇总
+     */
+    @Query("DELETE FROM performance_rollup WHERE resolution = :resolution AND bucketStart < :cutoffTime")
+    suspend fun deleteOlderThan(resolution: String, cutoffTime: Long): Int
+
+    /**
+     * 清空所有汇总数据
+     */
+    @Query("DELETE FROM performance_rollup")
+    suspend fun clearAll()
+}
+
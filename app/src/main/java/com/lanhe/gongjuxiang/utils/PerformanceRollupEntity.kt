@@ -0,0 +1,134 @@
+package com.lanhe.gongjuxiang.utils
+
+import androidx.room.Entity
+import java.io.Serializable
+import java.util.TimeZone
+
+/**
+ * 性能数据降采样汇总实体
+ * 按分钟/小时/天三个粒度保存 min/max/sum/count，采样写入时增量更新，
+ * 长时间范围的图表和统计直接查询汇总表，无需扫描原始采样。
+ *
+ * 字段说明：
+ * - resolution: 汇总粒度，取值见 [RollupResolution]
+ * - bucketStart: 时间桶起点（毫秒）。天粒度按本地时区的零点对齐
+ * - sampleCount: 桶内采样条数，平均值 = sum / sampleCount
+ */
+@Entity(
+    tableName = "performance_rollup",
+    primaryKeys = ["resolution", "bucketStart"]
+)
+data class PerformanceRollupEntity(
+    val resolution: String,
+    val bucketStart: Long,
+    val sampleCount: Int,
+    val cpuMin: Float,
+    val cpuMax: Float,
+    val cpuSum: Double,
+    val memoryMin: Int,
+    val memoryMax: Int,
+    val memorySum: Long,
+    val batteryTempMin: Float,
+    val batteryTempMax: Float,
+    val batteryTempSum: Double,
+    val deviceTempMin: Float,
+    val deviceTempMax: Float,
+    val deviceTempSum: Double,
+    val batteryLevelMin: Int,
+    val batteryLevelMax: Int
+) : Serializable {
+
+    val cpuAvg: Float get() = if (sampleCount > 0) (cpuSum / sampleCount).toFloat() else 0f
+    val memoryAvg: Float get() = if (sampleCount > 0) memorySum.toFloat() / sampleCount else 0f
+    val batteryTempAvg: Float get() = if (sampleCount > 0) (batteryTempSum / sampleCount).toFloat() else 0f
+    val deviceTempAvg: Float get() = if (sampleCount > 0) (deviceTempSum / sampleCount).toFloat() else 0f
+
+    /**
+     * 合并同一时间桶的两份汇总
+     */
+    fun merge(other: PerformanceRollupEntity): PerformanceRollupEntity {
+        return copy(
+            sampleCount = sampleCount + other.sampleCount,
+            cpuMin = minOf(cpuMin, other.cpuMin),
+            cpuMax = maxOf(cpuMax, other.cpuMax),
+            cpuSum = cpuSum + other.cpuSum,
+            memoryMin = minOf(memoryMin, other.memoryMin),
+            memoryMax = maxOf(memoryMax, other.memoryMax),
+            memorySum = memorySum + other.memorySum,
+            batteryTempMin = minOf(batteryTempMin, other.batteryTempMin),
+            batteryTempMax = maxOf(batteryTempMax, other.batteryTempMax),
+            batteryTempSum = batteryTempSum + other.batteryTempSum,
+            deviceTempMin = minOf(deviceTempMin, other.deviceTempMin),
+            deviceTempMax = maxOf(deviceTempMax, other.deviceTempMax),
+            deviceTempSum = deviceTempSum + other.deviceTempSum,
+            batteryLevelMin = minOf(batteryLevelMin, other.batteryLevelMin),
+            batteryLevelMax = maxOf(batteryLevelMax, other.batteryLevelMax)
+        )
+    }
+
+    companion object {
+        /**
+         * 由单条原始采样生成一个汇总
+         */
+        fun fromSample(resolution: RollupResolution, sample: PerformanceDataEntity): PerformanceRollupEntity {
+            return PerformanceRollupEntity(
+                resolution = resolution.name,
+                bucketStart = resolution.bucketStart(sample.timestamp),
+                sampleCount = 1,
+                cpuMin = sample.cpuUsage,
+                cpuMax = sample.cpuUsage,
+                cpuSum = sample.cpuUsage.toDouble(),
+                memoryMin = sample.memoryUsagePercent,
+                memoryMax = sample.memoryUsagePercent,
+                memorySum = sample.memoryUsagePercent.toLong(),
+                batteryTempMin = sample.batteryTemperature,
+                batteryTempMax = sample.batteryTemperature,
+                batteryTempSum = sample.batteryTemperature.toDouble(),
+                deviceTempMin = sample.deviceTemperature,
+                deviceTempMax = sample.deviceTemperature,
+                deviceTempSum = sample.deviceTemperature.toDouble(),
+                batteryLevelMin = sample.batteryLevel,
+                batteryLevelMax = sample.batteryLevel
+            )
+        }
+    }
+}
+
+/**
+ * 汇总粒度
+ */
+enum class RollupResolution(val bucketMillis: Long) {
+    MINUTE(60_000L),
+    HOUR(3_600_000L),
+    DAY(86_400_000L);
+
+    /**
+     * 计算时间戳所在时间桶的起点，天粒度按本地时区零点对齐
+     */
+    fun bucketStart(timestamp: Long): Long {
+        if (this != DAY) {
+            return timestamp - Math.floorMod(timestamp, bucketMillis)
+        }
+        val offset = TimeZone.getDefault().getOffset(timestamp).toLong()
+        val local = timestamp + offset
+        return local - Math.floorMod(local, bucketMillis) - offset
+    }
+
+    companion object {
+        // 单次查询期望返回的最大点数，超出则升一级粒度
+        private const val MAX_POINTS = 500
+
+        /**
+         * 根据查询的时间跨度选择合适的粒度：
+         * 约8小时以内用分钟，约3周以内用小时，更长用天
+         */
+        fun forRange(startTime: Long, endTime: Long): RollupResolution {
+            val span = (endTime - startTime).coerceAtLeast(0L)
+            return when {
+                span / MINUTE.bucketMillis <= MAX_POINTS -> MINUTE
+                span / HOUR.bucketMillis <= MAX_POINTS -> HOUR
+                else -> DAY
+            }
+        }
+    }
+}
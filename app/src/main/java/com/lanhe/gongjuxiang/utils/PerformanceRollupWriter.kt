@@ -0,0 +1,51 @@
+package com.lanhe.gongjuxiang.utils
+
+/**
+ * 性能汇总增量写入器
+ * 把一批原始采样先在内存中按 (粒度, 时间桶) 聚合，再与库中已有的桶合并后一次写回。
+ * 一批2秒间隔的采样通常只触及1-2个分钟桶、1个小时桶和1个天桶。
+ *
+ * 调用方负责把 [ingest] 和原始数据的 insertAll 放在同一个事务里。
+ */
+class PerformanceRollupWriter(private val rollupDao: PerformanceRollupDao) {
+
+    companion object {
+        /** 只有周期性监控采样参与汇总，手动快照等类型不计入 */
+        const val ROLLUP_DATA_TYPE = "performance"
+
+        /**
+         * 在内存中聚合一批采样，结果按粒度分组
+         */
+        fun aggregate(samples: List<PerformanceDataEntity>): Map<RollupResolution, Map<Long, PerformanceRollupEntity>> {
+            val result = HashMap<RollupResolution, HashMap<Long, PerformanceRollupEntity>>()
+            for (sample in samples) {
+                if (sample.dataType != ROLLUP_DATA_TYPE) continue
+                for (resolution in RollupResolution.values()) {
+                    val buckets = result.getOrPut(resolution) { HashMap() }
+                    val rollup = PerformanceRollupEntity.fromSample(resolution, sample)
+                    val existing = buckets[rollup.bucketStart]
+                    buckets[rollup.bucketStart] = existing?.merge(rollup) ?: rollup
+                }
+            }
+            return result
+        }
+    }
+
+    /**
+     * 把一批采样合并进汇总表
+     */
+    suspend fun ingest(samples: List<PerformanceDataEntity>) {
+        val aggregated = aggregate(samples)
+        if (aggregated.isEmpty()) return
+
+        val toWrite = ArrayList<PerformanceRollupEntity>()
+        for ((resolution, buckets) in aggregated) {
+            val stored = rollupDao.getBuckets(resolution.name, buckets.keys.toList())
+                .associateBy { it.bucketStart }
+            for ((bucketStart, rollup) in buckets) {
+                toWrite.add(stored[bucketStart]?.merge(rollup) ?: rollup)
+            }
+        }
+        rollupDao.insertAll(toWrite)
+    }
+}
@@ -0,0 +1,359 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.util.Log
+import com.lanhe.gongjuxiang.security.CommandValidator
+import rikka.shizuku.Shizuku
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.InputStream
+import java.io.Writer
+import java.util.ArrayDeque
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 常驻特权Shell会话
+ * 只启动一个特权 sh 进程，所有命令写入它的标准输入顺序执行，避免每条命令都创建新进程。
+ *
+ * 协议：每条命令包装为一帧，执行结束后在 stdout 和 stderr 上各输出一行带会话随机标记和请求ID的结束行，
+ * stdout 的结束行附带退出码。读取线程按请求ID把输出分发给等待方，因此多个线程可以同时提交命令（流水线），
+ * 不必等待前一条命令返回。
+ *
+ * - 每条命令都先经过 [CommandValidator] 校验，含换行的命令直接拒绝，避免破坏帧格式
+ * - 白名单只检查命令前缀，而常驻 sh 会解释整行，因此含未加引号的 `; & | < > ( )`、`$`、反引号
+ *   或引号不配对的命令一律拒绝，防止在放行的前缀后拼接其他命令；参数需要这些字符时用 [quote] 转义
+ * - 超时从命令开始执行（前一条命令结束）时计算；超时后结束整个Shell，排队中的命令一并失败
+ * - Shell 进程退出后下一条命令会自动重新创建
+ */
+class PrivilegedShellSession internal constructor(
+    private val processFactory: () -> Process,
+    private val validate: (String) -> Boolean
+) {
+
+    companion object {
+        private const val TAG = "PrivilegedShellSession"
+        const val DEFAULT_TIMEOUT_MS = 10_000L
+        private const val MAX_QUEUE_WAIT_MS = CommandValidator.COMMAND_TIMEOUT_MS // 排队等待的上限
+
+        // readFile 只接受简单路径，拼进命令时无需转义
+        private val SAFE_PATH = Regex("^/[A-Za-z0-9_./-]+$")
+
+        // 引号外会被Shell解释为命令分隔、管道、重定向或子Shell的字符
+        private const val SHELL_OPERATORS = ";&|<>()"
+
+        /**
+         * 通过 Shizuku 启动特权Shell的会话
+         */
+        @Suppress("DEPRECATION")
+        fun create(validator: CommandValidator = CommandValidator()): PrivilegedShellSession {
+            return PrivilegedShellSession(
+                processFactory = { Shizuku.newProcess(arrayOf("sh"), null, null) },
+                validate = validator::validateCommand
+            )
+        }
+
+        /**
+         * 用单引号转义Shell参数
+         */
+        fun quote(arg: String): String = "'" + arg.replace("'", "'\\''") + "'"
+
+        /**
+         * 命令是否含有Shell控制语法
+         * 单引号内原样传递；双引号内只有 `$` 和反引号会展开；反斜杠转义下一个字符
+         */
+        fun containsShellSyntax(command: String): Boolean {
+            var singleQuoted = false
+            var doubleQuoted = false
+            var i = 0
+            while (i < command.length) {
+                val c = command[i]
+                when {
+                    singleQuoted -> if (c == '\'') singleQuoted = false
+                    c == '\\' -> {
+                        i++
+                        // 末尾的反斜杠会把帧的换行变成续行，吞掉后面的帧
+                        if (i >= command.length) return true
+                    }
+                    c == '\'' && !doubleQuoted -> singleQuoted = true
+                    c == '"' -> doubleQuoted = !doubleQuoted
+                    c == '$' || c == '`' -> return true
+                    !doubleQuoted && c in SHELL_OPERATORS -> return true
+                }
+                i++
+            }
+            // 引号不配对时 sh 会把后续的帧当作参数继续读取
+            return singleQuoted || doubleQuoted
+        }
+    }
+
+    /**
+     * 一条已提交、等待结果的命令
+     */
+    private class Pending(val id: Long) {
+        val submittedAt = System.currentTimeMillis()
+        val done = CountDownLatch(1)
+        var output: String? = null
+        var error: String? = null
+        var exitCode = -1
+        var stdoutDone = false
+        var stderrDone = false
+        var failure: String? = null
+
+        @Volatile
+        var startedAt = 0L
+    }
+
+    /**
+     * 一个Shell进程及其读取线程
+     */
+    private inner class Shell(val process: Process) {
+        val marker = "__LANHE_${UUID.randomUUID().toString().replace("-", "")}__"
+        val writer: Writer = process.outputStream.bufferedWriter()
+        val pending = ConcurrentHashMap<Long, Pending>()
+        val queue = ArrayDeque<Pending>() // 按提交顺序，队首为正在执行的命令
+
+        @Volatile
+        var alive = true
+
+        fun start() {
+            startReader(process.inputStream, isStdout = true)
+            startReader(process.errorStream, isStdout = false)
+        }
+
+        fun frame(id: Long, command: String): String {
+            // 命令放在独立一行的命令组中；标准输入重定向避免命令读取协议流
+            return "{ $command\n} </dev/null; __rc=\$?; echo; echo \"$marker $id \$__rc\"; " +
+                "echo >&2; echo \"$marker $id\" >&2\n"
+        }
+
+        fun enqueue(entry: Pending) {
+            synchronized(queue) {
+                if (queue.isEmpty()) entry.startedAt = System.currentTimeMillis()
+                queue.addLast(entry)
+            }
+            pending[entry.id] = entry
+        }
+
+        private fun startReader(stream: InputStream, isStdout: Boolean) {
+            Thread({ readLoop(stream.bufferedReader(), isStdout) }, if (isStdout) "ShellSession-out" else "ShellSession-err").apply {
+                isDaemon = true
+                start()
+            }
+        }
+
+        private fun readLoop(reader: BufferedReader, isStdout: Boolean) {
+            val buffer = StringBuilder()
+            val prefix = "$marker "
+            try {
+                while (true) {
+                    val line = reader.readLine() ?: break
+                    if (!line.startsWith(prefix)) {
+                        buffer.append(line).append('\n')
+                        continue
+                    }
+                    val fields = line.substring(prefix.length).split(' ')
+                    val id = fields[0].toLongOrNull() ?: continue
+                    // 结束行前额外输出了一个换行，这里去掉
+                    val text = if (buffer.isNotEmpty()) buffer.substring(0, buffer.length - 1) else ""
+                    buffer.setLength(0)
+                    val entry = pending[id] ?: continue
+                    val complete = synchronized(entry) {
+                        if (isStdout) {
+                            entry.output = text
+                            entry.exitCode = fields.getOrNull(1)?.toIntOrNull() ?: -1
+                            entry.stdoutDone = true
+                        } else {
+                            entry.error = text
+                            entry.stderrDone = true
+                        }
+                        entry.stdoutDone && entry.stderrDone
+                    }
+                    if (complete) finish(entry)
+                }
+            } catch (e: IOException) {
+                // 进程被结束时读取会抛出异常，按进程退出处理
+            }
+            if (isStdout) onExit(this)
+        }
+
+        fun finish(entry: Pending) {
+            pending.remove(entry.id)
+            synchronized(queue) {
+                queue.remove(entry)
+                queue.peekFirst()?.startedAt = System.currentTimeMillis()
+            }
+            entry.done.countDown()
+        }
+
+        fun failAll(reason: String) {
+            alive = false
+            val entries = synchronized(queue) {
+                val list = queue.toList()
+                queue.clear()
+                list
+            }
+            pending.clear()
+            entries.forEach { entry ->
+                synchronized(entry) { entry.failure = reason }
+                entry.done.countDown()
+            }
+        }
+    }
+
+    private val lock = Any()
+    private var shell: Shell? = null
+    private val nextId = AtomicLong()
+
+    /**
+     * 执行单条命令
+     */
+    fun execute(command: String, timeoutMs: Long = DEFAULT_TIMEOUT_MS): ShizukuManager.CommandResult {
+        return executeAll(listOf(command), timeoutMs)[0]
+    }
+
+    /**
+     * 一次性提交多条命令，在同一个Shell中依次执行，结果顺序与命令顺序一致
+     * @param timeoutMs 每条命令的超时时间
+     */
+    fun executeAll(commands: List<String>, timeoutMs: Long = DEFAULT_TIMEOUT_MS): List<ShizukuManager.CommandResult> {
+        val results = arrayOfNulls<ShizukuManager.CommandResult>(commands.size)
+        val accepted = ArrayList<Pair<Int, String>>()
+        commands.forEachIndexed { index, command ->
+            val trimmed = command.trim()
+            results[index] = when {
+                trimmed.contains('\n') || trimmed.contains('\r') ->
+                    ShizukuManager.CommandResult(false, null, "命令不能包含换行: $trimmed")
+                containsShellSyntax(trimmed) ->
+                    ShizukuManager.CommandResult(false, null, "命令不能包含Shell控制字符: $trimmed")
+                !validate(trimmed) ->
+                    ShizukuManager.CommandResult(false, null, "命令被安全策略拒绝: $trimmed")
+                else -> {
+                    accepted.add(index to trimmed)
+                    null
+                }
+            }
+        }
+        if (accepted.isEmpty()) return results.map { it!! }
+
+        val submitted = submit(accepted.map { it.second })
+        if (submitted == null) {
+            accepted.forEach { (index, _) ->
+                results[index] = ShizukuManager.CommandResult(false, null, "无法启动特权Shell")
+            }
+            return results.map { it!! }
+        }
+
+        val (owner, entries) = submitted
+        entries.forEachIndexed { i, entry ->
+            results[accepted[i].first] = await(owner, entry, timeoutMs)
+        }
+        return results.map { it!! }
+    }
+
+    /**
+     * 读取只有特权进程才能访问的文本文件（如 Android 8 以后的 /proc/stat）
+     * @return 文件内容，失败时返回null
+     */
+    fun readFile(path: String, timeoutMs: Long = DEFAULT_TIMEOUT_MS): String? {
+        if (!SAFE_PATH.matches(path)) return null
+        val result = execute("cat $path", timeoutMs)
+        return if (result.isSuccess) result.output else null
+    }
+
+    /**
+     * 结束Shell进程，下次执行命令时重新创建
+     */
+    fun close() {
+        val current = synchronized(lock) {
+            val s = shell
+            shell = null
+            s
+        } ?: return
+        current.failAll("会话已关闭")
+        current.process.destroy()
+    }
+
+    private fun submit(commands: List<String>): Pair<Shell, List<Pending>>? {
+        synchronized(lock) {
+            // 写入失败说明进程已退出，重建后再试一次
+            repeat(2) {
+                val current = obtainShell() ?: return null
+                val entries = commands.map { Pending(nextId.incrementAndGet()) }
+                try {
+                    val frames = StringBuilder()
+                    entries.forEachIndexed { i, entry -> frames.append(current.frame(entry.id, commands[i])) }
+                    entries.forEach { current.enqueue(it) }
+                    current.writer.write(frames.toString())
+                    current.writer.flush()
+                    return current to entries
+                } catch (e: IOException) {
+                    Log.w(TAG, "写入特权Shell失败，重新创建", e)
+                    discard(current, "Shell写入失败")
+                }
+            }
+            return null
+        }
+    }
+
+    private fun obtainShell(): Shell? {
+        shell?.takeIf { it.alive }?.let { return it }
+        return try {
+            Shell(processFactory()).also {
+                it.start()
+                shell = it
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "启动特权Shell失败", e)
+            null
+        }
+    }
+
+    private fun await(owner: Shell, entry: Pending, timeoutMs: Long): ShizukuManager.CommandResult {
+        try {
+            while (true) {
+                val startedAt = entry.startedAt
+                // 开始执行后按剩余时间等待；尚在排队时最多等到排队上限
+                val wait = if (startedAt > 0) {
+                    startedAt + timeoutMs - System.currentTimeMillis()
+                } else {
+                    minOf(timeoutMs, entry.submittedAt + timeoutMs + MAX_QUEUE_WAIT_MS - System.currentTimeMillis())
+                }
+                if (wait <= 0 || (entry.done.await(wait, TimeUnit.MILLISECONDS))) break
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            return ShizukuManager.CommandResult(false, null, "等待命令结果被中断")
+        }
+
+        synchronized(entry) {
+            if (entry.done.count == 0L) {
+                entry.failure?.let { return ShizukuManager.CommandResult(false, null, it) }
+                return ShizukuManager.CommandResult(entry.exitCode == 0, entry.output, entry.error)
+            }
+        }
+
+        Log.w(TAG, "命令执行超时(${timeoutMs}ms)，重启特权Shell")
+        synchronized(lock) { discard(owner, "特权Shell因其他命令超时被重启") }
+        return ShizukuManager.CommandResult(false, null, "命令执行超时 (${timeoutMs}ms)")
+    }
+
+    // 调用方需持有 lock
+    private fun discard(target: Shell, reason: String) {
+        if (shell === target) shell = null
+        target.failAll(reason)
+        target.process.destroy()
+    }
+
+    private fun onExit(target: Shell) {
+        if (!target.alive) return
+        synchronized(lock) {
+            if (target.alive) {
+                Log.w(TAG, "特权Shell已退出，下次执行命令时重新创建")
+                discard(target, "特权Shell已退出")
+            }
+        }
+    }
+}
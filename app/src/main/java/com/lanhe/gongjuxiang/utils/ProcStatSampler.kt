@@ -0,0 +1,539 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.util.Log
+import java.io.IOException
+import java.io.RandomAccessFile
+
+/**
+ * /proc 采样引擎
+ * 复用文件句柄与字节缓冲区，手写数字解析（无正则、无逐行字符串），
+ * 基于相邻两次采样的差值计算总体与每核CPU使用率，结果写入定长的原始类型环形缓冲区。
+ *
+ * 非线程安全的内部状态由 [sampleCpu] / [sampleMemory] 上的同步保护，
+ * 同一实例可被监控协程和按需查询共享。
+ *
+ * @param privilegedReader 直接读取被拒绝时（Android 8 以后的 /proc/stat）使用的特权读取方式，
+ *   通常为 Shizuku 常驻Shell；为null时读取失败即视为无数据
+ */
+class ProcStatSampler(
+    private val statPath: String = "/proc/stat",
+    private val meminfoPath: String = "/proc/meminfo",
+    historyCapacity: Int = DEFAULT_HISTORY_CAPACITY,
+    private val privilegedReader: ((String) -> String?)? = null
+) {
+
+    companion object {
+        private const val TAG = "ProcStatSampler"
+        private const val DEFAULT_HISTORY_CAPACITY = 300 // 2秒间隔下约10分钟
+        private const val INITIAL_BUFFER_SIZE = 8 * 1024
+
+        // /proc/meminfo 中关心的字段，索引即 memValues 下标
+        const val MEM_TOTAL = 0
+        const val MEM_FREE = 1
+        const val MEM_AVAILABLE = 2
+        const val MEM_BUFFERS = 3
+        const val MEM_CACHED = 4
+        const val MEM_SWAP_TOTAL = 5
+        const val MEM_SWAP_FREE = 6
+
+        private val MEMINFO_KEYS: Array<ByteArray> = arrayOf(
+            "MemTotal:", "MemFree:", "MemAvailable:", "Buffers:", "Cached:", "SwapTotal:", "SwapFree:"
+        ).map { it.toByteArray(Charsets.US_ASCII) }.toTypedArray()
+    }
+
+    /**
+     * 一次CPU采样的结果（对象复用，调用方不要长期持有引用）
+     */
+    class CpuSample internal constructor(maxCores: Int) {
+        /** 总体使用率 0-100 */
+        var totalUsage: Float = 0f
+            internal set
+        /** 用户态（user+nice）占比 0-100 */
+        var userUsage: Float = 0f
+            internal set
+        /** 内核态（system+irq+softirq）占比 0-100 */
+        var systemUsage: Float = 0f
+            internal set
+        /** 本次采样看到的核心数（含离线核心的最大编号+1） */
+        var coreCount: Int = 0
+            internal set
+        /** 每核使用率，离线核心为 -1 */
+        var coreUsage: FloatArray = FloatArray(maxCores)
+            internal set
+        /** 是否为差值结果；首次采样只能给出开机以来的平均值 */
+        var isDelta: Boolean = false
+            internal set
+        var valid: Boolean = false
+            internal set
+    }
+
+    /**
+     * 一次内存采样的结果，单位字节（对象复用，调用方不要长期持有引用）
+     */
+    class MemorySample internal constructor() {
+        var total: Long = 0L
+            internal set
+        var free: Long = 0L
+            internal set
+        var available: Long = 0L
+            internal set
+        var buffers: Long = 0L
+            internal set
+        var cached: Long = 0L
+            internal set
+        var swapTotal: Long = 0L
+            internal set
+        var swapFree: Long = 0L
+            internal set
+        var valid: Boolean = false
+            internal set
+
+        val used: Long get() = total - available
+        val usagePercent: Float get() = if (total > 0) used.toFloat() / total.toFloat() * 100f else 0f
+    }
+
+    private var buffer = ByteArray(INITIAL_BUFFER_SIZE)
+    private var statFile: RandomAccessFile? = null
+    private var meminfoFile: RandomAccessFile? = null
+
+    // 直接读取因权限被拒绝后不再重试，之后改用 privilegedReader
+    private var statDenied = false
+    private var meminfoDenied = false
+
+    // 上一次的累计jiffies，下标0为聚合行，下标 i+1 为 cpu i
+    private var prevTotal = LongArray(Runtime.getRuntime().availableProcessors() + 1)
+    private var prevIdle = LongArray(prevTotal.size)
+    private var prevUser = 0L
+    private var prevSystem = 0L
+    private var hasPrevious = false
+
+    // 当前解析出的累计值（复用）
+    private var curTotal = LongArray(prevTotal.size)
+    private var curIdle = LongArray(prevTotal.size)
+    private var curPresent = BooleanArray(prevTotal.size)
+    private var curUser = 0L
+    private var curSystem = 0L
+
+    private val lineFields = LongArray(10)
+    private val memValues = LongArray(MEMINFO_KEYS.size)
+
+    private val cpuSample = CpuSample(prevTotal.size - 1)
+    private val memorySample = MemorySample()
+
+    /** 历史记录环形缓冲区 */
+    val history = SampleRing(historyCapacity)
+
+    /**
+     * 采样 /proc/stat 并计算与上一次采样之间的CPU使用率
+     * @return 复用的 [CpuSample]，读取失败时 valid=false
+     */
+    @Synchronized
+    fun sampleCpu(): CpuSample {
+        val length = readFully(statPath, isStat = true)
+        if (length <= 0 || !parseStat(length)) {
+            cpuSample.valid = false
+            return cpuSample
+        }
+
+        val slots = curTotal.size
+        if (cpuSample.coreUsage.size < slots - 1) {
+            cpuSample.coreUsage = FloatArray(slots - 1)
+        }
+
+        val aggTotalDelta: Long
+        val aggIdleDelta: Long
+        val userDelta: Long
+        val systemDelta: Long
+        if (hasPrevious && curTotal[0] > prevTotal[0]) {
+            aggTotalDelta = curTotal[0] - prevTotal[0]
+            aggIdleDelta = curIdle[0] - prevIdle[0]
+            userDelta = curUser - prevUser
+            systemDelta = curSystem - prevSystem
+            cpuSample.isDelta = true
+        } else {
+            aggTotalDelta = curTotal[0]
+            aggIdleDelta = curIdle[0]
+            userDelta = curUser
+            systemDelta = curSystem
+            cpuSample.isDelta = false
+        }
+
+        cpuSample.totalUsage = percent(aggTotalDelta - aggIdleDelta, aggTotalDelta)
+        cpuSample.userUsage = percent(userDelta, aggTotalDelta)
+        cpuSample.systemUsage = percent(systemDelta, aggTotalDelta)
+
+        var highestCore = 0
+        for (slot in 1 until slots) {
+            val core = slot - 1
+            if (!curPresent[slot]) {
+                cpuSample.coreUsage[core] = -1f
+                prevTotal[slot] = 0L
+                prevIdle[slot] = 0L
+                continue
+            }
+            highestCore = slot
+            val totalDelta = curTotal[slot] - prevTotal[slot]
+            val idleDelta = curIdle[slot] - prevIdle[slot]
+            cpuSample.coreUsage[core] = if (prevTotal[slot] > 0 && totalDelta > 0) {
+                percent(totalDelta - idleDelta, totalDelta)
+            } else {
+                percent(curTotal[slot] - curIdle[slot], curTotal[slot])
+            }
+            prevTotal[slot] = curTotal[slot]
+            prevIdle[slot] = curIdle[slot]
+        }
+        cpuSample.coreCount = highestCore
+
+        prevTotal[0] = curTotal[0]
+        prevIdle[0] = curIdle[0]
+        prevUser = curUser
+        prevSystem = curSystem
+        hasPrevious = true
+        cpuSample.valid = true
+
+        history.recordCpu(System.currentTimeMillis(), cpuSample.totalUsage)
+        return cpuSample
+    }
+
+    /**
+     * 采样 /proc/meminfo
+     * @return 复用的 [MemorySample]，读取失败时 valid=false
+     */
+    @Synchronized
+    fun sampleMemory(): MemorySample {
+        val sample = memorySample
+        sample.valid = false
+        val length = readFully(meminfoPath, isStat = false)
+        if (length <= 0) return sample
+
+        memValues.fill(-1L)
+        var pos = 0
+        while (pos < length) {
+            val lineEnd = indexOf(buffer, '\n'.code.toByte(), pos, length)
+            val keyIndex = matchMeminfoKey(pos, lineEnd)
+            if (keyIndex >= 0) {
+                var p = pos + MEMINFO_KEYS[keyIndex].size
+                while (p < lineEnd && buffer[p] == ' '.code.toByte()) p++
+                memValues[keyIndex] = parseLong(p, lineEnd) * 1024 // kB -> 字节
+            }
+            pos = lineEnd + 1
+        }
+
+        val total = memValues[MEM_TOTAL]
+        if (total <= 0) return sample
+        val free = memValues[MEM_FREE].coerceAtLeast(0)
+        val buffers = memValues[MEM_BUFFERS].coerceAtLeast(0)
+        val cached = memValues[MEM_CACHED].coerceAtLeast(0)
+        // 老内核没有 MemAvailable，按 free+buffers+cached 估算
+        val available = if (memValues[MEM_AVAILABLE] >= 0) memValues[MEM_AVAILABLE] else free + buffers + cached
+
+        sample.total = total
+        sample.free = free
+        sample.available = available
+        sample.buffers = buffers
+        sample.cached = cached
+        sample.swapTotal = memValues[MEM_SWAP_TOTAL].coerceAtLeast(0)
+        sample.swapFree = memValues[MEM_SWAP_FREE].coerceAtLeast(0)
+        sample.valid = true
+        history.recordMemory(System.currentTimeMillis(), sample.used, sample.available)
+        return sample
+    }
+
+    /**
+     * 释放文件句柄
+     */
+    @Synchronized
+    fun close() {
+        closeQuietly(statFile)
+        closeQuietly(meminfoFile)
+        statFile = null
+        meminfoFile = null
+    }
+
+    // ---------- 读取 ----------
+
+    /**
+     * 把整个文件读进复用的 [buffer]。/proc 文件支持 seek(0) 后重新生成内容，
+     * 因此句柄在两次采样之间保持打开；出错时关闭并在下次重新打开。
+     */
+    private fun readFully(path: String, isStat: Boolean): Int {
+        if (isStat && statDenied || !isStat && meminfoDenied) {
+            return readPrivileged(path)
+        }
+        var file = if (isStat) statFile else meminfoFile
+        try {
+            if (file == null) {
+                file = RandomAccessFile(path, "r")
+                if (isStat) statFile = file else meminfoFile = file
+            }
+            file.seek(0)
+            var total = 0
+            while (true) {
+                if (total == buffer.size) {
+                    buffer = buffer.copyOf(buffer.size * 2)
+                }
+                val read = file.read(buffer, total, buffer.size - total)
+                if (read <= 0) break
+                total += read
+            }
+            return total
+        } catch (e: IOException) {
+            closeQuietly(file)
+            if (isStat) statFile = null else meminfoFile = null
+            // 仅在非权限错误时记录日志，避免刷屏
+            val msg = e.message ?: ""
+            if (!msg.contains("EACCES") && !msg.contains("Permission denied")) {
+                Log.e(TAG, "读取 $path 失败", e)
+                return -1
+            }
+            return onDenied(path, isStat)
+        } catch (e: SecurityException) {
+            closeQuietly(file)
+            if (isStat) statFile = null else meminfoFile = null
+            return onDenied(path, isStat)
+        }
+    }
+
+    private fun onDenied(path: String, isStat: Boolean): Int {
+        if (privilegedReader == null) return -1
+        if (isStat) statDenied = true else meminfoDenied = true
+        return readPrivileged(path)
+    }
+
+    /**
+     * 经 [privilegedReader] 读取文件内容到 [buffer]
+     */
+    private fun readPrivileged(path: String): Int {
+        val content = privilegedReader?.invoke(path) ?: return -1
+        val bytes = content.toByteArray(Charsets.US_ASCII)
+        if (bytes.size > buffer.size) {
+            buffer = ByteArray(maxOf(bytes.size, buffer.size * 2))
+        }
+        System.arraycopy(bytes, 0, buffer, 0, bytes.size)
+        return bytes.size
+    }
+
+    // ---------- 解析 ----------
+
+    /**
+     * 解析 /proc/stat 中所有以 "cpu" 开头的行到 cur* 数组
+     */
+    private fun parseStat(length: Int): Boolean {
+        curPresent.fill(false)
+        var sawAggregate = false
+        var pos = 0
+        while (pos < length) {
+            val lineEnd = indexOf(buffer, '\n'.code.toByte(), pos, length)
+            if (lineEnd - pos < 4 ||
+                buffer[pos] != 'c'.code.toByte() ||
+                buffer[pos + 1] != 'p'.code.toByte() ||
+                buffer[pos + 2] != 'u'.code.toByte()
+            ) {
+                // cpu 行总在文件开头且连续，遇到第一行非 cpu 行即可停止
+                if (sawAggregate) break
+                pos = lineEnd + 1
+                continue
+            }
+
+            var p = pos + 3
+            val slot: Int
+            if (buffer[p] == ' '.code.toByte()) {
+                slot = 0
+            } else {
+                var core = 0
+                while (p < lineEnd && buffer[p] >= '0'.code.toByte() && buffer[p] <= '9'.code.toByte()) {
+                    core = core * 10 + (buffer[p] - '0'.code.toByte())
+                    p++
+                }
+                slot = core + 1
+                ensureSlots(slot + 1)
+            }
+
+            // 字段: user nice system idle iowait irq softirq steal guest guest_nice
+            var fieldCount = 0
+            while (p < lineEnd && fieldCount < lineFields.size) {
+                while (p < lineEnd && buffer[p] == ' '.code.toByte()) p++
+                if (p >= lineEnd) break
+                val start = p
+                while (p < lineEnd && buffer[p] != ' '.code.toByte()) p++
+                lineFields[fieldCount++] = parseLong(start, p)
+            }
+            if (fieldCount < 4) {
+                pos = lineEnd + 1
+                continue
+            }
+            for (i in fieldCount until lineFields.size) lineFields[i] = 0L
+
+            val user = lineFields[0]
+            val nice = lineFields[1]
+            val system = lineFields[2]
+            val idle = lineFields[3]
+            val iowait = lineFields[4]
+            val irq = lineFields[5]
+            val softirq = lineFields[6]
+            val steal = lineFields[7]
+            // guest/guest_nice 已计入 user/nice，不重复累加
+
+            curTotal[slot] = user + nice + system + idle + iowait + irq + softirq + steal
+            curIdle[slot] = idle + iowait
+            curPresent[slot] = true
+            if (slot == 0) {
+                curUser = user + nice
+                curSystem = system + irq + softirq
+                sawAggregate = true
+            }
+            pos = lineEnd + 1
+        }
+        return sawAggregate
+    }
+
+    private fun matchMeminfoKey(start: Int, end: Int): Int {
+        for (k in MEMINFO_KEYS.indices) {
+            val key = MEMINFO_KEYS[k]
+            if (end - start < key.size) continue
+            var match = true
+            for (i in key.indices) {
+                if (buffer[start + i] != key[i]) {
+                    match = false
+                    break
+                }
+            }
+            if (match) return k
+        }
+        return -1
+    }
+
+    private fun parseLong(start: Int, end: Int): Long {
+        var value = 0L
+        var p = start
+        while (p < end) {
+            val b = buffer[p]
+            if (b < '0'.code.toByte() || b > '9'.code.toByte()) break
+            value = value * 10 + (b - '0'.code.toByte())
+            p++
+        }
+        return value
+    }
+
+    private fun ensureSlots(required: Int) {
+        if (required <= curTotal.size) return
+        val newSize = maxOf(required, curTotal.size * 2)
+        prevTotal = prevTotal.copyOf(newSize)
+        prevIdle = prevIdle.copyOf(newSize)
+        curTotal = curTotal.copyOf(newSize)
+        curIdle = curIdle.copyOf(newSize)
+        curPresent = curPresent.copyOf(newSize)
+    }
+
+    private fun indexOf(bytes: ByteArray, target: Byte, from: Int, end: Int): Int {
+        var i = from
+        while (i < end) {
+            if (bytes[i] == target) return i
+            i++
+        }
+        return end
+    }
+
+    private fun percent(part: Long, whole: Long): Float {
+        if (whole <= 0) return 0f
+        return (part.toFloat() / whole.toFloat() * 100f).coerceIn(0f, 100f)
+    }
+
+    private fun closeQuietly(file: RandomAccessFile?) {
+        try {
+            file?.close()
+        } catch (e: Exception) {
+            // 忽略关闭异常
+        }
+    }
+
+    /**
+     * 定长原始类型环形缓冲区，保存最近的采样结果，写入不产生对象分配
+     */
+    class SampleRing(val capacity: Int) {
+        private val cpuTimestamps = LongArray(capacity)
+        private val cpuValues = FloatArray(capacity)
+        private var cpuHead = 0
+        private var cpuSize = 0
+
+        private val memTimestamps = LongArray(capacity)
+        private val memUsed = LongArray(capacity)
+        private val memAvailable = LongArray(capacity)
+        private var memHead = 0
+        private var memSize = 0
+
+        val cpuCount: Int @Synchronized get() = cpuSize
+        val memoryCount: Int @Synchronized get() = memSize
+
+        @Synchronized
+        internal fun recordCpu(timestamp: Long, usage: Float) {
+            cpuTimestamps[cpuHead] = timestamp
+            cpuValues[cpuHead] = usage
+            cpuHead = (cpuHead + 1) % capacity
+            if (cpuSize < capacity) cpuSize++
+        }
+
+        @Synchronized
+        internal fun recordMemory(timestamp: Long, used: Long, available: Long) {
+            memTimestamps[memHead] = timestamp
+            memUsed[memHead] = used
+            memAvailable[memHead] = available
+            memHead = (memHead + 1) % capacity
+            if (memSize < capacity) memSize++
+        }
+
+        /**
+         * 按时间顺序（旧 -> 新）把CPU使用率复制到 [out]
+         * @return 实际复制的条数
+         */
+        @Synchronized
+        fun copyCpuUsage(out: FloatArray): Int {
+            val count = minOf(out.size, cpuSize)
+            val start = (cpuHead - count + capacity) % capacity
+            for (i in 0 until count) {
+                out[i] = cpuValues[(start + i) % capacity]
+            }
+            return count
+        }
+
+        /**
+         * 按时间顺序（旧 -> 新）把已用内存复制到 [out]
+         * @return 实际复制的条数
+         */
+        @Synchronized
+        fun copyMemoryUsed(out: LongArray): Int {
+            val count = minOf(out.size, memSize)
+            val start = (memHead - count + capacity) % capacity
+            for (i in 0 until count) {
+                out[i] = memUsed[(start + i) % capacity]
+            }
+            return count
+        }
+
+        /**
+         * 最近 [window] 次CPU采样的平均值
+         */
+        @Synchronized
+        fun averageCpu(window: Int = cpuSize): Float {
+            val count = minOf(window, cpuSize)
+            if (count == 0) return 0f
+            var sum = 0f
+            for (i in 1..count) {
+                sum += cpuValues[(cpuHead - i + capacity) % capacity]
+            }
+            return sum / count
+        }
+
+        @Synchronized
+        fun latestCpuTimestamp(): Long =
+            if (cpuSize == 0) 0L else cpuTimestamps[(cpuHead - 1 + capacity) % capacity]
+
+        @Synchronized
+        fun latestMemoryAvailable(): Long =
+            if (memSize == 0) 0L else memAvailable[(memHead - 1 + capacity) % capacity]
+
+        @Synchronized
+        fun latestMemoryTimestamp(): Long =
+            if (memSize == 0) 0L else memTimestamps[(memHead - 1 + capacity) % capacity]
+    }
+}
@@ -0,0 +1,437 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.os.SystemClock
+import android.system.Os
+import android.system.OsConstants
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+
+/**
+ * /proc 进程表增量扫描器
+ * 在两次扫描之间保留 PID → 进程状态的映射，每次扫描只读取各进程的 stat 和 statm，
+ * 用与上一次扫描的差值计算每个进程的CPU使用率和内存(RSS)变化；cmdline 只在首次见到该进程时读取。
+ *
+ * - 读取使用复用的字节缓冲区并手写数字解析，不创建正则或逐行字符串
+ * - 用进程启动时间识别PID复用，复用后按新进程处理
+ * - 已退出的进程在扫描结束时移除
+ * - Android 7 以后 /proc 以 hidepid 挂载，应用只能看到自己的进程；此时若提供了 [privilegedExec]，
+ *   改为经特权Shell一次读取全部进程的 stat（此模式下RSS取自 stat 字段，不再单独读 statm）
+ *
+ * 所有公开方法都是同步的，同一实例可被多个模块共享，参见 [getInstance]。
+ *
+ * @param privilegedExec 依次执行一组Shell命令并返回各自的标准输出，不可用时返回null
+ */
+class ProcessTableScanner(
+    private val procRoot: String = "/proc",
+    private val clockTicksPerSecond: Long = DEFAULT_CLOCK_TICKS,
+    private val pageSize: Long = DEFAULT_PAGE_SIZE,
+    private val cpuCount: Int = Runtime.getRuntime().availableProcessors(),
+    private val privilegedExec: ((List<String>) -> List<String?>?)? = null,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    companion object {
+        private const val TAG = "ProcessTableScanner"
+        private const val DEFAULT_CLOCK_TICKS = 100L
+        private const val DEFAULT_PAGE_SIZE = 4096L
+        private const val INITIAL_BUFFER_SIZE = 4 * 1024
+        private const val DEFAULT_MAX_AGE_MS = 1_000L
+
+        // stat 中 ")" 之后的字段下标（state 为0）
+        private const val FIELD_UTIME = 11
+        private const val FIELD_STIME = 12
+        private const val FIELD_STARTTIME = 19
+        private const val FIELD_RSS = 21
+
+        @Volatile
+        private var INSTANCE: ProcessTableScanner? = null
+
+        /**
+         * 全局共享的扫描器，直接读取受限时经 Shizuku 常驻Shell读取
+         */
+        fun getInstance(): ProcessTableScanner {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: ProcessTableScanner(
+                    clockTicksPerSecond = sysconf(OsConstants._SC_CLK_TCK, DEFAULT_CLOCK_TICKS),
+                    pageSize = sysconf(OsConstants._SC_PAGESIZE, DEFAULT_PAGE_SIZE),
+                    privilegedExec = { commands ->
+                        if (ShizukuManager.isShizukuAvailable()) {
+                            // 扫描期间有进程退出时 cat 返回非0，已读到的内容仍然有效
+                            ShizukuManager.executeCommands(commands).map { it.output?.takeIf { o -> o.isNotEmpty() } }
+                        } else {
+                            null
+                        }
+                    }
+                ).also { INSTANCE = it }
+            }
+        }
+
+        private fun sysconf(name: Int, fallback: Long): Long {
+            return try {
+                Os.sysconf(name).takeIf { it > 0 } ?: fallback
+            } catch (e: Exception) {
+                fallback
+            }
+        }
+    }
+
+    /**
+     * 一个进程在最近一次扫描时的状态
+     */
+    data class ProcessSnapshot(
+        val pid: Int,
+        /** 进程名（cmdline 第一个参数，内核线程为 comm） */
+        val name: String,
+        /** 最近一个扫描间隔内的CPU使用率，0-100 表示占整机CPU能力的比例 */
+        val cpuPercent: Float,
+        /** 进程启动以来累计的CPU时间 */
+        val cpuTimeMs: Long,
+        /** 常驻内存，字节 */
+        val rssBytes: Long,
+        /** 与上一次扫描相比的常驻内存变化，字节 */
+        val rssDeltaBytes: Long
+    ) {
+        /** 应用包名，即进程名去掉 ":remote" 等子进程后缀 */
+        val packageName: String get() = name.substringBefore(':')
+    }
+
+    private class ProcState(val pid: Int, var startTime: Long) {
+        var name: String = ""
+        var cpuTicks = 0L
+        var cpuPercent = 0f
+        var rssPages = 0L
+        var rssDeltaPages = 0L
+        var generation = 0
+        var isNew = true
+    }
+
+    private val states = HashMap<Int, ProcState>()
+    private var buffer = ByteArray(INITIAL_BUFFER_SIZE)
+    private val fields = LongArray(FIELD_RSS + 1)
+    private var generation = 0
+    private var lastScanAt = 0L
+    private var uptimeTicks = 0L
+    private var intervalTicks = 0L
+
+    // 直接读取看不到其他进程时改用特权Shell，判定一次后不再重复
+    private var restrictionChecked = false
+    private var usePrivileged = false
+
+    /**
+     * 扫描一次进程表，更新每个进程的CPU和内存差值
+     * @return 本次扫描到的进程数
+     */
+    @Synchronized
+    fun scan(): Int {
+        val now = clock()
+        intervalTicks = if (lastScanAt > 0) (now - lastScanAt) * clockTicksPerSecond / 1000 else 0L
+        lastScanAt = now
+        uptimeTicks = readUptimeTicks()
+        generation++
+
+        if (!restrictionChecked) {
+            restrictionChecked = true
+            usePrivileged = privilegedExec != null && !File("$procRoot/1/stat").canRead()
+        }
+        val fresh = ArrayList<ProcState>()
+        if (usePrivileged && scanPrivileged(fresh)) {
+            resolvePrivilegedNames(fresh)
+        } else {
+            scanDirect(fresh)
+        }
+
+        val iterator = states.values.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next().generation != generation) iterator.remove()
+        }
+        return states.size
+    }
+
+    /**
+     * 距上次扫描超过 maxAgeMs 时重新扫描，供多个调用方共享同一次扫描结果
+     */
+    @Synchronized
+    fun refresh(maxAgeMs: Long = DEFAULT_MAX_AGE_MS) {
+        if (lastScanAt == 0L || clock() - lastScanAt >= maxAgeMs) scan()
+    }
+
+    /**
+     * CPU使用率最高的 limit 个进程
+     */
+    @Synchronized
+    fun topByCpu(limit: Int): List<ProcessSnapshot> {
+        return states.values
+            .sortedWith(compareByDescending<ProcState> { it.cpuPercent }.thenByDescending { it.cpuTicks })
+            .take(limit)
+            .map { it.toSnapshot() }
+    }
+
+    /**
+     * 常驻内存最大的 limit 个进程
+     */
+    @Synchronized
+    fun topByMemory(limit: Int): List<ProcessSnapshot> {
+        return states.values
+            .sortedByDescending { it.rssPages }
+            .take(limit)
+            .map { it.toSnapshot() }
+    }
+
+    /**
+     * 最近一次扫描到的全部进程
+     */
+    @Synchronized
+    fun snapshot(): List<ProcessSnapshot> = states.values.map { it.toSnapshot() }
+
+    @Synchronized
+    fun find(pid: Int): ProcessSnapshot? = states[pid]?.toSnapshot()
+
+    /**
+     * 按应用包名查找其所有进程（含 ":xxx" 子进程）
+     */
+    @Synchronized
+    fun findByPackage(packageName: String): List<ProcessSnapshot> {
+        return states.values
+            .filter { it.name == packageName || it.name.startsWith("$packageName:") }
+            .map { it.toSnapshot() }
+    }
+
+    private fun ProcState.toSnapshot(): ProcessSnapshot {
+        return ProcessSnapshot(
+            pid = pid,
+            name = name,
+            cpuPercent = cpuPercent,
+            cpuTimeMs = cpuTicks * 1000 / clockTicksPerSecond,
+            rssBytes = rssPages * pageSize,
+            rssDeltaBytes = rssDeltaPages * pageSize
+        )
+    }
+
+    // ---------- 直接读取 ----------
+
+    private fun scanDirect(fresh: MutableList<ProcState>) {
+        val entries = File(procRoot).list() ?: return
+        for (entry in entries) {
+            val pid = parsePid(entry)
+            if (pid <= 0) continue
+            val dir = "$procRoot/$entry"
+            val length = readFile("$dir/stat")
+            if (length <= 0) continue
+            val state = update(pid, 0, length) ?: continue
+            // statm 的第二个数为常驻页数，比 stat 中的 rss 字段更新及时
+            val statRss = fields[FIELD_RSS]
+            val statmLength = readFile("$dir/statm")
+            val resident = if (statmLength > 0) secondNumber(statmLength) else -1L
+            applyRss(state, if (resident >= 0) resident else statRss)
+            if (state.isNew) fresh.add(state)
+        }
+        for (state in fresh) {
+            val length = readFile("$procRoot/${state.pid}/cmdline")
+            val name = if (length > 0) cmdlineName(length) else null
+            if (!name.isNullOrEmpty()) state.name = name
+        }
+    }
+
+    /**
+     * 把文件读进复用的 [buffer]，失败（进程已退出或无权限）返回 -1
+     */
+    private fun readFile(path: String): Int {
+        return try {
+            FileInputStream(path).use { input ->
+                var total = 0
+                while (true) {
+                    if (total == buffer.size) buffer = buffer.copyOf(buffer.size * 2)
+                    val read = input.read(buffer, total, buffer.size - total)
+                    if (read <= 0) break
+                    total += read
+                }
+                total
+            }
+        } catch (e: IOException) {
+            -1
+        } catch (e: SecurityException) {
+            -1
+        }
+    }
+
+    private fun readUptimeTicks(): Long {
+        val length = readFile("$procRoot/uptime")
+        if (length <= 0) return 0L
+        // 格式："12345.67 23456.78"
+        var seconds = 0L
+        var hundredths = 0L
+        var p = 0
+        while (p < length && isDigit(buffer[p])) {
+            seconds = seconds * 10 + (buffer[p] - '0'.code.toByte())
+            p++
+        }
+        if (p < length && buffer[p] == '.'.code.toByte()) {
+            p++
+            var digits = 0
+            while (p < length && isDigit(buffer[p]) && digits < 2) {
+                hundredths = hundredths * 10 + (buffer[p] - '0'.code.toByte())
+                p++
+                digits++
+            }
+            if (digits == 1) hundredths *= 10
+        }
+        return seconds * clockTicksPerSecond + hundredths * clockTicksPerSecond / 100
+    }
+
+    // ---------- 特权读取 ----------
+
+    /**
+     * 经特权Shell一次读取所有进程的 stat，每行一个进程
+     */
+    private fun scanPrivileged(fresh: MutableList<ProcState>): Boolean {
+        val output = privilegedExec?.invoke(listOf("cat $procRoot/[0-9]*/stat"))?.firstOrNull() ?: return false
+        val bytes = output.toByteArray(Charsets.UTF_8)
+        if (bytes.size > buffer.size) buffer = ByteArray(maxOf(bytes.size, buffer.size * 2))
+        System.arraycopy(bytes, 0, buffer, 0, bytes.size)
+
+        var pos = 0
+        while (pos < bytes.size) {
+            var lineEnd = pos
+            while (lineEnd < bytes.size && buffer[lineEnd] != '\n'.code.toByte()) lineEnd++
+            var p = pos
+            var pid = 0
+            while (p < lineEnd && isDigit(buffer[p])) {
+                pid = pid * 10 + (buffer[p] - '0'.code.toByte())
+                p++
+            }
+            if (pid > 0) {
+                val state = update(pid, pos, lineEnd)
+                if (state != null) {
+                    applyRss(state, fields[FIELD_RSS])
+                    if (state.isNew) fresh.add(state)
+                }
+            }
+            pos = lineEnd + 1
+        }
+        return true
+    }
+
+    /**
+     * 新进程的 cmdline 合并为一批命令读取
+     */
+    private fun resolvePrivilegedNames(fresh: List<ProcState>) {
+        if (fresh.isEmpty()) return
+        val outputs = privilegedExec?.invoke(fresh.map { "cat $procRoot/${it.pid}/cmdline" }) ?: return
+        fresh.forEachIndexed { i, state ->
+            val name = outputs.getOrNull(i)?.substringBefore('\u0000')?.trim()
+            if (!name.isNullOrEmpty()) state.name = name
+        }
+    }
+
+    // ---------- 解析 ----------
+
+    /**
+     * 解析 buffer[start, end) 中的一行 stat 并更新对应进程的状态
+     * @return 进程状态，格式不符时返回null
+     */
+    private fun update(pid: Int, start: Int, end: Int): ProcState? {
+        // comm 可能包含空格和括号，以最后一个 ')' 为准
+        val open = indexOf('('.code.toByte(), start, end)
+        var close = end - 1
+        while (close > start && buffer[close] != ')'.code.toByte()) close--
+        if (open < 0 || close <= open) return null
+        if (parseFields(close + 1, end) <= FIELD_RSS) return null
+
+        val cpuTicks = fields[FIELD_UTIME] + fields[FIELD_STIME]
+        val startTime = fields[FIELD_STARTTIME]
+        var state = states[pid]
+        if (state == null || state.startTime != startTime) {
+            state = ProcState(pid, startTime)
+            state.name = String(buffer, open + 1, close - open - 1, Charsets.UTF_8)
+            states[pid] = state
+            // 首次见到的进程只能给出启动以来的平均值
+            val lifetime = uptimeTicks - startTime
+            state.cpuPercent = percent(cpuTicks, lifetime)
+        } else {
+            state.isNew = false
+            state.cpuPercent = percent(cpuTicks - state.cpuTicks, intervalTicks)
+        }
+        state.cpuTicks = cpuTicks
+        state.generation = generation
+        return state
+    }
+
+    private fun applyRss(state: ProcState, pages: Long) {
+        state.rssDeltaPages = if (state.isNew) 0L else pages - state.rssPages
+        state.rssPages = pages
+    }
+
+    private fun percent(ticks: Long, elapsedTicks: Long): Float {
+        if (ticks <= 0 || elapsedTicks <= 0) return 0f
+        return (ticks.toFloat() / (elapsedTicks * cpuCount) * 100f).coerceIn(0f, 100f)
+    }
+
+    /**
+     * 解析 buffer[start, end) 中以空格分隔的字段到 [fields]，返回字段数；
+     * 非数字字段（state）记为0
+     */
+    private fun parseFields(start: Int, end: Int): Int {
+        var count = 0
+        var p = start
+        while (p < end && count < fields.size) {
+            while (p < end && buffer[p] == ' '.code.toByte()) p++
+            if (p >= end || buffer[p] == '\n'.code.toByte()) break
+            var value = 0L
+            var negative = false
+            if (buffer[p] == '-'.code.toByte()) {
+                negative = true
+                p++
+            }
+            while (p < end && buffer[p] != ' '.code.toByte() && buffer[p] != '\n'.code.toByte()) {
+                val b = buffer[p]
+                if (isDigit(b)) value = value * 10 + (b - '0'.code.toByte())
+                p++
+            }
+            fields[count++] = if (negative) -value else value
+        }
+        return count
+    }
+
+    private fun secondNumber(length: Int): Long {
+        var p = 0
+        while (p < length && buffer[p] != ' '.code.toByte()) p++
+        p++
+        if (p >= length || !isDigit(buffer[p])) return -1L
+        var value = 0L
+        while (p < length && isDigit(buffer[p])) {
+            value = value * 10 + (buffer[p] - '0'.code.toByte())
+            p++
+        }
+        return value
+    }
+
+    /**
+     * cmdline 以 '\0' 分隔参数，取第一个参数作为进程名
+     */
+    private fun cmdlineName(length: Int): String? {
+        var end = 0
+        while (end < length && buffer[end] != 0.toByte()) end++
+        if (end == 0) return null
+        return String(buffer, 0, end, Charsets.UTF_8).trim()
+    }
+
+    private fun parsePid(name: String): Int {
+        if (name.isEmpty() || name.length > 9) return -1
+        var pid = 0
+        for (c in name) {
+            if (c < '0' || c > '9') return -1
+            pid = pid * 10 + (c - '0')
+        }
+        return pid
+    }
+
+    private fun indexOf(value: Byte, start: Int, end: Int): Int {
+        for (i in start until end) {
+            if (buffer[i] == value) return i
+        }
+        return -1
+    }
+
+    private fun isDigit(b: Byte): Boolean = b >= '0'.code.toByte() && b <= '9'.code.toByte()
+}
@@ -24,10 +24,7 @@ import com.lanhe.gongjuxiang.models.MemoryInfo
 import com.lanhe.gongjuxiang.models.NetworkStats
 import com.lanhe.gongjuxiang.models.PerformanceData
 import kotlinx.coroutines.*
-import java.io.BufferedReader
 import java.io.File
-import java.io.FileReader
-import java.io.IOException
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
 
@@ -53,9 +50,11 @@ class RealPerformanceMonitorManager(private val context: Context) {
         )
     }
 
-    private val performanceMonitor = PerformanceMonitor(context)
-    private val database = AppDatabase.getDatabase(context)
-    private val performanceDataDao = database.performanceDataDao()
+    private val procSampler = ProcStatSampler(
+        privilegedReader = { path -> ShizukuManager.readPrivilegedFile(path) }
+    )
+    private val performanceMonitor = PerformanceMonitor(context, procSampler)
+    private val recorder = MonitoringDataRecorder.getInstance(context)
     
     private var monitoringJob: Job? = null
     private var networkStatsJob: Job? = null
@@ -77,10 +76,20 @@ class RealPerformanceMonitorManager(private val context: Context) {
         fun onMonitoringStarted()
         fun onMonitoringStopped()
         fun onError(error: Exception)
+
+        /**
+         * 一批性能记录写入数据库后在主线程调用
+         * @param recordCount 本批写入的记录数
+         */
         fun onDataSaved(recordCount: Long)
     }
     
     private var callback: PerformanceCallback? = null
+
+    // 管道真正落盘后才通知，而不是在采样入队时
+    private val onPerformanceWritten: (Int) -> Unit = { count ->
+        handler.post { callback?.onDataSaved(count.toLong()) }
+    }
     
     /**
      * 电池快照数据类
@@ -106,6 +115,7 @@ class RealPerformanceMonitorManager(private val context: Context) {
         if (isMonitoring.get()) return
         
         isMonitoring.set(true)
+        recorder.performancePipeline.addWriteListener(onPerformanceWritten)
         callback?.onMonitoringStarted()
         
         // 启动主监控任务
@@ -149,6 +159,7 @@ class RealPerformanceMonitorManager(private val context: Context) {
         
         monitoringJob = null
         networkStatsJob = null
+        recorder.flushAllAsync()
         callback?.onMonitoringStopped()
         
         Log.i(TAG, "性能监控已停止")
@@ -213,70 +224,30 @@ class RealPerformanceMonitorManager(private val context: Context) {
 
         // 2. 尝试读取 /proc/stat (通常在未root的高版本Android上会失败)
         try {
-            val cpuStats = readCpuStats()
-            val totalCores = Runtime.getRuntime().availableProcessors()
-            
-            // 计算CPU使用率
-            val totalDiff = cpuStats.total - cpuStats.idle
-            val totalUsage = if (cpuStats.total > 0) {
-                (totalDiff.toFloat() / cpuStats.total.toFloat()) * 100
-            } else {
-                0f
-            }
-            
-            totalUsage.coerceIn(0f, 100f)
+            val sample = procSampler.sampleCpu()
+            if (sample.valid) sample.totalUsage else 0f
         } catch (e: Exception) {
             // Log.e(TAG, "获取CPU使用率失败", e) // 避免刷屏
             0f
         }
     }
     
-    /**
-     * 读取CPU统计数据
-     */
-    private data class CpuStats(val total: Long, val idle: Long)
-    
-    private fun readCpuStats(): CpuStats {
-        var reader: BufferedReader? = null
-        try {
-            reader = BufferedReader(FileReader("/proc/stat"))
-            val line = reader.readLine()
-            if (line != null && line.startsWith("cpu ")) {
-                val parts = line.split("\\s+".toRegex())
-                if (parts.size >= 5) {
-                    val user = parts[1].toLong()
-                    val nice = parts[2].toLong()
-                    val system = parts[3].toLong()
-                    val idle = parts[4].toLong()
-                    val iowait = if (parts.size > 5) parts[5].toLong() else 0
-                    val irq = if (parts.size > 6) parts[6].toLong() else 0
-                    val softirq = if (parts.size > 7) parts[7].toLong() else 0
-                    
-                    val total = user + nice + system + idle + iowait + irq + softirq
-                    return CpuStats(total, idle)
-                }
-            }
-        } catch (e: IOException) {
-            // 仅在非权限错误时记录日志，避免刷屏
-            val msg = e.message ?: ""
-            if (!msg.contains("EACCES") && !msg.contains("Permission denied")) {
-                Log.e(TAG, "读取CPU统计失败", e)
-            }
-        } finally {
-            try {
-                reader?.close()
-            } catch (e: Exception) {
-                // 忽略关闭异常
-            }
-        }
-        return CpuStats(0, 0)
-    }
-    
     /**
      * 获取真实的内存信息
      */
     private suspend fun getRealMemoryInfo(): MemoryInfo = withContext(Dispatchers.IO) {
         try {
+            // 优先从/proc/meminfo采样，used与usagePercent基于同一个MemAvailable计算
+            val sample = procSampler.sampleMemory()
+            if (sample.valid) {
+                return@withContext MemoryInfo(
+                    total = sample.total,
+                    available = sample.available,
+                    used = sample.used,
+                    usagePercent = sample.usagePercent
+                )
+            }
+
             val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as android.app.ActivityManager
             val memoryInfo = android.app.ActivityManager.MemoryInfo()
             activityManager.getMemoryInfo(memoryInfo)
@@ -290,14 +261,10 @@ class RealPerformanceMonitorManager(private val context: Context) {
                 0f
             }
             
-            // 尝试从/proc/meminfo获取更详细的信息
-            val memInfo = readMemInfo()
-            val adjustedAvailable = memInfo["MemAvailable"] ?: availableMemory
-            
             MemoryInfo(
                 total = totalMemory,
-                available = adjustedAvailable,
-                used = totalMemory - adjustedAvailable,
+                available = availableMemory,
+                used = usedMemory,
                 usagePercent = usagePercent
             )
         } catch (e: Exception) {
@@ -307,38 +274,6 @@ class RealPerformanceMonitorManager(private val context: Context) {
         }
     }
     
-    /**
-     * 从/proc/meminfo读取内存信息
-     */
-    private fun readMemInfo(): Map<String, Long> {
-        val result = mutableMapOf<String, Long>()
-        var reader: BufferedReader? = null
-        
-        try {
-            reader = BufferedReader(FileReader("/proc/meminfo"))
-            var line: String?
-            
-            while (reader.readLine().also { line = it } != null) {
-                val parts = line!!.split("\\s+".toRegex())
-                if (parts.size >= 2) {
-                    val key = parts[0].replace(":", "")
-                    val value = parts[1].toLong() * 1024 // 转换为字节
-                    result[key] = value
-                }
-            }
-        } catch (e: IOException) {
-            Log.e(TAG, "读取meminfo失败", e)
-        } finally {
-            try {
-                reader?.close()
-            } catch (e: Exception) {
-                // 忽略关闭异常
-            }
-        }
-        
-        return result
-    }
-    
     /**
      * 获取真实的电池信息
      */
@@ -664,15 +599,8 @@ class RealPerformanceMonitorManager(private val context: Context) {
                 dataType = "performance"
             )
             
-            val id = performanceDataDao.insert(entity)
-            
-            // 通知数据已保存
-            withContext(Dispatchers.Main) {
-                callback?.onDataSaved(id)
-            }
-            
-            // 定期清理旧数据（保留30天）
-            cleanupOldData()
+            // 交给写后管道攒批落盘，落盘后由 onPerformanceWritten 通知；过期数据由记录器的独立任务清理
+            recorder.recordPerformance(entity)
             
         } catch (e: Exception) {
             Log.e(TAG, "保存性能数据失败", e)
@@ -696,18 +624,6 @@ class RealPerformanceMonitorManager(private val context: Context) {
         }
     }
     
-    /**
-     * 清理旧数据
-     */
-    private suspend fun cleanupOldData() {
-        try {
-            val cutoffTime = System.currentTimeMillis() - (30L * 24 * 60 * 60 * 1000) // 30天前
-            performanceDataDao.cleanupOldData(cutoffTime)
-        } catch (e: Exception) {
-            Log.e(TAG, "清理旧数据失败", e)
-        }
-    }
-    
     /**
      * 获取当前性能快照
      */
@@ -746,8 +662,10 @@ class RealPerformanceMonitorManager(private val context: Context) {
      */
     fun cleanup() {
         stopMonitoring()
+        recorder.performancePipeline.removeWriteListener(onPerformanceWritten)
         callback = null
         batteryHistory.clear()
+        procSampler.close()
         Log.i(TAG, "性能监控管理器已清理")
     }
 }
@@ -0,0 +1,179 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.util.Log
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.selects.onTimeout
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 批量写后（write-behind）持久化管道
+ * 采样线程只把记录放进有界通道，后台协程按条数或时间窗口攒批，
+ * 再通过一次 insertAll 事务写入数据库，避免每个采样一次写事务。
+ *
+ * 通道写满时丢弃最旧的记录：监控数据宁可丢点，也不能反压采样循环。
+ * [flush] 由消费协程自己处理：把手上未满的一批连同通道中的积压一起写入后才返回。
+ * 需要知道何时真正落盘的调用方用 [addWriteListener] 注册监听。
+ *
+ * @param name 管道名称，仅用于日志
+ * @param batchSize 攒够多少条立即落盘
+ * @param flushIntervalMs 第一条记录进入后最多等待多久落盘
+ * @param capacity 通道容量
+ * @param writer 实际的批量写入，一般直接传入 DAO 的 insertAll
+ */
+class SampleWritePipeline<T : Any>(
+    private val name: String,
+    private val scope: CoroutineScope,
+    private val batchSize: Int = DEFAULT_BATCH_SIZE,
+    private val flushIntervalMs: Long = DEFAULT_FLUSH_INTERVAL,
+    capacity: Int = DEFAULT_CAPACITY,
+    private val writer: suspend (List<T>) -> Unit
+) {
+
+    companion object {
+        private const val TAG = "SampleWritePipeline"
+        const val DEFAULT_BATCH_SIZE = 30
+        const val DEFAULT_FLUSH_INTERVAL = 60_000L // 1分钟
+        const val DEFAULT_CAPACITY = 512
+    }
+
+    private val channel = Channel<T>(capacity, BufferOverflow.DROP_OLDEST)
+    private val flushRequests = Channel<CompletableDeferred<Unit>>(Channel.UNLIMITED)
+    private val writeMutex = Mutex()
+    private val written = AtomicLong(0)
+    private val dropped = AtomicLong(0)
+    private val writeListeners = CopyOnWriteArrayList<(Int) -> Unit>()
+    private var consumerJob: Job? = null
+
+    /** 已成功写入数据库的记录数 */
+    val writtenCount: Long get() = written.get()
+
+    /** 因写入失败而丢弃的记录数 */
+    val droppedCount: Long get() = dropped.get()
+
+    /**
+     * 注册落盘监听：每批写入成功后在写入线程上以本批条数调用，重复注册同一个监听无效
+     */
+    fun addWriteListener(listener: (Int) -> Unit) {
+        writeListeners.addIfAbsent(listener)
+    }
+
+    fun removeWriteListener(listener: (Int) -> Unit) {
+        writeListeners.remove(listener)
+    }
+
+    /**
+     * 启动后台消费协程（重复调用无副作用）
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    @Synchronized
+    fun start() {
+        if (consumerJob?.isActive == true) return
+        consumerJob = scope.launch {
+            val batch = ArrayList<T>(batchSize)
+            var deadline = 0L
+            while (isActive) {
+                var closed = false
+                var flushRequest: CompletableDeferred<Unit>? = null
+
+                select<Unit> {
+                    channel.onReceiveCatching { result ->
+                        val item = result.getOrNull()
+                        if (item == null) {
+                            closed = true
+                        } else {
+                            // 从第一条记录开始计时，窗口内尽量攒满一批
+                            if (batch.isEmpty()) deadline = System.nanoTime() + flushIntervalMs * 1_000_000
+                            batch.add(item)
+                        }
+                    }
+                    flushRequests.onReceive { flushRequest = it }
+                    if (batch.isNotEmpty()) {
+                        onTimeout(((deadline - System.nanoTime()) / 1_000_000).coerceAtLeast(0)) {}
+                    }
+                }
+
+                if (flushRequest != null) drainTo(batch)
+                val due = closed || flushRequest != null || batch.size >= batchSize ||
+                    (batch.isNotEmpty() && System.nanoTime() >= deadline)
+                if (due) {
+                    writeBatch(batch)
+                    batch.clear()
+                }
+                flushRequest?.complete(Unit)
+                if (closed) break
+            }
+        }
+    }
+
+    /**
+     * 提交一条记录，不挂起、不阻塞
+     * @return 管道已关闭时返回 false
+     */
+    fun offer(item: T): Boolean {
+        return channel.trySend(item).isSuccess
+    }
+
+    /**
+     * 立即写入所有已提交的记录，写完后返回
+     * 包括消费协程已取出、正在攒批的记录。用于进入后台、停止监控等生命周期节点
+     */
+    suspend fun flush() {
+        val job = consumerJob
+        if (job == null || !job.isActive) {
+            val pending = ArrayList<T>()
+            drainTo(pending)
+            writeBatch(pending)
+            return
+        }
+
+        val done = CompletableDeferred<Unit>()
+        // 消费协程在处理请求前结束（关闭或被取消）时不再等待
+        val handle = job.invokeOnCompletion { done.complete(Unit) }
+        try {
+            if (flushRequests.trySend(done).isSuccess) done.await()
+        } finally {
+            handle.dispose()
+        }
+    }
+
+    /**
+     * 关闭管道：不再接收新记录，写完积压后停止消费协程
+     */
+    suspend fun close() {
+        channel.close()
+        // 通道关闭后消费协程会把剩余记录写完再退出
+        val job = consumerJob
+        if (job != null) job.join() else flush()
+        consumerJob = null
+    }
+
+    private fun drainTo(batch: MutableList<T>) {
+        while (true) {
+            batch.add(channel.tryReceive().getOrNull() ?: break)
+        }
+    }
+
+    private suspend fun writeBatch(batch: List<T>) {
+        if (batch.isEmpty()) return
+        val success = writeMutex.withLock {
+            try {
+                writer(ArrayList(batch))
+                written.addAndGet(batch.size.toLong())
+                true
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                dropped.addAndGet(batch.size.toLong())
+                Log.e(TAG, "[$name] 批量写入 ${batch.size} 条记录失败", e)
+                false
+            }
+        }
+        if (success) writeListeners.forEach { it(batch.size) }
+    }
+}
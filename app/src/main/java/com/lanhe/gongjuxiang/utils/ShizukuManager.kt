@@ -15,6 +15,7 @@ import android.content.pm.PackageManager
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
 import com.lanhe.gongjuxiang.models.ProcessInfo
+import com.lanhe.gongjuxiang.security.CommandValidator
 
 /**
  * Shizuku权限管理器 - 核心管理器
@@ -49,6 +50,13 @@ object ShizukuManager {
     @Volatile
     private var currentState: ShizukuState = ShizukuState.Checking
 
+    // 命令验证器
+    private val commandValidator = CommandValidator()
+
+    // 常驻特权Shell，所有命令共用，首次执行命令时启动
+    private val shellSessionLazy = lazy { PrivilegedShellSession.create(commandValidator) }
+    private val shellSession by shellSessionLazy
+
     // 权限结果监听器
     private val permissionResultListener = object : Shizuku.OnRequestPermissionResultListener {
         override fun onRequestPermissionResult(requestCode: Int, grantResult: Int) {
@@ -91,6 +99,7 @@ object ShizukuManager {
             // 直接更新状态为不可用，不需要防抖
             updateStateThreadSafe(ShizukuState.Unavailable)
             clearSystemServices()
+            closeShellSession()
             // 只在日志中记录，不弹Toast，避免频繁打扰用户
             Log.w("ShizukuManager", "Shizuku服务已断开连接")
         }
@@ -142,6 +151,7 @@ object ShizukuManager {
 
             // 清理系统服务
             clearSystemServices()
+            closeShellSession()
 
             // 重置状态
             updateStateThreadSafe(ShizukuState.Unavailable)
@@ -409,6 +419,7 @@ object ShizukuManager {
             if (context != null) {
                 val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
                 val runningApps = activityManager.runningAppProcesses ?: emptyList()
+                ProcessTableScanner.getInstance().refresh()
 
                 Log.i("ShizukuManager", "使用本地API获取到 ${runningApps.size} 个进程")
 
@@ -419,7 +430,7 @@ object ShizukuManager {
                         processName = process.processName,
                         packageName = process.processName, // 使用processName作为包名
                         importance = process.importance,
-                        memoryUsage = 0L // 默认值，实际内存使用需要另外计算
+                        memoryUsage = getProcessMemoryUsage(process.pid)
                     )
                 }
             } else {
@@ -446,9 +457,15 @@ object ShizukuManager {
      */
     private fun getProcessMemoryUsage(pid: Int): Long {
         return try {
-            val memoryInfo = android.os.Debug.MemoryInfo()
-            android.os.Debug.getMemoryInfo(memoryInfo)
-            (memoryInfo.totalPss * 1024L) // 转换为字节
+            // 进程表扫描器给出的常驻内存；扫描不到时只能查询本进程自身
+            ProcessTableScanner.getInstance().find(pid)?.rssBytes
+                ?: if (pid == android.os.Process.myPid()) {
+                    val memoryInfo = android.os.Debug.MemoryInfo()
+                    android.os.Debug.getMemoryInfo(memoryInfo)
+                    (memoryInfo.totalPss * 1024L) // 转换为字节
+                } else {
+                    0L
+                }
         } catch (e: Exception) {
             0L
         }
@@ -464,14 +481,8 @@ object ShizukuManager {
         if (!isShizukuAvailable()) return 0f
 
         return try {
-            // 使用Shizuku执行 'cat /proc/stat' 命令
-            val process = Shizuku.newProcess(arrayOf("cat", "/proc/stat"), null, null)
-            val reader = java.io.BufferedReader(java.io.InputStreamReader(process.inputStream))
-            val cpuLine = reader.readLine()
-            
-            // 读取完第一行后即可关闭
-            process.destroy()
-            reader.close()
+            // 通过常驻特权Shell读取 /proc/stat，不再为每次采样创建进程
+            val cpuLine = shellSession.readFile("/proc/stat")?.lineSequence()?.firstOrNull()
 
             if (cpuLine != null && cpuLine.startsWith("cpu ")) {
                 val tokens = cpuLine.split("\\s+".toRegex())
@@ -621,10 +632,8 @@ object ShizukuManager {
      * 强制停止应用
      */
     fun forceStopPackage(packageName: String): Boolean {
-        // 使用真实实现
-        return runBlocking {
-            false
-        }
+        if (!isShizukuAvailable() || !commandValidator.validatePackageName(packageName)) return false
+        return executeCommand("am force-stop $packageName").isSuccess
     }
 
     /**
@@ -960,23 +969,49 @@ object ShizukuManager {
 
     /**
      * 执行系统命令（需要Shizuku权限）
+     * 命令经 [CommandValidator] 校验后在常驻特权Shell中执行
      */
-    fun executeCommand(command: String): CommandResult {
+    fun executeCommand(command: String, timeoutMs: Long = PrivilegedShellSession.DEFAULT_TIMEOUT_MS): CommandResult {
         return try {
             if (!isShizukuAvailable()) {
                 return CommandResult(false, null, "Shizuku不可用")
             }
+            shellSession.execute(command, commandValidator.validateTimeout(timeoutMs))
+        } catch (e: Exception) {
+            CommandResult(false, null, e.message)
+        }
+    }
 
-            // 这里应该实现实际的命令执行逻辑
-            // 由于Shizuku API的复杂性，这里提供一个简化实现
-            val process = Runtime.getRuntime().exec(command)
-            val output = process.inputStream.bufferedReader().use { it.readText() }
-            val error = process.errorStream.bufferedReader().use { it.readText() }
-            val exitCode = process.waitFor()
+    /**
+     * 批量执行系统命令，一次写入特权Shell后依次执行，结果顺序与命令顺序一致
+     */
+    fun executeCommands(commands: List<String>, timeoutMs: Long = PrivilegedShellSession.DEFAULT_TIMEOUT_MS): List<CommandResult> {
+        if (!isShizukuAvailable()) {
+            return commands.map { CommandResult(false, null, "Shizuku不可用") }
+        }
+        return shellSession.executeAll(commands, commandValidator.validateTimeout(timeoutMs))
+    }
 
-            CommandResult(exitCode == 0, output, error)
+    /**
+     * 通过特权Shell读取应用无权直接访问的文本文件，如 /proc/stat
+     * @return 文件内容，Shizuku不可用或读取失败时返回null
+     */
+    fun readPrivilegedFile(path: String): String? {
+        if (!isShizukuAvailable()) return null
+        return try {
+            shellSession.readFile(path)
         } catch (e: Exception) {
-            CommandResult(false, null, e.message)
+            Log.w("ShizukuManager", "读取特权文件失败: $path", e)
+            null
+        }
+    }
+
+    /**
+     * 结束常驻特权Shell，下次执行命令时重新启动
+     */
+    private fun closeShellSession() {
+        if (shellSessionLazy.isInitialized()) {
+            shellSession.close()
         }
     }
 
@@ -1256,7 +1291,10 @@ object ShizukuManager {
                 onProgress?.invoke(30)
 
                 // 使用pm命令安装
-                val result = executeCommand("pm install -r \"$packagePath\"")
+                val result = executeCommand(
+                    "pm install -r ${PrivilegedShellSession.quote(packagePath)}",
+                    CommandValidator.COMMAND_TIMEOUT_MS // 安装可能需要更长时间
+                )
                 onProgress?.invoke(80)
 
                 if (result.isSuccess) {
@@ -1297,7 +1335,10 @@ object ShizukuManager {
             }
 
             Log.i("ShizukuManager", "开始安装应用: $packagePath")
-            val result = executeCommand("pm install -r \"$packagePath\"")
+            val result = executeCommand(
+                "pm install -r ${PrivilegedShellSession.quote(packagePath)}",
+                CommandValidator.COMMAND_TIMEOUT_MS // 安装可能需要更长时间
+            )
 
             if (result.isSuccess) {
                 Log.i("ShizukuManager", "应用安装成功")
@@ -1532,6 +1573,13 @@ object ShizukuManager {
 
             val processes = mutableListOf<ProcessInfo>()
             val runningProcesses = activityManager.runningAppProcesses
+            val scanner = ProcessTableScanner.getInstance()
+            scanner.refresh()
+
+            // 扫描不到的进程按平均值估算
+            val memInfo = android.app.ActivityManager.MemoryInfo()
+            activityManager.getMemoryInfo(memInfo)
+            val estimatedUsage = memInfo.totalMem / (runningProcesses.size + 1)
 
             for (appProcess in runningProcesses) {
                 try {
@@ -1540,12 +1588,7 @@ object ShizukuManager {
                     val processName = appProcess.processName
                     val importance = appProcess.importance
 
-                    // 获取内存信息 - 使用MemoryInfo获取总体内存
-                    val memInfo = android.app.ActivityManager.MemoryInfo()
-                    activityManager.getMemoryInfo(memInfo)
-
-                    // 估算单个进程内存使用（简化方案）
-                    val memoryUsage = (memInfo.totalMem / (runningProcesses.size + 1)).toLong()
+                    val memoryUsage = scanner.find(pid)?.rssBytes ?: estimatedUsage
 
                     processes.add(
                         ProcessInfo(
@@ -1657,7 +1700,7 @@ object ShizukuManager {
                 return ""
             }
 
-            val result = executeCommand("getprop $propertyName")
+            val result = executeCommand("getprop ${PrivilegedShellSession.quote(propertyName)}")
             if (result.isSuccess) {
                 result.output?.trim() ?: ""
             } else {
@@ -1693,7 +1736,7 @@ object ShizukuManager {
                     return@Thread
                 }
 
-                val result = executeCommand("setprop $key $value")
+                val result = executeCommand("setprop ${PrivilegedShellSession.quote(key)} ${PrivilegedShellSession.quote(value)}")
 
                 if (result.isSuccess) {
                     Log.i("ShizukuManager", "系统属性设置成功: $key = $value")
@@ -1727,7 +1770,7 @@ object ShizukuManager {
             }
 
             Log.i("ShizukuManager", "设置系统属性: $key = $value")
-            val result = executeCommand("setprop $key $value")
+            val result = executeCommand("setprop ${PrivilegedShellSession.quote(key)} ${PrivilegedShellSession.quote(value)}")
 
             if (result.isSuccess) {
                 Log.i("ShizukuManager", "属性设置成功")
@@ -6,6 +6,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.io.File
 import java.util.*
+import java.util.concurrent.TimeUnit
 
 /**
  * 智能清理工具类
@@ -13,6 +14,23 @@ import java.util.*
  */
 class SmartCleaner(private val context: Context) {
 
+    companion object {
+        private const val SCAN_MAX_DEPTH = 3 // 日志、空文件夹的扫描深度
+        private val LOG_MAX_AGE = TimeUnit.DAYS.toMillis(7) // 只清理超过7天的日志文件
+        private val APK_MAX_AGE = TimeUnit.DAYS.toMillis(30) // 只清理超过30天的APK文件
+        private val SYSTEM_DIRS = setOf("android", "data", "obb", "system")
+        private val JUNK_TYPES = setOf(
+            CleanType.CACHE,
+            CleanType.TEMP,
+            CleanType.LOG,
+            CleanType.THUMBNAIL,
+            CleanType.APK,
+            CleanType.EMPTY_FOLDER
+        )
+    }
+
+    private val walker = StorageWalker()
+
     /**
      * 清理项目数据类
      */
@@ -54,23 +72,8 @@ class SmartCleaner(private val context: Context) {
     suspend fun scanJunkFiles(): List<CleanItem> = withContext(Dispatchers.IO) {
         val junkFiles = mutableListOf<CleanItem>()
 
-        // 扫描应用缓存
-        junkFiles.addAll(scanAppCache())
-
-        // 扫描系统临时文件
-        junkFiles.addAll(scanTempFiles())
-
-        // 扫描日志文件
-        junkFiles.addAll(scanLogFiles())
-
-        // 扫描缩略图缓存
-        junkFiles.addAll(scanThumbnails())
-
-        // 扫描旧版APK文件
-        junkFiles.addAll(scanOldApks())
-
-        // 扫描空文件夹
-        junkFiles.addAll(scanEmptyFolders())
+        // 应用缓存、临时文件、日志、缩略图、旧版APK、空文件夹共用一次遍历
+        junkFiles.addAll(scanWithWalker(JUNK_TYPES))
 
         // 【新增】扫描大尺寸照片
         junkFiles.addAll(scanLargePhotos())
@@ -104,205 +107,112 @@ class SmartCleaner(private val context: Context) {
     }
 
     /**
-     * 扫描应用缓存文件
-     */
-    private fun scanAppCache(): List<CleanItem> {
-        val cacheItems = mutableListOf<CleanItem>()
-
-        try {
-            // 应用内部缓存
-            val cacheDir = context.cacheDir
-            if (cacheDir.exists()) {
-                cacheItems.addAll(scanDirectory(cacheDir, CleanType.CACHE, "应用缓存文件"))
-            }
-
-            // 应用外部缓存
-            val externalCacheDir = context.externalCacheDir
-            if (externalCacheDir?.exists() == true) {
-                cacheItems.addAll(scanDirectory(externalCacheDir, CleanType.CACHE, "外部缓存文件"))
-            }
-
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-
-        return cacheItems
-    }
-
-    /**
-     * 扫描临时文件
+     * 一次遍历扫描指定类型的垃圾文件
+     * 每种类型注册为一个分类器，扫描范围与原先各自扫描时一致
      */
-    private fun scanTempFiles(): List<CleanItem> {
-        val tempItems = mutableListOf<CleanItem>()
+    private suspend fun scanWithWalker(types: Set<CleanType>): List<CleanItem> {
+        val items = mutableListOf<CleanItem>()
+        val roots = mutableListOf<File>()
+        val collectors = mutableListOf<Triple<FileMatchClassifier, CleanType, String>>()
+        var emptyDirClassifier: EmptyDirClassifier? = null
+
+        val sdCard = Environment.getExternalStorageDirectory()
+        val sdCardPath = StorageWalker.normalize(sdCard)
+        val downloadPath = StorageWalker.normalize(
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)
+        )
+        val appCacheDirs = listOfNotNull(context.cacheDir, context.externalCacheDir)
+        val appCachePaths = appCacheDirs.map { StorageWalker.normalize(it) }
 
         try {
-            // 系统临时目录
-            val tempDir = File(System.getProperty("java.io.tmpdir"))
-            if (tempDir.exists()) {
-                tempItems.addAll(scanDirectory(tempDir, CleanType.TEMP, "系统临时文件"))
-            }
-
-            // Download目录下的临时文件
-            val downloadDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)
-            if (downloadDir.exists()) {
-                val tempFiles = downloadDir.listFiles { file ->
-                    file.name.endsWith(".tmp") || file.name.endsWith(".temp") ||
-                    file.name.contains("temp") || file.name.contains("tmp")
+            if (CleanType.CACHE in types) {
+                // 应用内部缓存、外部缓存
+                roots.addAll(appCacheDirs)
+                context.cacheDir?.let { dir ->
+                    collectors.add(Triple(cacheClassifier(dir), CleanType.CACHE, "应用缓存文件"))
                 }
-                tempFiles?.forEach { file ->
-                    tempItems.add(CleanItem(
-                        path = file.absolutePath,
-                        size = file.length(),
-                        type = CleanType.TEMP,
-                        description = "下载临时文件: ${file.name}",
-                        isSafe = true
-                    ))
+                context.externalCacheDir?.let { dir ->
+                    collectors.add(Triple(cacheClassifier(dir), CleanType.CACHE, "外部缓存文件"))
                 }
             }
 
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-
-        return tempItems
-    }
-
-    /**
-     * 扫描日志文件
-     */
-    private fun scanLogFiles(): List<CleanItem> {
-        val logItems = mutableListOf<CleanItem>()
-
-        try {
-            val logExtensions = arrayOf(".log", ".txt", ".logcat", ".bugreport")
-
-            // 扫描外部存储目录
-            val externalDir = Environment.getExternalStorageDirectory()
-            if (externalDir.exists()) {
-                val logFiles = findFilesByExtensions(externalDir, logExtensions, maxDepth = 3)
-                logFiles.forEach { file ->
-                    // 只清理超过7天的日志文件
-                    if (isFileOlderThan(file, 7)) {
-                        logItems.add(CleanItem(
-                            path = file.absolutePath,
-                            size = file.length(),
-                            type = CleanType.LOG,
-                            description = "旧日志文件: ${file.name}",
-                            isSafe = true
-                        ))
-                    }
+            if (CleanType.TEMP in types) {
+                // 系统临时目录（与应用缓存目录重合的部分已计入缓存）
+                val tempDir = File(System.getProperty("java.io.tmpdir") ?: "")
+                roots.add(tempDir)
+                val tempClassifier = FileMatchClassifier(includeHidden = true, scope = listOf(tempDir)) { entry ->
+                    (CleanType.CACHE !in types || appCachePaths.none { entry.isUnder(it) }) &&
+                        !isInSystemSubDir(entry, tempDir)
                 }
+                collectors.add(Triple(tempClassifier, CleanType.TEMP, "系统临时文件"))
+
+                // Download目录下的临时文件
+                roots.add(sdCard)
+                val downloadTempClassifier = FileMatchClassifier(includeHidden = true, scope = listOf(File(downloadPath))) { entry ->
+                    entry.parentPath == downloadPath &&
+                        (entry.name.endsWith(".tmp") || entry.name.endsWith(".temp") ||
+                            entry.name.contains("temp") || entry.name.contains("tmp"))
+                }
+                collectors.add(Triple(downloadTempClassifier, CleanType.TEMP, "下载临时文件"))
             }
 
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-
-        return logItems
-    }
-
-    /**
-     * 扫描缩略图缓存
-     */
-    private fun scanThumbnails(): List<CleanItem> {
-        val thumbnailItems = mutableListOf<CleanItem>()
-
-        try {
-            // Android缩略图缓存目录
-            val thumbnailDir = File(Environment.getExternalStorageDirectory(), ".thumbnails")
-            if (thumbnailDir.exists()) {
-                thumbnailItems.addAll(scanDirectory(thumbnailDir, CleanType.THUMBNAIL, "系统缩略图缓存"))
+            if (CleanType.LOG in types) {
+                // 外部存储前三级目录中超过7天的日志文件
+                roots.add(sdCard)
+                val logExtensions = arrayOf(".log", ".txt", ".logcat", ".bugreport")
+                val logClassifier = FileMatchClassifier(
+                    includeHidden = true,
+                    maxDepth = SCAN_MAX_DEPTH + 1,
+                    scope = listOf(sdCard)
+                ) { entry ->
+                    logExtensions.any { entry.name.endsWith(it) } && entry.isOlderThan(LOG_MAX_AGE)
+                }
+                collectors.add(Triple(logClassifier, CleanType.LOG, "旧日志文件"))
             }
 
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-
-        return thumbnailItems
-    }
-
-    /**
-     * 扫描旧版APK文件
-     */
-    private fun scanOldApks(): List<CleanItem> {
-        val apkItems = mutableListOf<CleanItem>()
-
-        try {
-            val downloadDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)
-            if (downloadDir.exists()) {
-                val apkFiles = downloadDir.listFiles { file ->
-                    file.name.endsWith(".apk")
+            if (CleanType.THUMBNAIL in types) {
+                // Android缩略图缓存目录
+                val thumbnailDir = File(sdCard, ".thumbnails")
+                roots.add(sdCard)
+                val thumbnailClassifier = FileMatchClassifier(includeHidden = true, scope = listOf(thumbnailDir)) { entry ->
+                    !isInSystemSubDir(entry, thumbnailDir)
                 }
+                collectors.add(Triple(thumbnailClassifier, CleanType.THUMBNAIL, "系统缩略图缓存"))
+            }
 
-                apkFiles?.forEach { file ->
-                    // 只清理超过30天的APK文件
-                    if (isFileOlderThan(file, 30)) {
-                        apkItems.add(CleanItem(
-                            path = file.absolutePath,
-                            size = file.length(),
-                            type = CleanType.APK,
-                            description = "旧版APK文件: ${file.name}",
-                            isSafe = true
-                        ))
-                    }
+            if (CleanType.APK in types) {
+                // Download目录下超过30天的APK文件
+                roots.add(sdCard)
+                val apkClassifier = FileMatchClassifier(includeHidden = true, scope = listOf(File(downloadPath))) { entry ->
+                    entry.parentPath == downloadPath && entry.name.endsWith(".apk") && entry.isOlderThan(APK_MAX_AGE)
                 }
+                collectors.add(Triple(apkClassifier, CleanType.APK, "旧版APK文件"))
             }
 
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
+            if (CleanType.EMPTY_FOLDER in types) {
+                roots.add(sdCard)
+                emptyDirClassifier = EmptyDirClassifier(includeHidden = true, maxDepth = SCAN_MAX_DEPTH + 1)
+            }
 
-        return apkItems
-    }
+            val classifiers = collectors.map { it.first } + listOfNotNull(emptyDirClassifier)
+            if (classifiers.isEmpty()) return items
+            walker.walk(roots, classifiers)
 
-    /**
-     * 扫描空文件夹
-     */
-    private fun scanEmptyFolders(): List<CleanItem> {
-        val emptyFolders = mutableListOf<CleanItem>()
+            for ((classifier, type, description) in collectors) {
+                classifier.matches.mapTo(items) { it.toCleanItem(type, description) }
+            }
 
-        try {
-            val externalDir = Environment.getExternalStorageDirectory()
-            if (externalDir.exists()) {
-                val emptyDirs = findEmptyDirectories(externalDir, maxDepth = 3)
-                emptyDirs.forEach { dir ->
-                    emptyFolders.add(CleanItem(
-                        path = dir.absolutePath,
+            emptyDirClassifier?.leafDirectories
+                ?.filter { it.isUnder(sdCardPath) }
+                ?.mapTo(items) { dir ->
+                    CleanItem(
+                        path = dir.path,
                         size = 0L,
                         type = CleanType.EMPTY_FOLDER,
                         description = "空文件夹: ${dir.name}",
                         isSafe = true
-                    ))
-                }
-            }
-
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-
-        return emptyFolders
-    }
-
-    /**
-     * 递归扫描目录
-     */
-    private fun scanDirectory(dir: File, type: CleanType, description: String): List<CleanItem> {
-        val items = mutableListOf<CleanItem>()
-
-        try {
-            dir.listFiles()?.forEach { file ->
-                if (file.isFile) {
-                    items.add(CleanItem(
-                        path = file.absolutePath,
-                        size = file.length(),
-                        type = type,
-                        description = "$description: ${file.name}",
-                        isSafe = isSafeToDelete(file, type)
-                    ))
-                } else if (file.isDirectory && shouldScanSubDir(file, type)) {
-                    items.addAll(scanDirectory(file, type, description))
+                    )
                 }
-            }
         } catch (e: Exception) {
             e.printStackTrace()
         }
@@ -311,86 +221,32 @@ class SmartCleaner(private val context: Context) {
     }
 
     /**
-     * 判断文件是否安全删除
+     * 收集目录下的全部文件，跳过系统关键目录
      */
-    private fun isSafeToDelete(file: File, type: CleanType): Boolean {
-        return when (type) {
-            CleanType.CACHE -> true
-            CleanType.TEMP -> true
-            CleanType.LOG -> isFileOlderThan(file, 7)
-            CleanType.THUMBNAIL -> true
-            CleanType.APK -> isFileOlderThan(file, 30)
-            CleanType.EMPTY_FOLDER -> true
-            CleanType.UNUSED_APP -> false // 需要额外验证
-            CleanType.LARGE_PHOTO -> true // 压缩替代删除
-            CleanType.WECHAT_DATA -> true // 使用WeChatCleaner处理
+    private fun cacheClassifier(dir: File): FileMatchClassifier {
+        return FileMatchClassifier(includeHidden = true, scope = listOf(dir)) { entry ->
+            !isInSystemSubDir(entry, dir)
         }
     }
 
     /**
-     * 判断是否应该扫描子目录
+     * 判断文件是否位于 baseDir 下的系统关键目录中（避免扫描系统关键目录）
      */
-    private fun shouldScanSubDir(dir: File, type: CleanType): Boolean {
-        // 避免扫描系统关键目录
-        val systemDirs = setOf("android", "data", "obb", "system")
-        return !systemDirs.contains(dir.name.lowercase())
-    }
-
-    /**
-     * 查找指定扩展名的文件
-     */
-    private fun findFilesByExtensions(dir: File, extensions: Array<String>, maxDepth: Int): List<File> {
-        val files = mutableListOf<File>()
-
-        fun scan(currentDir: File, currentDepth: Int) {
-            if (currentDepth > maxDepth) return
-
-            currentDir.listFiles()?.forEach { file ->
-                if (file.isFile && extensions.any { file.name.endsWith(it) }) {
-                    files.add(file)
-                } else if (file.isDirectory) {
-                    scan(file, currentDepth + 1)
-                }
-            }
-        }
-
-        scan(dir, 0)
-        return files
+    private fun isInSystemSubDir(entry: StorageWalker.Entry, baseDir: File): Boolean {
+        val basePath = StorageWalker.normalize(baseDir)
+        return entry.parentPath.removePrefix(basePath)
+            .split(File.separatorChar)
+            .any { it.lowercase() in SYSTEM_DIRS }
     }
 
-    /**
-     * 查找空目录
-     */
-    private fun findEmptyDirectories(dir: File, maxDepth: Int): List<File> {
-        val emptyDirs = mutableListOf<File>()
-
-        fun scan(currentDir: File, currentDepth: Int) {
-            if (currentDepth > maxDepth) return
-
-            currentDir.listFiles()?.forEach { file ->
-                if (file.isDirectory) {
-                    val subFiles = file.listFiles()
-                    if (subFiles.isNullOrEmpty()) {
-                        emptyDirs.add(file)
-                    } else {
-                        scan(file, currentDepth + 1)
-                    }
-                }
-            }
-        }
-
-        scan(dir, 0)
-        return emptyDirs
-    }
-
-    /**
-     * 判断文件是否超过指定天数
-     */
-    private fun isFileOlderThan(file: File, days: Int): Boolean {
-        val fileTime = file.lastModified()
-        val currentTime = System.currentTimeMillis()
-        val daysInMillis = days * 24 * 60 * 60 * 1000L
-        return (currentTime - fileTime) > daysInMillis
+    private fun StorageWalker.Entry.toCleanItem(type: CleanType, description: String): CleanItem {
+        return CleanItem(
+            path = path,
+            size = size,
+            type = type,
+            description = "$description: $name",
+            isSafe = true
+        )
     }
 
     /**
@@ -468,7 +324,7 @@ class SmartCleaner(private val context: Context) {
             }
 
             // 清理临时文件
-            val tempFiles = scanTempFiles()
+            val tempFiles = scanWithWalker(setOf(CleanType.TEMP))
             tempFiles.forEach { item ->
                 if (item.isSafe && File(item.path).delete()) {
                     totalCleaned += item.size
@@ -0,0 +1,122 @@
+package com.lanhe.gongjuxiang.utils
+
+import java.io.File
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * [StorageWalker] 的通用分类器
+ * 各扫描器按需组合，同一次遍历可以同时注册多个分类器
+ */
+
+/**
+ * 分类器的作用范围：只处理位于 scope 目录下的条目，scope 为空时处理全部
+ * 为让遍历能走到 scope 目录，scope 的上级目录也视为"需要进入"
+ */
+private class Scope(dirs: List<File>) {
+    private val paths = dirs.map { StorageWalker.normalize(it) }
+
+    fun contains(entry: StorageWalker.Entry): Boolean {
+        return paths.isEmpty() || paths.any { entry.isUnder(it) }
+    }
+
+    fun reaches(dir: StorageWalker.Entry): Boolean {
+        return paths.isEmpty() || paths.any { dir.isUnder(it) || StorageWalker.isUnder(it, dir.path) }
+    }
+}
+
+/**
+ * 按条件收集文件
+ * @param includeHidden 是否处理隐藏目录中的文件
+ * @param maxDepth 最大深度（相对遍历根目录）
+ * @param scope 作用范围
+ * @param predicate 文件匹配条件
+ */
+class FileMatchClassifier(
+    private val includeHidden: Boolean = false,
+    private val maxDepth: Int = Int.MAX_VALUE,
+    scope: List<File> = emptyList(),
+    private val predicate: (StorageWalker.Entry) -> Boolean
+) : StorageWalker.Classifier {
+
+    private val scope = Scope(scope)
+    private val matched = ConcurrentLinkedQueue<StorageWalker.Entry>()
+
+    val matches: List<StorageWalker.Entry> get() = matched.toList()
+
+    override fun wantsDirectory(dir: StorageWalker.Entry): Boolean {
+        if (dir.hidden && !includeHidden) return false
+        return dir.depth < maxDepth && scope.reaches(dir)
+    }
+
+    override fun onFile(entry: StorageWalker.Entry) {
+        if (entry.depth > maxDepth) return
+        if (entry.hidden && !includeHidden) return
+        if (!scope.contains(entry)) return
+        if (predicate(entry)) {
+            matched.add(entry)
+        }
+    }
+}
+
+/**
+ * 收集空目录（子树内没有任何文件）
+ * 结果按路径长度降序，直接依次删除即可先删内层再删外层
+ */
+class EmptyDirClassifier(
+    private val includeHidden: Boolean = false,
+    private val maxDepth: Int = Int.MAX_VALUE
+) : StorageWalker.Classifier {
+
+    private val found = ConcurrentLinkedQueue<StorageWalker.DirectorySummary>()
+
+    /**
+     * 自身没有任何子项的目录
+     */
+    val leafDirectories: List<StorageWalker.Entry>
+        get() = found.filter { it.childCount == 0 }.map { it.entry }
+
+    /**
+     * 子树内没有任何文件的目录（含只包含空目录的目录），未被完整遍历的子树不计入
+     */
+    val emptyTrees: List<StorageWalker.Entry>
+        get() = found.filter { it.complete }.map { it.entry }.sortedByDescending { it.path.length }
+
+    override fun wantsDirectory(dir: StorageWalker.Entry): Boolean {
+        return (includeHidden || !dir.hidden) && dir.depth <= maxDepth
+    }
+
+    override fun onFile(entry: StorageWalker.Entry) {}
+
+    override fun onDirectory(summary: StorageWalker.DirectorySummary) {
+        val entry = summary.entry
+        if (entry.depth == 0 || entry.depth > maxDepth) return
+        if (entry.hidden && !includeHidden) return
+        if (summary.fileCount == 0) {
+            found.add(summary)
+        }
+    }
+}
+
+/**
+ * 按目录统计空间分布，一个分桶可包含多个目录
+ * 目录相互嵌套时，文件计入路径最长（最具体）的匹配分桶，不会重复计算
+ */
+class SizeBucketClassifier(buckets: Map<String, List<File>>) : StorageWalker.Classifier {
+
+    private val bucketPaths = buckets
+        .flatMap { (name, dirs) -> dirs.map { name to StorageWalker.normalize(it) } }
+        .sortedByDescending { it.second.length }
+    private val sizes = buckets.keys.associateWith { AtomicLong() }
+
+    override fun wantsDirectory(dir: StorageWalker.Entry): Boolean {
+        return bucketPaths.any { (_, path) -> dir.isUnder(path) || StorageWalker.isUnder(path, dir.path) }
+    }
+
+    override fun onFile(entry: StorageWalker.Entry) {
+        val bucket = bucketPaths.firstOrNull { (_, path) -> entry.isUnder(path) } ?: return
+        sizes.getValue(bucket.first).addAndGet(entry.size)
+    }
+
+    fun sizes(): Map<String, Long> = sizes.mapValues { it.value.get() }
+}
@@ -0,0 +1,377 @@
+package com.lanhe.gongjuxiang.utils
+
+import android.os.Build
+import android.util.Log
+import androidx.annotation.RequiresApi
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.io.File
+import java.io.IOException
+import java.nio.file.FileVisitOption
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.ArrayDeque
+import java.util.EnumSet
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 统一存储遍历器
+ * 一次遍历把每个文件/目录分发给所有注册的 [Classifier]，垃圾、APK、大文件、重复候选、
+ * 空目录、空间分布等扫描共用同一次遍历，不再各自重复读取同一批目录。
+ *
+ * - Android 8.0+ 使用 Files.walkFileTree，文件大小、修改时间、类型在一次stat中批量读取
+ * - 更低版本回退到 File.listFiles
+ * - 根目录下的各个子目录作为独立子树并行遍历
+ * - 相互嵌套的根目录只遍历最外层一次
+ * - 不进入指向目录的符号链接，避免链接成环时无限递归；这类子项计为跳过
+ *
+ * 分类器回调会在多个线程上并发调用，实现需保证线程安全。
+ */
+class StorageWalker(
+    private val parallelism: Int = DEFAULT_PARALLELISM,
+    private val useNio: Boolean = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+) {
+
+    companion object {
+        private const val TAG = "StorageWalker"
+        private val DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+
+        /**
+         * 规范化路径，/sdcard 与 /storage/emulated/0 等别名指向同一路径
+         */
+        fun normalize(file: File): String {
+            return try {
+                file.canonicalPath
+            } catch (e: IOException) {
+                file.absolutePath
+            }
+        }
+
+        /**
+         * path 是否等于 dirPath 或位于其下
+         */
+        fun isUnder(path: String, dirPath: String): Boolean {
+            return path.startsWith(dirPath) &&
+                (path.length == dirPath.length || path[dirPath.length] == File.separatorChar)
+        }
+
+        /**
+         * 父目录已是规范路径时，子项的规范路径与自身路径不同即说明它是符号链接
+         */
+        private fun isSymlink(child: File): Boolean = normalize(child) != child.absolutePath
+    }
+
+    /**
+     * 遍历到的文件或目录，属性在遍历时一次读取
+     * @param depth 相对遍历根目录的深度，根目录为0
+     * @param hidden 自身或任一上级目录（不含根目录）以"."开头
+     */
+    class Entry(
+        val path: String,
+        val name: String,
+        val size: Long,
+        val lastModified: Long,
+        val depth: Int,
+        val hidden: Boolean
+    ) {
+        val file: File get() = File(path)
+
+        val extension: String get() = name.substringAfterLast('.', "").lowercase()
+
+        val parentPath: String get() = path.substringBeforeLast(File.separatorChar)
+
+        fun isUnder(dirPath: String): Boolean = isUnder(path, dirPath)
+
+        fun isOlderThan(ageMillis: Long, now: Long = System.currentTimeMillis()): Boolean {
+            return now - lastModified > ageMillis
+        }
+    }
+
+    /**
+     * 目录遍历完成后的汇总
+     * @param childCount 直接子项数（含被跳过的子目录）
+     * @param fileCount 子树内已遍历的文件总数
+     * @param totalSize 子树内已遍历的文件总大小
+     * @param complete 子树是否被完整遍历（没有被跳过或读取失败的子目录）
+     */
+    class DirectorySummary(
+        val entry: Entry,
+        val childCount: Int,
+        val fileCount: Int,
+        val totalSize: Long,
+        val complete: Boolean
+    )
+
+    /**
+     * 分类器
+     */
+    interface Classifier {
+        /**
+         * 是否需要进入该目录；所有分类器都不需要时整棵子树被跳过
+         */
+        fun wantsDirectory(dir: Entry): Boolean = true
+
+        fun onFile(entry: Entry)
+
+        fun onDirectory(summary: DirectorySummary) {}
+    }
+
+    /**
+     * 遍历统计
+     */
+    data class WalkStats(
+        val filesVisited: Int,
+        val directoriesVisited: Int,
+        val durationMs: Long
+    )
+
+    private class Frame(val entry: Entry) {
+        var childCount = 0
+        var fileCount = 0
+        var totalSize = 0L
+        var complete = true
+
+        fun addChild(fileCount: Int, size: Long, complete: Boolean = true) {
+            childCount++
+            this.fileCount += fileCount
+            totalSize += size
+            if (!complete) this.complete = false
+        }
+
+        fun addSkipped() = addChild(0, 0L, complete = false)
+
+        fun addSubtree(frame: Frame) = addChild(frame.fileCount, frame.totalSize, frame.complete)
+    }
+
+    private class Counters {
+        val files = AtomicInteger()
+        val directories = AtomicInteger()
+    }
+
+    /**
+     * 遍历给定根目录
+     */
+    suspend fun walk(roots: Collection<File>, classifiers: List<Classifier>): WalkStats = coroutineScope {
+        val startTime = System.currentTimeMillis()
+        val counters = Counters()
+        val semaphore = Semaphore(parallelism)
+
+        for (root in outermostRoots(roots)) {
+            walkRoot(root, classifiers, semaphore, counters)
+        }
+
+        WalkStats(counters.files.get(), counters.directories.get(), System.currentTimeMillis() - startTime)
+    }
+
+    /**
+     * 去掉不存在的根目录以及位于其他根目录之下的根目录
+     */
+    private fun outermostRoots(roots: Collection<File>): List<File> {
+        val paths = roots.filter { it.isDirectory && it.canRead() }
+            .map { normalize(it) }
+            .distinct()
+            .sortedBy { it.length }
+        val result = ArrayList<String>()
+        for (path in paths) {
+            if (result.none { isUnder(path, it) }) {
+                result.add(path)
+            }
+        }
+        return result.map { File(it) }
+    }
+
+    private suspend fun walkRoot(
+        root: File,
+        classifiers: List<Classifier>,
+        semaphore: Semaphore,
+        counters: Counters
+    ) = coroutineScope {
+        val rootEntry = Entry(root.path, root.name, 0L, root.lastModified(), 0, false)
+        val rootFrame = Frame(rootEntry)
+        counters.directories.incrementAndGet()
+
+        val subtrees = ArrayList<File>()
+        root.listFiles()?.forEach { child ->
+            if (child.isDirectory) {
+                // 根目录已规范化，与子树内的处理一致，不进入符号链接
+                if (isSymlink(child)) rootFrame.addSkipped() else subtrees.add(child)
+            } else if (child.isFile) {
+                val entry = Entry(child.path, child.name, child.length(), child.lastModified(), 1, child.name.startsWith("."))
+                dispatchFile(entry, classifiers, counters)
+                rootFrame.addChild(1, entry.size)
+            }
+        }
+
+        val job = coroutineContext[Job]
+        val results = subtrees.map { dir ->
+            async(Dispatchers.IO) {
+                semaphore.withPermit {
+                    try {
+                        if (useNio) {
+                            walkSubtreeNio(dir, classifiers, counters, job)
+                        } else {
+                            walkSubtreeLegacy(dir, 1, false, classifiers, counters, job)
+                        }
+                    } catch (e: Exception) {
+                        Log.w(TAG, "遍历目录失败: ${dir.path}", e)
+                        null
+                    }
+                }
+            }
+        }.awaitAll()
+
+        ensureActive()
+        for (frame in results) {
+            if (frame == null) {
+                rootFrame.addSkipped()
+            } else {
+                rootFrame.addSubtree(frame)
+            }
+        }
+        dispatchDirectory(rootFrame, classifiers)
+    }
+
+    /**
+     * 用 walkFileTree 遍历一棵子树，返回子树根的汇总；子树被跳过时返回 null
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    private fun walkSubtreeNio(dir: File, classifiers: List<Classifier>, counters: Counters, job: Job?): Frame? {
+        val stack = ArrayDeque<Frame>()
+        var subtreeRoot: Frame? = null
+
+        Files.walkFileTree(dir.toPath(), EnumSet.noneOf(FileVisitOption::class.java), Int.MAX_VALUE,
+            object : SimpleFileVisitor<Path>() {
+
+                override fun preVisitDirectory(path: Path, attrs: BasicFileAttributes): FileVisitResult {
+                    if (job?.isActive == false) return FileVisitResult.TERMINATE
+                    val parent = stack.peek()
+                    val name = path.fileName?.toString() ?: path.toString()
+                    val entry = Entry(
+                        path = path.toString(),
+                        name = name,
+                        size = 0L,
+                        lastModified = attrs.lastModifiedTime().toMillis(),
+                        depth = (parent?.entry?.depth ?: 0) + 1,
+                        hidden = (parent?.entry?.hidden ?: false) || name.startsWith(".")
+                    )
+                    if (classifiers.none { it.wantsDirectory(entry) }) {
+                        parent?.addSkipped()
+                        return FileVisitResult.SKIP_SUBTREE
+                    }
+                    counters.directories.incrementAndGet()
+                    stack.push(Frame(entry))
+                    return FileVisitResult.CONTINUE
+                }
+
+                override fun visitFile(path: Path, attrs: BasicFileAttributes): FileVisitResult {
+                    if (job?.isActive == false) return FileVisitResult.TERMINATE
+                    val parent = stack.peek() ?: return FileVisitResult.CONTINUE
+                    if (!attrs.isRegularFile) {
+                        parent.addSkipped()
+                        return FileVisitResult.CONTINUE
+                    }
+                    val name = path.fileName.toString()
+                    val entry = Entry(
+                        path = path.toString(),
+                        name = name,
+                        size = attrs.size(),
+                        lastModified = attrs.lastModifiedTime().toMillis(),
+                        depth = parent.entry.depth + 1,
+                        hidden = parent.entry.hidden || name.startsWith(".")
+                    )
+                    dispatchFile(entry, classifiers, counters)
+                    parent.addChild(1, entry.size)
+                    return FileVisitResult.CONTINUE
+                }
+
+                override fun visitFileFailed(path: Path, exc: IOException): FileVisitResult {
+                    stack.peek()?.addSkipped()
+                    return FileVisitResult.CONTINUE
+                }
+
+                override fun postVisitDirectory(path: Path, exc: IOException?): FileVisitResult {
+                    val frame = stack.pop()
+                    // 列目录中途失败，子项不完整
+                    if (exc != null) frame.complete = false
+                    dispatchDirectory(frame, classifiers)
+                    val parent = stack.peek()
+                    if (parent == null) {
+                        subtreeRoot = frame
+                    } else {
+                        parent.addSubtree(frame)
+                    }
+                    return FileVisitResult.CONTINUE
+                }
+            })
+
+        return subtreeRoot
+    }
+
+    /**
+     * 低版本系统用 listFiles 递归遍历
+     * isDirectory 会跟随符号链接，因此逐个检查子目录是否为链接；[dir] 须为规范路径
+     */
+    private fun walkSubtreeLegacy(
+        dir: File,
+        depth: Int,
+        parentHidden: Boolean,
+        classifiers: List<Classifier>,
+        counters: Counters,
+        job: Job?
+    ): Frame? {
+        val entry = Entry(dir.path, dir.name, 0L, dir.lastModified(), depth, parentHidden || dir.name.startsWith("."))
+        if (classifiers.none { it.wantsDirectory(entry) }) return null
+        counters.directories.incrementAndGet()
+
+        val frame = Frame(entry)
+        dir.listFiles()?.forEach { child ->
+            if (job?.isActive == false) return frame
+            if (child.isDirectory) {
+                val childFrame = if (isSymlink(child)) {
+                    null
+                } else {
+                    walkSubtreeLegacy(child, depth + 1, entry.hidden, classifiers, counters, job)
+                }
+                if (childFrame == null) {
+                    frame.addSkipped()
+                } else {
+                    frame.addSubtree(childFrame)
+                }
+            } else if (child.isFile) {
+                val fileEntry = Entry(
+                    child.path, child.name, child.length(), child.lastModified(),
+                    depth + 1, entry.hidden || child.name.startsWith(".")
+                )
+                dispatchFile(fileEntry, classifiers, counters)
+                frame.addChild(1, fileEntry.size)
+            } else {
+                frame.addSkipped()
+            }
+        }
+        dispatchDirectory(frame, classifiers)
+        return frame
+    }
+
+    private fun dispatchFile(entry: Entry, classifiers: List<Classifier>, counters: Counters) {
+        counters.files.incrementAndGet()
+        for (classifier in classifiers) {
+            classifier.onFile(entry)
+        }
+    }
+
+    private fun dispatchDirectory(frame: Frame, classifiers: List<Classifier>) {
+        val summary = DirectorySummary(frame.entry, frame.childCount, frame.fileCount, frame.totalSize, frame.complete)
+        for (classifier in classifiers) {
+            classifier.onDirectory(summary)
+        }
+    }
+}
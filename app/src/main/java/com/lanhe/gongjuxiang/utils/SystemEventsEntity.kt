@@ -1,6 +1,7 @@
 package com.lanhe.gongjuxiang.utils
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import java.io.Serializable
 
@@ -8,7 +9,16 @@ import java.io.Serializable
  * 系统事件实体类
  * 用于存储系统事件和性能异常记录
  */
-@Entity(tableName = "system_events")
+@Entity(
+    tableName = "system_events",
+    indices = [
+        Index("timestamp"),                // 时间范围查询与排序
+        Index("eventType", "timestamp"),   // 按事件类型筛选
+        Index("severity", "timestamp"),    // 按严重程度筛选
+        Index("category", "timestamp"),    // 按分类筛选与统计
+        Index("resolved")                  // 未解决事件查询
+    ]
+)
 data class SystemEventsEntity(
     @PrimaryKey(autoGenerate = true)
     val id: Long = 0,
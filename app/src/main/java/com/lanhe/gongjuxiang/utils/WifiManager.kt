@@ -16,6 +16,10 @@ import kotlinx.coroutines.withContext
  */
 class WifiManager(private val context: Context) {
 
+    companion object {
+        private val PRE_SHARED_KEY = Regex("<string name=\"PreSharedKey\">(.*)</string>")
+    }
+
     private val wifiManager = context.getSystemService(Context.WIFI_SERVICE) as WifiManager
     // ShizukuManager 是单例对象，无需创建实例
     // private val shizukuManager = ShizukuManager(context)
@@ -77,15 +81,15 @@ class WifiManager(private val context: Context) {
                 return@withContext null
             }
 
-            // 使用Shizuku执行系统命令获取WiFi密码
-            val command = "cat /data/misc/wifi/WifiConfigStore.xml | grep -A 5 '$ssid' | grep '<string name=\"PreSharedKey\">' | sed -n 's/.*<string name=\"PreSharedKey\">\\(.*\\)<\\/string>.*/\\1/p'"
-            val result = ShizukuManager.executeCommand(command)
+            // 特权Shell不接受管道，读出配置文件后在本地查找：SSID 所在行之后5行内的 PreSharedKey
+            val result = ShizukuManager.executeCommand("cat /data/misc/wifi/WifiConfigStore.xml")
+            val lines = result.output?.takeIf { result.isSuccess }?.lines() ?: return@withContext null
+            val start = lines.indexOfFirst { it.contains(ssid) }
+            if (start < 0) return@withContext null
 
-            if (result.isSuccess) {
-                result.output?.trim()?.removeSurrounding("\"")
-            } else {
-                null
-            }
+            lines.subList(start, minOf(lines.size, start + 6)).firstNotNullOfOrNull { line ->
+                PRE_SHARED_KEY.find(line)?.groupValues?.get(1)
+            }?.trim()?.removeSurrounding("\"")
         } catch (e: Exception) {
             null
         }
@@ -0,0 +1,95 @@
+package com.lanhe.gongjuxiang.utils
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 目录大小索引单元测试
+ * 测试增量刷新对新增、删除和原地改写文件的处理
+ */
+class DirectorySizeIndexTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val index = DirectorySizeIndex(dao = null)
+
+    private fun writeFile(path: String, size: Int): File {
+        return File(tempFolder.root, path).apply {
+            parentFile?.mkdirs()
+            writeBytes(ByteArray(size))
+        }
+    }
+
+    // 显式推进目录修改时间，避免文件系统时间精度导致两次操作的修改时间相同
+    private fun touch(dir: File) {
+        dir.setLastModified(dir.lastModified() + 1_000L)
+    }
+
+    /**
+     * 测试首次计算得到整棵子树的大小，并可从内存中即时读取
+     */
+    @Test
+    fun `test initial size covers whole tree`() = runBlocking {
+        // Given
+        writeFile("a.bin", 100)
+        writeFile("sub/b.bin", 200)
+        writeFile("sub/deep/c.bin", 300)
+
+        // When
+        val size = index.sizeOf(tempFolder.root)
+
+        // Then
+        assertEquals(600L, size)
+        assertEquals(600L, index.cachedSize(tempFolder.root))
+        assertEquals(500L, index.cachedSize(File(tempFolder.root, "sub")))
+    }
+
+    /**
+     * 测试子目录中新增和删除文件后增量刷新结果正确
+     */
+    @Test
+    fun `test added and removed entries are picked up`() = runBlocking {
+        // Given
+        writeFile("sub/b.bin", 200)
+        val removed = writeFile("gone/c.bin", 300)
+        index.sizeOf(tempFolder.root)
+
+        // When
+        writeFile("sub/new.bin", 50)
+        removed.delete()
+        removed.parentFile!!.delete()
+        touch(File(tempFolder.root, "sub"))
+        touch(tempFolder.root)
+        val size = index.sizeOf(tempFolder.root)
+
+        // Then
+        assertEquals(250L, size)
+        assertNull(index.cachedSize(File(tempFolder.root, "gone")))
+    }
+
+    /**
+     * 测试原地改写文件时，目录被标记为脏后重新统计
+     */
+    @Test
+    fun `test dirty directory is relisted`() = runBlocking {
+        // Given
+        val file = writeFile("sub/b.bin", 200)
+        index.sizeOf(tempFolder.root)
+        val subDir = File(tempFolder.root, "sub")
+        val dirModified = subDir.lastModified()
+
+        // When
+        file.writeBytes(ByteArray(1_000))
+        subDir.setLastModified(dirModified)
+        index.markDirty(subDir)
+        val size = index.sizeOf(tempFolder.root)
+
+        // Then
+        assertEquals(1_000L, size)
+    }
+}
@@ -0,0 +1,93 @@
+package com.lanhe.gongjuxiang.utils
+
+import com.lanhe.gongjuxiang.utils.DownloadScheduler.ActiveDownload
+import com.lanhe.gongjuxiang.utils.DownloadScheduler.Priority
+import com.lanhe.gongjuxiang.utils.DownloadScheduler.QueuedDownload
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * DownloadScheduler单元测试
+ * 验证调度计划的连接数分配、优先级、抢占和退避，不涉及实际下载
+ */
+class DownloadSchedulerTest {
+
+    private fun plan(queue: List<QueuedDownload>, running: List<ActiveDownload> = emptyList(), now: Long = 0L) =
+        DownloadScheduler.plan(
+            queue, running,
+            maxConnections = 8,
+            maxConnectionsPerHost = 4,
+            reservedConnections = 2,
+            now = now
+        )
+
+    /**
+     * 测试全局和单主机连接上限，同一主机排不下时后面其他主机的任务仍可开始
+     */
+    @Test
+    fun `test connection caps are enforced globally and per host`() {
+        // Given
+        val queue = listOf(
+            QueuedDownload("a1", "a.com", Priority.NORMAL, 4, enqueuedAt = 1),
+            QueuedDownload("a2", "a.com", Priority.NORMAL, 4, enqueuedAt = 2),
+            QueuedDownload("b1", "b.com", Priority.NORMAL, 3, enqueuedAt = 3),
+            QueuedDownload("c1", "c.com", Priority.NORMAL, 4, enqueuedAt = 4)
+        )
+
+        // When
+        val result = plan(queue)
+
+        // Then
+        val granted = result.starts.associate { (item, connections) -> item.downloadId to connections }
+        assertEquals(mapOf("a1" to 4, "b1" to 3, "c1" to 1), granted)
+        assertTrue(result.preempted.isEmpty())
+    }
+
+    /**
+     * 测试批量下载只用一个连接且不占用预留连接，交互下载优先并在连接用满时抢占批量下载
+     */
+    @Test
+    fun `test bulk downloads yield to interactive ones`() {
+        // Given
+        val running = listOf(
+            ActiveDownload("n1", "n.com", Priority.NORMAL, 4),
+            ActiveDownload("bulk1", "x.com", Priority.BULK, 1),
+            ActiveDownload("bulk2", "y.com", Priority.BULK, 1)
+        )
+        val queue = listOf(
+            QueuedDownload("bulk3", "z.com", Priority.BULK, 4, enqueuedAt = 1),
+            QueuedDownload("click", "c.com", Priority.INTERACTIVE, 4, enqueuedAt = 2)
+        )
+
+        // When
+        val result = plan(queue, running)
+
+        // Then - 交互下载先分配到剩余的2个连接并抢占最近的批量下载，批量下载不能使用预留连接
+        assertEquals(listOf("click"), result.starts.map { it.first.downloadId })
+        assertEquals(4, result.starts.single().second)
+        assertEquals(listOf("bulk2", "bulk1"), result.preempted)
+    }
+
+    /**
+     * 测试退避期内的任务不会开始，退避时间按重试次数翻倍且有上限
+     */
+    @Test
+    fun `test retries wait for exponential backoff`() {
+        // Given
+        val queue = listOf(
+            QueuedDownload("retry", "a.com", Priority.NORMAL, 2, enqueuedAt = 1, notBefore = 10_000L)
+        )
+
+        // When
+        val early = plan(queue, now = 9_999L)
+        val due = plan(queue, now = 10_000L)
+
+        // Then
+        assertTrue(early.starts.isEmpty())
+        assertEquals(listOf("retry"), due.starts.map { it.first.downloadId })
+        assertEquals(5_000L, DownloadScheduler.backoffDelay(1))
+        assertEquals(10_000L, DownloadScheduler.backoffDelay(2))
+        assertEquals(20_000L, DownloadScheduler.backoffDelay(3))
+        assertEquals(5 * 60_000L, DownloadScheduler.backoffDelay(30))
+    }
+}
@@ -0,0 +1,81 @@
+package com.lanhe.gongjuxiang.utils
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * 重复文件查找器单元测试
+ * 测试大小/部分哈希/完整哈希三级过滤的结果正确性
+ */
+class DuplicateFileFinderTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val finder = DuplicateFileFinder(hashCache = null, parallelism = 2)
+
+    private fun writeFile(name: String, content: ByteArray): File {
+        return tempFolder.newFile(name).apply { writeBytes(content) }
+    }
+
+    /**
+     * 测试内容相同的文件被分为一组，大小不同的文件被排除
+     */
+    @Test
+    fun `test identical files are grouped`() = runBlocking {
+        // Given
+        val content = Random(1).nextBytes(20_000)
+        val a = writeFile("a.bin", content)
+        val b = writeFile("b.bin", content)
+        writeFile("other.bin", Random(2).nextBytes(30_000))
+
+        // When
+        val duplicates = finder.findDuplicates(tempFolder.root.listFiles()!!.toList())
+
+        // Then
+        assertEquals(1, duplicates.size)
+        assertEquals(setOf(a, b), duplicates.values.first().toSet())
+        assertEquals(finder.fullHash(a), duplicates.keys.first())
+    }
+
+    /**
+     * 测试首尾相同、中间不同的文件在完整哈希阶段被区分
+     */
+    @Test
+    fun `test same edges different middle are not duplicates`() = runBlocking {
+        // Given
+        val content = Random(3).nextBytes(20_000)
+        val modified = content.copyOf().also { it[10_000] = (it[10_000] + 1).toByte() }
+        val a = writeFile("a.bin", content)
+        val b = writeFile("b.bin", modified)
+
+        // When
+        val duplicates = finder.findDuplicates(listOf(a, b))
+
+        // Then
+        assertEquals(finder.partialHash(a), finder.partialHash(b))
+        assertTrue(duplicates.isEmpty())
+    }
+
+    /**
+     * 测试小文件的部分哈希即为完整哈希，同一路径重复传入不会被当成重复文件
+     */
+    @Test
+    fun `test small files and repeated paths`() = runBlocking {
+        // Given
+        val content = Random(4).nextBytes(1_000)
+        val a = writeFile("a.bin", content)
+
+        // When
+        val duplicates = finder.findDuplicates(listOf(a, File(a.absolutePath)))
+
+        // Then
+        assertEquals(finder.fullHash(a), finder.partialHash(a))
+        assertTrue(duplicates.isEmpty())
+    }
+}
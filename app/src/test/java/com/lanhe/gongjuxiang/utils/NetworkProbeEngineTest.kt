@@ -0,0 +1,141 @@
+package com.lanhe.gongjuxiang.utils
+
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+
+/**
+ * NetworkProbeEngine单元测试
+ * 使用本机回环地址上的测试服务器，不依赖外部网络
+ */
+class NetworkProbeEngineTest {
+
+    private val engine = NetworkProbeEngine()
+    private val servers = mutableListOf<ServerSocket>()
+    private val clients = mutableListOf<Socket>()
+
+    @After
+    fun tearDown() {
+        clients.forEach { it.close() }
+        servers.forEach { it.close() }
+    }
+
+    /**
+     * 启动回环服务器，respond 为 false 时只接受连接不返回任何数据
+     */
+    private fun startServer(respond: Boolean): Int {
+        val server = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+        servers.add(server)
+        Thread {
+            while (!server.isClosed) {
+                val client = try {
+                    server.accept()
+                } catch (e: Exception) {
+                    break
+                }
+                synchronized(clients) { clients.add(client) }
+                if (respond) {
+                    val input = client.getInputStream()
+                    var matched = 0
+                    val terminator = "\r\n\r\n"
+                    while (matched < terminator.length) {
+                        val b = input.read()
+                        if (b < 0) break
+                        matched = if (b.toChar() == terminator[matched]) matched + 1 else 0
+                    }
+                    client.getOutputStream().write("HTTP/1.1 204 No Content\r\n\r\n".toByteArray())
+                    client.close()
+                }
+            }
+        }.apply {
+            isDaemon = true
+            start()
+        }
+        return server.localPort
+    }
+
+    /**
+     * 测试 HTTP 探测拆分连接和首字节阶段并读取状态码
+     */
+    @Test
+    fun `test http probe reports phases and status code`() = runBlocking {
+        // Given
+        val port = startServer(respond = true)
+        val target = NetworkProbeEngine.ProbeTarget.http("http://127.0.0.1:$port/ping")
+
+        // When
+        val report = engine.probe(listOf(target), attempts = 3)
+
+        // Then
+        val results = report.results
+        assertEquals(3, results.size)
+        assertTrue(results.all { it.success && it.statusCode == 204 })
+        assertTrue(results.all { it.timing.connectNanos > 0 && it.timing.ttfbNanos > 0 })
+        assertTrue(results.all { it.timing.tlsNanos == 0L })
+        assertEquals(0f, report.overall.lossPercent, 0.001f)
+        assertTrue(report.overall.p50Ms <= report.overall.p99Ms)
+    }
+
+    /**
+     * 测试目标并发探测，无响应的目标在总截止时间到达时计为丢失，不拖慢其他目标
+     */
+    @Test
+    fun `test silent targets are cut off at the global deadline`() = runBlocking {
+        // Given
+        val silentA = startServer(respond = false)
+        val silentB = startServer(respond = false)
+        val fast = startServer(respond = true)
+        val targets = listOf(
+            NetworkProbeEngine.ProbeTarget.http("http://127.0.0.1:$silentA/"),
+            NetworkProbeEngine.ProbeTarget.http("http://127.0.0.1:$silentB/"),
+            NetworkProbeEngine.ProbeTarget.http("http://127.0.0.1:$fast/")
+        )
+
+        // When
+        val report = engine.probe(targets, deadlineMs = 300L)
+
+        // Then
+        assertTrue("elapsed ${report.elapsedMs}ms", report.elapsedMs < 1_500)
+        assertFalse(report.targets[0].results.single().success)
+        assertFalse(report.targets[1].results.single().success)
+        assertTrue(report.targets[2].results.single().success)
+        assertEquals(200f / 3, report.overall.lossPercent, 0.01f)
+    }
+
+    /**
+     * 测试连接被拒绝时探测失败，但已完成的DNS阶段仍有记录
+     */
+    @Test
+    fun `test refused connection is reported as loss`() = runBlocking {
+        // Given
+        val port = ServerSocket(0, 1, InetAddress.getLoopbackAddress()).use { it.localPort }
+
+        // When
+        val report = engine.probe(listOf(NetworkProbeEngine.ProbeTarget.tcp("127.0.0.1", port)), attempts = 2)
+
+        // Then
+        assertTrue(report.results.none { it.success })
+        assertTrue(report.results.all { it.error != null })
+        assertEquals(100f, report.overall.lossPercent, 0.001f)
+        assertEquals(0, report.overall.received)
+    }
+
+    /**
+     * 测试最近秩法百分位
+     */
+    @Test
+    fun `test percentile uses nearest rank`() {
+        // Given
+        val sorted = LongArray(10) { (it + 1) * 10L }
+
+        // Then
+        assertEquals(50L, NetworkProbeEngine.percentile(sorted, 50))
+        assertEquals(90L, NetworkProbeEngine.percentile(sorted, 90))
+        assertEquals(100L, NetworkProbeEngine.percentile(sorted, 99))
+        assertEquals(0L, NetworkProbeEngine.percentile(LongArray(0), 50))
+    }
+}
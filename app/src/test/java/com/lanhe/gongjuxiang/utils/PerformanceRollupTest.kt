@@ -0,0 +1,92 @@
+package com.lanhe.gongjuxiang.utils
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * 性能汇总单元测试
+ * 测试时间桶对齐、粒度选择和批量采样的内存聚合
+ */
+class PerformanceRollupTest {
+
+    private fun sample(timestamp: Long, cpu: Float, memory: Int, dataType: String = "performance") =
+        PerformanceDataEntity(
+            timestamp = timestamp,
+            cpuUsage = cpu,
+            memoryUsagePercent = memory,
+            batteryLevel = 80,
+            batteryTemperature = 30f,
+            deviceTemperature = 35f,
+            dataType = dataType
+        )
+
+    /**
+     * 测试分钟/小时桶对齐
+     */
+    @Test
+    fun `test bucket alignment`() {
+        val ts = 3_600_000L * 5 + 60_000L * 7 + 12_345L
+
+        assertEquals(3_600_000L * 5 + 60_000L * 7, RollupResolution.MINUTE.bucketStart(ts))
+        assertEquals(3_600_000L * 5, RollupResolution.HOUR.bucketStart(ts))
+        assertTrue(RollupResolution.DAY.bucketStart(ts) <= ts)
+    }
+
+    /**
+     * 测试根据时间跨度选择粒度
+     */
+    @Test
+    fun `test resolution selection by range`() {
+        val hour = 3_600_000L
+
+        assertEquals(RollupResolution.MINUTE, RollupResolution.forRange(0, hour))
+        assertEquals(RollupResolution.HOUR, RollupResolution.forRange(0, 24 * hour))
+        assertEquals(RollupResolution.DAY, RollupResolution.forRange(0, 90 * 24 * hour))
+    }
+
+    /**
+     * 测试一批采样聚合为 min/max/sum/count，且忽略非周期采样
+     */
+    @Test
+    fun `test batch aggregation`() {
+        val samples = listOf(
+            sample(0L, 10f, 40),
+            sample(2_000L, 30f, 60),
+            sample(61_000L, 50f, 50),
+            sample(3_000L, 99f, 99, dataType = "manual")
+        )
+
+        val aggregated = PerformanceRollupWriter.aggregate(samples)
+
+        val minutes = aggregated.getValue(RollupResolution.MINUTE)
+        assertEquals(2, minutes.size)
+        val first = minutes.getValue(0L)
+        assertEquals(2, first.sampleCount)
+        assertEquals(10f, first.cpuMin, 0.001f)
+        assertEquals(30f, first.cpuMax, 0.001f)
+        assertEquals(20f, first.cpuAvg, 0.001f)
+        assertEquals(50f, first.memoryAvg, 0.001f)
+
+        val hour = aggregated.getValue(RollupResolution.HOUR).getValue(0L)
+        assertEquals(3, hour.sampleCount)
+        assertEquals(50f, hour.cpuMax, 0.001f)
+    }
+
+    /**
+     * 测试两个汇总合并
+     */
+    @Test
+    fun `test merge keeps extremes and sums`() {
+        val a = PerformanceRollupEntity.fromSample(RollupResolution.MINUTE, sample(0L, 20f, 30))
+        val b = PerformanceRollupEntity.fromSample(RollupResolution.MINUTE, sample(1_000L, 80f, 70))
+
+        val merged = a.merge(b)
+
+        assertEquals(2, merged.sampleCount)
+        assertEquals(20f, merged.cpuMin, 0.001f)
+        assertEquals(80f, merged.cpuMax, 0.001f)
+        assertEquals(50f, merged.cpuAvg, 0.001f)
+        assertEquals(30, merged.memoryMin)
+        assertEquals(70, merged.memoryMax)
+    }
+}
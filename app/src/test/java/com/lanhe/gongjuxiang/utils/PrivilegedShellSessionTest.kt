@@ -0,0 +1,224 @@
+package com.lanhe.gongjuxiang.utils
+
+import com.lanhe.gongjuxiang.security.CommandValidator
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * PrivilegedShellSession单元测试
+ * 使用本地 sh 代替 Shizuku 进程，验证分帧、流水线并发执行、命令校验、超时和重启
+ */
+@RunWith(RobolectricTestRunner::class)
+class PrivilegedShellSessionTest {
+
+    private var spawnCount = 0
+
+    private val session = PrivilegedShellSession(
+        processFactory = {
+            spawnCount++
+            ProcessBuilder("sh").start()
+        },
+        validate = { !it.startsWith("forbidden") }
+    )
+
+    // 与 CommandValidator 一样只检查前缀的校验
+    private val prefixSession = PrivilegedShellSession(
+        processFactory = {
+            spawnCount++
+            ProcessBuilder("sh").start()
+        },
+        validate = { it.startsWith("echo") }
+    )
+
+    @After
+    fun tearDown() {
+        session.close()
+        prefixSession.close()
+    }
+
+    /**
+     * 测试标准输出、标准错误和退出码分别返回，输出末尾的换行保持原样
+     */
+    @Test
+    fun `test output error and exit code are framed per command`() {
+        // When
+        val results = session.executeAll(
+            listOf(
+                "echo hello",
+                "printf abc",
+                "ls /nonexistent_lanhe_dir",
+                "true"
+            )
+        )
+
+        // Then
+        assertEquals("hello\n", results[0].output)
+        assertTrue(results[0].isSuccess)
+        assertEquals("abc", results[1].output)
+        assertTrue(results[2].error!!.contains("nonexistent_lanhe_dir"))
+        assertFalse(results[2].isSuccess)
+        assertEquals("", results[3].output)
+        assertTrue(results[3].isSuccess)
+        assertEquals(1, spawnCount)
+    }
+
+    /**
+     * 测试多个线程同时提交命令时共用一个Shell，且各自拿到自己的结果
+     */
+    @Test
+    fun `test concurrent commands share one shell`() {
+        // Given
+        val executor = Executors.newFixedThreadPool(8)
+
+        // When
+        val futures = (0 until 32).map { i ->
+            executor.submit<String?> { session.execute("echo task-$i").output }
+        }
+        val outputs = futures.map { it.get(10, TimeUnit.SECONDS) }
+        executor.shutdown()
+
+        // Then
+        outputs.forEachIndexed { i, output -> assertEquals("task-$i\n", output) }
+        assertEquals(1, spawnCount)
+    }
+
+    /**
+     * 测试被校验拒绝或包含换行的命令不会写入Shell
+     */
+    @Test
+    fun `test rejected commands never reach the shell`() {
+        // When
+        val results = session.executeAll(listOf("forbidden command", "echo a\necho b"))
+
+        // Then
+        assertTrue(results.none { it.isSuccess })
+        assertEquals(0, spawnCount)
+    }
+
+    /**
+     * 测试在放行的前缀后拼接命令的各种写法都被拒绝，不会启动Shell
+     */
+    @Test
+    fun `test shell metacharacters after an allowed prefix are rejected`() {
+        // Given
+        val injections = listOf(
+            "echo x; id",
+            "echo x && id",
+            "echo x || id",
+            "echo x | id",
+            "echo x & id",
+            "echo x > /data/local/tmp/out",
+            "echo x < /etc/hosts",
+            "echo (id)",
+            "echo \$(id)",
+            "echo `id`",
+            "echo \"\$(id)\"",
+            "echo 'unterminated",
+            "echo x \\"
+        )
+
+        // When
+        val results = prefixSession.executeAll(injections)
+
+        // Then
+        results.forEachIndexed { i, result ->
+            assertFalse("应拒绝: ${injections[i]}", result.isSuccess)
+            assertTrue(result.error!!.contains("Shell控制字符"))
+        }
+        assertEquals(0, spawnCount)
+    }
+
+    /**
+     * 测试末尾的反斜杠被拒绝，不会让Shell把后续的帧当作续行读入
+     */
+    @Test
+    fun `test trailing backslash is rejected and later commands still run`() {
+        // When
+        val rejected = prefixSession.execute("echo x\\")
+        val escaped = prefixSession.execute("echo a\\ b")
+        val next = prefixSession.execute("echo next")
+
+        // Then
+        assertFalse(rejected.isSuccess)
+        assertTrue(rejected.error!!.contains("Shell控制字符"))
+        assertEquals("a b\n", escaped.output)
+        assertEquals("next\n", next.output)
+        assertEquals(1, spawnCount)
+    }
+
+    /**
+     * 测试引号内的控制字符作为普通参数传递
+     */
+    @Test
+    fun `test quoted metacharacters are passed literally`() {
+        // When
+        val results = prefixSession.executeAll(
+            listOf(
+                "echo 'a; b | c > d'",
+                "echo \"x && y\"",
+                "echo ${PrivilegedShellSession.quote("it's \$(id)")}"
+            )
+        )
+
+        // Then
+        assertEquals("a; b | c > d\n", results[0].output)
+        assertEquals("x && y\n", results[1].output)
+        assertEquals("it's \$(id)\n", results[2].output)
+    }
+
+    /**
+     * 测试安装和卸载命令只在参数安全时通过校验
+     */
+    @Test
+    fun `test pm install and uninstall are validated by argument`() {
+        // Given
+        val validator = CommandValidator()
+
+        // Then
+        assertTrue(validator.validateCommand("pm install -r ${PrivilegedShellSession.quote("/data/local/tmp/app.apk")}"))
+        assertTrue(validator.validateCommand("pm uninstall com.example.app"))
+        assertFalse(validator.validateCommand("pm install -r ${PrivilegedShellSession.quote("/system/app/x.apk")}"))
+        assertFalse(validator.validateCommand("pm install -r /data/local/tmp/app.apk"))
+        assertFalse(validator.validateCommand("pm uninstall com.android.systemui"))
+        assertFalse(validator.validateCommand("pm uninstall com.example.app com.other.app"))
+    }
+
+    /**
+     * 测试超时后结束Shell，排队的命令一并失败，下一条命令在新Shell中执行
+     */
+    @Test
+    fun `test timeout kills the shell and the next command respawns it`() {
+        // When
+        val timedOut = session.executeAll(listOf("sleep 5", "echo queued"), timeoutMs = 300)
+        val next = session.execute("echo again")
+
+        // Then
+        assertFalse(timedOut[0].isSuccess)
+        assertTrue(timedOut[0].error!!.contains("超时"))
+        assertFalse(timedOut[1].isSuccess)
+        assertEquals("again\n", next.output)
+        assertEquals(2, spawnCount)
+    }
+
+    /**
+     * 测试Shell进程退出时正在执行的命令失败，之后的命令自动重新创建Shell
+     */
+    @Test
+    fun `test shell exit fails the command and respawns`() {
+        // When
+        val first = session.execute("echo before")
+        val exited = session.execute("exit 3")
+        val after = session.execute("echo after")
+
+        // Then
+        assertEquals("before\n", first.output)
+        assertFalse(exited.isSuccess)
+        assertEquals("after\n", after.output)
+        assertEquals(2, spawnCount)
+    }
+}
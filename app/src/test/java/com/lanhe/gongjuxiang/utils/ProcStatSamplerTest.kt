@@ -0,0 +1,149 @@
+package com.lanhe.gongjuxiang.utils
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+/**
+ * ProcStatSampler单元测试
+ * 使用临时文件模拟 /proc/stat 与 /proc/meminfo，验证差值计算、每核统计、内存解析与环形缓冲区
+ */
+class ProcStatSamplerTest {
+
+    private lateinit var statFile: File
+    private lateinit var meminfoFile: File
+    private lateinit var sampler: ProcStatSampler
+
+    @Before
+    fun setup() {
+        statFile = File.createTempFile("stat", null)
+        meminfoFile = File.createTempFile("meminfo", null)
+        sampler = ProcStatSampler(statFile.absolutePath, meminfoFile.absolutePath, historyCapacity = 4)
+    }
+
+    @After
+    fun tearDown() {
+        sampler.close()
+        statFile.delete()
+        meminfoFile.delete()
+    }
+
+    /**
+     * 测试CPU使用率基于两次采样的差值而非开机累计值
+     */
+    @Test
+    fun `test cpu usage is computed from delta between samples`() {
+        // Given: 开机以来几乎空闲
+        statFile.writeText(
+            """
+            cpu  100 0 100 9800 0 0 0 0 0 0
+            cpu0 50 0 50 4900 0 0 0 0 0 0
+            cpu1 50 0 50 4900 0 0 0 0 0 0
+            intr 12345 0 0
+            """.trimIndent() + "\n"
+        )
+        val first = sampler.sampleCpu()
+        assertTrue(first.valid)
+        assertFalse("First sample has no previous baseline", first.isDelta)
+        assertEquals(2f, first.totalUsage, 0.01f)
+
+        // When: 下一个周期 cpu0 满载、cpu1 空闲
+        statFile.writeText(
+            """
+            cpu  200 0 100 9900 0 0 0 0 0 0
+            cpu0 150 0 50 4900 0 0 0 0 0 0
+            cpu1 50 0 50 5000 0 0 0 0 0 0
+            intr 12400 0 0
+            """.trimIndent() + "\n"
+        )
+        val second = sampler.sampleCpu()
+
+        // Then: 总体50%，cpu0 100%，cpu1 0%
+        assertTrue(second.isDelta)
+        assertEquals(50f, second.totalUsage, 0.01f)
+        assertEquals(50f, second.userUsage, 0.01f)
+        assertEquals(0f, second.systemUsage, 0.01f)
+        assertEquals(2, second.coreCount)
+        assertEquals(100f, second.coreUsage[0], 0.01f)
+        assertEquals(0f, second.coreUsage[1], 0.01f)
+    }
+
+    /**
+     * 测试离线核心标记为 -1
+     */
+    @Test
+    fun `test offline core is reported as negative`() {
+        statFile.writeText(
+            "cpu  10 0 10 80 0 0 0 0\ncpu0 10 0 10 80 0 0 0 0\ncpu2 0 0 0 100 0 0 0 0\n"
+        )
+        val sample = sampler.sampleCpu()
+
+        assertEquals(3, sample.coreCount)
+        assertEquals(-1f, sample.coreUsage[1], 0.0f)
+        assertEquals(0f, sample.coreUsage[2], 0.01f)
+    }
+
+    /**
+     * 测试 /proc/meminfo 解析
+     */
+    @Test
+    fun `test meminfo parsing`() {
+        meminfoFile.writeText(
+            """
+            MemTotal:        8000000 kB
+            MemFree:         1000000 kB
+            MemAvailable:    3000000 kB
+            Buffers:          100000 kB
+            Cached:          1500000 kB
+            SwapCached:            0 kB
+            SwapTotal:       2000000 kB
+            SwapFree:        1000000 kB
+            """.trimIndent() + "\n"
+        )
+
+        val sample = sampler.sampleMemory()
+
+        assertTrue(sample.valid)
+        assertEquals(8000000L * 1024, sample.total)
+        assertEquals(3000000L * 1024, sample.available)
+        assertEquals(5000000L * 1024, sample.used)
+        assertEquals(1500000L * 1024, sample.cached)
+        assertEquals(62.5f, sample.usagePercent, 0.01f)
+    }
+
+    /**
+     * 测试缺少 MemAvailable 的老内核按 free+buffers+cached 估算
+     */
+    @Test
+    fun `test meminfo without MemAvailable falls back to estimate`() {
+        meminfoFile.writeText("MemTotal: 1000 kB\nMemFree: 100 kB\nBuffers: 50 kB\nCached: 250 kB\n")
+
+        val sample = sampler.sampleMemory()
+
+        assertEquals(400L * 1024, sample.available)
+    }
+
+    /**
+     * 测试环形缓冲区只保留最近的记录并按时间顺序输出
+     */
+    @Test
+    fun `test history ring keeps latest samples in order`() {
+        var busy = 0L
+        var idle = 0L
+        for (i in 1..6) {
+            busy += i * 10L
+            idle += 100L - i * 10L
+            statFile.writeText("cpu  $busy 0 0 $idle 0 0 0 0\n")
+            sampler.sampleCpu()
+        }
+
+        val out = FloatArray(8)
+        val count = sampler.history.copyCpuUsage(out)
+
+        assertEquals(4, count)
+        assertEquals(30f, out[0], 0.01f)
+        assertEquals(60f, out[3], 0.01f)
+    }
+}
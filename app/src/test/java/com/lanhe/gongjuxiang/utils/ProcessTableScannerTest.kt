@@ -0,0 +1,126 @@
+package com.lanhe.gongjuxiang.utils
+
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * ProcessTableScanner单元测试
+ * 在临时目录中模拟 /proc 结构，验证增量CPU/内存计算、PID复用识别和已退出进程的清理
+ */
+class ProcessTableScannerTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private lateinit var procRoot: File
+    private var now = 1_000L
+    private lateinit var scanner: ProcessTableScanner
+
+    @Before
+    fun setUp() {
+        procRoot = tempFolder.newFolder("proc")
+        // 开机 100 秒 = 10000 ticks
+        File(procRoot, "uptime").writeText("100.00 50.00\n")
+        scanner = ProcessTableScanner(
+            procRoot = procRoot.path,
+            clockTicksPerSecond = 100,
+            pageSize = 4096,
+            cpuCount = 1,
+            clock = { now }
+        )
+    }
+
+    private fun writeProcess(pid: Int, comm: String, cmdline: String?, utime: Long, stime: Long,
+                             startTime: Long, residentPages: Long) {
+        val dir = File(procRoot, pid.toString()).apply { mkdirs() }
+        // ")" 之后依次为 state ppid pgrp session tty_nr tpgid flags minflt cminflt majflt cmajflt
+        // utime stime cutime cstime priority nice num_threads itrealvalue starttime vsize rss
+        File(dir, "stat").writeText(
+            "$pid ($comm) S 1 1 0 0 -1 0 0 0 0 0 $utime $stime 0 0 20 0 4 0 $startTime 1000000 1 0\n"
+        )
+        File(dir, "statm").writeText("2000 $residentPages 100 10 0 500 0\n")
+        cmdline?.let { File(dir, "cmdline").writeText("$it\u0000--flag\u0000") }
+    }
+
+    /**
+     * 测试首次扫描给出启动以来的平均值，第二次扫描按间隔差值计算
+     */
+    @Test
+    fun `test cpu and rss are computed from deltas between scans`() {
+        // Given - 启动于第 50 秒，已运行 5000 ticks，累计 500 ticks
+        writeProcess(100, "app", "com.example.app", 300, 200, 5000, 1000)
+
+        // When
+        scanner.scan()
+        val first = scanner.find(100)!!
+        writeProcess(100, "app", "com.example.app", 350, 250, 5000, 1500)
+        now += 1_000
+        scanner.scan()
+        val second = scanner.find(100)!!
+
+        // Then
+        assertEquals("com.example.app", first.name)
+        assertEquals(10f, first.cpuPercent, 0.01f)
+        assertEquals(1000L * 4096, first.rssBytes)
+        assertEquals(0L, first.rssDeltaBytes)
+        assertEquals(100f, second.cpuPercent, 0.01f)
+        assertEquals(6000L, second.cpuTimeMs)
+        assertEquals(500L * 4096, second.rssDeltaBytes)
+    }
+
+    /**
+     * 测试进程名只在首次见到时读取，PID被复用后重新读取
+     */
+    @Test
+    fun `test cmdline is read only for new processes`() {
+        // Given
+        writeProcess(200, "worker", "com.example.app:remote", 10, 10, 1000, 100)
+        scanner.scan()
+
+        // When - cmdline 变化但进程未变，名称保持不变
+        File(procRoot, "200/cmdline").writeText("changed\u0000")
+        now += 1_000
+        scanner.scan()
+        val sameProcess = scanner.find(200)!!
+
+        // PID 被新进程复用（启动时间不同）
+        writeProcess(200, "other", "com.other", 1, 1, 9000, 50)
+        now += 1_000
+        scanner.scan()
+        val reused = scanner.find(200)!!
+
+        // Then
+        assertEquals("com.example.app:remote", sameProcess.name)
+        assertEquals("com.example.app", sameProcess.packageName)
+        assertEquals("com.other", reused.name)
+        assertEquals(0L, reused.rssDeltaBytes)
+    }
+
+    /**
+     * 测试已退出的进程被移除，排行按CPU和内存排序，内核线程使用 comm 作为名称
+     */
+    @Test
+    fun `test exited processes are pruned and top lists are ordered`() {
+        // Given
+        writeProcess(300, "small", "com.small", 0, 0, 1000, 10)
+        writeProcess(301, "big", "com.big", 0, 0, 1000, 900)
+        writeProcess(302, "kworker/0:1", null, 0, 0, 1000, 0)
+        scanner.scan()
+        writeProcess(300, "small", "com.small", 80, 0, 1000, 10)
+        File(procRoot, "301").deleteRecursively()
+        now += 1_000
+
+        // When
+        scanner.scan()
+
+        // Then
+        assertNull(scanner.find(301))
+        assertEquals(300, scanner.topByCpu(1).single().pid)
+        assertEquals(listOf(300, 302), scanner.topByMemory(5).map { it.pid })
+        assertEquals("kworker/0:1", scanner.find(302)!!.name)
+    }
+}
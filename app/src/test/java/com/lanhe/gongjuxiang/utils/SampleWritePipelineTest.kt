@@ -0,0 +1,118 @@
+package com.lanhe.gongjuxiang.utils
+
+import kotlinx.coroutines.*
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Collections
+
+/**
+ * SampleWritePipeline单元测试
+ * 使用很长的落盘间隔，验证 flush 和 close 不依赖时间窗口也能写入
+ */
+class SampleWritePipelineTest {
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val written = Collections.synchronizedList(mutableListOf<Int>())
+
+    private val pipeline = SampleWritePipeline<Int>(
+        "test", scope, batchSize = 30, flushIntervalMs = 60_000L
+    ) { written.addAll(it) }
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    /**
+     * 测试消费协程已取出、尚未攒满一批的记录在 flush 返回前写入
+     */
+    @Test
+    fun `test flush writes the record the consumer is holding`() = runBlocking {
+        // Given
+        pipeline.start()
+        pipeline.offer(1)
+        delay(200) // 让消费协程先把记录取进本地批次
+
+        // When
+        withTimeout(5_000) { pipeline.flush() }
+
+        // Then
+        assertEquals(listOf(1), written.toList())
+        assertEquals(1L, pipeline.writtenCount)
+    }
+
+    /**
+     * 测试同时有本地批次和通道积压时 flush 一并写入
+     */
+    @Test
+    fun `test flush writes held and queued records together`() = runBlocking {
+        // Given
+        pipeline.start()
+        pipeline.offer(1)
+        delay(200)
+        pipeline.offer(2)
+        pipeline.offer(3)
+
+        // When
+        withTimeout(5_000) { pipeline.flush() }
+
+        // Then
+        assertEquals(listOf(1, 2, 3), written.toList())
+    }
+
+    /**
+     * 测试没有启动消费协程时 flush 直接写入通道中的记录
+     */
+    @Test
+    fun `test flush without consumer drains the channel`() = runBlocking {
+        // Given
+        pipeline.offer(7)
+
+        // When
+        pipeline.flush()
+
+        // Then
+        assertEquals(listOf(7), written.toList())
+    }
+
+    /**
+     * 测试落盘监听在写入后以本批条数调用，入队时不调用
+     */
+    @Test
+    fun `test write listener receives batch size after write`() = runBlocking {
+        // Given
+        val batches = Collections.synchronizedList(mutableListOf<Int>())
+        pipeline.addWriteListener { batches.add(it) }
+        pipeline.start()
+        pipeline.offer(1)
+        pipeline.offer(2)
+        assertTrue(batches.isEmpty())
+
+        // When
+        withTimeout(5_000) { pipeline.flush() }
+        pipeline.offer(3)
+        withTimeout(5_000) { pipeline.flush() }
+
+        // Then
+        assertEquals(listOf(2, 1), batches.toList())
+    }
+
+    /**
+     * 测试关闭管道时写完剩余记录
+     */
+    @Test
+    fun `test close writes pending records`() = runBlocking {
+        // Given
+        pipeline.start()
+        pipeline.offer(1)
+        pipeline.offer(2)
+
+        // When
+        withTimeout(5_000) { pipeline.close() }
+
+        // Then
+        assertEquals(listOf(1, 2), written.toList())
+        assertFalse(pipeline.offer(3))
+    }
+}
@@ -0,0 +1,128 @@
+package com.lanhe.gongjuxiang.utils
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.file.Files
+
+/**
+ * 统一存储遍历器单元测试
+ * 测试多个分类器共用一次遍历的结果，NIO 与 listFiles 两种实现结果一致
+ */
+class StorageWalkerTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private fun writeFile(path: String, size: Int): File {
+        return File(tempFolder.root, path).apply {
+            parentFile?.mkdirs()
+            writeBytes(ByteArray(size))
+        }
+    }
+
+    private fun createTree() {
+        writeFile("a.apk", 100)
+        writeFile("docs/big.bin", 5_000)
+        writeFile("docs/notes/small.txt", 10)
+        writeFile(".hidden/secret.apk", 100)
+        File(tempFolder.root, "empty/inner").mkdirs()
+    }
+
+    private fun relative(entries: List<StorageWalker.Entry>): Set<String> {
+        val rootPath = StorageWalker.normalize(tempFolder.root)
+        return entries.map { it.path.removePrefix(rootPath + File.separator) }.toSet()
+    }
+
+    private fun walkAndCheck(useNio: Boolean) = runBlocking {
+        // Given
+        createTree()
+        val walker = StorageWalker(parallelism = 2, useNio = useNio)
+        val apk = FileMatchClassifier { it.extension == "apk" }
+        val large = FileMatchClassifier(includeHidden = true) { it.size >= 1_000 }
+        val emptyDirs = EmptyDirClassifier()
+        val buckets = SizeBucketClassifier(
+            mapOf(
+                "docs" to listOf(File(tempFolder.root, "docs")),
+                "notes" to listOf(File(tempFolder.root, "docs/notes"))
+            )
+        )
+
+        // When
+        val stats = walker.walk(listOf(tempFolder.root), listOf(apk, large, emptyDirs, buckets))
+
+        // Then
+        assertEquals(setOf("a.apk"), relative(apk.matches))
+        assertEquals(setOf("docs/big.bin"), relative(large.matches))
+        assertEquals(setOf("empty/inner"), relative(emptyDirs.leafDirectories))
+        assertEquals(listOf("empty/inner", "empty"), emptyDirs.emptyTrees.map {
+            it.path.removePrefix(StorageWalker.normalize(tempFolder.root) + File.separator)
+        })
+        assertEquals(5_000L, buckets.sizes()["docs"])
+        assertEquals(10L, buckets.sizes()["notes"])
+        assertEquals(4, stats.filesVisited)
+    }
+
+    /**
+     * 测试 walkFileTree 实现
+     */
+    @Test
+    fun `test single walk feeds all classifiers with nio`() = walkAndCheck(useNio = true)
+
+    /**
+     * 测试 listFiles 回退实现
+     */
+    @Test
+    fun `test single walk feeds all classifiers with listFiles`() = walkAndCheck(useNio = false)
+
+    /**
+     * 测试嵌套的根目录只遍历一次，文件不会被重复收集
+     */
+    @Test
+    fun `test nested roots are walked once`() = runBlocking {
+        // Given
+        createTree()
+        val walker = StorageWalker(parallelism = 2, useNio = false)
+        val all = FileMatchClassifier(includeHidden = true) { true }
+
+        // When
+        walker.walk(listOf(File(tempFolder.root, "docs"), tempFolder.root, tempFolder.root), listOf(all))
+
+        // Then
+        assertEquals(4, all.matches.size)
+        assertEquals(4, all.matches.map { it.path }.toSet().size)
+    }
+
+    private fun symlinkLoopCheck(useNio: Boolean) = runBlocking {
+        // Given: docs/notes/loop 指回根目录
+        createTree()
+        Files.createSymbolicLink(File(tempFolder.root, "docs/notes/loop").toPath(), tempFolder.root.toPath())
+        Files.createSymbolicLink(File(tempFolder.root, "top").toPath(), File(tempFolder.root, "docs").toPath())
+        val walker = StorageWalker(parallelism = 2, useNio = useNio)
+        val all = FileMatchClassifier(includeHidden = true) { true }
+        val buckets = SizeBucketClassifier(mapOf("docs" to listOf(File(tempFolder.root, "docs"))))
+
+        // When
+        val stats = walker.walk(listOf(tempFolder.root), listOf(all, buckets))
+
+        // Then
+        assertEquals(4, stats.filesVisited)
+        assertEquals(4, all.matches.map { it.path }.toSet().size)
+        assertEquals(5_010L, buckets.sizes()["docs"])
+    }
+
+    /**
+     * 测试 walkFileTree 实现不进入指向目录的符号链接
+     */
+    @Test
+    fun `test symlinked directories are skipped with nio`() = symlinkLoopCheck(useNio = true)
+
+    /**
+     * 测试 listFiles 实现不进入指向目录的符号链接，链接成环时不会无限递归
+     */
+    @Test
+    fun `test symlinked directories are skipped with listFiles`() = symlinkLoopCheck(useNio = false)
+}
@@ -23,4 +23,7 @@ dependencies {
     implementation(project(":mokuai:mokuai:core:common"))
     implementation(libs.androidx.core.ktx)
     implementation(libs.androidx.appcompat)
+
+    // Testing
+    testImplementation(libs.junit)
 }
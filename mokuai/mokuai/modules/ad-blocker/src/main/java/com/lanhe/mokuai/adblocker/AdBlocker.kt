@@ -1,20 +1,25 @@
 package com.lanhe.mokuai.adblocker
 
+import android.content.ComponentCallbacks2
 import android.content.Context
+import android.content.res.Configuration
 import android.net.Uri
 import android.webkit.WebResourceRequest
 import android.webkit.WebResourceResponse
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
 import java.io.ByteArrayInputStream
 import java.io.BufferedReader
+import java.io.File
+import java.io.IOException
 import java.io.InputStreamReader
 import java.net.URL
 import java.util.*
-import java.util.concurrent.ConcurrentHashMap
-import java.util.regex.Pattern
 
 /**
  * 广告拦截器 - 网页和应用广告过滤工具
@@ -25,10 +30,14 @@ class AdBlocker(private val context: Context) {
         private const val PREFS_NAME = "ad_blocker_prefs"
         private const val KEY_RULES = "blocking_rules"
         private const val KEY_WHITELIST = "whitelist"
-        private const val KEY_STATISTICS = "statistics"
         private const val KEY_CUSTOM_FILTERS = "custom_filters"
         private const val KEY_ENABLED = "enabled"
 
+        // 规则文件目录：原始规则 JSON 和编译后的二进制快照
+        private const val RULES_DIR = "ad_blocker"
+        private const val RULES_FILE = "rules.json"
+        private const val SNAPSHOT_FILE = "filters.bin"
+
         // 默认拦截规则源
         private val DEFAULT_FILTER_LISTS = listOf(
             "https://easylist.to/easylist/easylist.txt",
@@ -57,6 +66,18 @@ class AdBlocker(private val context: Context) {
             "amazon-adsystem.com/pixels", "facebook.com/tr", "linkedin.com/px"
         )
 
+        // URL特征关键词，按 "/ad/"、".ad."、"?ad=" 三种形式匹配
+        private val AD_KEYWORDS = listOf("ad", "ads", "advertisement", "banner", "popup", "tracking", "analytics")
+
+        // 常见广告域名、跟踪器和URL特征的内置匹配器，只编译一次
+        private val HEURISTIC_FILTER by lazy {
+            UrlFilter.compile(
+                emptyList(),
+                COMMON_AD_HOSTS + COMMON_TRACKERS +
+                    AD_KEYWORDS.flatMap { listOf("/$it/", ".$it.", "?$it=") }
+            )
+        }
+
         // 空响应
         private val EMPTY_RESPONSE = WebResourceResponse(
             "text/plain",
@@ -69,13 +90,41 @@ class AdBlocker(private val context: Context) {
         context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
     }
 
-    // 缓存已编译的规则
-    private val compiledRules = ConcurrentHashMap<String, Pattern>()
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    private val rulesDir by lazy { File(context.filesDir, RULES_DIR) }
+    private val rulesFile by lazy { File(rulesDir, RULES_FILE) }
+    private val snapshotFile by lazy { File(rulesDir, SNAPSHOT_FILE) }
+
+    // 原始规则，只在规则增删和持久化时按需载入，访问时持有 rulesLock
+    private val rulesLock = Any()
+    private var rulesLoaded = false
     private val hostBlocklist = mutableSetOf<String>()
     private val urlBlocklist = mutableSetOf<String>()
     private val elementHidingRules = mutableListOf<ElementHidingRule>()
     private val whitelistRules = mutableSetOf<String>()
 
+    /**
+     * 编译后的拦截/白名单匹配器和元素隐藏规则，规则变化时整体替换，请求线程无锁读取
+     */
+    private class CompiledRules(
+        val block: UrlFilter,
+        val allow: UrlFilter,
+        val hiding: List<ElementHidingRule>
+    )
+
+    @Volatile
+    private var compiledRules = CompiledRules(UrlFilter.EMPTY, UrlFilter.EMPTY, emptyList())
+
+    // 串行化重新编译，保证最后写入的快照对应最新的规则
+    private val rebuildLock = Any()
+
+    private val statsRecorder by lazy { BlockingStatsRecorder(sharedPrefs, scope) }
+
+    // 开关状态缓存在内存中，避免每个请求读取 SharedPreferences
+    @Volatile
+    private var enabled = true
+
     data class BlockingRule(
         val id: String = UUID.randomUUID().toString(),
         val rule: String,
@@ -120,6 +169,11 @@ class AdBlocker(private val context: Context) {
         val lastReset: Long = System.currentTimeMillis()
     )
 
+    data class BlockedHost(
+        val host: String,
+        val count: Long
+    )
+
     data class WhitelistEntry(
         val id: String = UUID.randomUUID().toString(),
         val pattern: String,
@@ -134,20 +188,23 @@ class AdBlocker(private val context: Context) {
     }
 
     init {
+        enabled = sharedPrefs.getBoolean(KEY_ENABLED, true)
         loadRules()
+        registerLifecycleCallbacks()
     }
 
     /**
      * 检查是否启用广告拦截
      */
     fun isEnabled(): Boolean {
-        return sharedPrefs.getBoolean(KEY_ENABLED, true)
+        return enabled
     }
 
     /**
      * 设置广告拦截状态
      */
     fun setEnabled(enabled: Boolean) {
+        this.enabled = enabled
         sharedPrefs.edit().putBoolean(KEY_ENABLED, enabled).apply()
     }
 
@@ -155,31 +212,34 @@ class AdBlocker(private val context: Context) {
      * 检查URL是否应该被拦截
      */
     fun shouldBlock(url: String): Boolean {
-        if (!isEnabled()) return false
+        if (!enabled) return false
 
-        val uri = Uri.parse(url)
-        val host = uri.host ?: return false
+        val hostRange = UrlFilter.hostRange(url)
+        if (hostRange < 0) return false
+        val hostStart = (hostRange ushr 32).toInt()
+        val hostEnd = hostRange.toInt()
+        val rules = compiledRules
 
         // 检查白名单
-        if (isWhitelisted(url)) {
+        if (rules.allow.matches(url, hostStart, hostEnd)) {
             return false
         }
 
         // 检查域名黑名单
-        if (isHostBlocked(host)) {
-            incrementBlockedCount("domain")
+        if (rules.block.matchesDomain(url, hostStart, hostEnd)) {
+            statsRecorder.record(BlockingStatsRecorder.Category.DOMAIN, url, hostStart, hostEnd)
             return true
         }
 
         // 检查URL模式
-        if (isUrlBlocked(url)) {
-            incrementBlockedCount("url")
+        if (rules.block.matchesPattern(url, hostStart, hostEnd)) {
+            statsRecorder.record(BlockingStatsRecorder.Category.URL, url, hostStart, hostEnd)
             return true
         }
 
         // 检查是否是广告或跟踪器
-        if (isAdOrTracker(host, url)) {
-            incrementBlockedCount("ad_tracker")
+        if (HEURISTIC_FILTER.matches(url, hostStart, hostEnd)) {
+            statsRecorder.record(BlockingStatsRecorder.Category.AD_TRACKER, url, hostStart, hostEnd)
             return true
         }
 
@@ -214,7 +274,7 @@ class AdBlocker(private val context: Context) {
         val uri = Uri.parse(url)
         val host = uri.host ?: return ""
 
-        val rules = elementHidingRules.filter { rule ->
+        val rules = compiledRules.hiding.filter { rule ->
             rule.domain == null || host.contains(rule.domain)
         }
 
@@ -288,14 +348,79 @@ class AdBlocker(private val context: Context) {
 
     /**
      * 加载规则
+     * 优先读取编译好的二进制快照，启动耗时与规则数量无关；
+     * 只有首次运行或快照版本变化时才从原始规则编译一次并写出快照
      */
     private fun loadRules() {
-        val rulesJson = sharedPrefs.getString(KEY_RULES, null)
+        val snapshot = FilterSnapshot.read(snapshotFile)
+        if (snapshot != null) {
+            compiledRules = CompiledRules(snapshot.block, snapshot.allow, snapshot.hiding)
+        } else {
+            rebuildMatchers()
+            // 把旧版本保存在 SharedPreferences 中的规则迁移到规则文件，之后读取开关状态不再加载整份规则
+            scope.launch { saveRules() }
+        }
+    }
+
+    /**
+     * 载入原始规则，调用方需持有 rulesLock
+     * 旧版本把规则保存在 SharedPreferences 中，首次保存时迁移到规则文件
+     */
+    private fun ensureRulesLoaded() {
+        if (rulesLoaded) return
+        val rulesJson = try {
+            if (rulesFile.isFile) rulesFile.readText() else sharedPrefs.getString(KEY_RULES, null)
+        } catch (e: IOException) {
+            e.printStackTrace()
+            null
+        }
         if (rulesJson != null) {
             parseRules(rulesJson)
         } else {
             loadDefaultRules()
         }
+        rulesLoaded = true
+    }
+
+    /**
+     * 根据当前原始规则重新编译匹配器并写出快照
+     * 编译在调用线程上完成，完成后一次性替换，正在进行的匹配继续使用旧的匹配器
+     */
+    private fun rebuildMatchers() {
+        synchronized(rebuildLock) {
+            val hosts: List<String>
+            val urls: List<String>
+            val whitelist: List<String>
+            val hiding: List<ElementHidingRule>
+            synchronized(rulesLock) {
+                ensureRulesLoaded()
+                hosts = hostBlocklist.toList()
+                urls = urlBlocklist.toList()
+                whitelist = whitelistRules.toList()
+                hiding = elementHidingRules.toList()
+            }
+            val compiled = CompiledRules(
+                block = UrlFilter.compile(hosts, urls),
+                allow = UrlFilter.compile(emptyList(), whitelist),
+                hiding = hiding
+            )
+            compiledRules = compiled
+            try {
+                FilterSnapshot.write(snapshotFile, compiled.block, compiled.allow, compiled.hiding)
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    /**
+     * 规则被修改后在后台重新编译并保存
+     */
+    private fun rebuildInBackground() {
+        scope.launch {
+            rebuildMatchers()
+            saveRules()
+        }
     }
 
     /**
@@ -336,7 +461,10 @@ class AdBlocker(private val context: Context) {
         lists.filter { it.enabled }.forEach { list ->
             try {
                 val rules = downloadFilterList(list.url)
-                parseFilterListRules(rules)
+                synchronized(rulesLock) {
+                    ensureRulesLoaded()
+                    parseFilterListRules(rules)
+                }
                 updateFilterListInfo(list.copy(
                     lastUpdate = System.currentTimeMillis(),
                     ruleCount = rules.lines().size
@@ -345,6 +473,7 @@ class AdBlocker(private val context: Context) {
                 e.printStackTrace()
             }
         }
+        rebuildMatchers()
         saveRules()
     }
 
@@ -387,9 +516,13 @@ class AdBlocker(private val context: Context) {
                     }
                 }
                 trimmed.startsWith("||") -> {
-                    // 域名规则
-                    val domain = trimmed.substring(2).replace("^", "")
-                    hostBlocklist.add(domain)
+                    // 纯域名规则进入域名表，带路径或通配符的规则按URL规则编译
+                    val domain = trimmed.substring(2).removeSuffix("^")
+                    if (domain.all { it.isLetterOrDigit() || it == '.' || it == '-' || it == '_' }) {
+                        hostBlocklist.add(domain)
+                    } else {
+                        urlBlocklist.add(trimmed)
+                    }
                 }
                 else -> {
                     // URL规则
@@ -403,31 +536,58 @@ class AdBlocker(private val context: Context) {
      * 添加自定义规则
      */
     fun addCustomRule(rule: BlockingRule) {
-        when (rule.type) {
-            RuleType.DOMAIN -> hostBlocklist.add(rule.rule)
-            RuleType.URL_PATTERN -> urlBlocklist.add(rule.rule)
-            RuleType.CSS_SELECTOR -> elementHidingRules.add(ElementHidingRule(null, rule.rule))
-            else -> { /* 其他类型 */ }
+        synchronized(rulesLock) {
+            ensureRulesLoaded()
+            when (rule.type) {
+                RuleType.DOMAIN -> hostBlocklist.add(rule.rule)
+                RuleType.URL_PATTERN -> urlBlocklist.add(rule.rule)
+                RuleType.CSS_SELECTOR -> elementHidingRules.add(ElementHidingRule(null, rule.rule))
+                else -> { /* 其他类型 */ }
+            }
         }
-        saveRules()
+        rebuildInBackground()
     }
 
     /**
      * 删除自定义规则
      */
     fun removeCustomRule(rule: String) {
-        hostBlocklist.remove(rule)
-        urlBlocklist.remove(rule)
-        elementHidingRules.removeAll { it.selector == rule }
-        whitelistRules.remove(rule)
-        saveRules()
+        synchronized(rulesLock) {
+            ensureRulesLoaded()
+            hostBlocklist.remove(rule)
+            urlBlocklist.remove(rule)
+            elementHidingRules.removeAll { it.selector == rule }
+            whitelistRules.remove(rule)
+        }
+        rebuildInBackground()
     }
 
     /**
-     * 保存规则
+     * 保存原始规则到规则文件，在后台线程调用
      */
     private fun saveRules() {
-        val json = JSONObject().apply {
+        val json = synchronized(rulesLock) {
+            ensureRulesLoaded()
+            rulesToJson()
+        }
+        try {
+            rulesDir.mkdirs()
+            val tmp = File(rulesDir, "$RULES_FILE.tmp")
+            tmp.writeText(json.toString())
+            if (!tmp.renameTo(rulesFile)) {
+                rulesFile.delete()
+                tmp.renameTo(rulesFile)
+            }
+            if (sharedPrefs.contains(KEY_RULES)) {
+                sharedPrefs.edit().remove(KEY_RULES).apply()
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+    }
+
+    private fun rulesToJson(): JSONObject {
+        return JSONObject().apply {
             put("hosts", JSONArray(hostBlocklist.toList()))
             put("urls", JSONArray(urlBlocklist.toList()))
             put("whitelist", JSONArray(whitelistRules.toList()))
@@ -441,7 +601,6 @@ class AdBlocker(private val context: Context) {
             }
             put("hiding", hidingArray)
         }
-        sharedPrefs.edit().putString(KEY_RULES, json.toString()).apply()
     }
 
     /**
@@ -491,7 +650,11 @@ class AdBlocker(private val context: Context) {
      */
     fun addToWhitelist(pattern: String, type: WhitelistType = WhitelistType.DOMAIN) {
         val entry = WhitelistEntry(pattern = pattern, type = type)
-        whitelistRules.add(pattern)
+        synchronized(rulesLock) {
+            ensureRulesLoaded()
+            whitelistRules.add(pattern)
+        }
+        rebuildInBackground()
         saveWhitelist(entry)
     }
 
@@ -499,26 +662,11 @@ class AdBlocker(private val context: Context) {
      * 从白名单移除
      */
     fun removeFromWhitelist(pattern: String) {
-        whitelistRules.remove(pattern)
-        saveRules()
-    }
-
-    /**
-     * 检查是否在白名单中
-     */
-    private fun isWhitelisted(url: String): Boolean {
-        val uri = Uri.parse(url)
-        val host = uri.host ?: return false
-
-        return whitelistRules.any { pattern ->
-            when {
-                pattern.contains("*") -> {
-                    val regex = pattern.replace("*", ".*")
-                    url.matches(Regex(regex))
-                }
-                else -> host.contains(pattern) || url.contains(pattern)
-            }
+        synchronized(rulesLock) {
+            ensureRulesLoaded()
+            whitelistRules.remove(pattern)
         }
+        rebuildInBackground()
     }
 
     private fun saveWhitelist(entry: WhitelistEntry) {
@@ -556,135 +704,54 @@ class AdBlocker(private val context: Context) {
         return list
     }
 
-    // ========== 检测方法 ==========
+    // ========== 统计管理 ==========
 
     /**
-     * 检查域名是否被拦截
+     * 获取统计信息
      */
-    private fun isHostBlocked(host: String): Boolean {
-        // 完全匹配
-        if (hostBlocklist.contains(host)) {
-            return true
-        }
-
-        // 子域名匹配
-        return hostBlocklist.any { blockedHost ->
-            host.endsWith(".$blockedHost") || host == blockedHost
-        }
+    fun getStatistics(): BlockingStatistics {
+        return statsRecorder.getStatistics()
     }
 
     /**
-     * 检查URL是否被拦截
+     * 获取拦截次数最多的主机
      */
-    private fun isUrlBlocked(url: String): Boolean {
-        return urlBlocklist.any { pattern ->
-            when {
-                pattern.contains("*") -> {
-                    val regex = pattern.replace("*", ".*")
-                    url.matches(Regex(regex))
-                }
-                else -> url.contains(pattern)
-            }
-        }
+    fun getTopBlockedHosts(limit: Int = 10): List<BlockedHost> {
+        return statsRecorder.getTopBlockedHosts(limit)
     }
 
     /**
-     * 检查是否是广告或跟踪器
+     * 立即保存统计信息，页面暂停或销毁时调用
      */
-    private fun isAdOrTracker(host: String, url: String): Boolean {
-        // 检查常见广告域名
-        if (COMMON_AD_HOSTS.any { adHost ->
-                host.contains(adHost) || host.endsWith(".$adHost")
-            }) {
-            return true
-        }
-
-        // 检查常见跟踪器
-        if (COMMON_TRACKERS.any { tracker ->
-                host.contains(tracker) || url.contains(tracker)
-            }) {
-            return true
-        }
-
-        // 检查URL特征
-        val adKeywords = listOf("ad", "ads", "advertisement", "banner", "popup", "tracking", "analytics")
-        return adKeywords.any { keyword ->
-            url.contains("/$keyword/") || url.contains(".$keyword.") || url.contains("?$keyword=")
-        }
+    fun flushStatistics() {
+        statsRecorder.flush()
     }
 
-    // ========== 统计管理 ==========
-
     /**
-     * 增加拦截计数
+     * 重置统计
      */
-    private fun incrementBlockedCount(type: String) {
-        val stats = getStatistics()
-        val updated = when (type) {
-            "domain" -> stats.copy(
-                totalBlocked = stats.totalBlocked + 1,
-                domainsBlocked = stats.domainsBlocked + 1
-            )
-            "ad_tracker" -> stats.copy(
-                totalBlocked = stats.totalBlocked + 1,
-                adsBlocked = stats.adsBlocked + 1,
-                trackersBlocked = stats.trackersBlocked + 1
-            )
-            "popup" -> stats.copy(
-                totalBlocked = stats.totalBlocked + 1,
-                popupsBlocked = stats.popupsBlocked + 1
-            )
-            else -> stats.copy(totalBlocked = stats.totalBlocked + 1)
-        }
-        saveStatistics(updated)
+    fun resetStatistics() {
+        statsRecorder.reset()
     }
 
     /**
-     * 获取统计信息
+     * 应用退到后台或内存紧张时保存统计信息
      */
-    fun getStatistics(): BlockingStatistics {
-        val json = sharedPrefs.getString(KEY_STATISTICS, null)
-        return if (json != null) {
-            try {
-                val obj = JSONObject(json)
-                BlockingStatistics(
-                    totalBlocked = obj.getLong("totalBlocked"),
-                    domainsBlocked = obj.getInt("domainsBlocked"),
-                    trackersBlocked = obj.getInt("trackersBlocked"),
-                    adsBlocked = obj.getInt("adsBlocked"),
-                    popupsBlocked = obj.getInt("popupsBlocked"),
-                    savedBandwidth = obj.getLong("savedBandwidth"),
-                    lastReset = obj.getLong("lastReset")
-                )
-            } catch (e: Exception) {
-                BlockingStatistics()
+    private fun registerLifecycleCallbacks() {
+        context.applicationContext.registerComponentCallbacks(object : ComponentCallbacks2 {
+            override fun onTrimMemory(level: Int) {
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                    scope.launch { statsRecorder.flush() }
+                }
             }
-        } else {
-            BlockingStatistics()
-        }
-    }
 
-    /**
-     * 保存统计信息
-     */
-    private fun saveStatistics(stats: BlockingStatistics) {
-        val json = JSONObject().apply {
-            put("totalBlocked", stats.totalBlocked)
-            put("domainsBlocked", stats.domainsBlocked)
-            put("trackersBlocked", stats.trackersBlocked)
-            put("adsBlocked", stats.adsBlocked)
-            put("popupsBlocked", stats.popupsBlocked)
-            put("savedBandwidth", stats.savedBandwidth)
-            put("lastReset", stats.lastReset)
-        }
-        sharedPrefs.edit().putString(KEY_STATISTICS, json.toString()).apply()
-    }
+            override fun onConfigurationChanged(newConfig: Configuration) {}
 
-    /**
-     * 重置统计
-     */
-    fun resetStatistics() {
-        saveStatistics(BlockingStatistics())
+            @Deprecated("Deprecated in Java")
+            override fun onLowMemory() {
+                scope.launch { statsRecorder.flush() }
+            }
+        })
     }
 
     /**
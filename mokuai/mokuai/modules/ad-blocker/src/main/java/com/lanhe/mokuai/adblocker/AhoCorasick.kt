@@ -0,0 +1,216 @@
+package com.lanhe.mokuai.adblocker
+
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * 不区分大小写的 Aho-Corasick 多模式匹配自动机
+ * 一次扫描文本即可找出所有出现的模式串，耗时与模式数量无关。
+ *
+ * 转移表是以 (节点, 字符) 为键的开放寻址哈希表，扫描过程只在基本类型数组上进行，不分配对象。
+ * 调用方自行驱动扫描：
+ * ```
+ * var state = 0
+ * for (c in text) {
+ *     state = ac.step(state, c)
+ *     var match = ac.firstMatch(state)
+ *     while (match != 0) {
+ *         val pattern = ac.patternAt(match)
+ *         match = ac.nextMatch(match)
+ *     }
+ * }
+ * ```
+ * 构建完成后只读，可多线程并发查询。
+ */
+internal class AhoCorasick private constructor(
+    private val slotKey: LongArray,
+    private val slotTarget: IntArray,
+    private val fail: IntArray,
+    private val output: IntArray,
+    private val dictLink: IntArray
+) {
+
+    companion object {
+        private const val EMPTY_KEY = -1L
+        private const val NO_OUTPUT = -1
+
+        /**
+         * 构建自动机，模式串的下标即 [patternAt] 返回的编号；重复的模式串只保留第一个编号
+         */
+        fun build(patterns: List<String>): AhoCorasick {
+            val edges = HashMap<Long, Int>()
+            val firstChild = IntBuffer()
+            val nextSibling = IntBuffer()
+            val nodeChar = IntBuffer()
+            val output = IntBuffer()
+            firstChild.add(0)
+            nextSibling.add(0)
+            nodeChar.add(0)
+            output.add(NO_OUTPUT)
+
+            patterns.forEachIndexed { id, pattern ->
+                if (pattern.isEmpty()) return@forEachIndexed
+                var node = 0
+                for (c in pattern) {
+                    val ch = Character.toLowerCase(c).code
+                    val parent = node
+                    node = edges.getOrPut(edgeKey(parent, ch)) {
+                        val child = output.size
+                        firstChild.add(0)
+                        nextSibling.add(firstChild[parent])
+                        nodeChar.add(ch)
+                        output.add(NO_OUTPUT)
+                        firstChild[parent] = child
+                        child
+                    }
+                }
+                if (output[node] == NO_OUTPUT) output[node] = id
+            }
+
+            val nodeCount = output.size
+            val fail = IntArray(nodeCount)
+            val dictLink = IntArray(nodeCount)
+
+            // 按层序计算失败指针和输出链
+            val queue = IntArray(nodeCount)
+            var head = 0
+            var tail = 0
+            var child = firstChild[0]
+            while (child != 0) {
+                queue[tail++] = child
+                child = nextSibling[child]
+            }
+            while (head < tail) {
+                val node = queue[head++]
+                child = firstChild[node]
+                while (child != 0) {
+                    val ch = nodeChar[child]
+                    var f = fail[node]
+                    var target = edges[edgeKey(f, ch)]
+                    while (target == null && f != 0) {
+                        f = fail[f]
+                        target = edges[edgeKey(f, ch)]
+                    }
+                    fail[child] = if (target != null && target != child) target else 0
+                    val failNode = fail[child]
+                    dictLink[child] = if (output[failNode] != NO_OUTPUT) failNode else dictLink[failNode]
+                    queue[tail++] = child
+                    child = nextSibling[child]
+                }
+            }
+
+            // 打平转移表
+            var capacity = 16
+            while (capacity < edges.size * 2) capacity = capacity shl 1
+            val slotKey = LongArray(capacity) { EMPTY_KEY }
+            val slotTarget = IntArray(capacity)
+            val mask = capacity - 1
+            for ((key, target) in edges) {
+                var slot = slotHash(key) and mask
+                while (slotKey[slot] != EMPTY_KEY) slot = (slot + 1) and mask
+                slotKey[slot] = key
+                slotTarget[slot] = target
+            }
+
+            return AhoCorasick(slotKey, slotTarget, fail, output.toArray(), dictLink)
+        }
+
+        /**
+         * 从快照中读取，格式见 [writeTo]
+         */
+        fun readFrom(buffer: ByteBuffer): AhoCorasick {
+            return AhoCorasick(
+                slotKey = buffer.getLongArray(),
+                slotTarget = buffer.getIntArray(),
+                fail = buffer.getIntArray(),
+                output = buffer.getIntArray(),
+                dictLink = buffer.getIntArray()
+            )
+        }
+
+        private fun edgeKey(node: Int, ch: Int): Long = (node.toLong() shl 16) or ch.toLong()
+
+        private fun slotHash(key: Long): Int {
+            val h = (key * -0x61c8864680b583ebL ushr 32).toInt()
+            return h xor (h ushr 16)
+        }
+    }
+
+    /**
+     * 构建期使用的可增长 int 数组，避免装箱
+     */
+    private class IntBuffer {
+        private var data = IntArray(1024)
+        var size = 0
+            private set
+
+        fun add(value: Int) {
+            if (size == data.size) data = data.copyOf(size * 2)
+            data[size++] = value
+        }
+
+        operator fun get(index: Int): Int = data[index]
+
+        operator fun set(index: Int, value: Int) {
+            data[index] = value
+        }
+
+        fun toArray(): IntArray = data.copyOf(size)
+    }
+
+    val isEmpty: Boolean get() = output.size <= 1
+
+    /**
+     * 写入快照，转移表、失败指针和输出链按原样写出
+     */
+    fun writeTo(out: DataOutputStream) {
+        out.writeLongArray(slotKey)
+        out.writeIntArray(slotTarget)
+        out.writeIntArray(fail)
+        out.writeIntArray(output)
+        out.writeIntArray(dictLink)
+    }
+
+    /**
+     * 读入一个字符，返回新状态；初始状态为0
+     */
+    fun step(state: Int, c: Char): Int {
+        val ch = Character.toLowerCase(c).code
+        var node = state
+        while (true) {
+            val target = goto(node, ch)
+            if (target >= 0) return target
+            if (node == 0) return 0
+            node = fail[node]
+        }
+    }
+
+    /**
+     * 当前状态下第一个匹配到的节点，没有匹配时返回0
+     */
+    fun firstMatch(state: Int): Int {
+        return if (output[state] != NO_OUTPUT) state else dictLink[state]
+    }
+
+    /**
+     * 同一位置结束的下一个（更短的）匹配节点，没有时返回0
+     */
+    fun nextMatch(matchNode: Int): Int = dictLink[matchNode]
+
+    /**
+     * 匹配节点对应的模式串编号
+     */
+    fun patternAt(matchNode: Int): Int = output[matchNode]
+
+    private fun goto(node: Int, ch: Int): Int {
+        val key = edgeKey(node, ch)
+        val mask = slotKey.size - 1
+        var slot = slotHash(key) and mask
+        while (true) {
+            val slotValue = slotKey[slot]
+            if (slotValue == key) return slotTarget[slot]
+            if (slotValue == EMPTY_KEY) return -1
+            slot = (slot + 1) and mask
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.lanhe.mokuai.adblocker
+
+import android.content.SharedPreferences
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.json.JSONObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * 拦截统计记录器
+ * 请求线程只对分段计数器 [LongAdder] 做自增，不读写 SharedPreferences，多个 WebView IO 线程并发记录互不竞争。
+ * 计数在首次记录后延迟 [FLUSH_INTERVAL_MS] 合并写入存储，页面退到后台等生命周期事件也会触发写入。
+ *
+ * 内存计数器只增不减，已写入的部分用基线记录，写入时只取基线之后的增量，
+ * 与并发自增之间不会丢失计数。
+ */
+internal class BlockingStatsRecorder(
+    private val prefs: SharedPreferences,
+    private val scope: CoroutineScope
+) {
+
+    companion object {
+        private const val KEY_STATISTICS = "statistics"
+        private const val KEY_HOST_STATISTICS = "host_statistics"
+        private const val FLUSH_INTERVAL_MS = 30_000L
+        private const val MAX_TRACKED_HOSTS = 1_000 // 统计的主机数上限，超出后新主机只计入分类总数
+    }
+
+    enum class Category {
+        DOMAIN,      // 域名规则
+        URL,         // URL规则
+        AD_TRACKER,  // 内置广告/跟踪器特征
+        POPUP        // 弹窗
+    }
+
+    private val counters = Array(Category.values().size) { LongAdder() }
+    private val hostCounters = ConcurrentHashMap<String, LongAdder>()
+    private val flushScheduled = AtomicBoolean(false)
+
+    // 以下字段只在持有 lock 时访问
+    private val lock = Any()
+    private val flushedCounters = LongArray(counters.size)
+    private val flushedHosts = HashMap<String, Long>()
+    private var loaded = false
+    private var stored = AdBlocker.BlockingStatistics()
+    private val storedHosts = HashMap<String, Long>()
+
+    /**
+     * 记录一次拦截，url[hostStart, hostEnd) 为主机名
+     */
+    fun record(category: Category, url: String, hostStart: Int, hostEnd: Int) {
+        counters[category.ordinal].increment()
+        if (hostEnd > hostStart) {
+            val host = url.substring(hostStart, hostEnd).lowercase()
+            val counter = hostCounters[host]
+                ?: if (hostCounters.size < MAX_TRACKED_HOSTS) hostCounters.getOrPut(host) { LongAdder() } else null
+            counter?.increment()
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            scope.launch {
+                delay(FLUSH_INTERVAL_MS)
+                flush()
+            }
+        }
+    }
+
+    /**
+     * 把尚未保存的计数写入存储
+     */
+    fun flush() {
+        flushScheduled.set(false)
+        synchronized(lock) {
+            ensureLoaded()
+            val deltas = LongArray(counters.size) { i -> counters[i].sum() - flushedCounters[i] }
+            val hostDeltas = pendingHostDeltas()
+            if (deltas.all { it == 0L } && hostDeltas.isEmpty()) return
+
+            stored = applyDeltas(stored, deltas)
+            for (i in deltas.indices) flushedCounters[i] += deltas[i]
+            hostDeltas.forEach { (host, delta) ->
+                storedHosts[host] = (storedHosts[host] ?: 0L) + delta
+                flushedHosts[host] = (flushedHosts[host] ?: 0L) + delta
+            }
+            trimStoredHosts()
+            save()
+        }
+    }
+
+    /**
+     * 已保存的统计加上尚未保存的计数
+     */
+    fun getStatistics(): AdBlocker.BlockingStatistics {
+        synchronized(lock) {
+            ensureLoaded()
+            val deltas = LongArray(counters.size) { i -> counters[i].sum() - flushedCounters[i] }
+            return applyDeltas(stored, deltas)
+        }
+    }
+
+    /**
+     * 拦截次数最多的主机，按次数降序
+     */
+    fun getTopBlockedHosts(limit: Int): List<AdBlocker.BlockedHost> {
+        synchronized(lock) {
+            ensureLoaded()
+            val merged = HashMap(storedHosts)
+            pendingHostDeltas().forEach { (host, delta) ->
+                merged[host] = (merged[host] ?: 0L) + delta
+            }
+            return merged.entries
+                .sortedByDescending { it.value }
+                .take(limit)
+                .map { AdBlocker.BlockedHost(it.key, it.value) }
+        }
+    }
+
+    /**
+     * 清空统计，尚未保存的计数一并丢弃
+     */
+    fun reset() {
+        synchronized(lock) {
+            loaded = true
+            for (i in counters.indices) flushedCounters[i] = counters[i].sum()
+            hostCounters.forEach { (host, counter) -> flushedHosts[host] = counter.sum() }
+            stored = AdBlocker.BlockingStatistics()
+            storedHosts.clear()
+            save()
+        }
+    }
+
+    private fun pendingHostDeltas(): Map<String, Long> {
+        val deltas = HashMap<String, Long>()
+        hostCounters.forEach { (host, counter) ->
+            val delta = counter.sum() - (flushedHosts[host] ?: 0L)
+            if (delta > 0) deltas[host] = delta
+        }
+        return deltas
+    }
+
+    private fun applyDeltas(stats: AdBlocker.BlockingStatistics, deltas: LongArray): AdBlocker.BlockingStatistics {
+        val domain = deltas[Category.DOMAIN.ordinal]
+        val adTracker = deltas[Category.AD_TRACKER.ordinal]
+        val popup = deltas[Category.POPUP.ordinal]
+        return stats.copy(
+            totalBlocked = stats.totalBlocked + deltas.sum(),
+            domainsBlocked = stats.domainsBlocked + domain.toInt(),
+            adsBlocked = stats.adsBlocked + adTracker.toInt(),
+            trackersBlocked = stats.trackersBlocked + adTracker.toInt(),
+            popupsBlocked = stats.popupsBlocked + popup.toInt()
+        )
+    }
+
+    // 只保留次数最多的主机，避免长期累积
+    private fun trimStoredHosts() {
+        if (storedHosts.size <= MAX_TRACKED_HOSTS) return
+        val keep = storedHosts.entries
+            .sortedByDescending { it.value }
+            .take(MAX_TRACKED_HOSTS)
+            .map { it.key }
+            .toHashSet()
+        storedHosts.keys.retainAll(keep)
+    }
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        loaded = true
+        prefs.getString(KEY_STATISTICS, null)?.let { json ->
+            stored = try {
+                val obj = JSONObject(json)
+                AdBlocker.BlockingStatistics(
+                    totalBlocked = obj.getLong("totalBlocked"),
+                    domainsBlocked = obj.getInt("domainsBlocked"),
+                    trackersBlocked = obj.getInt("trackersBlocked"),
+                    adsBlocked = obj.getInt("adsBlocked"),
+                    popupsBlocked = obj.getInt("popupsBlocked"),
+                    savedBandwidth = obj.getLong("savedBandwidth"),
+                    lastReset = obj.getLong("lastReset")
+                )
+            } catch (e: Exception) {
+                AdBlocker.BlockingStatistics()
+            }
+        }
+        prefs.getString(KEY_HOST_STATISTICS, null)?.let { json ->
+            try {
+                val obj = JSONObject(json)
+                obj.keys().forEach { host -> storedHosts[host] = obj.getLong(host) }
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    private fun save() {
+        val stats = stored
+        val json = JSONObject().apply {
+            put("totalBlocked", stats.totalBlocked)
+            put("domainsBlocked", stats.domainsBlocked)
+            put("trackersBlocked", stats.trackersBlocked)
+            put("adsBlocked", stats.adsBlocked)
+            put("popupsBlocked", stats.popupsBlocked)
+            put("savedBandwidth", stats.savedBandwidth)
+            put("lastReset", stats.lastReset)
+        }
+        prefs.edit()
+            .putString(KEY_STATISTICS, json.toString())
+            .putString(KEY_HOST_STATISTICS, JSONObject(storedHosts).toString())
+            .apply()
+    }
+}
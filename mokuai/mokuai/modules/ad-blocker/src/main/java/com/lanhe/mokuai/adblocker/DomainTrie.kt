@@ -0,0 +1,157 @@
+package com.lanhe.mokuai.adblocker
+
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * 按标签倒序组织的域名前缀树
+ * "ads.example.com" 依次存为 com -> example -> ads，查询时从主机名末尾逐个标签向前匹配，
+ * 走到任一终止节点即表示主机名等于该域名或是其子域名。
+ *
+ * 子节点存放在开放寻址哈希表中，键为 (父节点, 标签)，查询时直接对主机名的字符区间
+ * 计算哈希并比较，不截取子串，匹配过程不分配对象。构建完成后只读，可多线程并发查询。
+ */
+internal class DomainTrie private constructor(
+    private val slotParent: IntArray,
+    private val slotLabel: Array<String?>,
+    private val slotTarget: IntArray,
+    private val terminal: BooleanArray
+) {
+
+    companion object {
+        private const val EMPTY = -1
+
+        val EMPTY_TRIE: DomainTrie = build(emptyList())
+
+        /**
+         * 构建前缀树，域名统一转为小写，忽略开头的 "*." 和 "."
+         */
+        fun build(domains: Collection<String>): DomainTrie {
+            val edges = HashMap<Long, Int>()
+            val labelIds = HashMap<String, Int>() // 构建期去重标签字符串，查询表中只保留一份
+            val labels = ArrayList<String>()
+            val terminals = ArrayList<Boolean>()
+            terminals.add(false)
+
+            for (raw in domains) {
+                val domain = raw.trim().lowercase().removePrefix("*.").trim('.')
+                if (domain.isEmpty()) continue
+
+                var node = 0
+                for (label in domain.split('.').asReversed()) {
+                    if (label.isEmpty()) continue
+                    val labelId = labelIds.getOrPut(label) {
+                        labels.add(label)
+                        labels.size - 1
+                    }
+                    val key = (node.toLong() shl 32) or labelId.toLong()
+                    node = edges.getOrPut(key) {
+                        terminals.add(false)
+                        terminals.size - 1
+                    }
+                    if (terminals[node]) break // 已有更短的域名覆盖
+                }
+                terminals[node] = true
+            }
+
+            // 打平为开放寻址表，容量为边数的两倍以上
+            var capacity = 16
+            while (capacity < edges.size * 2) capacity = capacity shl 1
+            val slotParent = IntArray(capacity) { EMPTY }
+            val slotLabel = arrayOfNulls<String>(capacity)
+            val slotTarget = IntArray(capacity) { EMPTY }
+            val mask = capacity - 1
+            for ((key, target) in edges) {
+                val parent = (key ushr 32).toInt()
+                val label = labels[key.toInt()]
+                var slot = slotHash(parent, labelHash(label, 0, label.length)) and mask
+                while (slotParent[slot] != EMPTY) slot = (slot + 1) and mask
+                slotParent[slot] = parent
+                slotLabel[slot] = label
+                slotTarget[slot] = target
+            }
+
+            return DomainTrie(slotParent, slotLabel, slotTarget, terminals.toBooleanArray())
+        }
+
+        /**
+         * 从快照中读取，格式见 [writeTo]
+         */
+        fun readFrom(buffer: ByteBuffer): DomainTrie {
+            val slotParent = buffer.getIntArray()
+            val slotLabel = Array(buffer.getLength(4)) { buffer.getNullableString() }
+            val slotTarget = buffer.getIntArray()
+            val terminal = buffer.getBooleanArray()
+            return DomainTrie(slotParent, slotLabel, slotTarget, terminal)
+        }
+
+        internal fun labelHash(text: CharSequence, start: Int, end: Int): Int {
+            var h = 0
+            for (i in start until end) {
+                h = 31 * h + Character.toLowerCase(text[i]).code
+            }
+            return h
+        }
+
+        private fun slotHash(parent: Int, labelHash: Int): Int {
+            val h = parent * -0x61c88647 + labelHash
+            return h xor (h ushr 16)
+        }
+    }
+
+    val isEmpty: Boolean get() = terminal.size <= 1
+
+    /**
+     * 写入快照，哈希表按原样写出，读取后无需重建
+     */
+    fun writeTo(out: DataOutputStream) {
+        out.writeIntArray(slotParent)
+        out.writeInt(slotLabel.size)
+        slotLabel.forEach { out.writeNullableString(it) }
+        out.writeIntArray(slotTarget)
+        out.writeBooleanArray(terminal)
+    }
+
+    /**
+     * host[start, end) 是否等于树中某个域名或是其子域名
+     */
+    fun matches(host: CharSequence, start: Int = 0, end: Int = host.length): Boolean {
+        if (isEmpty) return false
+        var node = 0
+        var labelEnd = end
+        while (labelEnd > start) {
+            var labelStart = labelEnd
+            while (labelStart > start && host[labelStart - 1] != '.') labelStart--
+
+            node = child(node, host, labelStart, labelEnd)
+            if (node == EMPTY) return false
+            if (terminal[node]) return true
+
+            labelEnd = labelStart - 1
+        }
+        return false
+    }
+
+    private fun child(parent: Int, host: CharSequence, start: Int, end: Int): Int {
+        val mask = slotParent.size - 1
+        var slot = slotHash(parent, labelHash(host, start, end)) and mask
+        while (true) {
+            val slotOwner = slotParent[slot]
+            if (slotOwner == EMPTY) return EMPTY
+            if (slotOwner == parent) {
+                val label = slotLabel[slot]!!
+                if (label.length == end - start && regionEqualsIgnoreCase(label, host, start)) {
+                    return slotTarget[slot]
+                }
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    private fun regionEqualsIgnoreCase(label: String, host: CharSequence, start: Int): Boolean {
+        for (i in label.indices) {
+            if (label[i] != Character.toLowerCase(host[start + i])) return false
+        }
+        return true
+    }
+}
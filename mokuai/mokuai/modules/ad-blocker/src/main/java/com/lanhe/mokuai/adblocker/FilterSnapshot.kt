@@ -0,0 +1,160 @@
+package com.lanhe.mokuai.adblocker
+
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * 编译后规则的二进制快照
+ * 启动时把快照映射到内存并按原样还原匹配器的各个数组，不再解析过滤列表文本或JSON，也不重新编译。
+ *
+ * 文件格式（大端序）：
+ * ```
+ * magic(int) version(int)
+ * block: UrlFilter
+ * allow: UrlFilter
+ * hiding: count(int) { domain(nullable string) selector(string) }
+ * magic(int)
+ * ```
+ * 末尾重复写入 magic，用于识别被截断的文件。
+ * 匹配器的内部结构或编译语义变化时需要提升 [VERSION]，旧版本快照读取时被丢弃并重新编译。
+ */
+internal object FilterSnapshot {
+
+    private const val MAGIC = 0x41424653 // "ABFS"
+    const val VERSION = 1
+    private const val HEADER_SIZE = 12
+
+    class Content(
+        val block: UrlFilter,
+        val allow: UrlFilter,
+        val hiding: List<AdBlocker.ElementHidingRule>
+    )
+
+    /**
+     * 读取快照，文件不存在、版本不符或内容损坏时返回 null
+     */
+    fun read(file: File): Content? {
+        if (!file.isFile || file.length() < HEADER_SIZE) return null
+        return try {
+            val buffer = RandomAccessFile(file, "r").use { raf ->
+                raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+            }
+            if (buffer.int != MAGIC || buffer.int != VERSION) return null
+
+            val block = UrlFilter.readFrom(buffer)
+            val allow = UrlFilter.readFrom(buffer)
+            val hiding = List(buffer.getLength(4)) {
+                AdBlocker.ElementHidingRule(
+                    domain = buffer.getNullableString(),
+                    selector = buffer.getString()
+                )
+            }
+            if (buffer.int != MAGIC || buffer.hasRemaining()) return null
+            Content(block, allow, hiding)
+        } catch (e: Exception) {
+            // 快照损坏按不存在处理，由调用方重新编译
+            null
+        }
+    }
+
+    /**
+     * 写入快照，先写临时文件再重命名，读取方不会看到写了一半的文件
+     */
+    @Throws(IOException::class)
+    fun write(file: File, block: UrlFilter, allow: UrlFilter, hiding: List<AdBlocker.ElementHidingRule>) {
+        file.parentFile?.mkdirs()
+        val tmp = File(file.path + ".tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp), 64 * 1024)).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(VERSION)
+                block.writeTo(out)
+                allow.writeTo(out)
+                out.writeInt(hiding.size)
+                hiding.forEach { rule ->
+                    out.writeNullableString(rule.domain)
+                    out.writeString(rule.selector)
+                }
+                out.writeInt(MAGIC)
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete()
+                if (!tmp.renameTo(file)) throw IOException("无法替换规则快照: ${file.path}")
+            }
+        } finally {
+            tmp.delete()
+        }
+    }
+}
+
+// ========== 快照读写辅助 ==========
+
+internal fun DataOutputStream.writeIntArray(array: IntArray) {
+    writeInt(array.size)
+    array.forEach { writeInt(it) }
+}
+
+internal fun DataOutputStream.writeLongArray(array: LongArray) {
+    writeInt(array.size)
+    array.forEach { writeLong(it) }
+}
+
+internal fun DataOutputStream.writeBooleanArray(array: BooleanArray) {
+    writeInt(array.size)
+    array.forEach { writeBoolean(it) }
+}
+
+internal fun DataOutputStream.writeString(value: String) {
+    val bytes = value.toByteArray(Charsets.UTF_8)
+    writeInt(bytes.size)
+    write(bytes)
+}
+
+internal fun DataOutputStream.writeNullableString(value: String?) {
+    if (value == null) writeInt(-1) else writeString(value)
+}
+
+// 长度先与剩余字节数比较，损坏的文件不会触发超大数组分配
+internal fun ByteBuffer.getLength(elementSize: Int): Int {
+    val length = int
+    if (length < 0 || length > remaining() / elementSize) throw IOException("快照长度字段无效: $length")
+    return length
+}
+
+internal fun ByteBuffer.getIntArray(): IntArray {
+    val array = IntArray(getLength(4))
+    asIntBuffer().get(array)
+    position(position() + array.size * 4)
+    return array
+}
+
+internal fun ByteBuffer.getLongArray(): LongArray {
+    val array = LongArray(getLength(8))
+    asLongBuffer().get(array)
+    position(position() + array.size * 8)
+    return array
+}
+
+internal fun ByteBuffer.getBooleanArray(): BooleanArray {
+    return BooleanArray(getLength(1)) { get() != 0.toByte() }
+}
+
+internal fun ByteBuffer.getString(): String {
+    return getNullableString() ?: throw IOException("快照中的字符串为空")
+}
+
+internal fun ByteBuffer.getNullableString(): String? {
+    if (getInt(position()) == -1) {
+        position(position() + 4)
+        return null
+    }
+    val bytes = ByteArray(getLength(1))
+    get(bytes)
+    return String(bytes, Charsets.UTF_8)
+}
@@ -0,0 +1,360 @@
+package com.lanhe.mokuai.adblocker
+
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * 编译后的URL过滤规则集
+ * - `||domain^` 形式的纯域名规则进入 [DomainTrie]，按主机名的标签匹配
+ * - 其余规则（子串、`*` 通配、`^` 分隔符、`|` 首尾锚定、带路径的 `||` 规则）取最长的字面片段
+ *   放入 [AhoCorasick]，扫描一遍URL找出候选规则后再逐条校验
+ * - 没有可用字面片段的规则（如单独的 `*`）每次都校验，这类规则通常极少
+ *
+ * 规则集在过滤列表加载时编译一次，之后只读；匹配过程不创建正则、不截取子串。
+ * 不支持的语法（`$` 选项、`/.../` 正则规则）在编译时跳过。
+ */
+internal class UrlFilter private constructor(
+    private val domains: DomainTrie,
+    private val literals: AhoCorasick,
+    private val literalRuleHead: IntArray,
+    private val ruleNext: IntArray,
+    private val rules: Array<UrlRule>,
+    private val genericRules: Array<UrlRule>
+) {
+
+    companion object {
+        private const val NO_RULE = -1
+
+        val EMPTY: UrlFilter = compile(emptyList(), emptyList())
+
+        /**
+         * 编译规则
+         * @param hostRules 域名规则（匹配该域名及其子域名）
+         * @param urlRules URL规则，支持 Adblock Plus 基本语法
+         */
+        fun compile(hostRules: Collection<String>, urlRules: Collection<String>): UrlFilter {
+            val domainList = ArrayList<String>(hostRules)
+            val compiled = ArrayList<UrlRule>()
+            val generic = ArrayList<UrlRule>()
+
+            for (raw in urlRules) {
+                val rule = UrlRule.parse(raw) ?: continue
+                val pureDomain = rule.pureDomain()
+                when {
+                    pureDomain != null -> domainList.add(pureDomain)
+                    rule.literal.isEmpty() -> generic.add(rule)
+                    else -> compiled.add(rule)
+                }
+            }
+
+            // 相同的字面片段只进自动机一次，规则按片段挂成链表
+            val literalIds = HashMap<String, Int>()
+            val literalList = ArrayList<String>()
+            val ruleLiteral = IntArray(compiled.size)
+            compiled.forEachIndexed { index, rule ->
+                ruleLiteral[index] = literalIds.getOrPut(rule.literal) {
+                    literalList.add(rule.literal)
+                    literalList.size - 1
+                }
+            }
+            val literalRuleHead = IntArray(literalList.size) { NO_RULE }
+            val ruleNext = IntArray(compiled.size) { NO_RULE }
+            for (index in compiled.indices.reversed()) {
+                val literalId = ruleLiteral[index]
+                ruleNext[index] = literalRuleHead[literalId]
+                literalRuleHead[literalId] = index
+            }
+
+            return UrlFilter(
+                domains = DomainTrie.build(domainList),
+                literals = AhoCorasick.build(literalList),
+                literalRuleHead = literalRuleHead,
+                ruleNext = ruleNext,
+                rules = compiled.toTypedArray(),
+                genericRules = generic.toTypedArray()
+            )
+        }
+
+        /**
+         * 从快照中读取，格式见 [writeTo]
+         */
+        fun readFrom(buffer: ByteBuffer): UrlFilter {
+            return UrlFilter(
+                domains = DomainTrie.readFrom(buffer),
+                literals = AhoCorasick.readFrom(buffer),
+                literalRuleHead = buffer.getIntArray(),
+                ruleNext = buffer.getIntArray(),
+                rules = Array(buffer.getLength(4)) { UrlRule.readFrom(buffer) },
+                genericRules = Array(buffer.getLength(4)) { UrlRule.readFrom(buffer) }
+            )
+        }
+
+        /**
+         * 从URL中定位主机名区间，返回 (start shl 32) or end；没有主机名时返回 -1
+         */
+        fun hostRange(url: String): Long {
+            val schemeEnd = url.indexOf("://")
+            if (schemeEnd < 0) return -1L
+            var start = schemeEnd + 3
+            var end = start
+            while (end < url.length) {
+                val c = url[end]
+                if (c == '/' || c == '?' || c == '#') break
+                end++
+            }
+            // 去掉用户信息和端口
+            for (i in end - 1 downTo start) {
+                if (url[i] == '@') {
+                    start = i + 1
+                    break
+                }
+            }
+            var hostEnd = end
+            if (start < end && url[start] == '[') {
+                val close = url.indexOf(']', start)
+                if (close in start until end) hostEnd = close + 1
+            } else {
+                for (i in start until end) {
+                    if (url[i] == ':') {
+                        hostEnd = i
+                        break
+                    }
+                }
+            }
+            if (hostEnd <= start) return -1L
+            return (start.toLong() shl 32) or hostEnd.toLong()
+        }
+    }
+
+    val isEmpty: Boolean get() = domains.isEmpty && literals.isEmpty && genericRules.isEmpty()
+
+    /**
+     * 写入编译结果，读取时不再解析和编译规则
+     */
+    fun writeTo(out: DataOutputStream) {
+        domains.writeTo(out)
+        literals.writeTo(out)
+        out.writeIntArray(literalRuleHead)
+        out.writeIntArray(ruleNext)
+        out.writeInt(rules.size)
+        rules.forEach { it.writeTo(out) }
+        out.writeInt(genericRules.size)
+        genericRules.forEach { it.writeTo(out) }
+    }
+
+    /**
+     * URL是否命中任一规则
+     * @param hostStart 主机名起始位置，见 [hostRange]
+     * @param hostEnd 主机名结束位置
+     */
+    fun matches(url: String, hostStart: Int, hostEnd: Int): Boolean {
+        return matchesDomain(url, hostStart, hostEnd) || matchesPattern(url, hostStart, hostEnd)
+    }
+
+    /**
+     * 主机名是否命中域名规则
+     */
+    fun matchesDomain(url: String, hostStart: Int, hostEnd: Int): Boolean {
+        return hostEnd > hostStart && domains.matches(url, hostStart, hostEnd)
+    }
+
+    /**
+     * URL是否命中除纯域名规则以外的规则
+     */
+    fun matchesPattern(url: String, hostStart: Int, hostEnd: Int): Boolean {
+        for (rule in genericRules) {
+            if (rule.matches(url, hostStart, hostEnd)) return true
+        }
+
+        if (literals.isEmpty) return false
+        var state = 0
+        for (i in url.indices) {
+            state = literals.step(state, url[i])
+            var match = literals.firstMatch(state)
+            while (match != 0) {
+                var ruleIndex = literalRuleHead[literals.patternAt(match)]
+                while (ruleIndex != NO_RULE) {
+                    if (rules[ruleIndex].matches(url, hostStart, hostEnd)) return true
+                    ruleIndex = ruleNext[ruleIndex]
+                }
+                match = literals.nextMatch(match)
+            }
+        }
+        return false
+    }
+
+    fun matches(url: String): Boolean {
+        val range = hostRange(url)
+        return if (range < 0) {
+            matches(url, 0, 0)
+        } else {
+            matches(url, (range ushr 32).toInt(), range.toInt())
+        }
+    }
+}
+
+/**
+ * 单条URL规则
+ * 规则按 `*` 切分为片段，片段内的 `^` 匹配分隔符（字母、数字和 `_-.%` 以外的字符）或URL结尾
+ */
+internal class UrlRule private constructor(
+    private val anchor: Int,
+    private val anchorEnd: Boolean,
+    private val segments: Array<String>,
+    val literal: String
+) {
+
+    companion object {
+        private const val ANCHOR_NONE = 0
+        private const val ANCHOR_START = 1   // |http://...
+        private const val ANCHOR_DOMAIN = 2  // ||example.com/...
+
+        /**
+         * 解析规则，不支持的规则返回 null
+         */
+        fun parse(raw: String): UrlRule? {
+            var text = raw.trim()
+            if (text.isEmpty() || text.startsWith("!")) return null
+            // 带选项的规则需要请求类型、来源页等上下文，暂不支持
+            if (text.contains('$')) return null
+            // 正则规则
+            if (text.length > 2 && text.startsWith("/") && text.endsWith("/")) return null
+
+            var anchor = ANCHOR_NONE
+            when {
+                text.startsWith("||") -> {
+                    anchor = ANCHOR_DOMAIN
+                    text = text.substring(2)
+                }
+                text.startsWith("|") -> {
+                    anchor = ANCHOR_START
+                    text = text.substring(1)
+                }
+            }
+            var anchorEnd = false
+            if (text.endsWith("|")) {
+                anchorEnd = true
+                text = text.dropLast(1)
+            }
+            text = text.lowercase()
+            if (text.isEmpty()) return null
+
+            val segments = text.split('*').toTypedArray()
+            val literal = segments
+                .flatMap { it.split('^') }
+                .maxByOrNull { it.length }
+                .orEmpty()
+            return UrlRule(anchor, anchorEnd, segments, literal)
+        }
+
+        fun readFrom(buffer: ByteBuffer): UrlRule {
+            val anchor = buffer.int
+            val anchorEnd = buffer.get() != 0.toByte()
+            val segments = Array(buffer.getLength(4)) { buffer.getString() }
+            return UrlRule(anchor, anchorEnd, segments, buffer.getString())
+        }
+
+        private fun isSeparator(c: Char): Boolean {
+            return !(c.isLetterOrDigit() || c == '_' || c == '-' || c == '.' || c == '%')
+        }
+    }
+
+    fun writeTo(out: DataOutputStream) {
+        out.writeInt(anchor)
+        out.writeBoolean(anchorEnd)
+        out.writeInt(segments.size)
+        segments.forEach { out.writeString(it) }
+        out.writeString(literal)
+    }
+
+    /**
+     * `||example.com^` 或 `||example.com` 形式的规则返回域名，可直接放入域名树
+     */
+    fun pureDomain(): String? {
+        if (anchor != ANCHOR_DOMAIN || anchorEnd || segments.size != 1) return null
+        val body = segments[0].removeSuffix("^")
+        if (body.isEmpty() || body.any { !(it.isLetterOrDigit() || it == '.' || it == '-' || it == '_') }) {
+            return null
+        }
+        return body
+    }
+
+    fun matches(url: String, hostStart: Int, hostEnd: Int): Boolean {
+        var pos = 0
+        var first = 0
+
+        when (anchor) {
+            ANCHOR_START -> {
+                val end = matchAt(url, 0, segments[0])
+                if (end < 0) return false
+                if (segments.size == 1) return !anchorEnd || end == url.length
+                pos = end
+                first = 1
+            }
+            ANCHOR_DOMAIN -> {
+                if (hostEnd <= hostStart) return false
+                // 从主机名的每个标签起点尝试，越靠前结束位置越早，后续片段越容易匹配
+                var found = -1
+                var start = hostStart
+                while (start < hostEnd) {
+                    if (start == hostStart || url[start - 1] == '.') {
+                        val end = matchAt(url, start, segments[0])
+                        if (end >= 0 && (segments.size > 1 || !anchorEnd || end == url.length)) {
+                            found = end
+                            break
+                        }
+                    }
+                    start++
+                }
+                if (found < 0) return false
+                if (segments.size == 1) return true
+                pos = found
+                first = 1
+            }
+        }
+
+        val last = segments.size - 1
+        for (i in first..last) {
+            val segment = segments[i]
+            if (segment.isEmpty()) continue
+            if (i == last && anchorEnd) {
+                for (start in pos..url.length) {
+                    if (matchAt(url, start, segment) == url.length) return true
+                }
+                return false
+            }
+            var start = pos
+            var end = -1
+            while (start <= url.length) {
+                end = matchAt(url, start, segment)
+                if (end >= 0) break
+                start++
+            }
+            if (end < 0) return false
+            pos = end
+        }
+        return !anchorEnd || segments[last].isEmpty() || pos == url.length
+    }
+
+    /**
+     * 从 start 开始匹配片段，成功返回结束位置，否则返回 -1
+     */
+    private fun matchAt(url: String, start: Int, segment: String): Int {
+        var i = start
+        for (k in segment.indices) {
+            val c = segment[k]
+            if (c == '^') {
+                if (i == url.length) {
+                    // 分隔符可以匹配URL结尾，此时它必须是片段的最后一个字符
+                    return if (k == segment.length - 1) i else -1
+                }
+                if (!isSeparator(url[i])) return -1
+                i++
+            } else {
+                if (i >= url.length || Character.toLowerCase(url[i]) != c) return -1
+                i++
+            }
+        }
+        return i
+    }
+}
@@ -0,0 +1,206 @@
+package com.lanhe.mokuai.adblocker
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * UrlFilter单元测试
+ * 规则/URL/预期结果表覆盖 Adblock Plus 的锚点和分隔符语义、主机名提取、自动机候选链，
+ * 并与改造前按正则匹配的实现对照
+ */
+class UrlFilterTest {
+
+    private fun matches(rule: String, url: String): Boolean {
+        return UrlFilter.compile(emptyList(), listOf(rule)).matches(url)
+    }
+
+    private fun hostOf(url: String): String? {
+        val range = UrlFilter.hostRange(url)
+        if (range < 0) return null
+        return url.substring((range ushr 32).toInt(), range.toInt())
+    }
+
+    private fun assertTable(cases: List<Triple<String, String, Boolean>>) {
+        cases.forEach { (rule, url, expected) ->
+            assertEquals("$rule <- $url", expected, matches(rule, url))
+        }
+    }
+
+    /**
+     * 改造前 isUrlBlocked 的逻辑：含 `*` 的规则转换为正则匹配完整URL，否则按子串匹配
+     */
+    private fun oldMatches(pattern: String, url: String): Boolean {
+        return if (pattern.contains("*")) {
+            url.matches(Regex(pattern.replace("*", ".*")))
+        } else {
+            url.contains(pattern)
+        }
+    }
+
+    /**
+     * 测试 `^` 匹配分隔符或URL结尾，不匹配字母、数字和 `_-.%`
+     */
+    @Test
+    fun `test separator matches end of url`() {
+        assertTable(listOf(
+            Triple("/ads^", "https://x.com/ads", true),
+            Triple("/ads^", "https://x.com/ads?id=1", true),
+            Triple("/ads^", "https://x.com/ads/", true),
+            Triple("/ads^", "https://x.com/adsense", false),
+            Triple("/ads^", "https://x.com/ads.js", false),
+            Triple("^ad^", "https://x.com/ad", true),
+            Triple("/a^b", "https://x.com/a", false)
+        ))
+    }
+
+    /**
+     * 测试 `||` 只从主机名的标签起点开始匹配
+     */
+    @Test
+    fun `test domain anchor starts at host labels`() {
+        assertTable(listOf(
+            Triple("||example.com/ads", "https://example.com/ads/1", true),
+            Triple("||example.com/ads", "https://sub.example.com/ads/1", true),
+            Triple("||example.com/ads", "https://badexample.com/ads", false),
+            Triple("||example.com/ads", "https://x.com/?u=example.com/ads", false),
+            Triple("||ample.com/ads", "https://example.com/ads", false),
+            Triple("||example.com^*/track", "https://example.com:8080/a/track", true),
+            Triple("||example.com/ad.js|", "https://example.com/ad.js", true),
+            Triple("||example.com/ad.js|", "https://example.com/ad.js?v=2", false)
+        ))
+    }
+
+    /**
+     * 测试 `|` 锚定URL开头和结尾
+     */
+    @Test
+    fun `test start and end anchors`() {
+        assertTable(listOf(
+            Triple("|https://x.com/a.js|", "https://x.com/a.js", true),
+            Triple("|https://x.com/a.js|", "https://x.com/a.js?v=1", false),
+            Triple("|https://x.com/a.js|", "http://y.com/?https://x.com/a.js", false),
+            Triple("|http:", "http://x.com/", true),
+            Triple("|http:", "https://x.com/?r=http://y", false),
+            Triple(".js|", "https://x.com/a.js", true),
+            Triple(".js|", "https://x.com/a.json", false),
+            Triple("|https://*/banner|", "https://x.com/img/banner", true)
+        ))
+    }
+
+    /**
+     * 测试 `*` 通配任意字符，片段按顺序匹配，规则和URL都不区分大小写
+     */
+    @Test
+    fun `test wildcard segments`() {
+        assertTable(listOf(
+            Triple("/ad*banner", "https://x.com/ad/123/banner.png", true),
+            Triple("/ad*banner", "https://x.com/banner/ad", false),
+            Triple("/AD*Banner", "HTTPS://X.COM/ad/BANNER", true),
+            Triple("*", "https://x.com/", true)
+        ))
+    }
+
+    /**
+     * 测试主机名提取去掉用户信息和端口，保留IPv6的方括号
+     */
+    @Test
+    fun `test hostRange extracts host`() {
+        assertEquals("ads.example.com", hostOf("https://user:pw@ads.example.com:8080/x"))
+        assertEquals("[::1]", hostOf("http://[::1]:8080/x"))
+        assertEquals("[2001:db8::1]", hostOf("http://[2001:db8::1]/"))
+        assertEquals("example.com", hostOf("https://example.com?q=1"))
+        assertEquals("example.com", hostOf("https://example.com#top"))
+        assertEquals("b.com", hostOf("https://a.com@b.com/@c"))
+        assertNull(hostOf("about:blank"))
+        assertNull(hostOf("https://user@:8080/"))
+    }
+
+    /**
+     * 测试域名规则按真实主机名匹配，用户信息中的域名不算
+     */
+    @Test
+    fun `test host rules use real host`() {
+        // Given
+        val filter = UrlFilter.compile(listOf("evil.com"), listOf("||tracker.net^"))
+
+        // Then
+        assertTrue(filter.matches("https://evil.com/"))
+        assertTrue(filter.matches("https://cdn.evil.com:443/x"))
+        assertTrue(filter.matches("https://good.com@evil.com/"))
+        assertFalse(filter.matches("https://evil.com@good.com/"))
+        assertFalse(filter.matches("https://notevil.com/"))
+        assertTrue(filter.matches("https://a.tracker.net/p"))
+        assertFalse(filter.matches("https://x.com/?r=tracker.net"))
+    }
+
+    /**
+     * 测试只有 `||domain^` 形式的规则被识别为纯域名规则
+     */
+    @Test
+    fun `test pureDomain`() {
+        assertEquals("example.com", UrlRule.parse("||example.com^")!!.pureDomain())
+        assertEquals("example.com", UrlRule.parse("||Example.com")!!.pureDomain())
+        assertNull(UrlRule.parse("||example.com/x")!!.pureDomain())
+        assertNull(UrlRule.parse("||example.com|")!!.pureDomain())
+        assertNull(UrlRule.parse("||ex*ample.com")!!.pureDomain())
+        assertNull(UrlRule.parse("|example.com")!!.pureDomain())
+        assertNull(UrlRule.parse("example.com\$script"))
+        assertNull(UrlRule.parse("/ads[0-9]/"))
+    }
+
+    /**
+     * 测试共用同一字面片段的规则挂在一条链上，前一条校验失败时继续校验后面的规则
+     */
+    @Test
+    fun `test rules sharing a literal are all checked`() {
+        // Given
+        val filter = UrlFilter.compile(emptyList(), listOf("|track", "track|"))
+
+        // Then
+        assertTrue(filter.matches("https://x.com/p?track"))
+        assertFalse(filter.matches("https://x.com/track/1"))
+        assertFalse(filter.matches("https://x.com/tracking"))
+    }
+
+    /**
+     * 测试一个字面片段是另一个的后缀时，自动机的输出链会报告两者
+     */
+    @Test
+    fun `test suffix literals are reported`() {
+        // Given: "banner" 的规则锚定开头不会命中，只有后缀 "anner" 的规则能命中
+        val filter = UrlFilter.compile(emptyList(), listOf("|banner", "anner"))
+
+        // Then
+        assertTrue(filter.matches("https://x.com/banner"))
+        assertFalse(UrlFilter.compile(emptyList(), listOf("|banner")).matches("https://x.com/banner"))
+    }
+
+    /**
+     * 测试与旧实现对照：不含通配符的规则结果与原来的子串匹配一致；
+     * 含通配符的规则与原来的正则去掉整串匹配后一致，旧实现要求整条URL匹配，开头不是 `*` 的规则几乎匹配不到
+     */
+    @Test
+    fun `test agrees with old regex matching`() {
+        val urls = listOf(
+            "https://x.com/ads/banner.gif",
+            "https://x.com/static/app.js",
+            "https://ads.example.com/track?id=1",
+            "https://x.com/adserver/ad1.js"
+        )
+        val plain = listOf("/ads/", "banner.gif", "track?id", "/adserver/", "nothing")
+        val wildcard = listOf("*/ads/*", "*banner*.gif", "*adserver*ad1*")
+
+        for (url in urls) {
+            for (rule in plain) {
+                assertEquals("$rule <- $url", oldMatches(rule, url), matches(rule, url))
+            }
+            for (rule in wildcard) {
+                assertEquals("$rule <- $url", oldMatches(rule, url), matches(rule, url))
+            }
+        }
+
+        // 旧实现整串匹配，不以 * 开头的通配规则对完整URL不生效
+        assertFalse(oldMatches("/ads/*.gif", "https://x.com/ads/banner.gif"))
+        assertTrue(matches("/ads/*.gif", "https://x.com/ads/banner.gif"))
+    }
+}
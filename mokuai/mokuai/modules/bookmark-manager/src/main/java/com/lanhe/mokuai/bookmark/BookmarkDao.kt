@@ -0,0 +1,198 @@
+package com.lanhe.mokuai.bookmark
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Update
+
+/**
+ * 全文检索命中的书签，只带排序需要的字段，排序后再按ID加载完整书签
+ * @param matchInfo matchinfo(bookmarks_fts, 'pcnx') 的原始结果
+ */
+internal class BookmarkSearchHit(
+    val id: String,
+    val visitCount: Int,
+    val isFavorite: Boolean,
+    val matchInfo: ByteArray
+)
+
+/**
+ * 书签DAO接口
+ * 单个书签的访问计数、收藏、移动都是单行 UPDATE，不读取其他书签
+ */
+@Dao
+internal interface BookmarkDao {
+
+    // 书签
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertBookmarks(bookmarks: List<BookmarkEntity>): List<Long>
+
+    @Update
+    fun updateBookmark(bookmark: BookmarkEntity): Int
+
+    @Query("SELECT * FROM bookmarks ORDER BY rowid")
+    fun getAllBookmarks(): List<BookmarkEntity>
+
+    /**
+     * 按ID分页读取，用于流式导出
+     */
+    @Query("SELECT * FROM bookmarks WHERE id > :afterId ORDER BY id LIMIT :limit")
+    fun getBookmarksAfter(afterId: String, limit: Int): List<BookmarkEntity>
+
+    @Query("SELECT * FROM bookmarks WHERE id IN (:ids)")
+    fun getBookmarksByIds(ids: List<String>): List<BookmarkEntity>
+
+    /**
+     * 按URL查找，走 (url, folderId) 索引；同一URL在多个文件夹中时取最早添加的
+     */
+    @Query("SELECT * FROM bookmarks WHERE url = :url ORDER BY rowid LIMIT 1")
+    fun findByUrl(url: String): BookmarkEntity?
+
+    @Query("SELECT EXISTS(SELECT 1 FROM bookmarks WHERE url = :url)")
+    fun existsByUrl(url: String): Boolean
+
+    @Query("SELECT * FROM bookmarks WHERE folderId = :folderId ORDER BY rowid")
+    fun getBookmarksByFolder(folderId: String): List<BookmarkEntity>
+
+    @Query("SELECT bookmarks.* FROM bookmarks JOIN bookmark_tag_refs ON bookmark_tag_refs.bookmarkId = bookmarks.id WHERE bookmark_tag_refs.tag = :tag ORDER BY bookmarks.rowid")
+    fun getBookmarksByTag(tag: String): List<BookmarkEntity>
+
+    @Query("SELECT * FROM bookmarks WHERE isFavorite = 1 ORDER BY rowid")
+    fun getFavoriteBookmarks(): List<BookmarkEntity>
+
+    @Query("SELECT * FROM bookmarks WHERE isPrivate = 1 ORDER BY rowid")
+    fun getPrivateBookmarks(): List<BookmarkEntity>
+
+    @Query("SELECT * FROM bookmarks WHERE lastVisited > 0 ORDER BY lastVisited DESC LIMIT :limit")
+    fun getRecentBookmarks(limit: Int): List<BookmarkEntity>
+
+    @Query("SELECT * FROM bookmarks WHERE visitCount > 0 ORDER BY visitCount DESC LIMIT :limit")
+    fun getFrequentBookmarks(limit: Int): List<BookmarkEntity>
+
+    @Query("DELETE FROM bookmarks WHERE id IN (:ids)")
+    fun deleteBookmarks(ids: List<String>): Int
+
+    @Query("DELETE FROM bookmarks")
+    fun clearBookmarks()
+
+    @Query("UPDATE bookmarks SET visitCount = visitCount + 1, lastVisited = :time WHERE id = :id")
+    fun incrementVisit(id: String, time: Long): Int
+
+    @Query("UPDATE bookmarks SET isFavorite = NOT isFavorite WHERE id = :id")
+    fun toggleFavorite(id: String): Int
+
+    @Query("SELECT isFavorite FROM bookmarks WHERE id = :id")
+    fun isFavorite(id: String): Boolean?
+
+    @Query("UPDATE bookmarks SET tagsText = :tagsText WHERE id = :id")
+    fun updateTagsText(id: String, tagsText: String): Int
+
+    /**
+     * 移动书签，目标文件夹中已有相同URL的书签保持不动
+     */
+    @Query("UPDATE OR IGNORE bookmarks SET folderId = :folderId, updatedAt = :time WHERE id IN (:ids)")
+    fun moveBookmarks(ids: List<String>, folderId: String, time: Long): Int
+
+    @Query("UPDATE OR IGNORE bookmarks SET folderId = :toFolderId WHERE folderId = :fromFolderId")
+    fun moveFolderContents(fromFolderId: String, toFolderId: String): Int
+
+    @Query("SELECT id FROM bookmarks WHERE folderId = :folderId")
+    fun getBookmarkIdsInFolder(folderId: String): List<String>
+
+    // 全文检索
+
+    /**
+     * 全文检索的所有命中，每行只有排序所需的几个字段，相关度排序后再截取
+     */
+    @Query(
+        "SELECT bookmarks.id AS id, bookmarks.visitCount AS visitCount, bookmarks.isFavorite AS isFavorite, " +
+            "matchinfo(bookmarks_fts, 'pcnx') AS matchInfo " +
+            "FROM bookmarks_fts JOIN bookmarks ON bookmarks.rowid = bookmarks_fts.rowid " +
+            "WHERE bookmarks_fts MATCH :match"
+    )
+    fun searchFts(match: String): List<BookmarkSearchHit>
+
+    /**
+     * 全文索引无法切分的中日韩文本按子串匹配
+     */
+    @Query(
+        "SELECT * FROM bookmarks WHERE title LIKE :pattern ESCAPE '\\' OR url LIKE :pattern ESCAPE '\\' " +
+            "OR description LIKE :pattern ESCAPE '\\' OR tagsText LIKE :pattern ESCAPE '\\' " +
+            "ORDER BY isFavorite DESC, visitCount DESC LIMIT :limit"
+    )
+    fun searchLike(pattern: String, limit: Int): List<BookmarkEntity>
+
+    // 文件夹
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertFolder(folder: BookmarkFolderEntity): Long
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertFolders(folders: List<BookmarkFolderEntity>): List<Long>
+
+    @Update
+    fun updateFolder(folder: BookmarkFolderEntity): Int
+
+    @Query("DELETE FROM bookmark_folders WHERE id = :id")
+    fun deleteFolder(id: String): Int
+
+    @Query("SELECT * FROM bookmark_folders ORDER BY rowid")
+    fun getAllFolders(): List<BookmarkFolderEntity>
+
+    @Query("SELECT * FROM bookmark_folders WHERE parentId = :parentId ORDER BY rowid")
+    fun getSubFolders(parentId: String): List<BookmarkFolderEntity>
+
+    @Query("SELECT COUNT(*) FROM bookmark_folders")
+    fun getFolderCount(): Int
+
+    @Query("DELETE FROM bookmark_folders")
+    fun clearFolders()
+
+    // 标签
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertTags(tags: List<BookmarkTagEntity>)
+
+    @Query("SELECT name FROM bookmark_tags ORDER BY name")
+    fun getAllTags(): List<String>
+
+    @Query("DELETE FROM bookmark_tags WHERE name = :tag")
+    fun deleteTag(tag: String)
+
+    @Query("DELETE FROM bookmark_tags")
+    fun clearTags()
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertTagRefs(refs: List<BookmarkTagRefEntity>)
+
+    @Query("SELECT bookmarkId FROM bookmark_tag_refs WHERE tag = :tag")
+    fun getBookmarkIdsByTag(tag: String): List<String>
+
+    @Query("DELETE FROM bookmark_tag_refs WHERE bookmarkId IN (:bookmarkIds)")
+    fun deleteTagRefs(bookmarkIds: List<String>)
+
+    @Query("DELETE FROM bookmark_tag_refs WHERE tag = :tag")
+    fun deleteTagRefsByTag(tag: String)
+
+    @Query("DELETE FROM bookmark_tag_refs")
+    fun clearTagRefs()
+
+    // 访问历史
+
+    @Insert
+    fun insertVisit(visit: BookmarkVisitEntity)
+
+    @Insert
+    fun insertVisits(visits: List<BookmarkVisitEntity>)
+
+    @Query("DELETE FROM bookmark_visits WHERE id NOT IN (SELECT id FROM bookmark_visits ORDER BY visitTime DESC, id DESC LIMIT :keep)")
+    fun trimVisits(keep: Int)
+
+    @Query("DELETE FROM bookmark_visits WHERE bookmarkId IN (:bookmarkIds)")
+    fun deleteVisits(bookmarkIds: List<String>)
+
+    @Query("DELETE FROM bookmark_visits")
+    fun clearVisits()
+}
@@ -0,0 +1,50 @@
+package com.lanhe.mokuai.bookmark
+
+import android.content.Context
+import androidx.room.Database
+import androidx.room.Room
+import androidx.room.RoomDatabase
+
+/**
+ * 书签数据库
+ *
+ * 版本历史：
+ * v1: 初始版本 - 书签、全文索引、文件夹、标签、访问历史
+ *
+ * 只在 [BookmarkManager] 的挂起函数中通过 IO 线程访问。
+ */
+@Database(
+    entities = [
+        BookmarkEntity::class,
+        BookmarkFtsEntity::class,
+        BookmarkFolderEntity::class,
+        BookmarkTagEntity::class,
+        BookmarkTagRefEntity::class,
+        BookmarkVisitEntity::class
+    ],
+    version = 1,
+    exportSchema = false
+)
+internal abstract class BookmarkDatabase : RoomDatabase() {
+
+    abstract fun bookmarkDao(): BookmarkDao
+
+    companion object {
+        private const val DATABASE_NAME = "bookmark_manager.db"
+
+        @Volatile
+        private var INSTANCE: BookmarkDatabase? = null
+
+        fun getDatabase(context: Context): BookmarkDatabase {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: Room.databaseBuilder(
+                    context.applicationContext,
+                    BookmarkDatabase::class.java,
+                    DATABASE_NAME
+                )
+                    .build()
+                    .also { INSTANCE = it }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.lanhe.mokuai.bookmark
+
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * 书签表
+ * 标签同时保存在 [BookmarkTagRefEntity] 中用于按标签查询，
+ * tagsText 是以换行分隔的冗余副本，供全文索引使用
+ */
+@Entity(
+    tableName = "bookmarks",
+    indices = [
+        Index(value = ["url", "folderId"], unique = true),
+        Index("folderId"),
+        Index("lastVisited"),
+        Index("visitCount"),
+        Index("isFavorite")
+    ]
+)
+internal data class BookmarkEntity(
+    @PrimaryKey
+    val id: String,
+    val title: String,
+    val url: String,
+    val description: String,
+    val folderId: String,
+    val tagsText: String,
+    val favicon: String,
+    val createdAt: Long,
+    val updatedAt: Long,
+    val visitCount: Int,
+    val lastVisited: Long,
+    val isFavorite: Boolean,
+    val isPrivate: Boolean,
+    val customColor: String
+)
+
+/**
+ * 书签全文索引
+ * 以 bookmarks 表为外部内容表，由Room生成的触发器保持同步
+ * 列顺序决定 matchinfo 中的列下标，与 [BookmarkSearch.COLUMN_WEIGHTS] 对应
+ */
+@Fts4(contentEntity = BookmarkEntity::class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "bookmarks_fts")
+internal data class BookmarkFtsEntity(
+    val title: String,
+    val url: String,
+    val description: String,
+    val tagsText: String
+)
+
+/**
+ * 文件夹表
+ */
+@Entity(
+    tableName = "bookmark_folders",
+    indices = [
+        Index(value = ["name", "parentId"], unique = true),
+        Index("parentId")
+    ]
+)
+internal data class BookmarkFolderEntity(
+    @PrimaryKey
+    val id: String,
+    val name: String,
+    val parentId: String,
+    val icon: String,
+    val color: String,
+    val createdAt: Long,
+    val isExpanded: Boolean,
+    val sortOrder: Int
+)
+
+/**
+ * 标签表，包括暂未被任何书签使用的标签
+ */
+@Entity(tableName = "bookmark_tags")
+internal data class BookmarkTagEntity(
+    @PrimaryKey
+    val name: String
+)
+
+/**
+ * 书签与标签的关联
+ */
+@Entity(
+    tableName = "bookmark_tag_refs",
+    primaryKeys = ["bookmarkId", "tag"],
+    indices = [Index("tag")]
+)
+internal data class BookmarkTagRefEntity(
+    val bookmarkId: String,
+    val tag: String
+)
+
+/**
+ * 访问历史，只保留最近的若干条
+ */
+@Entity(
+    tableName = "bookmark_visits",
+    indices = [Index("bookmarkId"), Index("visitTime")]
+)
+internal data class BookmarkVisitEntity(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    val bookmarkId: String,
+    val visitTime: Long,
+    val duration: Long,
+    val referrer: String
+)
@@ -2,26 +2,51 @@ package com.lanhe.mokuai.bookmark
 
 import android.content.Context
 import android.content.SharedPreferences
-import org.json.JSONArray
-import org.json.JSONObject
+import android.util.JsonReader
+import android.util.JsonToken
+import android.util.JsonWriter
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.Reader
+import java.io.StringReader
+import java.io.StringWriter
+import java.io.Writer
 import java.util.*
 
 /**
  * 书签管理器 - 管理浏览器书签和收藏
+ *
+ * 数据保存在 [BookmarkDatabase] 中：文件夹、标签、访问历史各自一张表并建有索引，
+ * 标题、URL、描述和标签建有全文索引，搜索按前缀匹配并按相关度排序。
+ * 旧版本保存在 SharedPreferences 中的 JSON 数据在首次使用时导入一次。
+ * 所有接口都是挂起函数，在 [Dispatchers.IO] 上访问数据库。
  */
 class BookmarkManager(context: Context) {
 
+    private val appContext = context.applicationContext
+
     private val prefs: SharedPreferences = context.getSharedPreferences(
         "bookmark_manager",
         Context.MODE_PRIVATE
     )
 
+    private val database by lazy { BookmarkDatabase.getDatabase(appContext) }
+
+    private val dao: BookmarkDao by lazy {
+        database.bookmarkDao().also { prepare(it) }
+    }
+
     companion object {
+        // 旧版本 SharedPreferences 中的键，仅用于数据迁移
         private const val KEY_BOOKMARKS = "bookmarks"
         private const val KEY_FOLDERS = "folders"
         private const val KEY_TAGS = "tags"
         private const val KEY_HISTORY = "history"
+
         private const val MAX_HISTORY = 100
+        private const val DEFAULT_SEARCH_LIMIT = 200
+        private const val BATCH_SIZE = 500 // 导入导出的分批大小，同时不超过SQLite的参数个数上限
+        private const val TAG_SEPARATOR = "\n"
     }
 
     data class Bookmark(
@@ -61,25 +86,13 @@ class BookmarkManager(context: Context) {
 
     /**
      * 添加书签
+     * 同一文件夹中已有相同URL时返回 false
      */
-    fun addBookmark(bookmark: Bookmark): Boolean {
-        return try {
-            val bookmarks = getAllBookmarksInternal().toMutableList()
-
-            // 检查URL是否已存在
-            if (bookmarks.any { it.url == bookmark.url && it.folderId == bookmark.folderId }) {
-                return false
-            }
-
-            bookmarks.add(bookmark)
-            saveBookmarks(bookmarks)
-
-            // 自动添加标签
-            bookmark.tags.forEach { tag ->
-                addTag(tag)
+    suspend fun addBookmark(bookmark: Bookmark): Boolean = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction<Boolean> {
+                insertBookmarks(listOf(bookmark)) > 0
             }
-
-            true
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -89,22 +102,17 @@ class BookmarkManager(context: Context) {
     /**
      * 更新书签
      */
-    fun updateBookmark(bookmark: Bookmark): Boolean {
-        return try {
-            val bookmarks = getAllBookmarksInternal().toMutableList()
-            val index = bookmarks.indexOfFirst { it.id == bookmark.id }
-
-            if (index == -1) return false
-
-            bookmarks[index] = bookmark.copy(updatedAt = System.currentTimeMillis())
-            saveBookmarks(bookmarks)
-
-            // 更新标签
-            bookmark.tags.forEach { tag ->
-                addTag(tag)
+    suspend fun updateBookmark(bookmark: Bookmark): Boolean = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction<Boolean> {
+                val updated = bookmark.copy(updatedAt = System.currentTimeMillis())
+                if (dao.updateBookmark(updated.toEntity()) == 0) return@runInTransaction false
+
+                // 更新标签
+                dao.deleteTagRefs(listOf(bookmark.id))
+                insertTags(listOf(updated))
+                true
             }
-
-            true
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -114,31 +122,18 @@ class BookmarkManager(context: Context) {
     /**
      * 删除书签
      */
-    fun deleteBookmark(id: String): Boolean {
-        return try {
-            val bookmarks = getAllBookmarksInternal().toMutableList()
-            val removed = bookmarks.removeAll { it.id == id }
-            if (removed) {
-                saveBookmarks(bookmarks)
-            }
-            removed
-        } catch (e: Exception) {
-            e.printStackTrace()
-            false
-        }
+    suspend fun deleteBookmark(id: String): Boolean {
+        return deleteBookmarks(listOf(id))
     }
 
     /**
      * 批量删除书签
      */
-    fun deleteBookmarks(ids: List<String>): Boolean {
-        return try {
-            val bookmarks = getAllBookmarksInternal().toMutableList()
-            val removed = bookmarks.removeAll { it.id in ids }
-            if (removed) {
-                saveBookmarks(bookmarks)
+    suspend fun deleteBookmarks(ids: List<String>): Boolean = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction<Boolean> {
+                deleteBookmarksInternal(ids) > 0
             }
-            removed
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -148,166 +143,163 @@ class BookmarkManager(context: Context) {
     /**
      * 获取所有书签
      */
-    fun getAllBookmarks(): List<Bookmark> {
-        return getAllBookmarksInternal()
+    suspend fun getAllBookmarks(): List<Bookmark> = withContext(Dispatchers.IO) {
+        dao.getAllBookmarks().map { it.toBookmark() }
+    }
+
+    /**
+     * 按URL查找书签，不存在时返回null
+     */
+    suspend fun findBookmarkByUrl(url: String): Bookmark? = withContext(Dispatchers.IO) {
+        dao.findByUrl(url)?.toBookmark()
+    }
+
+    /**
+     * URL是否已加入书签
+     */
+    suspend fun isBookmarked(url: String): Boolean = withContext(Dispatchers.IO) {
+        dao.existsByUrl(url)
     }
 
     /**
      * 根据文件夹获取书签
      */
-    fun getBookmarksByFolder(folderId: String): List<Bookmark> {
-        return getAllBookmarksInternal().filter { it.folderId == folderId }
+    suspend fun getBookmarksByFolder(folderId: String): List<Bookmark> = withContext(Dispatchers.IO) {
+        dao.getBookmarksByFolder(folderId).map { it.toBookmark() }
     }
 
     /**
      * 根据标签获取书签
      */
-    fun getBookmarksByTag(tag: String): List<Bookmark> {
-        return getAllBookmarksInternal().filter { tag in it.tags }
+    suspend fun getBookmarksByTag(tag: String): List<Bookmark> = withContext(Dispatchers.IO) {
+        dao.getBookmarksByTag(tag).map { it.toBookmark() }
     }
 
     /**
      * 获取收藏的书签
      */
-    fun getFavoriteBookmarks(): List<Bookmark> {
-        return getAllBookmarksInternal().filter { it.isFavorite }
+    suspend fun getFavoriteBookmarks(): List<Bookmark> = withContext(Dispatchers.IO) {
+        dao.getFavoriteBookmarks().map { it.toBookmark() }
     }
 
     /**
      * 获取私密书签
      */
-    fun getPrivateBookmarks(): List<Bookmark> {
-        return getAllBookmarksInternal().filter { it.isPrivate }
+    suspend fun getPrivateBookmarks(): List<Bookmark> = withContext(Dispatchers.IO) {
+        dao.getPrivateBookmarks().map { it.toBookmark() }
     }
 
     /**
      * 搜索书签
+     * 每个词按前缀匹配标题、URL、描述和标签，结果按相关度排序，最多返回 [limit] 条；
+     * 包含中日韩文字的查询按子串匹配。空查询返回全部书签。
      */
-    fun searchBookmarks(query: String): List<Bookmark> {
-        val lowercaseQuery = query.lowercase()
-        return getAllBookmarksInternal().filter { bookmark ->
-            bookmark.title.lowercase().contains(lowercaseQuery) ||
-            bookmark.url.lowercase().contains(lowercaseQuery) ||
-            bookmark.description.lowercase().contains(lowercaseQuery) ||
-            bookmark.tags.any { it.lowercase().contains(lowercaseQuery) }
+    suspend fun searchBookmarks(query: String, limit: Int = DEFAULT_SEARCH_LIMIT): List<Bookmark> = withContext(Dispatchers.IO) {
+        if (query.isBlank()) return@withContext getAllBookmarks()
+
+        try {
+            val match = BookmarkSearch.buildMatch(query)
+            if (match == null || BookmarkSearch.needsSubstringSearch(query)) {
+                return@withContext dao.searchLike(BookmarkSearch.likePattern(query), limit).map { it.toBookmark() }
+            }
+
+            database.runInTransaction<List<Bookmark>> {
+                // 先按 matchinfo 给所有命中计算相关度，截取前 limit 条后才加载完整书签
+                val ids = BookmarkSearch.rank(dao.searchFts(match), limit)
+                val byId = dao.getBookmarksByIds(ids).associateBy { it.id }
+                ids.mapNotNull { byId[it]?.toBookmark() }
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            emptyList()
         }
     }
 
     /**
      * 获取最近访问的书签
      */
-    fun getRecentBookmarks(limit: Int = 10): List<Bookmark> {
-        return getAllBookmarksInternal()
-            .filter { it.lastVisited > 0 }
-            .sortedByDescending { it.lastVisited }
-            .take(limit)
+    suspend fun getRecentBookmarks(limit: Int = 10): List<Bookmark> = withContext(Dispatchers.IO) {
+        dao.getRecentBookmarks(limit).map { it.toBookmark() }
     }
 
     /**
      * 获取最常访问的书签
      */
-    fun getFrequentBookmarks(limit: Int = 10): List<Bookmark> {
-        return getAllBookmarksInternal()
-            .filter { it.visitCount > 0 }
-            .sortedByDescending { it.visitCount }
-            .take(limit)
+    suspend fun getFrequentBookmarks(limit: Int = 10): List<Bookmark> = withContext(Dispatchers.IO) {
+        dao.getFrequentBookmarks(limit).map { it.toBookmark() }
     }
 
     /**
      * 记录访问
      */
-    fun recordVisit(bookmarkId: String, duration: Long = 0) {
-        val bookmarks = getAllBookmarksInternal().toMutableList()
-        val index = bookmarks.indexOfFirst { it.id == bookmarkId }
-
-        if (index != -1) {
-            bookmarks[index] = bookmarks[index].copy(
-                visitCount = bookmarks[index].visitCount + 1,
-                lastVisited = System.currentTimeMillis()
-            )
-            saveBookmarks(bookmarks)
-
-            // 记录历史
-            addHistory(VisitHistory(bookmarkId, System.currentTimeMillis(), duration))
+    suspend fun recordVisit(bookmarkId: String, duration: Long = 0) = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction {
+                val now = System.currentTimeMillis()
+                if (dao.incrementVisit(bookmarkId, now) > 0) {
+                    // 记录历史
+                    dao.insertVisit(
+                        BookmarkVisitEntity(
+                            bookmarkId = bookmarkId,
+                            visitTime = now,
+                            duration = duration,
+                            referrer = ""
+                        )
+                    )
+                    dao.trimVisits(MAX_HISTORY)
+                }
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
         }
     }
 
     /**
      * 切换收藏状态
      */
-    fun toggleFavorite(id: String): Boolean {
-        val bookmarks = getAllBookmarksInternal().toMutableList()
-        val index = bookmarks.indexOfFirst { it.id == id }
-
-        if (index != -1) {
-            bookmarks[index] = bookmarks[index].copy(
-                isFavorite = !bookmarks[index].isFavorite
-            )
-            saveBookmarks(bookmarks)
-            return bookmarks[index].isFavorite
+    suspend fun toggleFavorite(id: String): Boolean = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction<Boolean> {
+                dao.toggleFavorite(id) > 0 && dao.isFavorite(id) == true
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            false
         }
-        return false
     }
 
     /**
      * 移动书签到文件夹
+     * 目标文件夹中已有相同URL的书签时不移动，返回 false
      */
-    fun moveBookmarkToFolder(bookmarkId: String, folderId: String): Boolean {
-        val bookmarks = getAllBookmarksInternal().toMutableList()
-        val index = bookmarks.indexOfFirst { it.id == bookmarkId }
-
-        if (index != -1) {
-            bookmarks[index] = bookmarks[index].copy(
-                folderId = folderId,
-                updatedAt = System.currentTimeMillis()
-            )
-            saveBookmarks(bookmarks)
-            return true
-        }
-        return false
+    suspend fun moveBookmarkToFolder(bookmarkId: String, folderId: String): Boolean {
+        return moveBookmarksToFolder(listOf(bookmarkId), folderId)
     }
 
     /**
      * 批量移动书签
      */
-    fun moveBookmarksToFolder(bookmarkIds: List<String>, folderId: String): Boolean {
-        val bookmarks = getAllBookmarksInternal().toMutableList()
-        var moved = false
-
-        bookmarkIds.forEach { bookmarkId ->
-            val index = bookmarks.indexOfFirst { it.id == bookmarkId }
-            if (index != -1) {
-                bookmarks[index] = bookmarks[index].copy(
-                    folderId = folderId,
-                    updatedAt = System.currentTimeMillis()
-                )
-                moved = true
+    suspend fun moveBookmarksToFolder(bookmarkIds: List<String>, folderId: String): Boolean = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction<Boolean> {
+                val now = System.currentTimeMillis()
+                bookmarkIds.chunked(BATCH_SIZE).sumOf { dao.moveBookmarks(it, folderId, now) } > 0
             }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            false
         }
-
-        if (moved) {
-            saveBookmarks(bookmarks)
-        }
-        return moved
     }
 
     // 文件夹管理
 
     /**
      * 添加文件夹
+     * 同一上级文件夹中已有同名文件夹时返回 false
      */
-    fun addFolder(folder: BookmarkFolder): Boolean {
-        return try {
-            val folders = getAllFoldersInternal().toMutableList()
-
-            // 检查名称是否已存在
-            if (folders.any { it.name == folder.name && it.parentId == folder.parentId }) {
-                return false
-            }
-
-            folders.add(folder)
-            saveFolders(folders)
-            true
+    suspend fun addFolder(folder: BookmarkFolder): Boolean = withContext(Dispatchers.IO) {
+        try {
+            dao.insertFolder(folder.toEntity()) != -1L
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -317,16 +309,9 @@ class BookmarkManager(context: Context) {
     /**
      * 更新文件夹
      */
-    fun updateFolder(folder: BookmarkFolder): Boolean {
-        return try {
-            val folders = getAllFoldersInternal().toMutableList()
-            val index = folders.indexOfFirst { it.id == folder.id }
-
-            if (index == -1) return false
-
-            folders[index] = folder
-            saveFolders(folders)
-            true
+    suspend fun updateFolder(folder: BookmarkFolder): Boolean = withContext(Dispatchers.IO) {
+        try {
+            dao.updateFolder(folder.toEntity()) > 0
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -336,25 +321,18 @@ class BookmarkManager(context: Context) {
     /**
      * 删除文件夹
      */
-    fun deleteFolder(folderId: String, moveBookmarksToFolder: String = "default"): Boolean {
-        return try {
-            // 移动该文件夹下的书签
-            val bookmarks = getAllBookmarksInternal().toMutableList()
-            bookmarks.forEach { bookmark ->
-                if (bookmark.folderId == folderId) {
-                    val index = bookmarks.indexOf(bookmark)
-                    bookmarks[index] = bookmark.copy(folderId = moveBookmarksToFolder)
+    suspend fun deleteFolder(folderId: String, moveBookmarksToFolder: String = "default"): Boolean = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction<Boolean> {
+                // 移动该文件夹下的书签，目标文件夹中已有相同URL的书签视为重复，随文件夹一起删除
+                dao.moveFolderContents(folderId, moveBookmarksToFolder)
+                if (folderId != moveBookmarksToFolder) {
+                    deleteBookmarksInternal(dao.getBookmarkIdsInFolder(folderId))
                 }
-            }
-            saveBookmarks(bookmarks)
 
-            // 删除文件夹
-            val folders = getAllFoldersInternal().toMutableList()
-            val removed = folders.removeAll { it.id == folderId }
-            if (removed) {
-                saveFolders(folders)
+                // 删除文件夹
+                dao.deleteFolder(folderId) > 0
             }
-            removed
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -364,15 +342,15 @@ class BookmarkManager(context: Context) {
     /**
      * 获取所有文件夹
      */
-    fun getAllFolders(): List<BookmarkFolder> {
-        return getAllFoldersInternal()
+    suspend fun getAllFolders(): List<BookmarkFolder> = withContext(Dispatchers.IO) {
+        dao.getAllFolders().map { it.toFolder() }.ifEmpty { getDefaultFolders() }
     }
 
     /**
      * 获取子文件夹
      */
-    fun getSubFolders(parentId: String): List<BookmarkFolder> {
-        return getAllFoldersInternal().filter { it.parentId == parentId }
+    suspend fun getSubFolders(parentId: String): List<BookmarkFolder> = withContext(Dispatchers.IO) {
+        dao.getSubFolders(parentId).map { it.toFolder() }
     }
 
     // 标签管理
@@ -380,39 +358,38 @@ class BookmarkManager(context: Context) {
     /**
      * 获取所有标签
      */
-    fun getAllTags(): List<String> {
-        val tags = prefs.getStringSet(KEY_TAGS, emptySet()) ?: emptySet()
-        return tags.toList().sorted()
+    suspend fun getAllTags(): List<String> = withContext(Dispatchers.IO) {
+        dao.getAllTags()
     }
 
     /**
      * 添加标签
      */
-    fun addTag(tag: String) {
-        val tags = prefs.getStringSet(KEY_TAGS, emptySet())?.toMutableSet() ?: mutableSetOf()
-        tags.add(tag)
-        prefs.edit().putStringSet(KEY_TAGS, tags).apply()
+    suspend fun addTag(tag: String) = withContext(Dispatchers.IO) {
+        dao.insertTags(listOf(BookmarkTagEntity(tag)))
     }
 
     /**
      * 删除标签
      */
-    fun deleteTag(tag: String) {
-        val tags = prefs.getStringSet(KEY_TAGS, emptySet())?.toMutableSet() ?: mutableSetOf()
-        tags.remove(tag)
-        prefs.edit().putStringSet(KEY_TAGS, tags).apply()
-
-        // 从所有书签中移除该标签
-        val bookmarks = getAllBookmarksInternal().toMutableList()
-        bookmarks.forEach { bookmark ->
-            if (tag in bookmark.tags) {
-                val index = bookmarks.indexOf(bookmark)
-                bookmarks[index] = bookmark.copy(
-                    tags = bookmark.tags.filter { it != tag }
-                )
+    suspend fun deleteTag(tag: String) = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction {
+                dao.deleteTag(tag)
+
+                // 从使用该标签的书签中移除
+                val ids = dao.getBookmarkIdsByTag(tag)
+                dao.deleteTagRefsByTag(tag)
+                ids.chunked(BATCH_SIZE).forEach { chunk ->
+                    dao.getBookmarksByIds(chunk).forEach { entity ->
+                        val tags = entity.tags().filter { it != tag }
+                        dao.updateTagsText(entity.id, tags.joinToString(TAG_SEPARATOR))
+                    }
+                }
             }
+        } catch (e: Exception) {
+            e.printStackTrace()
         }
-        saveBookmarks(bookmarks)
     }
 
     // 导入导出
@@ -420,164 +397,103 @@ class BookmarkManager(context: Context) {
     /**
      * 导出为JSON
      */
-    fun exportToJson(): String {
-        val root = JSONObject()
+    suspend fun exportToJson(): String {
+        val writer = StringWriter()
+        exportTo(writer)
+        return writer.toString()
+    }
+
+    /**
+     * 以流的方式导出JSON，书签分批读取，不会一次性加载全部数据
+     * 导出完成后刷新但不关闭 [writer]
+     */
+    suspend fun exportTo(writer: Writer) = withContext(Dispatchers.IO) {
+        val json = JsonWriter(writer)
+        json.setIndent("  ")
+        json.beginObject()
 
         // 导出书签
-        val bookmarksArray = JSONArray()
-        getAllBookmarksInternal().forEach { bookmark ->
-            val json = JSONObject().apply {
-                put("id", bookmark.id)
-                put("title", bookmark.title)
-                put("url", bookmark.url)
-                put("description", bookmark.description)
-                put("folderId", bookmark.folderId)
-                put("tags", JSONArray(bookmark.tags))
-                put("favicon", bookmark.favicon)
-                put("createdAt", bookmark.createdAt)
-                put("updatedAt", bookmark.updatedAt)
-                put("visitCount", bookmark.visitCount)
-                put("lastVisited", bookmark.lastVisited)
-                put("isFavorite", bookmark.isFavorite)
-                put("isPrivate", bookmark.isPrivate)
-                put("customColor", bookmark.customColor)
-            }
-            bookmarksArray.put(json)
+        json.name("bookmarks").beginArray()
+        var afterId = ""
+        while (true) {
+            val page = dao.getBookmarksAfter(afterId, BATCH_SIZE)
+            if (page.isEmpty()) break
+            page.forEach { writeBookmark(json, it.toBookmark()) }
+            afterId = page.last().id
         }
-        root.put("bookmarks", bookmarksArray)
+        json.endArray()
 
         // 导出文件夹
-        val foldersArray = JSONArray()
-        getAllFoldersInternal().forEach { folder ->
-            val json = JSONObject().apply {
-                put("id", folder.id)
-                put("name", folder.name)
-                put("parentId", folder.parentId)
-                put("icon", folder.icon)
-                put("color", folder.color)
-                put("createdAt", folder.createdAt)
-                put("isExpanded", folder.isExpanded)
-                put("sortOrder", folder.sortOrder)
-            }
-            foldersArray.put(json)
-        }
-        root.put("folders", foldersArray)
+        json.name("folders").beginArray()
+        getAllFolders().forEach { writeFolder(json, it) }
+        json.endArray()
 
         // 导出标签
-        root.put("tags", JSONArray(getAllTags()))
+        json.name("tags").beginArray()
+        getAllTags().forEach { json.value(it) }
+        json.endArray()
 
         // 元数据
-        root.put("version", 1)
-        root.put("exportDate", System.currentTimeMillis())
+        json.name("version").value(1)
+        json.name("exportDate").value(System.currentTimeMillis())
 
-        return root.toString(2)
+        json.endObject()
+        json.flush()
     }
 
     /**
      * 从JSON导入
      */
-    fun importFromJson(json: String, merge: Boolean = false): Boolean {
-        return try {
-            val root = JSONObject(json)
-
-            // 导入书签
-            val bookmarksArray = root.getJSONArray("bookmarks")
-            val bookmarks = mutableListOf<Bookmark>()
-
-            for (i in 0 until bookmarksArray.length()) {
-                val item = bookmarksArray.getJSONObject(i)
-                val tags = mutableListOf<String>()
-
-                val tagsArray = item.optJSONArray("tags")
-                if (tagsArray != null) {
-                    for (j in 0 until tagsArray.length()) {
-                        tags.add(tagsArray.getString(j))
-                    }
-                }
-
-                bookmarks.add(
-                    Bookmark(
-                        id = item.getString("id"),
-                        title = item.getString("title"),
-                        url = item.getString("url"),
-                        description = item.optString("description", ""),
-                        folderId = item.optString("folderId", "default"),
-                        tags = tags,
-                        favicon = item.optString("favicon", ""),
-                        createdAt = item.optLong("createdAt", System.currentTimeMillis()),
-                        updatedAt = item.optLong("updatedAt", System.currentTimeMillis()),
-                        visitCount = item.optInt("visitCount", 0),
-                        lastVisited = item.optLong("lastVisited", 0),
-                        isFavorite = item.optBoolean("isFavorite", false),
-                        isPrivate = item.optBoolean("isPrivate", false),
-                        customColor = item.optString("customColor", "")
-                    )
-                )
-            }
-
-            if (merge) {
-                val existing = getAllBookmarksInternal().toMutableList()
-                bookmarks.forEach { bookmark ->
-                    if (existing.none { it.id == bookmark.id }) {
-                        existing.add(bookmark)
-                    }
-                }
-                saveBookmarks(existing)
-            } else {
-                saveBookmarks(bookmarks)
-            }
-
-            // 导入文件夹
-            val foldersArray = root.optJSONArray("folders")
-            if (foldersArray != null) {
-                val folders = mutableListOf<BookmarkFolder>()
-
-                for (i in 0 until foldersArray.length()) {
-                    val item = foldersArray.getJSONObject(i)
-                    folders.add(
-                        BookmarkFolder(
-                            id = item.getString("id"),
-                            name = item.getString("name"),
-                            parentId = item.optString("parentId", "root"),
-                            icon = item.optString("icon", "📁"),
-                            color = item.optString("color", ""),
-                            createdAt = item.optLong("createdAt", System.currentTimeMillis()),
-                            isExpanded = item.optBoolean("isExpanded", true),
-                            sortOrder = item.optInt("sortOrder", 0)
-                        )
-                    )
-                }
+    suspend fun importFromJson(json: String, merge: Boolean = false): Boolean {
+        return importFrom(StringReader(json), merge)
+    }
 
-                if (merge) {
-                    val existing = getAllFoldersInternal().toMutableList()
-                    folders.forEach { folder ->
-                        if (existing.none { it.id == folder.id }) {
-                            existing.add(folder)
+    /**
+     * 以流的方式导入JSON，边解析边分批写入，整个导入在一个事务中完成，失败时不修改现有数据
+     * @param merge 为 true 时保留现有数据，跳过ID已存在的书签和文件夹；否则替换现有的书签、文件夹和标签，并清空访问历史
+     */
+    suspend fun importFrom(reader: Reader, merge: Boolean = false): Boolean = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction {
+                val json = JsonReader(reader)
+                var hasBookmarks = false
+                json.beginObject()
+                while (json.hasNext()) {
+                    when (json.nextName()) {
+                        "bookmarks" -> {
+                            // 导入书签
+                            if (!merge) {
+                                dao.clearTagRefs()
+                                dao.clearVisits()
+                                dao.clearBookmarks()
+                            }
+                            readBookmarks(json)
+                            hasBookmarks = true
+                        }
+                        "folders" -> {
+                            // 导入文件夹
+                            if (json.peek() == JsonToken.NULL) {
+                                json.nextNull()
+                            } else {
+                                if (!merge) dao.clearFolders()
+                                readFolders(json)
+                            }
                         }
+                        "tags" -> {
+                            // 导入标签
+                            if (json.peek() == JsonToken.NULL) {
+                                json.nextNull()
+                            } else {
+                                if (!merge) dao.clearTags()
+                                dao.insertTags(readStrings(json).map { BookmarkTagEntity(it) })
+                            }
+                        }
+                        else -> json.skipValue()
                     }
-                    saveFolders(existing)
-                } else {
-                    saveFolders(folders)
-                }
-            }
-
-            // 导入标签
-            val tagsArray = root.optJSONArray("tags")
-            if (tagsArray != null) {
-                val tags = mutableSetOf<String>()
-                for (i in 0 until tagsArray.length()) {
-                    tags.add(tagsArray.getString(i))
-                }
-
-                if (merge) {
-                    val existing = prefs.getStringSet(KEY_TAGS, emptySet())?.toMutableSet() ?: mutableSetOf()
-                    existing.addAll(tags)
-                    prefs.edit().putStringSet(KEY_TAGS, existing).apply()
-                } else {
-                    prefs.edit().putStringSet(KEY_TAGS, tags).apply()
                 }
+                json.endObject()
+                if (!hasBookmarks) throw IllegalArgumentException("导入数据中没有书签")
             }
-
             true
         } catch (e: Exception) {
             e.printStackTrace()
@@ -588,193 +504,378 @@ class BookmarkManager(context: Context) {
     /**
      * 清除所有数据
      */
-    fun clearAll() {
+    suspend fun clearAll() = withContext(Dispatchers.IO) {
+        try {
+            database.runInTransaction {
+                dao.clearTagRefs()
+                dao.clearBookmarks()
+                dao.clearFolders()
+                dao.clearTags()
+                dao.clearVisits()
+                dao.insertFolders(getDefaultFolders().map { it.toEntity() })
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
         prefs.edit().clear().apply()
     }
 
     // 私有方法
 
-    private fun getAllBookmarksInternal(): List<Bookmark> {
-        val json = prefs.getString(KEY_BOOKMARKS, null) ?: return emptyList()
-        return parseBookmarksFromJson(json)
-    }
-
-    private fun saveBookmarks(bookmarks: List<Bookmark>) {
-        val jsonArray = JSONArray()
-        bookmarks.forEach { bookmark ->
-            val json = JSONObject().apply {
-                put("id", bookmark.id)
-                put("title", bookmark.title)
-                put("url", bookmark.url)
-                put("description", bookmark.description)
-                put("folderId", bookmark.folderId)
-                put("tags", JSONArray(bookmark.tags))
-                put("favicon", bookmark.favicon)
-                put("createdAt", bookmark.createdAt)
-                put("updatedAt", bookmark.updatedAt)
-                put("visitCount", bookmark.visitCount)
-                put("lastVisited", bookmark.lastVisited)
-                put("isFavorite", bookmark.isFavorite)
-                put("isPrivate", bookmark.isPrivate)
-                put("customColor", bookmark.customColor)
-            }
-            jsonArray.put(json)
-        }
-        prefs.edit().putString(KEY_BOOKMARKS, jsonArray.toString()).apply()
-    }
-
-    private fun parseBookmarksFromJson(json: String): List<Bookmark> {
-        val bookmarks = mutableListOf<Bookmark>()
+    /**
+     * 首次打开数据库时导入旧数据，并在没有文件夹时写入默认文件夹
+     */
+    private fun prepare(dao: BookmarkDao) {
         try {
-            val jsonArray = JSONArray(json)
-            for (i in 0 until jsonArray.length()) {
-                val item = jsonArray.getJSONObject(i)
-                val tags = mutableListOf<String>()
-
-                val tagsArray = item.optJSONArray("tags")
-                if (tagsArray != null) {
-                    for (j in 0 until tagsArray.length()) {
-                        tags.add(tagsArray.getString(j))
-                    }
+            database.runInTransaction {
+                migrateLegacy(dao)
+                if (dao.getFolderCount() == 0) {
+                    dao.insertFolders(getDefaultFolders().map { it.toEntity() })
                 }
-
-                bookmarks.add(
-                    Bookmark(
-                        id = item.getString("id"),
-                        title = item.getString("title"),
-                        url = item.getString("url"),
-                        description = item.optString("description", ""),
-                        folderId = item.optString("folderId", "default"),
-                        tags = tags,
-                        favicon = item.optString("favicon", ""),
-                        createdAt = item.optLong("createdAt", System.currentTimeMillis()),
-                        updatedAt = item.optLong("updatedAt", System.currentTimeMillis()),
-                        visitCount = item.optInt("visitCount", 0),
-                        lastVisited = item.optLong("lastVisited", 0),
-                        isFavorite = item.optBoolean("isFavorite", false),
-                        isPrivate = item.optBoolean("isPrivate", false),
-                        customColor = item.optString("customColor", "")
-                    )
-                )
+            }
+            if (prefs.all.isNotEmpty()) {
+                prefs.edit().clear().apply()
             }
         } catch (e: Exception) {
+            // 迁移失败时保留旧数据，下次启动再试
             e.printStackTrace()
         }
-        return bookmarks
-    }
-
-    private fun getAllFoldersInternal(): List<BookmarkFolder> {
-        val json = prefs.getString(KEY_FOLDERS, null) ?: return getDefaultFolders()
-        return parseFoldersFromJson(json)
-    }
-
-    private fun saveFolders(folders: List<BookmarkFolder>) {
-        val jsonArray = JSONArray()
-        folders.forEach { folder ->
-            val json = JSONObject().apply {
-                put("id", folder.id)
-                put("name", folder.name)
-                put("parentId", folder.parentId)
-                put("icon", folder.icon)
-                put("color", folder.color)
-                put("createdAt", folder.createdAt)
-                put("isExpanded", folder.isExpanded)
-                put("sortOrder", folder.sortOrder)
-            }
-            jsonArray.put(json)
-        }
-        prefs.edit().putString(KEY_FOLDERS, jsonArray.toString()).apply()
     }
 
-    private fun parseFoldersFromJson(json: String): List<BookmarkFolder> {
-        val folders = mutableListOf<BookmarkFolder>()
-        try {
-            val jsonArray = JSONArray(json)
-            for (i in 0 until jsonArray.length()) {
-                val item = jsonArray.getJSONObject(i)
-                folders.add(
-                    BookmarkFolder(
-                        id = item.getString("id"),
-                        name = item.getString("name"),
-                        parentId = item.optString("parentId", "root"),
-                        icon = item.optString("icon", "📁"),
-                        color = item.optString("color", ""),
-                        createdAt = item.optLong("createdAt", System.currentTimeMillis()),
-                        isExpanded = item.optBoolean("isExpanded", true),
-                        sortOrder = item.optInt("sortOrder", 0)
+    // 旧版本把每类数据作为一个JSON数组字符串保存在 SharedPreferences 中
+    private fun migrateLegacy(dao: BookmarkDao) {
+        prefs.getString(KEY_BOOKMARKS, null)?.let { json ->
+            readBookmarks(JsonReader(StringReader(json)), dao)
+        }
+        prefs.getString(KEY_FOLDERS, null)?.let { json ->
+            readFolders(JsonReader(StringReader(json)), dao)
+        }
+        prefs.getStringSet(KEY_TAGS, null)?.let { tags ->
+            dao.insertTags(tags.map { BookmarkTagEntity(it) })
+        }
+        prefs.getString(KEY_HISTORY, null)?.let { json ->
+            val reader = JsonReader(StringReader(json))
+            val visits = mutableListOf<BookmarkVisitEntity>()
+            reader.beginArray()
+            while (reader.hasNext()) {
+                val visit = readVisit(reader)
+                visits.add(
+                    BookmarkVisitEntity(
+                        bookmarkId = visit.bookmarkId,
+                        visitTime = visit.visitTime,
+                        duration = visit.duration,
+                        referrer = visit.referrer
                     )
                 )
             }
-        } catch (e: Exception) {
-            e.printStackTrace()
+            reader.endArray()
+            dao.insertVisits(visits)
+            dao.trimVisits(MAX_HISTORY)
         }
-        return folders.ifEmpty { getDefaultFolders() }
     }
 
-    private fun getDefaultFolders(): List<BookmarkFolder> {
-        return listOf(
-            BookmarkFolder(id = "default", name = "默认", parentId = "root", icon = "📚"),
-            BookmarkFolder(id = "work", name = "工作", parentId = "root", icon = "💼"),
-            BookmarkFolder(id = "personal", name = "个人", parentId = "root", icon = "👤"),
-            BookmarkFolder(id = "reading", name = "阅读", parentId = "root", icon = "📖"),
-            BookmarkFolder(id = "tech", name = "技术", parentId = "root", icon = "💻")
-        )
+    /**
+     * 插入书签及其标签，返回实际插入的数量
+     */
+    private fun insertBookmarks(bookmarks: List<Bookmark>, dao: BookmarkDao = this.dao): Int {
+        val rowIds = dao.insertBookmarks(bookmarks.map { it.toEntity() })
+        val inserted = bookmarks.filterIndexed { index, _ -> rowIds[index] != -1L }
+        insertTags(inserted, dao)
+        return inserted.size
     }
 
-    private fun addHistory(history: VisitHistory) {
-        try {
-            val historyJson = prefs.getString(KEY_HISTORY, null)
-            val historyList = if (historyJson != null) {
-                parseHistoryFromJson(historyJson).toMutableList()
-            } else {
-                mutableListOf()
-            }
+    private fun insertTags(bookmarks: List<Bookmark>, dao: BookmarkDao = this.dao) {
+        val refs = bookmarks.flatMap { bookmark ->
+            normalizeTags(bookmark.tags).map { BookmarkTagRefEntity(bookmark.id, it) }
+        }
+        if (refs.isEmpty()) return
+        dao.insertTagRefs(refs)
+        dao.insertTags(refs.map { it.tag }.distinct().map { BookmarkTagEntity(it) })
+    }
 
-            historyList.add(0, history)
+    private fun deleteBookmarksInternal(ids: List<String>): Int {
+        return ids.chunked(BATCH_SIZE).sumOf { chunk ->
+            dao.deleteTagRefs(chunk)
+            dao.deleteVisits(chunk)
+            dao.deleteBookmarks(chunk)
+        }
+    }
 
-            // 限制历史记录数量
-            if (historyList.size > MAX_HISTORY) {
-                historyList.removeAt(historyList.size - 1)
+    private fun readBookmarks(reader: JsonReader, dao: BookmarkDao = this.dao) {
+        val batch = mutableListOf<Bookmark>()
+        reader.beginArray()
+        while (reader.hasNext()) {
+            batch.add(readBookmark(reader))
+            if (batch.size >= BATCH_SIZE) {
+                insertBookmarks(batch, dao)
+                batch.clear()
             }
+        }
+        reader.endArray()
+        if (batch.isNotEmpty()) insertBookmarks(batch, dao)
+    }
 
-            saveHistory(historyList)
-        } catch (e: Exception) {
-            e.printStackTrace()
+    private fun readFolders(reader: JsonReader, dao: BookmarkDao = this.dao) {
+        val folders = mutableListOf<BookmarkFolderEntity>()
+        reader.beginArray()
+        while (reader.hasNext()) {
+            folders.add(readFolder(reader).toEntity())
+        }
+        reader.endArray()
+        dao.insertFolders(folders)
+    }
+
+    private fun readBookmark(reader: JsonReader): Bookmark {
+        var id: String? = null
+        var title: String? = null
+        var url: String? = null
+        var description = ""
+        var folderId = "default"
+        var tags: List<String> = emptyList()
+        var favicon = ""
+        var createdAt = System.currentTimeMillis()
+        var updatedAt = System.currentTimeMillis()
+        var visitCount = 0
+        var lastVisited = 0L
+        var isFavorite = false
+        var isPrivate = false
+        var customColor = ""
+
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                continue
+            }
+            when (name) {
+                "id" -> id = reader.nextString()
+                "title" -> title = reader.nextString()
+                "url" -> url = reader.nextString()
+                "description" -> description = reader.nextString()
+                "folderId" -> folderId = reader.nextString()
+                "tags" -> tags = readStrings(reader)
+                "favicon" -> favicon = reader.nextString()
+                "createdAt" -> createdAt = reader.nextLong()
+                "updatedAt" -> updatedAt = reader.nextLong()
+                "visitCount" -> visitCount = reader.nextInt()
+                "lastVisited" -> lastVisited = reader.nextLong()
+                "isFavorite" -> isFavorite = reader.nextBoolean()
+                "isPrivate" -> isPrivate = reader.nextBoolean()
+                "customColor" -> customColor = reader.nextString()
+                else -> reader.skipValue()
+            }
         }
+        reader.endObject()
+
+        return Bookmark(
+            id = id ?: throw IllegalArgumentException("书签缺少id"),
+            title = title ?: throw IllegalArgumentException("书签缺少title: $id"),
+            url = url ?: throw IllegalArgumentException("书签缺少url: $id"),
+            description = description,
+            folderId = folderId,
+            tags = tags,
+            favicon = favicon,
+            createdAt = createdAt,
+            updatedAt = updatedAt,
+            visitCount = visitCount,
+            lastVisited = lastVisited,
+            isFavorite = isFavorite,
+            isPrivate = isPrivate,
+            customColor = customColor
+        )
     }
 
-    private fun saveHistory(history: List<VisitHistory>) {
-        val jsonArray = JSONArray()
-        history.forEach { item ->
-            val json = JSONObject().apply {
-                put("bookmarkId", item.bookmarkId)
-                put("visitTime", item.visitTime)
-                put("duration", item.duration)
-                put("referrer", item.referrer)
+    private fun writeBookmark(writer: JsonWriter, bookmark: Bookmark) {
+        writer.beginObject()
+        writer.name("id").value(bookmark.id)
+        writer.name("title").value(bookmark.title)
+        writer.name("url").value(bookmark.url)
+        writer.name("description").value(bookmark.description)
+        writer.name("folderId").value(bookmark.folderId)
+        writer.name("tags").beginArray()
+        bookmark.tags.forEach { writer.value(it) }
+        writer.endArray()
+        writer.name("favicon").value(bookmark.favicon)
+        writer.name("createdAt").value(bookmark.createdAt)
+        writer.name("updatedAt").value(bookmark.updatedAt)
+        writer.name("visitCount").value(bookmark.visitCount.toLong())
+        writer.name("lastVisited").value(bookmark.lastVisited)
+        writer.name("isFavorite").value(bookmark.isFavorite)
+        writer.name("isPrivate").value(bookmark.isPrivate)
+        writer.name("customColor").value(bookmark.customColor)
+        writer.endObject()
+    }
+
+    private fun readFolder(reader: JsonReader): BookmarkFolder {
+        var id: String? = null
+        var name: String? = null
+        var parentId = "root"
+        var icon = "📁"
+        var color = ""
+        var createdAt = System.currentTimeMillis()
+        var isExpanded = true
+        var sortOrder = 0
+
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val key = reader.nextName()
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                continue
+            }
+            when (key) {
+                "id" -> id = reader.nextString()
+                "name" -> name = reader.nextString()
+                "parentId" -> parentId = reader.nextString()
+                "icon" -> icon = reader.nextString()
+                "color" -> color = reader.nextString()
+                "createdAt" -> createdAt = reader.nextLong()
+                "isExpanded" -> isExpanded = reader.nextBoolean()
+                "sortOrder" -> sortOrder = reader.nextInt()
+                else -> reader.skipValue()
             }
-            jsonArray.put(json)
         }
-        prefs.edit().putString(KEY_HISTORY, jsonArray.toString()).apply()
+        reader.endObject()
+
+        return BookmarkFolder(
+            id = id ?: throw IllegalArgumentException("文件夹缺少id"),
+            name = name ?: throw IllegalArgumentException("文件夹缺少name: $id"),
+            parentId = parentId,
+            icon = icon,
+            color = color,
+            createdAt = createdAt,
+            isExpanded = isExpanded,
+            sortOrder = sortOrder
+        )
     }
 
-    private fun parseHistoryFromJson(json: String): List<VisitHistory> {
-        val history = mutableListOf<VisitHistory>()
-        try {
-            val jsonArray = JSONArray(json)
-            for (i in 0 until jsonArray.length()) {
-                val item = jsonArray.getJSONObject(i)
-                history.add(
-                    VisitHistory(
-                        bookmarkId = item.getString("bookmarkId"),
-                        visitTime = item.getLong("visitTime"),
-                        duration = item.optLong("duration", 0),
-                        referrer = item.optString("referrer", "")
-                    )
-                )
+    private fun writeFolder(writer: JsonWriter, folder: BookmarkFolder) {
+        writer.beginObject()
+        writer.name("id").value(folder.id)
+        writer.name("name").value(folder.name)
+        writer.name("parentId").value(folder.parentId)
+        writer.name("icon").value(folder.icon)
+        writer.name("color").value(folder.color)
+        writer.name("createdAt").value(folder.createdAt)
+        writer.name("isExpanded").value(folder.isExpanded)
+        writer.name("sortOrder").value(folder.sortOrder.toLong())
+        writer.endObject()
+    }
+
+    private fun readVisit(reader: JsonReader): VisitHistory {
+        var bookmarkId: String? = null
+        var visitTime: Long? = null
+        var duration = 0L
+        var referrer = ""
+
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val key = reader.nextName()
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                continue
             }
-        } catch (e: Exception) {
-            e.printStackTrace()
+            when (key) {
+                "bookmarkId" -> bookmarkId = reader.nextString()
+                "visitTime" -> visitTime = reader.nextLong()
+                "duration" -> duration = reader.nextLong()
+                "referrer" -> referrer = reader.nextString()
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+
+        return VisitHistory(
+            bookmarkId = bookmarkId ?: throw IllegalArgumentException("访问记录缺少bookmarkId"),
+            visitTime = visitTime ?: throw IllegalArgumentException("访问记录缺少visitTime"),
+            duration = duration,
+            referrer = referrer
+        )
+    }
+
+    private fun readStrings(reader: JsonReader): List<String> {
+        val values = mutableListOf<String>()
+        reader.beginArray()
+        while (reader.hasNext()) {
+            values.add(reader.nextString())
         }
-        return history
+        reader.endArray()
+        return values
+    }
+
+    // 标签以换行分隔保存在 tagsText 中，标签本身的换行替换为空格
+    private fun normalizeTags(tags: List<String>): List<String> {
+        return tags.map { it.replace(TAG_SEPARATOR, " ") }.filter { it.isNotEmpty() }.distinct()
+    }
+
+    private fun BookmarkEntity.tags(): List<String> {
+        return if (tagsText.isEmpty()) emptyList() else tagsText.split(TAG_SEPARATOR)
+    }
+
+    private fun Bookmark.toEntity() = BookmarkEntity(
+        id = id,
+        title = title,
+        url = url,
+        description = description,
+        folderId = folderId,
+        tagsText = normalizeTags(tags).joinToString(TAG_SEPARATOR),
+        favicon = favicon,
+        createdAt = createdAt,
+        updatedAt = updatedAt,
+        visitCount = visitCount,
+        lastVisited = lastVisited,
+        isFavorite = isFavorite,
+        isPrivate = isPrivate,
+        customColor = customColor
+    )
+
+    private fun BookmarkEntity.toBookmark() = Bookmark(
+        id = id,
+        title = title,
+        url = url,
+        description = description,
+        folderId = folderId,
+        tags = tags(),
+        favicon = favicon,
+        createdAt = createdAt,
+        updatedAt = updatedAt,
+        visitCount = visitCount,
+        lastVisited = lastVisited,
+        isFavorite = isFavorite,
+        isPrivate = isPrivate,
+        customColor = customColor
+    )
+
+    private fun BookmarkFolder.toEntity() = BookmarkFolderEntity(
+        id = id,
+        name = name,
+        parentId = parentId,
+        icon = icon,
+        color = color,
+        createdAt = createdAt,
+        isExpanded = isExpanded,
+        sortOrder = sortOrder
+    )
+
+    private fun BookmarkFolderEntity.toFolder() = BookmarkFolder(
+        id = id,
+        name = name,
+        parentId = parentId,
+        icon = icon,
+        color = color,
+        createdAt = createdAt,
+        isExpanded = isExpanded,
+        sortOrder = sortOrder
+    )
+
+    private fun getDefaultFolders(): List<BookmarkFolder> {
+        return listOf(
+            BookmarkFolder(id = "default", name = "默认", parentId = "root", icon = "📚"),
+            BookmarkFolder(id = "work", name = "工作", parentId = "root", icon = "💼"),
+            BookmarkFolder(id = "personal", name = "个人", parentId = "root", icon = "👤"),
+            BookmarkFolder(id = "reading", name = "阅读", parentId = "root", icon = "📖"),
+            BookmarkFolder(id = "tech", name = "技术", parentId = "root", icon = "💻")
+        )
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,113 @@
+package com.lanhe.mokuai.bookmark
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.PriorityQueue
+import kotlin.math.ln
+
+/**
+ * 书签搜索的查询构造和排序
+ * 输入的每个词都按前缀匹配（`词*`），多个词同时命中才算匹配。
+ * 排序分数由 matchinfo 计算：各列命中次数按列权重和词的逆文档频率加权，
+ * 再加上访问次数和收藏的加成，只对命中的行计算，不读取其他书签。
+ */
+internal object BookmarkSearch {
+
+    /**
+     * 列权重，顺序与 [BookmarkFtsEntity] 的列一致：标题、URL、描述、标签
+     */
+    val COLUMN_WEIGHTS = doubleArrayOf(4.0, 2.0, 1.0, 3.0)
+
+    private const val MAX_TERMS = 8
+    private const val VISIT_BOOST = 0.5
+    private const val FAVORITE_BOOST = 2.0
+    private val TERM = Regex("[\\p{L}\\p{N}]+")
+
+    /**
+     * 把用户输入转换为 MATCH 表达式，没有可检索的词时返回 null
+     * 只保留字母和数字组成的词并转为小写，避免输入中的引号、括号和大写的 AND/OR/NOT 被当作语法
+     */
+    fun buildMatch(query: String): String? {
+        val terms = TERM.findAll(query.lowercase())
+            .map { it.value }
+            .distinct()
+            .take(MAX_TERMS)
+            .toList()
+        if (terms.isEmpty()) return null
+        return terms.joinToString(" ") { "$it*" }
+    }
+
+    /**
+     * 是否包含中日韩文字
+     * unicode61 分词器把连续的中日韩文字当作一个词，只能匹配词首，这类查询改用子串匹配
+     */
+    fun needsSubstringSearch(query: String): Boolean {
+        return query.any { char ->
+            when (Character.UnicodeScript.of(char.code)) {
+                Character.UnicodeScript.HAN,
+                Character.UnicodeScript.HIRAGANA,
+                Character.UnicodeScript.KATAKANA,
+                Character.UnicodeScript.HANGUL -> true
+                else -> false
+            }
+        }
+    }
+
+    /**
+     * LIKE 子串匹配的模式，转义其中的通配符
+     */
+    fun likePattern(query: String): String {
+        val escaped = query.trim()
+            .replace("\\", "\\\\")
+            .replace("%", "\\%")
+            .replace("_", "\\_")
+        return "%$escaped%"
+    }
+
+    /**
+     * 计算命中书签的分数
+     */
+    fun score(hit: BookmarkSearchHit): Double {
+        val info = ByteBuffer.wrap(hit.matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer()
+        if (info.remaining() < 3) return 0.0
+        val phrases = info.get(0)
+        val columns = info.get(1)
+        val rows = info.get(2).toDouble()
+        var score = 0.0
+        for (phrase in 0 until phrases) {
+            for (column in 0 until columns) {
+                val base = 3 + 3 * (phrase * columns + column)
+                if (base + 2 >= info.limit()) break
+                val hits = info.get(base)
+                if (hits == 0) continue
+                val docs = info.get(base + 2).toDouble()
+                val idf = ln(1.0 + (rows - docs + 0.5) / (docs + 0.5))
+                val weight = COLUMN_WEIGHTS.getOrElse(column) { 1.0 }
+                // 词频做饱和处理，标题里重复多次不会压过其他列的命中
+                score += weight * idf * hits / (hits + 1.0)
+            }
+        }
+        score += VISIT_BOOST * ln(1.0 + hit.visitCount)
+        if (hit.isFavorite) score += FAVORITE_BOOST
+        return score
+    }
+
+    /**
+     * 按分数取前 [limit] 个书签ID
+     * 用容量为 [limit] 的小顶堆，不对所有命中整体排序
+     */
+    fun rank(hits: List<BookmarkSearchHit>, limit: Int): List<String> {
+        if (limit <= 0) return emptyList()
+        val top = PriorityQueue<Pair<String, Double>>(limit, compareBy { it.second })
+        for (hit in hits) {
+            val score = score(hit)
+            if (top.size < limit) {
+                top.add(hit.id to score)
+            } else if (score > top.peek()!!.second) {
+                top.poll()
+                top.add(hit.id to score)
+            }
+        }
+        return top.sortedByDescending { it.second }.map { it.first }
+    }
+}
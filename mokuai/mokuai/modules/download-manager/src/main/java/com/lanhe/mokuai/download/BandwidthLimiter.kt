@@ -0,0 +1,67 @@
+package com.lanhe.mokuai.download
+
+import kotlinx.coroutines.delay
+
+/**
+ * 令牌桶限速器
+ * 所有下载协程共享一个桶，每读到一块数据调用 [acquire]；令牌不足时按欠下的字节数挂起，
+ * 多个协程同时欠账时各自等待的时间按先后累加，总速率不超过 [bytesPerSecond]。
+ *
+ * [bytesPerSecond] 可以在下载进行中修改，设为 0 表示不限速。
+ */
+class BandwidthLimiter(
+    bytesPerSecond: Long = 0,
+    private val clock: () -> Long = { System.nanoTime() }
+) {
+
+    companion object {
+        private const val BURST_SECONDS = 0.25 // 桶容量为 0.25 秒的流量
+        private const val MIN_BURST_BYTES = 16 * 1024.0
+    }
+
+    private val lock = Any()
+    private var tokens = 0.0
+    private var lastRefill = clock()
+
+    @Volatile
+    var bytesPerSecond: Long = bytesPerSecond.coerceAtLeast(0L)
+        set(value) {
+            synchronized(lock) {
+                val rate = value.coerceAtLeast(0L)
+                if (field <= 0 && rate > 0) {
+                    // 从不限速切换为限速时从满桶开始
+                    tokens = capacity(rate)
+                    lastRefill = clock()
+                } else if (rate > 0) {
+                    tokens = minOf(tokens, capacity(rate))
+                }
+                field = rate
+            }
+        }
+
+    init {
+        tokens = capacity(this.bytesPerSecond)
+    }
+
+    /**
+     * 申请 bytes 个字节的额度，超出速率时挂起
+     */
+    suspend fun acquire(bytes: Int) {
+        val waitNanos = synchronized(lock) {
+            val rate = bytesPerSecond
+            if (rate <= 0) return
+            val now = clock()
+            tokens = minOf(capacity(rate), tokens + (now - lastRefill) * rate / 1e9)
+            lastRefill = now
+            tokens -= bytes
+            if (tokens >= 0) 0L else (-tokens * 1e9 / rate).toLong()
+        }
+        if (waitNanos > 0) {
+            delay((waitNanos + 999_999) / 1_000_000)
+        }
+    }
+
+    private fun capacity(rate: Long): Double {
+        return maxOf(rate * BURST_SECONDS, MIN_BURST_BYTES)
+    }
+}
@@ -17,9 +17,11 @@ import org.json.JSONObject
 import java.io.*
 import java.net.HttpURLConnection
 import java.net.URL
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
-import kotlin.math.min
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * 下载管理器 - 多线程下载、断点续传、下载管理
@@ -37,6 +39,8 @@ class DownloadManager(private val context: Context) {
         private const val PROGRESS_UPDATE_INTERVAL = 500L // 500ms更新一次进度
         private const val MAX_RETRY_COUNT = 3
         private const val RETRY_DELAY = 2000L // 2秒重试间隔
+        private const val JOURNAL_DIR = "download_journal"
+        private const val CHECKPOINT_INTERVAL = 2000L // 2秒保存一次分段进度
     }
 
     private val sharedPrefs by lazy {
@@ -54,6 +58,16 @@ class DownloadManager(private val context: Context) {
     // 下载状态流
     private val _downloadStates = ConcurrentHashMap<String, MutableStateFlow<DownloadState>>()
 
+    // 所有下载共享的限速器，速率来自设置中的 speedLimit
+    private val bandwidthLimiter by lazy { BandwidthLimiter(getSettings().speedLimit) }
+
+    /**
+     * 是否由下载管理器自动重试失败的任务
+     * 由外部调度器负责重试和退避时设为 false，失败的任务直接标记为 FAILED
+     */
+    @Volatile
+    var autoRetryEnabled = true
+
     data class DownloadTask(
         val id: String = UUID.randomUUID().toString(),
         val url: String,
@@ -116,14 +130,6 @@ class DownloadManager(private val context: Context) {
         val duration: Long
     )
 
-    data class ThreadInfo(
-        val id: Int,
-        val startPos: Long,
-        val endPos: Long,
-        val currentPos: Long,
-        val completed: Boolean = false
-    )
-
     /**
      * 创建下载任务
      */
@@ -161,12 +167,19 @@ class DownloadManager(private val context: Context) {
 
     /**
      * 开始下载
+     * @param threadCount 本次下载使用的连接数，为 null 时使用任务创建时的设置
+     * @return 下载协程，任务不存在或已在下载时返回 null
      */
-    fun startDownload(downloadId: String) {
-        val task = downloadTasks[downloadId] ?: return
+    fun startDownload(downloadId: String, threadCount: Int? = null): Job? {
+        var task = downloadTasks[downloadId] ?: return null
 
         if (task.status == DownloadStatus.DOWNLOADING) {
-            return
+            return null
+        }
+
+        if (threadCount != null && threadCount != task.threadCount) {
+            task = task.copy(threadCount = threadCount.coerceAtLeast(1))
+            downloadTasks[downloadId] = task
         }
 
         val job = GlobalScope.launch(Dispatchers.IO) {
@@ -183,20 +196,39 @@ class DownloadManager(private val context: Context) {
 
                 updateTaskStatus(downloadId, DownloadStatus.DOWNLOADING)
 
-                if (updatedTask.resumable && updatedTask.threadCount > 1) {
-                    // 多线程下载
-                    downloadWithMultipleThreads(updatedTask)
-                } else {
-                    // 单线程下载
-                    downloadWithSingleThread(updatedTask)
+                // 进度由下载协程累加到各自的计数器，这里定时汇总并发布，避免每次读写都更新状态
+                val tracker = ProgressTracker(updatedTask.fileSize)
+                val progressJob = launch {
+                    while (isActive) {
+                        delay(PROGRESS_UPDATE_INTERVAL)
+                        publishProgress(downloadId, tracker)
+                    }
                 }
 
+                try {
+                    if (updatedTask.resumable && updatedTask.threadCount > 1) {
+                        // 多线程下载
+                        downloadWithMultipleThreads(updatedTask, tracker)
+                    } else {
+                        // 单线程下载
+                        downloadWithSingleThread(updatedTask, tracker)
+                    }
+                } finally {
+                    progressJob.cancel()
+                    // 记下最后一个周期内写入的字节，暂停后显示的进度与磁盘一致
+                    flushProgress(downloadId, tracker)
+                }
+
+            } catch (e: CancellationException) {
+                // 暂停或取消，不按失败处理
+                throw e
             } catch (e: Exception) {
                 handleDownloadError(downloadId, e)
             }
         }
 
         downloadJobs[downloadId] = job
+        return job
     }
 
     /**
@@ -308,61 +340,90 @@ class DownloadManager(private val context: Context) {
 
     // ========== 多线程下载实现 ==========
 
-    private suspend fun downloadWithMultipleThreads(task: DownloadTask) = coroutineScope {
+    private suspend fun downloadWithMultipleThreads(
+        task: DownloadTask,
+        tracker: ProgressTracker
+    ) = withContext(Dispatchers.IO) {
         val file = File(task.savePath, task.fileName)
         val tempFile = File(task.savePath, "${task.fileName}.tmp")
+        val journalFile = getJournalFile(task)
 
-        // 创建临时文件
-        if (!tempFile.exists()) {
-            tempFile.createNewFile()
-            val raf = RandomAccessFile(tempFile, "rw")
-            raf.setLength(task.fileSize)
-            raf.close()
-        }
-
-        // 计算每个线程的下载范围
-        val blockSize = task.fileSize / task.threadCount
-        val threads = mutableListOf<ThreadInfo>()
-
-        for (i in 0 until task.threadCount) {
-            val startPos = i * blockSize
-            val endPos = if (i == task.threadCount - 1) {
-                task.fileSize - 1
-            } else {
-                (i + 1) * blockSize - 1
+        // 临时文件还在时按分段日志续传，否则重新划分分段
+        val journal = (if (tempFile.exists()) SegmentJournal.load(journalFile, task.url, task.fileSize) else null)
+            ?: SegmentJournal.create(journalFile, task.url, task.fileSize, task.threadCount).also {
+                tempFile.delete()
             }
+        tracker.start(journal.downloadedBytes)
 
-            threads.add(ThreadInfo(
-                id = i,
-                startPos = startPos,
-                endPos = endPos,
-                currentPos = startPos
-            ))
-        }
+        RandomAccessFile(tempFile, "rw").use { raf ->
+            if (raf.length() != task.fileSize) raf.setLength(task.fileSize)
+            val channel = raf.channel
+            // 先刷数据再写日志，日志中的位置之前的数据一定已在磁盘上
+            val checkpoint = { journal.save { channel.force(false) } }
 
-        // 启动下载线程
-        val jobs = threads.map { threadInfo ->
-            async {
-                downloadThread(task, tempFile, threadInfo)
+            try {
+                coroutineScope {
+                    val checkpointJob = launch {
+                        while (isActive) {
+                            delay(CHECKPOINT_INTERVAL)
+                            checkpoint()
+                        }
+                    }
+
+                    // 每个协程领取分段下载，没有剩余分段时拆分最慢的分段继续
+                    (0 until task.threadCount).map {
+                        async {
+                            val lane = tracker.newLane()
+                            var segment = journal.claim() ?: journal.steal()
+                            while (segment != null) {
+                                try {
+                                    downloadSegment(task, channel, journal, segment, lane)
+                                } finally {
+                                    journal.release(segment)
+                                }
+                                segment = journal.claim() ?: journal.steal()
+                            }
+                        }
+                    }.awaitAll()
+                    checkpointJob.cancel()
+                }
+            } finally {
+                // 暂停、出错或进程即将退出时保存进度
+                withContext(NonCancellable) {
+                    try {
+                        checkpoint()
+                    } catch (e: IOException) {
+                        e.printStackTrace()
+                    }
+                }
             }
         }
 
-        // 等待所有线程完成
-        jobs.awaitAll()
+        if (!journal.isComplete) {
+            throw IOException("Download incomplete")
+        }
 
         // 重命名临时文件
         if (tempFile.renameTo(file)) {
+            journal.delete()
             completeDownload(task.id, file)
         } else {
             throw IOException("Failed to rename temp file")
         }
     }
 
-    private suspend fun downloadThread(
+    /**
+     * 下载一个分段，从分段当前位置写到分段结束
+     * 分段的结束位置可能被其他协程拆分缩小，每次写入前在日志锁内确定写入范围，写到新的结束位置为止
+     */
+    private suspend fun downloadSegment(
         task: DownloadTask,
-        file: File,
-        threadInfo: ThreadInfo
+        channel: FileChannel,
+        journal: SegmentJournal,
+        segment: SegmentJournal.Segment,
+        lane: AtomicLong
     ) = withContext(Dispatchers.IO) {
+        if (segment.isComplete) return@withContext
         val url = URL(task.url)
         val connection = url.openConnection() as HttpURLConnection
 
@@ -374,40 +435,51 @@ class DownloadManager(private val context: Context) {
         // 设置下载范围
         connection.setRequestProperty(
             "Range",
-            "bytes=${threadInfo.currentPos}-${threadInfo.endPos}"
+            "bytes=${segment.position}-${segment.end}"
         )
 
         connection.connectTimeout = 10000
         connection.readTimeout = 10000
 
-        val raf = RandomAccessFile(file, "rw")
-        raf.seek(threadInfo.currentPos)
+        try {
+            if (connection.responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw IOException("Range request not honored: HTTP ${connection.responseCode}")
+            }
 
-        connection.inputStream.use { input ->
-            val buffer = ByteArray(BUFFER_SIZE)
-            var bytesRead: Int
-            var currentPos = threadInfo.currentPos
+            connection.inputStream.use { input ->
+                val buffer = ByteArray(BUFFER_SIZE)
+                var bytesRead: Int
 
-            while (isActive && currentPos <= threadInfo.endPos) {
-                bytesRead = input.read(buffer)
-                if (bytesRead == -1) break
+                while (isActive && !segment.isComplete) {
+                    bytesRead = input.read(buffer)
+                    if (bytesRead == -1) break
 
-                val writeSize = min(bytesRead, (threadInfo.endPos - currentPos + 1).toInt())
-                raf.write(buffer, 0, writeSize)
-                currentPos += writeSize
+                    val position = segment.position
+                    val writeSize = journal.beginWrite(segment, bytesRead)
+                    if (writeSize <= 0) break
+                    val byteBuffer = ByteBuffer.wrap(buffer, 0, writeSize)
+                    var offset = position
+                    while (byteBuffer.hasRemaining()) {
+                        offset += channel.write(byteBuffer, offset)
+                    }
+                    journal.endWrite(segment, writeSize)
 
-                // 更新进度
-                updateProgress(task.id, writeSize.toLong())
+                    // 更新进度
+                    lane.addAndGet(writeSize.toLong())
+                    bandwidthLimiter.acquire(writeSize)
+                }
             }
+        } finally {
+            connection.disconnect()
         }
-
-        raf.close()
-        connection.disconnect()
     }
 
     // ========== 单线程下载实现 ==========
 
-    private suspend fun downloadWithSingleThread(task: DownloadTask) = withContext(Dispatchers.IO) {
+    private suspend fun downloadWithSingleThread(
+        task: DownloadTask,
+        tracker: ProgressTracker
+    ) = withContext(Dispatchers.IO) {
         val file = File(task.savePath, task.fileName)
         val tempFile = File(task.savePath, "${task.fileName}.tmp")
 
@@ -430,6 +502,8 @@ class DownloadManager(private val context: Context) {
         connection.readTimeout = 10000
 
         val fileOutputStream = FileOutputStream(tempFile, downloadedSize > 0)
+        tracker.start(downloadedSize)
+        val lane = tracker.newLane()
 
         connection.inputStream.use { input ->
             fileOutputStream.use { output ->
@@ -444,7 +518,8 @@ class DownloadManager(private val context: Context) {
                     downloadedSize += bytesRead
 
                     // 更新进度
-                    updateProgress(task.id, bytesRead.toLong())
+                    lane.addAndGet(bytesRead.toLong())
+                    bandwidthLimiter.acquire(bytesRead)
                 }
             }
         }
@@ -508,63 +583,68 @@ class DownloadManager(private val context: Context) {
      * 更新任务状态
      */
     private fun updateTaskStatus(downloadId: String, status: DownloadStatus) {
-        val task = downloadTasks[downloadId] ?: return
-        val updatedTask = task.copy(status = status)
-        downloadTasks[downloadId] = updatedTask
+        val updatedTask = downloadTasks.computeIfPresent(downloadId) { _, task ->
+            task.copy(status = status)
+        } ?: return
         saveDownloadTasks()
 
         // 更新状态流
         _downloadStates[downloadId]?.value = DownloadState(
             updatedTask,
-            task.progress,
-            task.speed,
-            task.remainingTime
+            updatedTask.progress,
+            updatedTask.speed,
+            updatedTask.remainingTime
         )
     }
 
     /**
-     * 更新下载进度
+     * 发布下载进度，由定时任务调用，每个下载每个周期最多发布一次
      */
-    private fun updateProgress(downloadId: String, bytesDownloaded: Long) {
-        val task = downloadTasks[downloadId] ?: return
-        val updatedSize = task.downloadedSize + bytesDownloaded
-        val progress = if (task.fileSize > 0) {
-            (updatedSize.toFloat() / task.fileSize * 100)
-        } else {
-            0f
-        }
-
-        val updatedTask = task.copy(
-            downloadedSize = updatedSize,
-            progress = progress
-        )
-        downloadTasks[downloadId] = updatedTask
-
-        // 计算速度和剩余时间
-        val currentTime = System.currentTimeMillis()
-        val elapsedTime = currentTime - task.createTime
-        val speed = if (elapsedTime > 0) {
-            (updatedSize * 1000 / elapsedTime)
-        } else {
-            0L
-        }
-
-        val remainingBytes = task.fileSize - updatedSize
-        val remainingTime = if (speed > 0) {
-            remainingBytes / speed * 1000
-        } else {
-            0L
-        }
+    private fun publishProgress(downloadId: String, tracker: ProgressTracker) {
+        val sample = tracker.sample()
+        val updatedTask = downloadTasks.computeIfPresent(downloadId) { _, task ->
+            if (task.status != DownloadStatus.DOWNLOADING) {
+                task
+            } else {
+                task.copy(
+                    downloadedSize = sample.downloadedBytes,
+                    progress = sample.progress,
+                    speed = sample.speed,
+                    remainingTime = sample.remainingTime
+                )
+            }
+        } ?: return
+        if (updatedTask.status != DownloadStatus.DOWNLOADING) return
 
         // 更新状态流
         _downloadStates[downloadId]?.value = DownloadState(
             updatedTask,
-            progress,
-            speed,
-            remainingTime
+            sample.progress,
+            sample.speed,
+            sample.remainingTime
         )
     }
 
+    /**
+     * 下载结束（完成、暂停或出错）时写回最终字节数，不再发布速度
+     */
+    private fun flushProgress(downloadId: String, tracker: ProgressTracker) {
+        if (!tracker.isStarted) return
+        val downloadedBytes = tracker.downloadedBytes
+        downloadTasks.computeIfPresent(downloadId) { _, task ->
+            if (task.status == DownloadStatus.COMPLETED) {
+                task
+            } else {
+                task.copy(
+                    downloadedSize = downloadedBytes,
+                    progress = if (task.fileSize > 0) downloadedBytes.toFloat() / task.fileSize * 100 else 0f,
+                    speed = 0,
+                    remainingTime = 0
+                )
+            }
+        }
+    }
+
     /**
      * 完成下载
      */
@@ -598,7 +678,7 @@ class DownloadManager(private val context: Context) {
         val task = downloadTasks[downloadId] ?: return
         val settings = getSettings()
 
-        if (settings.autoRetry && task.retryCount < settings.maxRetryCount) {
+        if (autoRetryEnabled && settings.autoRetry && task.retryCount < settings.maxRetryCount) {
             // 自动重试
             val updatedTask = task.copy(
                 retryCount = task.retryCount + 1,
@@ -641,6 +721,15 @@ class DownloadManager(private val context: Context) {
         if (tempFile.exists()) {
             tempFile.delete()
         }
+
+        getJournalFile(task).delete()
+    }
+
+    /**
+     * 分段日志保存在应用私有目录，与下载目录是否可写无关
+     */
+    private fun getJournalFile(task: DownloadTask): File {
+        return File(File(context.filesDir, JOURNAL_DIR), "${task.id}.journal")
     }
 
     // ========== 设置管理 ==========
@@ -688,6 +777,17 @@ class DownloadManager(private val context: Context) {
             put("deleteFileOnCancel", settings.deleteFileOnCancel)
         }
         sharedPrefs.edit().putString(KEY_SETTINGS, json.toString()).apply()
+
+        // 限速立即对进行中的下载生效
+        bandwidthLimiter.bytesPerSecond = settings.speedLimit
+    }
+
+    /**
+     * 设置全局限速
+     * @param bytesPerSecond 字节/秒，0 表示不限速
+     */
+    fun setSpeedLimit(bytesPerSecond: Long) {
+        saveSettings(getSettings().copy(speedLimit = bytesPerSecond.coerceAtLeast(0L)))
     }
 
     // ========== 历史记录管理 ==========
@@ -784,7 +884,11 @@ class DownloadManager(private val context: Context) {
             val jsonArray = JSONArray(json)
             for (i in 0 until jsonArray.length()) {
                 val taskJson = jsonArray.getJSONObject(i)
-                val task = jsonToTask(taskJson)
+                var task = jsonToTask(taskJson)
+                // 上次进程退出时仍在下载的任务已经中断，按暂停处理以便重新开始
+                if (task.status == DownloadStatus.DOWNLOADING || task.status == DownloadStatus.CONNECTING) {
+                    task = task.copy(status = DownloadStatus.PAUSED, speed = 0, remainingTime = 0)
+                }
                 downloadTasks[task.id] = task
 
                 // 创建状态流
@@ -0,0 +1,102 @@
+package com.lanhe.mokuai.download
+
+import android.os.SystemClock
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 下载进度统计
+ * 每个下载协程持有自己的计数器（[newLane]），写入数据时只做一次无竞争的原子加法；
+ * 由定时任务调用 [sample] 汇总字节数，并用指数加权移动平均（EWMA）计算速度和剩余时间。
+ */
+internal class ProgressTracker(
+    private val totalBytes: Long,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    companion object {
+        private const val SPEED_SMOOTHING = 0.3 // 新采样的权重，越大对速度变化越敏感
+    }
+
+    /**
+     * 一次采样结果
+     * @param speed 字节/秒
+     * @param remainingTime 毫秒，速度未知时为 0
+     */
+    data class Sample(
+        val downloadedBytes: Long,
+        val progress: Float,
+        val speed: Long,
+        val remainingTime: Long
+    )
+
+    private val lanes = CopyOnWriteArrayList<AtomicLong>()
+
+    @Volatile
+    private var baseBytes = 0L
+
+    /**
+     * 是否已调用过 [start]
+     */
+    @Volatile
+    var isStarted = false
+        private set
+
+    // 以下字段只由定时任务通过 sample() 更新，start() 重置时采样最多偏差一个周期
+    private var lastBytes = -1L
+    private var lastTime = 0L
+    private var speed = -1.0
+
+    /**
+     * 开始（或重新开始）统计
+     * @param alreadyDownloaded 续传时已在磁盘上的字节数
+     */
+    fun start(alreadyDownloaded: Long) {
+        lanes.clear()
+        baseBytes = alreadyDownloaded
+        lastBytes = -1L
+        speed = -1.0
+        isStarted = true
+    }
+
+    /**
+     * 为一个下载协程创建计数器
+     */
+    fun newLane(): AtomicLong {
+        return AtomicLong().also { lanes.add(it) }
+    }
+
+    val downloadedBytes: Long
+        get() = baseBytes + lanes.sumOf { it.get() }
+
+    /**
+     * 汇总各计数器并更新速度
+     */
+    fun sample(): Sample {
+        val bytes = downloadedBytes
+        val now = clock()
+
+        if (lastBytes >= 0 && now > lastTime) {
+            val instant = (bytes - lastBytes).coerceAtLeast(0L) * 1000.0 / (now - lastTime)
+            speed = if (speed < 0) instant else SPEED_SMOOTHING * instant + (1 - SPEED_SMOOTHING) * speed
+        }
+        if (lastBytes < 0 || now > lastTime) {
+            lastBytes = bytes
+            lastTime = now
+        }
+
+        val currentSpeed = speed.coerceAtLeast(0.0).toLong()
+        val progress = if (totalBytes > 0) {
+            (bytes.toFloat() / totalBytes * 100).coerceAtMost(100f)
+        } else {
+            0f
+        }
+        val remainingTime = if (currentSpeed > 0 && totalBytes > 0) {
+            (totalBytes - bytes).coerceAtLeast(0L) * 1000 / currentSpeed
+        } else {
+            0L
+        }
+
+        return Sample(bytes, progress, currentSpeed, remainingTime)
+    }
+}
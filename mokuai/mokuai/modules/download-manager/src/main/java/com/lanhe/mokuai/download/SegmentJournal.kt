@@ -0,0 +1,246 @@
+package com.lanhe.mokuai.download
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * 分段下载日志
+ * 记录一个下载任务的各个分段区间和已写入的位置，定期写入磁盘，进程退出或暂停后每个分段从记录的位置继续。
+ *
+ * 文件格式（大端序）：
+ * ```
+ * magic(int) version(int) fileSize(long) url(UTF)
+ * count(int) { start(long) end(long) position(long) }
+ * ```
+ * 写入时先写临时文件再重命名，读取方不会看到写了一半的日志。
+ *
+ * 分段由下载协程通过 [claim] 领取；没有可领取的分段时用 [steal] 把剩余时间最长的分段一分为二，
+ * 后半段交给空闲的协程，避免少数慢分段拖住整个下载。
+ * 下载协程每次写入前用 [beginWrite] 在日志锁内确定可写的字节数，写完用 [endWrite] 推进位置，
+ * [steal] 只从正在写入的区间之后拆分，两者不会写入同一段字节。
+ */
+internal class SegmentJournal private constructor(
+    private val file: File,
+    val url: String,
+    val fileSize: Long,
+    segments: List<Segment>
+) {
+
+    companion object {
+        private const val MAGIC = 0x444C534A // "DLSJ"
+        private const val VERSION = 1
+        private const val MIN_STEAL_SIZE = 512 * 1024L // 剩余不足该大小的分段不再拆分
+
+        /**
+         * 按线程数平均划分分段，创建新的日志
+         */
+        fun create(file: File, url: String, fileSize: Long, segmentCount: Int): SegmentJournal {
+            // 分段不小于 MIN_STEAL_SIZE，小文件不必开满线程
+            val maxSegments = (fileSize / MIN_STEAL_SIZE).coerceIn(1L, Int.MAX_VALUE.toLong()).toInt()
+            val count = segmentCount.coerceIn(1, maxSegments)
+            val blockSize = fileSize / count
+            val segments = List(count) { i ->
+                val start = i * blockSize
+                val end = if (i == count - 1) fileSize - 1 else (i + 1) * blockSize - 1
+                Segment(start, end, start)
+            }
+            return SegmentJournal(file, url, fileSize, segments)
+        }
+
+        /**
+         * 读取日志，文件不存在、损坏或与当前任务不符时返回 null
+         */
+        fun load(file: File, url: String, fileSize: Long): SegmentJournal? {
+            if (!file.isFile) return null
+            return try {
+                DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                    if (input.readInt() != MAGIC || input.readInt() != VERSION) return null
+                    val savedSize = input.readLong()
+                    val savedUrl = input.readUTF()
+                    if (savedSize != fileSize || savedUrl != url) return null
+                    val count = input.readInt()
+                    if (count <= 0 || count > 4096) return null
+                    val segments = List(count) {
+                        val start = input.readLong()
+                        val end = input.readLong()
+                        val position = input.readLong()
+                        if (start < 0 || end >= fileSize || position < start || position > end + 1) return null
+                        Segment(start, end, position)
+                    }
+                    SegmentJournal(file, url, fileSize, segments)
+                }
+            } catch (e: IOException) {
+                null
+            }
+        }
+    }
+
+    /**
+     * 一个分段，区间为 [start, end]，position 为下一个待写入的字节
+     * end 可能被 [steal] 缩小，写入范围须通过 [beginWrite] 确定
+     */
+    class Segment(val start: Long, end: Long, position: Long) {
+        @Volatile
+        var end: Long = end
+            internal set
+
+        @Volatile
+        var position: Long = position
+            internal set
+
+        // 以下字段只在持有日志锁时访问
+        internal var owned = false
+        internal var claimedAt = 0L
+        internal var claimedPosition = 0L
+        internal var writeLimit = position // 正在写入的区间 [position, writeLimit)
+
+        val isComplete: Boolean get() = position > end
+        val remaining: Long get() = maxOf(0L, end - position + 1)
+
+        /**
+         * 已写入的字节数，被拆分后超出 end 的部分不计入
+         */
+        val written: Long get() = minOf(position, end + 1) - start
+    }
+
+    private val lock = Any()
+    private val segments = ArrayList(segments)
+
+    /**
+     * 已写入的总字节数
+     */
+    val downloadedBytes: Long
+        get() = synchronized(lock) { segments.sumOf { it.written } }
+
+    val isComplete: Boolean
+        get() = synchronized(lock) { segments.all { it.isComplete } }
+
+    /**
+     * 领取一个未完成且无人下载的分段
+     */
+    fun claim(): Segment? {
+        synchronized(lock) {
+            val segment = segments.firstOrNull { !it.owned && !it.isComplete } ?: return null
+            markOwned(segment)
+            return segment
+        }
+    }
+
+    /**
+     * 把预计最晚完成的分段从剩余部分的中点拆开，后半段作为新分段交给调用方
+     * @return 新分段，没有值得拆分的分段时返回 null
+     */
+    fun steal(): Segment? {
+        synchronized(lock) {
+            val now = System.currentTimeMillis()
+            val victim = segments
+                .filter { it.owned && it.end - splitBase(it) + 1 >= MIN_STEAL_SIZE * 2 }
+                .maxByOrNull { estimatedRemainingMs(it, now) }
+                ?: return null
+
+            // 正在写入的区间仍归原分段，从它之后开始拆分
+            val base = splitBase(victim)
+            val splitAt = base + (victim.end - base + 1) / 2
+            val stolen = Segment(splitAt, victim.end, splitAt)
+            victim.end = splitAt - 1
+            segments.add(stolen)
+            markOwned(stolen)
+            return stolen
+        }
+    }
+
+    /**
+     * 开始一次写入：在日志锁内按当前的 end 确定可写入的字节数，并把这段区间标记为写入中
+     * @return 可写入的字节数，分段已写到结尾（包括被拆分缩短后）时返回 0
+     */
+    fun beginWrite(segment: Segment, size: Int): Int {
+        synchronized(lock) {
+            val count = minOf(size.toLong(), segment.end - segment.position + 1).coerceAtLeast(0L).toInt()
+            segment.writeLimit = segment.position + count
+            return count
+        }
+    }
+
+    /**
+     * 结束 [beginWrite] 开始的写入，分段位置前进 [count] 字节
+     */
+    fun endWrite(segment: Segment, count: Int) {
+        synchronized(lock) {
+            segment.position += count
+            segment.writeLimit = segment.position
+        }
+    }
+
+    /**
+     * 归还分段（下载出错或暂停），之后可被再次领取
+     */
+    fun release(segment: Segment) {
+        synchronized(lock) {
+            segment.owned = false
+            // 写入中途出错时这段没有写完，不再占用
+            segment.writeLimit = segment.position
+        }
+    }
+
+    /**
+     * 把日志写入磁盘
+     * @param sync 在记下各分段位置之后、写日志之前调用，用于把数据文件刷到磁盘，
+     *   保证日志中的位置之前的数据都已落盘
+     */
+    @Throws(IOException::class)
+    fun save(sync: (() -> Unit)? = null) {
+        val snapshot = synchronized(lock) {
+            segments.map { longArrayOf(it.start, it.end, minOf(it.position, it.end + 1)) }
+        }
+        sync?.invoke()
+        file.parentFile?.mkdirs()
+        val tmp = File(file.path + ".tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(VERSION)
+                out.writeLong(fileSize)
+                out.writeUTF(url)
+                out.writeInt(snapshot.size)
+                snapshot.forEach { (start, end, position) ->
+                    out.writeLong(start)
+                    out.writeLong(end)
+                    out.writeLong(position)
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete()
+                if (!tmp.renameTo(file)) throw IOException("无法写入下载日志: ${file.path}")
+            }
+        } finally {
+            tmp.delete()
+        }
+    }
+
+    fun delete() {
+        file.delete()
+    }
+
+    private fun splitBase(segment: Segment) = maxOf(segment.position, segment.writeLimit)
+
+    private fun markOwned(segment: Segment) {
+        segment.owned = true
+        segment.claimedAt = System.currentTimeMillis()
+        segment.claimedPosition = segment.position
+        segment.writeLimit = segment.position
+    }
+
+    // 按领取以来的速度估算剩余时间；刚领取还没有速度的分段按剩余字节数排序
+    private fun estimatedRemainingMs(segment: Segment, now: Long): Double {
+        val elapsed = now - segment.claimedAt
+        val done = segment.position - segment.claimedPosition
+        if (elapsed <= 0 || done <= 0) return 1e15 + segment.remaining
+        return segment.remaining.toDouble() * elapsed / done
+    }
+}
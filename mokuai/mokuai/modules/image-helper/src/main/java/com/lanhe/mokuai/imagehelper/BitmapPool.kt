@@ -0,0 +1,93 @@
+package com.lanhe.mokuai.imagehelper
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import java.util.LinkedList
+
+/**
+ * 可变位图复用池
+ * 按宽、高、像素格式分桶保存不再使用的位图，取用相同规格时直接复用，
+ * 解码时也可作为 inBitmap 复用任意足够大的同格式位图。
+ * 总占用超过 [maxBytes] 时回收最早放入的位图。
+ */
+internal class BitmapPool(private val maxBytes: Long) {
+
+    private data class Key(val width: Int, val height: Int, val config: Bitmap.Config)
+
+    private val buckets = HashMap<Key, ArrayDeque<Bitmap>>()
+    private val entries = LinkedList<Bitmap>() // 按放入顺序，最早的在前
+    private var currentBytes = 0L
+
+    /**
+     * 取一个指定规格的透明位图，池中没有时新建
+     */
+    @Synchronized
+    fun get(width: Int, height: Int, config: Bitmap.Config = Bitmap.Config.ARGB_8888): Bitmap {
+        val bitmap = buckets[Key(width, height, config)]?.removeLastOrNull()
+        if (bitmap != null) {
+            detach(bitmap)
+            bitmap.eraseColor(Color.TRANSPARENT)
+            return bitmap
+        }
+        return Bitmap.createBitmap(width, height, config)
+    }
+
+    /**
+     * 取一个可作为解码 inBitmap 的位图：格式相同且容量足够，内容不清空
+     */
+    @Synchronized
+    fun getReusable(width: Int, height: Int, config: Bitmap.Config = Bitmap.Config.ARGB_8888): Bitmap? {
+        val needed = width.toLong() * height * bytesPerPixel(config)
+        val bitmap = entries.firstOrNull { it.config == config && it.allocationByteCount >= needed } ?: return null
+        buckets[Key(bitmap.width, bitmap.height, config)]?.remove(bitmap)
+        detach(bitmap)
+        return bitmap
+    }
+
+    /**
+     * 归还位图，不可变或过大的位图直接回收
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        if (bitmap.isRecycled || entries.any { it === bitmap }) return
+        val config = bitmap.config
+        val size = bitmap.allocationByteCount.toLong()
+        if (config == null || !bitmap.isMutable || size > maxBytes / 2) {
+            bitmap.recycle()
+            return
+        }
+        buckets.getOrPut(Key(bitmap.width, bitmap.height, config)) { ArrayDeque() }.addLast(bitmap)
+        entries.addLast(bitmap)
+        currentBytes += size
+        while (currentBytes > maxBytes) {
+            val oldest = entries.first()
+            buckets[Key(oldest.width, oldest.height, oldest.config!!)]?.remove(oldest)
+            detach(oldest)
+            oldest.recycle()
+        }
+    }
+
+    /**
+     * 回收池中所有位图
+     */
+    @Synchronized
+    fun clear() {
+        entries.forEach { it.recycle() }
+        entries.clear()
+        buckets.clear()
+        currentBytes = 0
+    }
+
+    private fun detach(bitmap: Bitmap) {
+        entries.remove(bitmap)
+        currentBytes -= bitmap.allocationByteCount
+    }
+
+    private fun bytesPerPixel(config: Bitmap.Config): Int {
+        return when (config) {
+            Bitmap.Config.ALPHA_8 -> 1
+            Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+            else -> 4
+        }
+    }
+}
@@ -6,7 +6,6 @@ import android.graphics.drawable.BitmapDrawable
 import android.media.ExifInterface
 import android.net.Uri
 import android.os.Build
-import android.renderscript.*
 import android.util.Base64
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
@@ -15,6 +14,10 @@ import kotlin.math.*
 
 /**
  * 图片助手 - 图片处理和优化工具
+ *
+ * 中间位图来自进程内共享的复用池，处理完即归还；返回给调用方的位图可用 [releaseBitmap] 归还。
+ * 连续的颜色矩阵滤镜（灰度、怀旧、亮度、对比度、饱和度、反色）合并为一个矩阵只绘制一次。
+ * 解码后的像素数不超过 [MAX_DECODE_PIXELS]，超大图片会加大采样率；裁剪用 BitmapRegionDecoder 只解码所需区域。
  */
 class ImageHelper(private val context: Context) {
 
@@ -23,8 +26,39 @@ class ImageHelper(private val context: Context) {
         private const val JPEG_QUALITY_MEDIUM = 85
         private const val JPEG_QUALITY_LOW = 75
         private const val MAX_TEXTURE_SIZE = 4096 // OpenGL ES最大纹理尺寸
+        private const val MAX_DECODE_PIXELS = MAX_TEXTURE_SIZE.toLong() * MAX_TEXTURE_SIZE // 单张位图解码后的像素上限
+
+        private val SEPIA_MATRIX = floatArrayOf(
+            0.393f, 0.769f, 0.189f, 0f, 0f,
+            0.349f, 0.686f, 0.168f, 0f, 0f,
+            0.272f, 0.534f, 0.131f, 0f, 0f,
+            0f, 0f, 0f, 1f, 0f
+        )
+
+        private val NEGATIVE_MATRIX = floatArrayOf(
+            -1f, 0f, 0f, 0f, 255f,
+            0f, -1f, 0f, 0f, 255f,
+            0f, 0f, -1f, 0f, 255f,
+            0f, 0f, 0f, 1f, 0f
+        )
+
+        private val WARM_TONE_MATRIX = floatArrayOf(
+            1.2f, 0f, 0f, 0f, 0f,
+            0f, 1f, 0f, 0f, 0f,
+            0f, 0f, 0.8f, 0f, 0f,
+            0f, 0f, 0f, 1f, 0f
+        )
+
+        private val SHARPEN_KERNEL = floatArrayOf(
+            0f, -1f, 0f,
+            -1f, 5f, -1f,
+            0f, -1f, 0f
+        )
     }
 
+    private val processing = ImageProcessingContext.getInstance(context)
+    private val pool get() = processing.pool
+
     data class ImageInfo(
         val width: Int,
         val height: Int,
@@ -144,15 +178,18 @@ class ImageHelper(private val context: Context) {
                 Pair(targetWidth, targetHeight)
             }
 
-            val resizedBitmap = Bitmap.createScaledBitmap(
-                originalBitmap,
-                finalWidth,
-                finalHeight,
-                true
-            )
-
-            if (resizedBitmap != originalBitmap) {
-                originalBitmap.recycle()
+            val resizedBitmap = if (finalWidth == originalBitmap.width && finalHeight == originalBitmap.height) {
+                originalBitmap
+            } else {
+                pool.get(finalWidth, finalHeight).also { result ->
+                    Canvas(result).drawBitmap(
+                        originalBitmap,
+                        null,
+                        Rect(0, 0, finalWidth, finalHeight),
+                        Paint(Paint.FILTER_BITMAP_FLAG)
+                    )
+                    pool.put(originalBitmap)
+                }
             }
 
             ProcessResult(
@@ -182,24 +219,32 @@ class ImageHelper(private val context: Context) {
         val startTime = System.currentTimeMillis()
 
         try {
-            val originalBitmap = loadBitmap(uri)
-
-            // 验证裁剪参数
-            val cropX = x.coerceIn(0, originalBitmap.width - 1)
-            val cropY = y.coerceIn(0, originalBitmap.height - 1)
-            val cropWidth = width.coerceIn(1, originalBitmap.width - cropX)
-            val cropHeight = height.coerceIn(1, originalBitmap.height - cropY)
-
-            val croppedBitmap = Bitmap.createBitmap(
-                originalBitmap,
-                cropX,
-                cropY,
-                cropWidth,
-                cropHeight
-            )
-
-            if (croppedBitmap != originalBitmap) {
-                originalBitmap.recycle()
+            val croppedBitmap = ImageSource.open(context, uri).use { source ->
+                // 坐标与 loadBitmap 得到的位图一致，按相同的缩放比例换算到原图
+                val bounds = decodeBounds(source)
+                val sampleSize = calculateInSampleSize(bounds, MAX_TEXTURE_SIZE, MAX_TEXTURE_SIZE)
+                val loadedWidth = ceilDiv(bounds.outWidth, sampleSize)
+                val loadedHeight = ceilDiv(bounds.outHeight, sampleSize)
+
+                // 验证裁剪参数
+                val cropX = x.coerceIn(0, loadedWidth - 1)
+                val cropY = y.coerceIn(0, loadedHeight - 1)
+                val cropWidth = width.coerceIn(1, loadedWidth - cropX)
+                val cropHeight = height.coerceIn(1, loadedHeight - cropY)
+
+                val region = Rect(
+                    cropX * sampleSize,
+                    cropY * sampleSize,
+                    minOf(bounds.outWidth, (cropX + cropWidth) * sampleSize),
+                    minOf(bounds.outHeight, (cropY + cropHeight) * sampleSize)
+                )
+                decodeRegion(source, region, sampleSize) ?: run {
+                    // 格式不支持区域解码时整图解码后裁剪
+                    val originalBitmap = decodeFull(source, bounds, sampleSize)
+                    Bitmap.createBitmap(originalBitmap, cropX, cropY, cropWidth, cropHeight).also {
+                        if (it != originalBitmap) pool.put(originalBitmap)
+                    }
+                }
             }
 
             ProcessResult(
@@ -239,7 +284,7 @@ class ImageHelper(private val context: Context) {
             )
 
             if (rotatedBitmap != originalBitmap) {
-                originalBitmap.recycle()
+                pool.put(originalBitmap)
             }
 
             ProcessResult(
@@ -271,8 +316,8 @@ class ImageHelper(private val context: Context) {
         val startTime = System.currentTimeMillis()
 
         try {
-            val originalBitmap = loadBitmap(imageUri)
-            val resultBitmap = originalBitmap.copy(Bitmap.Config.ARGB_8888, true)
+            // 解码得到的位图可变，直接在上面绘制
+            val resultBitmap = loadBitmap(imageUri)
             val canvas = Canvas(resultBitmap)
 
             when {
@@ -289,8 +334,8 @@ class ImageHelper(private val context: Context) {
                     paint.getTextBounds(watermarkText, 0, watermarkText.length, bounds)
 
                     val (x, y) = calculateWatermarkPosition(
-                        originalBitmap.width,
-                        originalBitmap.height,
+                        resultBitmap.width,
+                        resultBitmap.height,
                         bounds.width(),
                         bounds.height(),
                         position
@@ -304,8 +349,8 @@ class ImageHelper(private val context: Context) {
                     }
 
                     val (x, y) = calculateWatermarkPosition(
-                        originalBitmap.width,
-                        originalBitmap.height,
+                        resultBitmap.width,
+                        resultBitmap.height,
                         watermarkBitmap.width,
                         watermarkBitmap.height,
                         position
@@ -315,8 +360,6 @@ class ImageHelper(private val context: Context) {
                 }
             }
 
-            originalBitmap.recycle()
-
             ProcessResult(
                 success = true,
                 bitmap = resultBitmap,
@@ -334,25 +377,17 @@ class ImageHelper(private val context: Context) {
     /**
      * 应用滤镜
      */
-    suspend fun applyFilter(uri: Uri, filter: ImageFilter): ProcessResult = withContext(Dispatchers.IO) {
+    suspend fun applyFilter(uri: Uri, filter: ImageFilter): ProcessResult = applyFilters(uri, listOf(filter))
+
+    /**
+     * 依次应用多个滤镜
+     * 相邻的颜色矩阵滤镜合并后只绘制一次，模糊、锐化和暗角在原位图上处理，中间位图来自复用池
+     */
+    suspend fun applyFilters(uri: Uri, filters: List<ImageFilter>): ProcessResult = withContext(Dispatchers.IO) {
         val startTime = System.currentTimeMillis()
 
         try {
-            val originalBitmap = loadBitmap(uri)
-            val resultBitmap = when (filter) {
-                ImageFilter.GRAYSCALE -> applyGrayscale(originalBitmap)
-                ImageFilter.SEPIA -> applySepia(originalBitmap)
-                ImageFilter.BLUR -> applyBlur(originalBitmap, 15f)
-                ImageFilter.SHARPEN -> applySharpen(originalBitmap)
-                ImageFilter.BRIGHTNESS -> adjustBrightness(originalBitmap, 30f)
-                ImageFilter.CONTRAST -> adjustContrast(originalBitmap, 1.5f)
-                ImageFilter.VINTAGE -> applyVintage(originalBitmap)
-                ImageFilter.NEGATIVE -> applyNegative(originalBitmap)
-            }
-
-            if (resultBitmap != originalBitmap) {
-                originalBitmap.recycle()
-            }
+            val resultBitmap = runFilters(loadBitmap(uri), filters)
 
             ProcessResult(
                 success = true,
@@ -389,7 +424,7 @@ class ImageHelper(private val context: Context) {
                 bitmap.compress(targetFormat, quality, out)
             }
 
-            bitmap.recycle()
+            pool.put(bitmap)
 
             ProcessResult(
                 success = true,
@@ -416,7 +451,7 @@ class ImageHelper(private val context: Context) {
                 val baos = ByteArrayOutputStream()
                 bitmap.compress(format, 100, baos)
                 val bytes = baos.toByteArray()
-                bitmap.recycle()
+                pool.put(bitmap)
                 Base64.encodeToString(bytes, Base64.DEFAULT)
             } catch (e: Exception) {
                 null
@@ -435,27 +470,83 @@ class ImageHelper(private val context: Context) {
         }
     }
 
+    /**
+     * 归还不再使用的位图（如 [ProcessResult.bitmap]），供后续处理复用
+     */
+    fun releaseBitmap(bitmap: Bitmap) {
+        pool.put(bitmap)
+    }
+
+    /**
+     * 释放复用池和处理上下文，可在 onTrimMemory 时调用
+     */
+    fun trimMemory() {
+        processing.trimMemory()
+    }
+
     // ========== 私有辅助方法 ==========
 
+    /**
+     * 加载可变的 ARGB_8888 位图
+     * 图片只打开一次：先读尺寸再解码；调用方给的尺寸上限过大时按 [MAX_DECODE_PIXELS] 加大采样率
+     */
     private fun loadBitmap(uri: Uri, maxWidth: Int = MAX_TEXTURE_SIZE, maxHeight: Int = MAX_TEXTURE_SIZE): Bitmap {
-        val options = BitmapFactory.Options()
-
-        // 首先获取图片尺寸
-        options.inJustDecodeBounds = true
-        context.contentResolver.openInputStream(uri)?.use { input ->
-            BitmapFactory.decodeStream(input, null, options)
+        return ImageSource.open(context, uri).use { source ->
+            val bounds = decodeBounds(source)
+            var sampleSize = calculateInSampleSize(bounds, maxWidth, maxHeight)
+            // 解码结果是一整张位图，分块解码也省不下这块内存，只能降低分辨率
+            while (ceilDiv(bounds.outWidth, sampleSize).toLong() * ceilDiv(bounds.outHeight, sampleSize) > MAX_DECODE_PIXELS) {
+                sampleSize *= 2
+            }
+            decodeFull(source, bounds, sampleSize)
         }
+    }
 
-        // 计算缩放比例
-        options.inSampleSize = calculateInSampleSize(options, maxWidth, maxHeight)
-        options.inJustDecodeBounds = false
+    private fun decodeBounds(source: ImageSource): BitmapFactory.Options {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        source.decode(options)
+        if (options.outWidth <= 0 || options.outHeight <= 0) throw IOException("Failed to load bitmap")
+        return options
+    }
 
-        // 加载图片
-        return context.contentResolver.openInputStream(uri)?.use { input ->
-            BitmapFactory.decodeStream(input, null, options)
-        } ?: throw IOException("Failed to load bitmap")
+    /**
+     * 整图解码，尽量复用池中的位图作为 inBitmap
+     */
+    private fun decodeFull(source: ImageSource, bounds: BitmapFactory.Options, sampleSize: Int): Bitmap {
+        val options = BitmapFactory.Options().apply {
+            inSampleSize = sampleSize
+            inMutable = true
+            inBitmap = pool.getReusable(ceilDiv(bounds.outWidth, sampleSize), ceilDiv(bounds.outHeight, sampleSize))
+        }
+        val bitmap = try {
+            source.decode(options)
+        } catch (e: IllegalArgumentException) {
+            // 复用的位图不适用于这张图片
+            options.inBitmap?.let { pool.put(it) }
+            options.inBitmap = null
+            source.decode(options)
+        }
+        return bitmap ?: throw IOException("Failed to load bitmap")
     }
 
+    /**
+     * 只解码原图中的 [region]，格式不支持区域解码时返回null
+     */
+    private fun decodeRegion(source: ImageSource, region: Rect, sampleSize: Int): Bitmap? {
+        val decoder = source.newRegionDecoder() ?: return null
+        try {
+            val options = BitmapFactory.Options().apply {
+                inSampleSize = sampleSize
+                inMutable = true
+            }
+            return decoder.decodeRegion(region, options)
+        } finally {
+            decoder.recycle()
+        }
+    }
+
+    private fun ceilDiv(value: Int, divisor: Int) = (value + divisor - 1) / divisor
+
     private fun calculateInSampleSize(options: BitmapFactory.Options, reqWidth: Int, reqHeight: Int): Int {
         val (height: Int, width: Int) = options.outHeight to options.outWidth
         var inSampleSize = 1
@@ -551,166 +642,98 @@ class ImageHelper(private val context: Context) {
 
     // ========== 滤镜实现 ==========
 
-    private fun applyGrayscale(source: Bitmap): Bitmap {
-        val result = Bitmap.createBitmap(source.width, source.height, source.config ?: Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(result)
-        val paint = Paint()
-        val colorMatrix = ColorMatrix().apply {
-            setSaturation(0f)
+    /**
+     * 依次应用滤镜，消耗 [source]
+     */
+    private fun runFilters(source: Bitmap, filters: List<ImageFilter>): Bitmap {
+        var current = source
+        val pending = ColorMatrix()
+        var hasPending = false
+
+        fun flush() {
+            if (!hasPending) return
+            current = drawWithColorMatrix(current, pending)
+            pending.reset()
+            hasPending = false
         }
-        paint.colorFilter = ColorMatrixColorFilter(colorMatrix)
-        canvas.drawBitmap(source, 0f, 0f, paint)
-        return result
-    }
-
-    private fun applySepia(source: Bitmap): Bitmap {
-        val result = Bitmap.createBitmap(source.width, source.height, source.config ?: Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(result)
-        val paint = Paint()
-        val sepiaMatrix = ColorMatrix(floatArrayOf(
-            0.393f, 0.769f, 0.189f, 0f, 0f,
-            0.349f, 0.686f, 0.168f, 0f, 0f,
-            0.272f, 0.534f, 0.131f, 0f, 0f,
-            0f, 0f, 0f, 1f, 0f
-        ))
-        paint.colorFilter = ColorMatrixColorFilter(sepiaMatrix)
-        canvas.drawBitmap(source, 0f, 0f, paint)
-        return result
-    }
 
-    private fun applyBlur(source: Bitmap, radius: Float): Bitmap {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            val rs = RenderScript.create(context)
-            val input = Allocation.createFromBitmap(rs, source)
-            val output = Allocation.createTyped(rs, input.type)
-            val script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs))
-            script.setRadius(radius.coerceIn(1f, 25f))
-            script.setInput(input)
-            script.forEach(output)
-            output.copyTo(source)
-            rs.destroy()
+        for (filter in filters) {
+            when (filter) {
+                ImageFilter.BLUR -> {
+                    flush()
+                    processing.blur(current, 15f)
+                }
+                ImageFilter.SHARPEN -> {
+                    flush()
+                    processing.convolve(current, SHARPEN_KERNEL)
+                }
+                ImageFilter.VINTAGE -> {
+                    // 降低饱和度 + 暖色调 + 暗角
+                    pending.postConcat(ColorMatrix().apply { setSaturation(0.6f) })
+                    pending.postConcat(ColorMatrix(WARM_TONE_MATRIX))
+                    hasPending = true
+                    flush()
+                    applyVignette(current)
+                }
+                else -> {
+                    pending.postConcat(colorMatrixOf(filter))
+                    hasPending = true
+                }
+            }
         }
-        return source
+        flush()
+        return current
     }
 
-    private fun applySharpen(source: Bitmap): Bitmap {
-        val result = source.copy(source.config ?: Bitmap.Config.ARGB_8888, true)
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            val rs = RenderScript.create(context)
-            val input = Allocation.createFromBitmap(rs, source)
-            val output = Allocation.createTyped(rs, input.type)
-            val script = ScriptIntrinsicConvolve3x3.create(rs, Element.U8_4(rs))
-            val kernel = floatArrayOf(
-                0f, -1f, 0f,
-                -1f, 5f, -1f,
-                0f, -1f, 0f
-            )
-            script.setCoefficients(kernel)
-            script.setInput(input)
-            script.forEach(output)
-            output.copyTo(result)
-            rs.destroy()
+    private fun colorMatrixOf(filter: ImageFilter): ColorMatrix {
+        return when (filter) {
+            ImageFilter.GRAYSCALE -> ColorMatrix().apply { setSaturation(0f) }
+            ImageFilter.SEPIA -> ColorMatrix(SEPIA_MATRIX)
+            ImageFilter.BRIGHTNESS -> brightnessMatrix(30f)
+            ImageFilter.CONTRAST -> contrastMatrix(1.5f)
+            ImageFilter.NEGATIVE -> ColorMatrix(NEGATIVE_MATRIX)
+            else -> throw IllegalArgumentException("Not a color matrix filter: $filter")
         }
-        return result
     }
 
-    private fun adjustBrightness(source: Bitmap, brightness: Float): Bitmap {
-        val result = Bitmap.createBitmap(source.width, source.height, source.config ?: Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(result)
-        val paint = Paint()
-        val colorMatrix = ColorMatrix().apply {
-            set(floatArrayOf(
-                1f, 0f, 0f, 0f, brightness,
-                0f, 1f, 0f, 0f, brightness,
-                0f, 0f, 1f, 0f, brightness,
-                0f, 0f, 0f, 1f, 0f
-            ))
-        }
-        paint.colorFilter = ColorMatrixColorFilter(colorMatrix)
-        canvas.drawBitmap(source, 0f, 0f, paint)
-        return result
+    private fun brightnessMatrix(brightness: Float): ColorMatrix {
+        return ColorMatrix(floatArrayOf(
+            1f, 0f, 0f, 0f, brightness,
+            0f, 1f, 0f, 0f, brightness,
+            0f, 0f, 1f, 0f, brightness,
+            0f, 0f, 0f, 1f, 0f
+        ))
     }
 
-    private fun adjustContrast(source: Bitmap, contrast: Float): Bitmap {
-        val result = Bitmap.createBitmap(source.width, source.height, source.config ?: Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(result)
-        val paint = Paint()
+    private fun contrastMatrix(contrast: Float): ColorMatrix {
         val translate = (1f - contrast) / 2f * 255f
-        val colorMatrix = ColorMatrix(floatArrayOf(
+        return ColorMatrix(floatArrayOf(
             contrast, 0f, 0f, 0f, translate,
             0f, contrast, 0f, 0f, translate,
             0f, 0f, contrast, 0f, translate,
             0f, 0f, 0f, 1f, 0f
         ))
-        paint.colorFilter = ColorMatrixColorFilter(colorMatrix)
-        canvas.drawBitmap(source, 0f, 0f, paint)
-        return result
-    }
-
-    private fun applyVintage(source: Bitmap): Bitmap {
-        // 组合多个效果：降低饱和度 + 暖色调 + 暗角
-        var result = source.copy(source.config ?: Bitmap.Config.ARGB_8888, true)
-
-        // 降低饱和度
-        result = applySaturation(result, 0.6f)
-
-        // 添加暖色调
-        result = applyWarmTone(result)
-
-        // 添加暗角效果
-        result = applyVignette(result)
-
-        return result
-    }
-
-    private fun applyNegative(source: Bitmap): Bitmap {
-        val result = Bitmap.createBitmap(source.width, source.height, source.config ?: Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(result)
-        val paint = Paint()
-        val colorMatrix = ColorMatrix(floatArrayOf(
-            -1f, 0f, 0f, 0f, 255f,
-            0f, -1f, 0f, 0f, 255f,
-            0f, 0f, -1f, 0f, 255f,
-            0f, 0f, 0f, 1f, 0f
-        ))
-        paint.colorFilter = ColorMatrixColorFilter(colorMatrix)
-        canvas.drawBitmap(source, 0f, 0f, paint)
-        return result
-    }
-
-    private fun applySaturation(source: Bitmap, saturation: Float): Bitmap {
-        val result = Bitmap.createBitmap(source.width, source.height, source.config ?: Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(result)
-        val paint = Paint()
-        val colorMatrix = ColorMatrix().apply {
-            setSaturation(saturation)
-        }
-        paint.colorFilter = ColorMatrixColorFilter(colorMatrix)
-        canvas.drawBitmap(source, 0f, 0f, paint)
-        return result
     }
 
-    private fun applyWarmTone(source: Bitmap): Bitmap {
-        val result = Bitmap.createBitmap(source.width, source.height, source.config ?: Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(result)
-        val paint = Paint()
-        val colorMatrix = ColorMatrix(floatArrayOf(
-            1.2f, 0f, 0f, 0f, 0f,
-            0f, 1f, 0f, 0f, 0f,
-            0f, 0f, 0.8f, 0f, 0f,
-            0f, 0f, 0f, 1f, 0f
-        ))
-        paint.colorFilter = ColorMatrixColorFilter(colorMatrix)
-        canvas.drawBitmap(source, 0f, 0f, paint)
+    /**
+     * 用颜色矩阵把 [source] 绘制到池中的位图上，[source] 归还到池中
+     */
+    private fun drawWithColorMatrix(source: Bitmap, matrix: ColorMatrix): Bitmap {
+        val result = pool.get(source.width, source.height, source.config ?: Bitmap.Config.ARGB_8888)
+        val paint = Paint().apply { colorFilter = ColorMatrixColorFilter(matrix) }
+        Canvas(result).drawBitmap(source, 0f, 0f, paint)
+        pool.put(source)
         return result
     }
 
-    private fun applyVignette(source: Bitmap): Bitmap {
-        val result = source.copy(source.config ?: Bitmap.Config.ARGB_8888, true)
-        val canvas = Canvas(result)
+    /**
+     * 原地添加暗角
+     */
+    private fun applyVignette(bitmap: Bitmap) {
+        val canvas = Canvas(bitmap)
 
-        val centerX = source.width / 2f
-        val centerY = source.height / 2f
+        val centerX = bitmap.width / 2f
+        val centerY = bitmap.height / 2f
         val radius = min(centerX, centerY) * 1.2f
 
         val paint = Paint().apply {
@@ -722,8 +745,7 @@ class ImageHelper(private val context: Context) {
             )
         }
 
-        canvas.drawRect(0f, 0f, source.width.toFloat(), source.height.toFloat(), paint)
-        return result
+        canvas.drawRect(0f, 0f, bitmap.width.toFloat(), bitmap.height.toFloat(), paint)
     }
 
     enum class WatermarkPosition {
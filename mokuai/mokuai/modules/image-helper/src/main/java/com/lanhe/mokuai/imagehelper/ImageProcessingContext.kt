@@ -0,0 +1,126 @@
+package com.lanhe.mokuai.imagehelper
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.renderscript.Allocation
+import android.renderscript.Element
+import android.renderscript.RenderScript
+import android.renderscript.ScriptIntrinsicBlur
+import android.renderscript.ScriptIntrinsicConvolve3x3
+import android.renderscript.Type
+
+/**
+ * 进程内共享的图片处理上下文
+ * 持有位图复用池，以及一个 RenderScript 上下文和模糊、卷积脚本，
+ * 输入输出 Allocation 在图片尺寸不变时复用，不再每次处理都创建和销毁整个 RenderScript；
+ * 超过 [MAX_CACHED_ALLOCATION_PIXELS] 的图片用完即销毁，避免两块整图大小的原生内存常驻。
+ * RenderScript 调用串行执行。
+ */
+@Suppress("DEPRECATION")
+internal class ImageProcessingContext private constructor(private val context: Context) {
+
+    companion object {
+        private const val MAX_CACHED_ALLOCATION_PIXELS = 2_000_000L // 约 8MB/块
+
+        @Volatile
+        private var INSTANCE: ImageProcessingContext? = null
+
+        fun getInstance(context: Context): ImageProcessingContext {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: ImageProcessingContext(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    val pool = BitmapPool(Runtime.getRuntime().maxMemory() / 8)
+
+    private var renderScript: RenderScript? = null
+    private var blurScript: ScriptIntrinsicBlur? = null
+    private var convolveScript: ScriptIntrinsicConvolve3x3? = null
+    private var input: Allocation? = null
+    private var output: Allocation? = null
+
+    /**
+     * 原地模糊，[bitmap] 须为可变的 ARGB_8888 位图
+     */
+    @Synchronized
+    fun blur(bitmap: Bitmap, radius: Float) {
+        val rs = renderScript()
+        val script = blurScript ?: ScriptIntrinsicBlur.create(rs, Element.U8_4(rs)).also { blurScript = it }
+        val (input, output) = allocationsFor(rs, bitmap)
+        try {
+            input.copyFrom(bitmap)
+            script.setRadius(radius.coerceIn(1f, 25f))
+            script.setInput(input)
+            script.forEach(output)
+            output.copyTo(bitmap)
+        } finally {
+            releaseIfLarge(bitmap)
+        }
+    }
+
+    /**
+     * 原地 3x3 卷积，[bitmap] 须为可变的 ARGB_8888 位图
+     */
+    @Synchronized
+    fun convolve(bitmap: Bitmap, kernel: FloatArray) {
+        val rs = renderScript()
+        val script = convolveScript ?: ScriptIntrinsicConvolve3x3.create(rs, Element.U8_4(rs)).also { convolveScript = it }
+        val (input, output) = allocationsFor(rs, bitmap)
+        try {
+            input.copyFrom(bitmap)
+            script.setCoefficients(kernel)
+            script.setInput(input)
+            script.forEach(output)
+            output.copyTo(bitmap)
+        } finally {
+            releaseIfLarge(bitmap)
+        }
+    }
+
+    /**
+     * 释放复用池和 RenderScript 资源，下次处理时重新创建
+     */
+    @Synchronized
+    fun trimMemory() {
+        pool.clear()
+        destroyAllocations()
+        blurScript?.destroy()
+        convolveScript?.destroy()
+        renderScript?.destroy()
+        blurScript = null
+        convolveScript = null
+        renderScript = null
+    }
+
+    private fun renderScript(): RenderScript {
+        return renderScript ?: RenderScript.create(context).also { renderScript = it }
+    }
+
+    private fun allocationsFor(rs: RenderScript, bitmap: Bitmap): Pair<Allocation, Allocation> {
+        val currentInput = input
+        val currentOutput = output
+        if (currentInput != null && currentOutput != null &&
+            currentInput.type.x == bitmap.width && currentInput.type.y == bitmap.height
+        ) {
+            return currentInput to currentOutput
+        }
+        destroyAllocations()
+        val type = Type.createXY(rs, Element.U8_4(rs), bitmap.width, bitmap.height)
+        return (Allocation.createTyped(rs, type) to Allocation.createTyped(rs, type)).also {
+            input = it.first
+            output = it.second
+        }
+    }
+
+    private fun releaseIfLarge(bitmap: Bitmap) {
+        if (bitmap.width.toLong() * bitmap.height > MAX_CACHED_ALLOCATION_PIXELS) destroyAllocations()
+    }
+
+    private fun destroyAllocations() {
+        input?.destroy()
+        output?.destroy()
+        input = null
+        output = null
+    }
+}
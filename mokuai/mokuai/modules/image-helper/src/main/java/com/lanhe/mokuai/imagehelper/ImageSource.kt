@@ -0,0 +1,89 @@
+package com.lanhe.mokuai.imagehelper
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.net.Uri
+import android.os.Build
+import android.os.ParcelFileDescriptor
+import java.io.Closeable
+import java.io.FileNotFoundException
+import java.io.IOException
+
+/**
+ * 只打开一次、可多次解码的图片来源
+ * 可定位的文件描述符直接解码（BitmapFactory 解码后会恢复读取位置），
+ * 管道等不可定位的来源读入内存一次。
+ */
+internal abstract class ImageSource : Closeable {
+
+    companion object {
+        fun open(context: Context, uri: Uri): ImageSource {
+            val pfd = try {
+                context.contentResolver.openFileDescriptor(uri, "r")
+            } catch (e: FileNotFoundException) {
+                null
+            }
+            if (pfd != null && pfd.statSize >= 0) return FileDescriptorSource(pfd)
+            pfd?.close()
+
+            val bytes = context.contentResolver.openInputStream(uri)?.use { it.readBytes() }
+                ?: throw IOException("Failed to open $uri")
+            return ByteArraySource(bytes)
+        }
+    }
+
+    abstract fun decode(options: BitmapFactory.Options): Bitmap?
+
+    /**
+     * 区域解码器，格式不支持区域解码时返回null
+     */
+    fun newRegionDecoder(): BitmapRegionDecoder? {
+        return try {
+            createRegionDecoder()
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    protected abstract fun createRegionDecoder(): BitmapRegionDecoder?
+
+    private class FileDescriptorSource(private val pfd: ParcelFileDescriptor) : ImageSource() {
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? {
+            return BitmapFactory.decodeFileDescriptor(pfd.fileDescriptor, null, options)
+        }
+
+        override fun createRegionDecoder(): BitmapRegionDecoder? {
+            return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                BitmapRegionDecoder.newInstance(pfd)
+            } else {
+                @Suppress("DEPRECATION")
+                BitmapRegionDecoder.newInstance(pfd.fileDescriptor, false)
+            }
+        }
+
+        override fun close() {
+            pfd.close()
+        }
+    }
+
+    private class ByteArraySource(private val bytes: ByteArray) : ImageSource() {
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? {
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.size, options)
+        }
+
+        override fun createRegionDecoder(): BitmapRegionDecoder? {
+            return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                BitmapRegionDecoder.newInstance(bytes, 0, bytes.size)
+            } else {
+                @Suppress("DEPRECATION")
+                BitmapRegionDecoder.newInstance(bytes, 0, bytes.size, false)
+            }
+        }
+
+        override fun close() = Unit
+    }
+}
@@ -37,6 +37,11 @@ public class NetworkConfig implements INetworkConfig {
     private static final int DEFAULT_RETRY_COUNT = 3;
     private static final boolean DEFAULT_COOKIE_ENABLED = true;
     private static final String DEFAULT_USER_AGENT = "LanHe Browser/1.0 (Chromium)";
+    private static final long DEFAULT_CACHE_SIZE = 50L * 1024 * 1024; // 50MB
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    private static final long DEFAULT_KEEP_ALIVE_DURATION = 5 * 60 * 1000; // 5分钟
+    private static final int DEFAULT_MAX_REQUESTS = 64;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
 
     // 配置属性
     private long connectTimeout;
@@ -46,6 +51,11 @@ public class NetworkConfig implements INetworkConfig {
     private boolean cookieEnabled;
     private String userAgent;
     private ProxyConfig proxyConfig;
+    private long cacheSize;
+    private int maxIdleConnections;
+    private long keepAliveDuration;
+    private int maxRequests;
+    private int maxRequestsPerHost;
 
     /**
      * 默认构造函数，使用默认配置
@@ -58,6 +68,11 @@ public class NetworkConfig implements INetworkConfig {
         this.cookieEnabled = DEFAULT_COOKIE_ENABLED;
         this.userAgent = DEFAULT_USER_AGENT;
         this.proxyConfig = null;
+        this.cacheSize = DEFAULT_CACHE_SIZE;
+        this.maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        this.keepAliveDuration = DEFAULT_KEEP_ALIVE_DURATION;
+        this.maxRequests = DEFAULT_MAX_REQUESTS;
+        this.maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
     }
 
     /**
@@ -71,6 +86,11 @@ public class NetworkConfig implements INetworkConfig {
         this.cookieEnabled = builder.cookieEnabled;
         this.userAgent = builder.userAgent;
         this.proxyConfig = builder.proxyConfig;
+        this.cacheSize = builder.cacheSize;
+        this.maxIdleConnections = builder.maxIdleConnections;
+        this.keepAliveDuration = builder.keepAliveDuration;
+        this.maxRequests = builder.maxRequests;
+        this.maxRequestsPerHost = builder.maxRequestsPerHost;
     }
 
     @Override
@@ -108,6 +128,31 @@ public class NetworkConfig implements INetworkConfig {
         return proxyConfig;
     }
 
+    @Override
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    @Override
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    @Override
+    public long getKeepAliveDuration() {
+        return keepAliveDuration;
+    }
+
+    @Override
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    @Override
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
     /**
      * Builder模式构建NetworkConfig
      */
@@ -119,6 +164,11 @@ public class NetworkConfig implements INetworkConfig {
         private boolean cookieEnabled = DEFAULT_COOKIE_ENABLED;
         private String userAgent = DEFAULT_USER_AGENT;
         private ProxyConfig proxyConfig;
+        private long cacheSize = DEFAULT_CACHE_SIZE;
+        private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        private long keepAliveDuration = DEFAULT_KEEP_ALIVE_DURATION;
+        private int maxRequests = DEFAULT_MAX_REQUESTS;
+        private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
 
         /**
          * 设置连接超时时间
@@ -209,6 +259,55 @@ public class NetworkConfig implements INetworkConfig {
             return this;
         }
 
+        /**
+         * 设置HTTP磁盘缓存大小
+         *
+         * @param cacheSize 缓存大小(字节)，0表示不使用缓存
+         * @return Builder实例
+         */
+        public Builder setCacheSize(long cacheSize) {
+            if (cacheSize < 0) {
+                throw new IllegalArgumentException("Cache size must be non-negative");
+            }
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * 设置连接池参数
+         *
+         * @param maxIdleConnections 最大空闲连接数
+         * @param keepAliveDuration 空闲连接保持时间(毫秒)
+         * @return Builder实例
+         */
+        public Builder setConnectionPool(int maxIdleConnections, long keepAliveDuration) {
+            if (maxIdleConnections < 0) {
+                throw new IllegalArgumentException("Max idle connections must be non-negative");
+            }
+            if (keepAliveDuration <= 0) {
+                throw new IllegalArgumentException("Keep alive duration must be positive");
+            }
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveDuration = keepAliveDuration;
+            return this;
+        }
+
+        /**
+         * 设置并发请求上限
+         *
+         * @param maxRequests 最大并发请求数
+         * @param maxRequestsPerHost 每个主机的最大并发请求数
+         * @return Builder实例
+         */
+        public Builder setMaxRequests(int maxRequests, int maxRequestsPerHost) {
+            if (maxRequests < 1 || maxRequestsPerHost < 1) {
+                throw new IllegalArgumentException("Max requests must be positive");
+            }
+            this.maxRequests = maxRequests;
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
         /**
          * 构建NetworkConfig实例
          *
@@ -33,13 +33,21 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
+import okhttp3.CacheControl;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
 
 /**
  * 网络管理器
@@ -53,12 +61,21 @@ public class NetworkManager {
 
     private static final String TAG = NetworkManager.class.getSimpleName();
 
+    // HTTP磁盘缓存目录（位于应用缓存目录下）
+    private static final String CACHE_DIR_NAME = "http_cache";
+
+    // 下载时每次从网络读取的字节数
+    private static final long DOWNLOAD_SEGMENT_SIZE = 64 * 1024;
+
     // 单例模式实现
     private static volatile NetworkManager instance;
 
     // OkHttp客户端
     private OkHttpClient httpClient;
 
+    // HTTP磁盘缓存，配置的缓存大小不变时重建客户端也继续使用同一个实例
+    private Cache cache;
+
     // 配置
     private INetworkConfig config;
 
@@ -101,12 +118,24 @@ public class NetworkManager {
      * 初始化OkHttp客户端
      */
     private void initHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
                 .connectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
                 .readTimeout(config.getReadTimeout(), TimeUnit.MILLISECONDS)
                 .writeTimeout(config.getWriteTimeout(), TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(),
+                        config.getKeepAliveDuration(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
                 .retryOnConnectionFailure(true);
 
+        Cache httpCache = obtainCache(config.getCacheSize());
+        if (httpCache != null) {
+            builder.cache(httpCache);
+        }
+
         // 设置User-Agent
         if (config.getUserAgent() != null) {
             builder.addInterceptor(chain -> {
@@ -119,12 +148,45 @@ public class NetworkManager {
         }
 
         // 添加日志拦截器（调试模式）
+        // 只记录请求头，BODY级别会把整个响应体读进内存，下载无法流式写入
         if (Log.isLoggable(TAG, Log.DEBUG)) {
             builder.addInterceptor(new okhttp3.logging.HttpLoggingInterceptor()
-                    .setLevel(okhttp3.logging.HttpLoggingInterceptor.Level.BODY));
+                    .setLevel(okhttp3.logging.HttpLoggingInterceptor.Level.HEADERS));
         }
 
+        OkHttpClient previous = this.httpClient;
         this.httpClient = builder.build();
+        if (previous != null) {
+            // 旧客户端上进行中的请求继续完成，之后其线程池随之退出
+            previous.dispatcher().executorService().shutdown();
+            previous.connectionPool().evictAll();
+        }
+    }
+
+    /**
+     * 获取指定大小的HTTP磁盘缓存
+     * 同一目录只能有一个缓存实例，大小变化时关闭旧实例再创建
+     *
+     * @param size 缓存大小(字节)，0表示不使用缓存
+     * @return 缓存实例，不使用缓存时返回null
+     */
+    @Nullable
+    private Cache obtainCache(long size) {
+        if (cache != null && cache.maxSize() == size) {
+            return cache;
+        }
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                Log.w(TAG, "关闭HTTP缓存失败", e);
+            }
+            cache = null;
+        }
+        if (size > 0) {
+            cache = new Cache(new File(context.getCacheDir(), CACHE_DIR_NAME), size);
+        }
+        return cache;
     }
 
     /**
@@ -272,8 +334,10 @@ public class NetworkManager {
      * @return Call对象，可用于取消请求
      */
     public Call download(@NonNull String url, @NonNull File destination, @Nullable INetworkCallback<File> callback) {
+        // 下载内容直接写入文件，不进入HTTP缓存
         Request request = new Request.Builder()
                 .url(url)
+                .cacheControl(new CacheControl.Builder().noStore().build())
                 .get()
                 .build();
 
@@ -306,6 +370,19 @@ public class NetworkManager {
         return config;
     }
 
+    /**
+     * 清空HTTP磁盘缓存
+     */
+    public void clearCache() {
+        if (cache != null) {
+            try {
+                cache.evictAll();
+            } catch (IOException e) {
+                Log.w(TAG, "清空HTTP缓存失败", e);
+            }
+        }
+    }
+
     /**
      * 清理资源
      */
@@ -315,10 +392,40 @@ public class NetworkManager {
             httpClient.dispatcher().executorService().shutdown();
             httpClient.connectionPool().evictAll();
         }
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                Log.w(TAG, "关闭HTTP缓存失败", e);
+            }
+            cache = null;
+        }
+    }
+
+    /**
+     * 在主线程分发失败结果，已取消的请求回调onCancel
+     */
+    private <T> void postFailure(@NonNull Call call, @NonNull INetworkCallback<T> callback, @NonNull Exception e) {
+        if (call.isCanceled()) {
+            mainHandler.post(callback::onCancel);
+            return;
+        }
+        NetworkException exception = e instanceof NetworkException
+                ? (NetworkException) e
+                : NetworkUtils.createNetworkException(e);
+        mainHandler.post(() -> callback.onFailure(exception));
+    }
+
+    private static NetworkException httpError(@NonNull Response response) {
+        return new NetworkException(
+                NetworkException.ERROR_SERVER,
+                "HTTP " + response.code() + ": " + response.message()
+        );
     }
 
     /**
      * 网络回调适配器
+     * 响应体在OkHttp的线程上读取和解码，只把结果投递到主线程
      */
     private class NetworkCallbackAdapter implements Callback {
 
@@ -330,38 +437,29 @@ public class NetworkManager {
 
         @Override
         public void onFailure(@NonNull Call call, @NonNull IOException e) {
-            mainHandler.post(() -> {
-                NetworkException exception = NetworkUtils.createNetworkException(e);
-                callback.onFailure(exception);
-            });
+            postFailure(call, callback, e);
         }
 
         @Override
-        public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-            mainHandler.post(() -> {
-                try {
-                    if (response.isSuccessful()) {
-                        String body = response.body() != null ? response.body().string() : "";
-                        callback.onSuccess(body);
-                    } else {
-                        NetworkException exception = new NetworkException(
-                                NetworkException.ERROR_SERVER,
-                                "HTTP " + response.code() + ": " + response.message()
-                        );
-                        callback.onFailure(exception);
-                    }
-                } catch (IOException e) {
-                    NetworkException exception = NetworkUtils.createNetworkException(e);
-                    callback.onFailure(exception);
-                } finally {
-                    response.close();
+        public void onResponse(@NonNull Call call, @NonNull Response response) {
+            try (Response r = response) {
+                if (!r.isSuccessful()) {
+                    postFailure(call, callback, httpError(r));
+                    return;
                 }
-            });
+                ResponseBody body = r.body();
+                String result = body != null ? body.string() : "";
+                mainHandler.post(() -> callback.onSuccess(result));
+            } catch (IOException e) {
+                postFailure(call, callback, e);
+            }
         }
     }
 
     /**
      * 下载回调适配器
+     * 在OkHttp的线程上用Okio把响应体分段写入临时文件，完成后重命名为目标文件；
+     * 进度只在百分比变化时投递到主线程
      */
     private class DownloadCallbackAdapter implements Callback {
 
@@ -375,33 +473,62 @@ public class NetworkManager {
 
         @Override
         public void onFailure(@NonNull Call call, @NonNull IOException e) {
-            mainHandler.post(() -> {
-                NetworkException exception = NetworkUtils.createNetworkException(e);
-                callback.onFailure(exception);
-            });
+            postFailure(call, callback, e);
         }
 
         @Override
-        public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-            mainHandler.post(() -> {
-                try {
-                    if (response.isSuccessful()) {
-                        // TODO: 实现文件下载逻辑
-                        callback.onSuccess(destination);
-                    } else {
-                        NetworkException exception = new NetworkException(
-                                NetworkException.ERROR_SERVER,
-                                "HTTP " + response.code() + ": " + response.message()
-                        );
-                        callback.onFailure(exception);
+        public void onResponse(@NonNull Call call, @NonNull Response response) {
+            File temp = new File(destination.getPath() + ".part");
+            try (Response r = response) {
+                if (!r.isSuccessful()) {
+                    postFailure(call, callback, httpError(r));
+                    return;
+                }
+                ResponseBody body = r.body();
+                if (body == null) {
+                    throw new IOException("响应体为空");
+                }
+
+                File parent = destination.getParentFile();
+                if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                    throw new IOException("无法创建目录: " + parent);
+                }
+
+                long total = body.contentLength();
+                long downloaded = 0;
+                int lastProgress = -1;
+                BufferedSource source = body.source();
+                try (BufferedSink sink = Okio.buffer(Okio.sink(temp))) {
+                    long read;
+                    while ((read = source.read(sink.getBuffer(), DOWNLOAD_SEGMENT_SIZE)) != -1) {
+                        sink.emitCompleteSegments();
+                        downloaded += read;
+                        if (call.isCanceled()) {
+                            throw new IOException("Canceled");
+                        }
+                        if (total > 0) {
+                            int progress = NetworkUtils.calculateProgress(downloaded, total);
+                            if (progress != lastProgress) {
+                                lastProgress = progress;
+                                String message = NetworkUtils.formatFileSize(downloaded) + " / "
+                                        + NetworkUtils.formatFileSize(total);
+                                mainHandler.post(() -> callback.onProgress(progress, message));
+                            }
+                        }
                     }
-                } catch (Exception e) {
-                    NetworkException exception = NetworkUtils.createNetworkException(e);
-                    callback.onFailure(exception);
-                } finally {
-                    response.close();
                 }
-            });
+
+                if (destination.exists() && !destination.delete()) {
+                    throw new IOException("无法覆盖文件: " + destination);
+                }
+                if (!temp.renameTo(destination)) {
+                    throw new IOException("无法写入文件: " + destination);
+                }
+                mainHandler.post(() -> callback.onSuccess(destination));
+            } catch (Exception e) {
+                temp.delete();
+                postFailure(call, callback, e);
+            }
         }
     }
 }
@@ -74,6 +74,41 @@ public interface INetworkConfig {
      */
     ProxyConfig getProxyConfig();
 
+    /**
+     * 获取HTTP磁盘缓存大小
+     *
+     * @return 缓存大小(字节)，0表示不使用缓存
+     */
+    long getCacheSize();
+
+    /**
+     * 获取连接池最大空闲连接数
+     *
+     * @return 最大空闲连接数
+     */
+    int getMaxIdleConnections();
+
+    /**
+     * 获取空闲连接保持时间
+     *
+     * @return 保持时间(毫秒)
+     */
+    long getKeepAliveDuration();
+
+    /**
+     * 获取最大并发请求数
+     *
+     * @return 最大并发请求数
+     */
+    int getMaxRequests();
+
+    /**
+     * 获取每个主机的最大并发请求数
+     *
+     * @return 每个主机的最大并发请求数
+     */
+    int getMaxRequestsPerHost();
+
     /**
      * 代理配置类
      */
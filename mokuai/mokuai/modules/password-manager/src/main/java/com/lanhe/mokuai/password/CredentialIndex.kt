@@ -0,0 +1,114 @@
+package com.lanhe.mokuai.password
+
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 按可注册域名（eTLD+1）索引的凭据查找表
+ * 每个条目按网址的主机名归入可注册域名，例如 login.example.co.uk 归入 example.co.uk；
+ * 查找时只取同一可注册域名下的条目，按主机名的接近程度排序：
+ * 完全相同 > 保存在上级域名（子域名回退）> 保存在下级域名 > 同域名下的其他子域名。
+ *
+ * 公共后缀表在首次查找时加载，此前的增删只记录主机名，首次查找时一次性建立索引。
+ */
+internal class CredentialIndex(
+    private val registrableDomainOf: (String) -> String = ::registrableDomain
+) {
+
+    companion object {
+        private const val EXACT = 0
+        private const val CHILD_OFFSET = 50 // 条目保存在比当前页面更深的子域名上
+        private const val SIBLING = 100
+
+        /**
+         * 主机名的可注册域名，IP地址、localhost 等没有公共后缀的主机返回自身
+         */
+        fun registrableDomain(host: String): String {
+            return "https://$host/".toHttpUrlOrNull()?.topPrivateDomain() ?: host
+        }
+
+        /**
+         * 已保存主机名与当前主机名的接近程度，数值越小越接近
+         */
+        fun closeness(savedHost: String, host: String): Int {
+            return when {
+                savedHost == host -> EXACT
+                host.endsWith(".$savedHost") -> labelCount(host) - labelCount(savedHost)
+                savedHost.endsWith(".$host") -> CHILD_OFFSET + labelCount(savedHost) - labelCount(host)
+                else -> SIBLING
+            }
+        }
+
+        private fun labelCount(host: String) = host.count { it == '.' } + 1
+    }
+
+    /**
+     * 查找结果
+     */
+    class Match(val id: String, val closeness: Int)
+
+    private val hostById = ConcurrentHashMap<String, String>()
+    private val byDomain = ConcurrentHashMap<String, Set<String>>()
+
+    @Volatile
+    private var built = false
+
+    /**
+     * 添加或更新条目，网址没有主机名时移除
+     */
+    @Synchronized
+    fun put(id: String, url: String) {
+        val host = PasswordManager.hostOf(url)
+        if (host == null) {
+            remove(id)
+            return
+        }
+        val old = hostById.put(id, host)
+        if (built && old != host) {
+            old?.let { unlink(id, it) }
+            link(id, host)
+        }
+    }
+
+    @Synchronized
+    fun remove(id: String) {
+        val old = hostById.remove(id) ?: return
+        if (built) unlink(id, old)
+    }
+
+    @Synchronized
+    fun clear() {
+        hostById.clear()
+        byDomain.clear()
+    }
+
+    /**
+     * 查找网址对应的条目，按接近程度排序
+     * 首次调用会加载公共后缀表，应在后台线程调用
+     */
+    fun lookup(url: String): List<Match> {
+        val host = PasswordManager.hostOf(url) ?: return emptyList()
+        ensureBuilt()
+        val ids = byDomain[registrableDomainOf(host)] ?: return emptyList()
+        return ids.mapNotNull { id ->
+            hostById[id]?.let { Match(id, closeness(it, host)) }
+        }.sortedBy { it.closeness }
+    }
+
+    private fun ensureBuilt() {
+        if (built) return
+        synchronized(this) {
+            if (built) return
+            hostById.forEach { (id, host) -> link(id, host) }
+            built = true
+        }
+    }
+
+    private fun link(id: String, host: String) {
+        byDomain.compute(registrableDomainOf(host)) { _, ids -> (ids ?: emptySet()) + id }
+    }
+
+    private fun unlink(id: String, host: String) {
+        byDomain.computeIfPresent(registrableDomainOf(host)) { _, ids -> (ids - id).ifEmpty { null } }
+    }
+}
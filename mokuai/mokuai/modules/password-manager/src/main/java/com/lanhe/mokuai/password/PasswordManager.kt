@@ -1,33 +1,59 @@
 package com.lanhe.mokuai.password
 
 import android.content.Context
-import android.security.keystore.KeyGenParameterSpec
-import android.security.keystore.KeyProperties
 import android.util.Base64
 import androidx.security.crypto.EncryptedSharedPreferences
 import androidx.security.crypto.MasterKey
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
-import java.security.KeyStore
+import java.net.URI
 import java.security.SecureRandom
 import java.util.*
-import javax.crypto.Cipher
+import java.util.concurrent.ConcurrentHashMap
 import javax.crypto.KeyGenerator
 import javax.crypto.SecretKey
-import javax.crypto.spec.GCMParameterSpec
+import javax.crypto.spec.SecretKeySpec
 
 /**
  * 密码管理器 - 安全存储和管理密码
+ *
+ * 每个条目在 [VaultDatabase] 中单独加密保存为一行，修改一个条目只重新加密和写入这一行。
+ * 标题、用户名、网址、分类、标签和使用情况在首次使用时解密一次，保存在内存索引中，
+ * 列表、搜索、排序和自动填充查找都只读索引；密码和备注只在 [getPassword] 打开条目时解密。
+ * 加密密钥随机生成，保存在 EncryptedSharedPreferences 中。
+ * 首次加载要解密全部元数据，访问密码库的接口都是挂起函数，在 [Dispatchers.IO] 上执行。
  */
 class PasswordManager(private val context: Context) {
 
     companion object {
         private const val PREFS_NAME = "encrypted_passwords"
-        private const val KEY_PASSWORDS = "passwords"
-        private const val KEY_ALIAS = "PasswordManagerKey"
-        private const val ANDROID_KEYSTORE = "AndroidKeyStore"
-        private const val TRANSFORMATION = "AES/GCM/NoPadding"
-        private const val GCM_TAG_LENGTH = 128
+        private const val KEY_PASSWORDS = "passwords" // 旧版本保存全部密码的JSON，仅用于数据迁移
+        private const val KEY_VAULT_KEY = "vault_key"
+        private const val VAULT_KEY_BITS = 256
+
+        /**
+         * 提取网址中的主机名，去掉 www. 前缀，没有协议头的网址按 https 处理
+         */
+        fun hostOf(url: String): String? {
+            if (url.isBlank()) return null
+            val host = try {
+                URI(if (url.contains("://")) url else "https://$url").host
+            } catch (e: Exception) {
+                null
+            } ?: return null
+            return host.lowercase().removePrefix("www.").takeIf { it.isNotEmpty() }
+        }
+
+        /**
+         * 网址是否属于可注册域名 [site]（即 [siteOf] 的结果）
+         * 只做字符串比较，可以在主线程上紧接着填充前调用
+         */
+        fun isOnSite(url: String, site: String): Boolean {
+            val host = hostOf(url) ?: return false
+            return host == site || host.endsWith(".$site")
+        }
     }
 
     private val masterKey: MasterKey by lazy {
@@ -46,6 +72,18 @@ class PasswordManager(private val context: Context) {
         )
     }
 
+    private val database by lazy { VaultDatabase.getDatabase(context) }
+    private val dao by lazy { database.vaultDao() }
+    private val cipher by lazy { VaultCipher(loadVaultKey()) }
+
+    // 内存索引：条目ID -> 非机密字段，可注册域名 -> 条目ID
+    private val index = ConcurrentHashMap<String, PasswordSummary>()
+    private val credentialIndex = CredentialIndex()
+    private val lock = Any()
+
+    @Volatile
+    private var loaded = false
+
     data class PasswordEntry(
         val id: String = UUID.randomUUID().toString(),
         val title: String,
@@ -62,21 +100,40 @@ class PasswordManager(private val context: Context) {
         val tags: List<String> = emptyList()
     )
 
+    /**
+     * 密码条目的非机密字段，不含密码和备注
+     */
+    data class PasswordSummary(
+        val id: String,
+        val title: String,
+        val username: String,
+        val url: String,
+        val category: String,
+        val createdAt: Long,
+        val updatedAt: Long,
+        val lastUsed: Long,
+        val usageCount: Int,
+        val isFavorite: Boolean,
+        val tags: List<String>
+    )
+
     /**
      * 添加新密码
      */
-    fun addPassword(entry: PasswordEntry): Boolean {
-        return try {
-            val passwords = getAllPasswordsInternal().toMutableList()
+    suspend fun addPassword(entry: PasswordEntry): Boolean = withContext(Dispatchers.IO) {
+        try {
+            synchronized(lock) {
+                ensureLoaded()
+
+                // 检查是否已存在
+                if (index.containsKey(entry.id)) {
+                    return@withContext false
+                }
 
-            // 检查是否已存在
-            if (passwords.any { it.id == entry.id }) {
-                return false
+                if (dao.insert(seal(entry)) == -1L) return@withContext false
+                putIndex(entry.toSummary())
+                true
             }
-
-            passwords.add(entry)
-            savePasswords(passwords)
-            true
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -86,18 +143,20 @@ class PasswordManager(private val context: Context) {
     /**
      * 更新密码
      */
-    fun updatePassword(entry: PasswordEntry): Boolean {
-        return try {
-            val passwords = getAllPasswordsInternal().toMutableList()
-            val index = passwords.indexOfFirst { it.id == entry.id }
-
-            if (index == -1) {
-                return false
+    suspend fun updatePassword(entry: PasswordEntry): Boolean = withContext(Dispatchers.IO) {
+        try {
+            synchronized(lock) {
+                ensureLoaded()
+                val existing = index[entry.id] ?: return@withContext false
+
+                val updated = entry.copy(updatedAt = System.currentTimeMillis())
+                val record = seal(updated)
+                if (dao.update(record.id, record.meta, record.secret) == 0) return@withContext false
+
+                removeIndex(existing)
+                putIndex(updated.toSummary())
+                true
             }
-
-            passwords[index] = entry.copy(updatedAt = System.currentTimeMillis())
-            savePasswords(passwords)
-            true
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -107,14 +166,14 @@ class PasswordManager(private val context: Context) {
     /**
      * 删除密码
      */
-    fun deletePassword(id: String): Boolean {
-        return try {
-            val passwords = getAllPasswordsInternal().toMutableList()
-            val removed = passwords.removeAll { it.id == id }
-            if (removed) {
-                savePasswords(passwords)
+    suspend fun deletePassword(id: String): Boolean = withContext(Dispatchers.IO) {
+        try {
+            synchronized(lock) {
+                ensureLoaded()
+                val removed = dao.delete(id) > 0
+                index[id]?.let { removeIndex(it) }
+                removed
             }
-            removed
         } catch (e: Exception) {
             e.printStackTrace()
             false
@@ -123,51 +182,83 @@ class PasswordManager(private val context: Context) {
 
     /**
      * 获取所有密码
+     * 会解密全部条目的密码，列表展示请使用 [getPasswordSummaries]
      */
-    fun getAllPasswords(): List<PasswordEntry> {
-        return getAllPasswordsInternal()
+    suspend fun getAllPasswords(): List<PasswordEntry> = withContext(Dispatchers.IO) {
+        getPasswordSummaries().mapNotNull { open(it) }
     }
 
     /**
-     * 根据ID获取密码
+     * 获取所有条目的非机密字段，按创建时间排序
      */
-    fun getPassword(id: String): PasswordEntry? {
-        return getAllPasswordsInternal().find { it.id == id }
+    suspend fun getPasswordSummaries(): List<PasswordSummary> = withContext(Dispatchers.IO) {
+        ensureLoaded()
+        index.values.sortedBy { it.createdAt }
+    }
+
+    /**
+     * 根据ID获取密码，只解密这一个条目
+     */
+    suspend fun getPassword(id: String): PasswordEntry? = withContext(Dispatchers.IO) {
+        ensureLoaded()
+        index[id]?.let { open(it) }
     }
 
     /**
      * 搜索密码
+     * 匹配标题、用户名、网址和标签；备注属于机密字段，不参与搜索
      */
-    fun searchPasswords(query: String): List<PasswordEntry> {
+    suspend fun searchPasswords(query: String): List<PasswordSummary> {
         val lowercaseQuery = query.lowercase()
-        return getAllPasswordsInternal().filter { entry ->
+        return getPasswordSummaries().filter { entry ->
             entry.title.lowercase().contains(lowercaseQuery) ||
             entry.username.lowercase().contains(lowercaseQuery) ||
             entry.url.lowercase().contains(lowercaseQuery) ||
-            entry.notes.lowercase().contains(lowercaseQuery) ||
             entry.tags.any { it.lowercase().contains(lowercaseQuery) }
         }
     }
 
+    /**
+     * 查找网页可用的凭据，用于自动填充
+     * 按可注册域名查找，不遍历密码库；同一主机名的条目排在前面，其次是上级域名，
+     * 接近程度相同时最近使用的在前。不解密密码，填充时再用 [getPassword] 打开。
+     */
+    suspend fun findCredentials(url: String): List<PasswordSummary> = withContext(Dispatchers.IO) {
+        ensureLoaded()
+        credentialIndex.lookup(url)
+            .mapNotNull { match -> index[match.id]?.let { match.closeness to it } }
+            .sortedWith(compareBy<Pair<Int, PasswordSummary>> { it.first }.thenByDescending { it.second.lastUsed })
+            .map { it.second }
+    }
+
+    /**
+     * 网址所属的可注册域名，如 login.example.co.uk 对应 example.co.uk，无法解析时返回null
+     * 首次调用会加载公共后缀表
+     */
+    suspend fun siteOf(url: String): String? = withContext(Dispatchers.IO) {
+        hostOf(url)?.let { CredentialIndex.registrableDomain(it) }
+    }
+
     /**
      * 按类别获取密码
      */
-    fun getPasswordsByCategory(category: String): List<PasswordEntry> {
-        return getAllPasswordsInternal().filter { it.category == category }
+    suspend fun getPasswordsByCategory(category: String): List<PasswordSummary> {
+        return getPasswordSummaries().filter { it.category == category }
     }
 
     /**
      * 获取收藏的密码
      */
-    fun getFavoritePasswords(): List<PasswordEntry> {
-        return getAllPasswordsInternal().filter { it.isFavorite }
+    suspend fun getFavoritePasswords(): List<PasswordSummary> {
+        return getPasswordSummaries().filter { it.isFavorite }
     }
 
     /**
      * 获取最近使用的密码
      */
-    fun getRecentPasswords(limit: Int = 10): List<PasswordEntry> {
-        return getAllPasswordsInternal()
+    suspend fun getRecentPasswords(limit: Int = 10): List<PasswordSummary> = withContext(Dispatchers.IO) {
+        ensureLoaded()
+        index.values
             .filter { it.lastUsed > 0 }
             .sortedByDescending { it.lastUsed }
             .take(limit)
@@ -176,8 +267,9 @@ class PasswordManager(private val context: Context) {
     /**
      * 获取所有类别
      */
-    fun getAllCategories(): List<String> {
-        return getAllPasswordsInternal()
+    suspend fun getAllCategories(): List<String> = withContext(Dispatchers.IO) {
+        ensureLoaded()
+        index.values
             .map { it.category }
             .distinct()
             .sorted()
@@ -186,8 +278,9 @@ class PasswordManager(private val context: Context) {
     /**
      * 获取所有标签
      */
-    fun getAllTags(): List<String> {
-        return getAllPasswordsInternal()
+    suspend fun getAllTags(): List<String> = withContext(Dispatchers.IO) {
+        ensureLoaded()
+        index.values
             .flatMap { it.tags }
             .distinct()
             .sorted()
@@ -195,35 +288,40 @@ class PasswordManager(private val context: Context) {
 
     /**
      * 记录密码使用
+     * 只重新加密和写入该条目的元数据
      */
-    fun recordPasswordUsage(id: String) {
-        val passwords = getAllPasswordsInternal().toMutableList()
-        val index = passwords.indexOfFirst { it.id == id }
-
-        if (index != -1) {
-            passwords[index] = passwords[index].copy(
-                lastUsed = System.currentTimeMillis(),
-                usageCount = passwords[index].usageCount + 1
-            )
-            savePasswords(passwords)
+    suspend fun recordPasswordUsage(id: String): Unit = withContext(Dispatchers.IO) {
+        try {
+            synchronized(lock) {
+                ensureLoaded()
+                val summary = index[id] ?: return@withContext
+                updateMeta(
+                    summary.copy(
+                        lastUsed = System.currentTimeMillis(),
+                        usageCount = summary.usageCount + 1
+                    )
+                )
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
         }
     }
 
     /**
      * 切换收藏状态
      */
-    fun toggleFavorite(id: String): Boolean {
-        val passwords = getAllPasswordsInternal().toMutableList()
-        val index = passwords.indexOfFirst { it.id == id }
-
-        if (index != -1) {
-            passwords[index] = passwords[index].copy(
-                isFavorite = !passwords[index].isFavorite
-            )
-            savePasswords(passwords)
-            return passwords[index].isFavorite
+    suspend fun toggleFavorite(id: String): Boolean = withContext(Dispatchers.IO) {
+        try {
+            synchronized(lock) {
+                ensureLoaded()
+                val summary = index[id] ?: return@withContext false
+                val updated = summary.copy(isFavorite = !summary.isFavorite)
+                updateMeta(updated) && updated.isFavorite
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            false
         }
-        return false
     }
 
     /**
@@ -332,8 +430,8 @@ class PasswordManager(private val context: Context) {
     /**
      * 导出密码到JSON
      */
-    fun exportToJson(): String {
-        val passwords = getAllPasswordsInternal()
+    suspend fun exportToJson(): String {
+        val passwords = getAllPasswords()
         val jsonArray = JSONArray()
 
         passwords.forEach { entry ->
@@ -363,45 +461,13 @@ class PasswordManager(private val context: Context) {
     }
 
     /**
-     * 从JSON导入密码
+     * 从JSON导入密码，替换现有的全部密码
      */
-    fun importFromJson(json: String): Boolean {
-        return try {
+    suspend fun importFromJson(json: String): Boolean = withContext(Dispatchers.IO) {
+        try {
             val jsonObject = JSONObject(json)
-            val jsonArray = jsonObject.getJSONArray("passwords")
-            val passwords = mutableListOf<PasswordEntry>()
-
-            for (i in 0 until jsonArray.length()) {
-                val item = jsonArray.getJSONObject(i)
-                val tags = mutableListOf<String>()
-
-                val tagsArray = item.optJSONArray("tags")
-                if (tagsArray != null) {
-                    for (j in 0 until tagsArray.length()) {
-                        tags.add(tagsArray.getString(j))
-                    }
-                }
-
-                passwords.add(
-                    PasswordEntry(
-                        id = item.getString("id"),
-                        title = item.getString("title"),
-                        username = item.getString("username"),
-                        password = item.getString("password"),
-                        url = item.optString("url", ""),
-                        notes = item.optString("notes", ""),
-                        category = item.optString("category", "默认"),
-                        createdAt = item.optLong("createdAt", System.currentTimeMillis()),
-                        updatedAt = item.optLong("updatedAt", System.currentTimeMillis()),
-                        lastUsed = item.optLong("lastUsed", 0),
-                        usageCount = item.optInt("usageCount", 0),
-                        isFavorite = item.optBoolean("isFavorite", false),
-                        tags = tags
-                    )
-                )
-            }
-
-            savePasswords(passwords)
+            val passwords = parsePasswords(jsonObject.getJSONArray("passwords"))
+            replaceAll(passwords)
             true
         } catch (e: Exception) {
             e.printStackTrace()
@@ -412,50 +478,155 @@ class PasswordManager(private val context: Context) {
     /**
      * 清除所有密码
      */
-    fun clearAllPasswords() {
-        encryptedPrefs.edit().remove(KEY_PASSWORDS).apply()
+    suspend fun clearAllPasswords() = withContext(Dispatchers.IO) {
+        try {
+            synchronized(lock) {
+                dao.clear()
+                index.clear()
+                credentialIndex.clear()
+                encryptedPrefs.edit().remove(KEY_PASSWORDS).apply()
+                loaded = true
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
     }
 
-    private fun getAllPasswordsInternal(): List<PasswordEntry> {
-        return try {
-            val json = encryptedPrefs.getString(KEY_PASSWORDS, null)
-            if (json.isNullOrEmpty()) {
-                emptyList()
-            } else {
-                parsePasswordsFromJson(json)
+    private fun ensureLoaded() {
+        if (loaded) return
+        synchronized(lock) {
+            if (loaded) return
+            migrateLegacy()
+            dao.getAllMeta().forEach { row ->
+                try {
+                    val meta = cipher.open(row.meta, row.id, VaultCodec.KIND_META)
+                    putIndex(VaultCodec.decodeMeta(row.id, meta))
+                } catch (e: Exception) {
+                    // 无法解密的记录不进入索引，保留在数据库中
+                    e.printStackTrace()
+                }
             }
+            loaded = true
+        }
+    }
+
+    // 旧版本把所有密码作为一个JSON数组保存在 KEY_PASSWORDS 中，首次使用时逐条加密写入数据库后删除
+    private fun migrateLegacy() {
+        val json = try {
+            encryptedPrefs.getString(KEY_PASSWORDS, null)
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+        if (json.isNullOrEmpty()) return
+
+        try {
+            val records = parsePasswords(JSONArray(json)).map { seal(it) }
+            dao.insertAll(records)
+            encryptedPrefs.edit().remove(KEY_PASSWORDS).apply()
         } catch (e: Exception) {
             e.printStackTrace()
-            emptyList()
         }
     }
 
-    private fun savePasswords(passwords: List<PasswordEntry>) {
-        val jsonArray = JSONArray()
-        passwords.forEach { entry ->
-            val json = JSONObject().apply {
-                put("id", entry.id)
-                put("title", entry.title)
-                put("username", entry.username)
-                put("password", entry.password)
-                put("url", entry.url)
-                put("notes", entry.notes)
-                put("category", entry.category)
-                put("createdAt", entry.createdAt)
-                put("updatedAt", entry.updatedAt)
-                put("lastUsed", entry.lastUsed)
-                put("usageCount", entry.usageCount)
-                put("isFavorite", entry.isFavorite)
-                put("tags", JSONArray(entry.tags))
+    private fun replaceAll(passwords: List<PasswordEntry>) {
+        synchronized(lock) {
+            val records = passwords.map { seal(it) }
+            database.runInTransaction {
+                dao.clear()
+                dao.insertAll(records)
             }
-            jsonArray.put(json)
+            index.clear()
+            credentialIndex.clear()
+            passwords.forEach { putIndex(it.toSummary()) }
+            loaded = true
+        }
+    }
+
+    private fun updateMeta(summary: PasswordSummary): Boolean {
+        val meta = cipher.seal(VaultCodec.encodeMeta(summary), summary.id, VaultCodec.KIND_META)
+        if (dao.updateMeta(summary.id, meta) == 0) return false
+        index[summary.id] = summary
+        return true
+    }
+
+    private fun seal(entry: PasswordEntry): VaultRecordEntity {
+        return VaultRecordEntity(
+            id = entry.id,
+            meta = cipher.seal(VaultCodec.encodeMeta(entry.toSummary()), entry.id, VaultCodec.KIND_META),
+            secret = cipher.seal(VaultCodec.encodeSecret(entry.password, entry.notes), entry.id, VaultCodec.KIND_SECRET)
+        )
+    }
+
+    private fun open(summary: PasswordSummary): PasswordEntry? {
+        return try {
+            val sealed = dao.getSecret(summary.id) ?: return null
+            val (password, notes) = VaultCodec.decodeSecret(
+                cipher.open(sealed, summary.id, VaultCodec.KIND_SECRET)
+            )
+            PasswordEntry(
+                id = summary.id,
+                title = summary.title,
+                username = summary.username,
+                password = password,
+                url = summary.url,
+                notes = notes,
+                category = summary.category,
+                createdAt = summary.createdAt,
+                updatedAt = summary.updatedAt,
+                lastUsed = summary.lastUsed,
+                usageCount = summary.usageCount,
+                isFavorite = summary.isFavorite,
+                tags = summary.tags
+            )
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+    }
+
+    private fun putIndex(summary: PasswordSummary) {
+        index[summary.id] = summary
+        credentialIndex.put(summary.id, summary.url)
+    }
+
+    private fun removeIndex(summary: PasswordSummary) {
+        index.remove(summary.id)
+        credentialIndex.remove(summary.id)
+    }
+
+    private fun PasswordEntry.toSummary() = PasswordSummary(
+        id = id,
+        title = title,
+        username = username,
+        url = url,
+        category = category,
+        createdAt = createdAt,
+        updatedAt = updatedAt,
+        lastUsed = lastUsed,
+        usageCount = usageCount,
+        isFavorite = isFavorite,
+        tags = tags
+    )
+
+    /**
+     * 读取密码库密钥，首次使用时生成
+     */
+    private fun loadVaultKey(): SecretKey {
+        val stored = encryptedPrefs.getString(KEY_VAULT_KEY, null)
+        if (stored != null) {
+            return SecretKeySpec(Base64.decode(stored, Base64.NO_WRAP), "AES")
+        }
+        val key = KeyGenerator.getInstance("AES").apply { init(VAULT_KEY_BITS, SecureRandom()) }.generateKey()
+        // 密钥必须先落盘再用于加密，否则进程被杀后已写入的记录将无法解密
+        if (!encryptedPrefs.edit().putString(KEY_VAULT_KEY, Base64.encodeToString(key.encoded, Base64.NO_WRAP)).commit()) {
+            throw IllegalStateException("无法保存密码库密钥")
         }
-        encryptedPrefs.edit().putString(KEY_PASSWORDS, jsonArray.toString()).apply()
+        return key
     }
 
-    private fun parsePasswordsFromJson(json: String): List<PasswordEntry> {
+    private fun parsePasswords(jsonArray: JSONArray): List<PasswordEntry> {
         val passwords = mutableListOf<PasswordEntry>()
-        val jsonArray = JSONArray(json)
 
         for (i in 0 until jsonArray.length()) {
             val item = jsonArray.getJSONObject(i)
@@ -493,4 +664,4 @@ class PasswordManager(private val context: Context) {
     enum class PasswordStrength {
         VERY_WEAK, WEAK, MEDIUM, STRONG, VERY_STRONG
     }
-}
\ No newline at end of file
+}
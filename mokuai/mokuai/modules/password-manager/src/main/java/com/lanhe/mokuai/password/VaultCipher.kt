@@ -0,0 +1,39 @@
+package com.lanhe.mokuai.password
+
+import java.security.SecureRandom
+import javax.crypto.Cipher
+import javax.crypto.SecretKey
+import javax.crypto.spec.GCMParameterSpec
+
+/**
+ * 密码库记录的加解密
+ * 每条记录使用随机IV的 AES-GCM 单独加密，格式为 iv(12字节) + 密文(含认证标签)。
+ * 附加认证数据绑定条目ID和记录类型，记录被替换到其他条目或互换 meta/secret 时解密失败。
+ */
+internal class VaultCipher(private val key: SecretKey) {
+
+    companion object {
+        private const val TRANSFORMATION = "AES/GCM/NoPadding"
+        private const val IV_LENGTH = 12
+        private const val GCM_TAG_LENGTH = 128
+    }
+
+    private val random = SecureRandom()
+
+    fun seal(plain: ByteArray, id: String, kind: String): ByteArray {
+        val iv = ByteArray(IV_LENGTH).also { random.nextBytes(it) }
+        val cipher = Cipher.getInstance(TRANSFORMATION)
+        cipher.init(Cipher.ENCRYPT_MODE, key, GCMParameterSpec(GCM_TAG_LENGTH, iv))
+        cipher.updateAAD(aad(id, kind))
+        return iv + cipher.doFinal(plain)
+    }
+
+    fun open(sealed: ByteArray, id: String, kind: String): ByteArray {
+        val cipher = Cipher.getInstance(TRANSFORMATION)
+        cipher.init(Cipher.DECRYPT_MODE, key, GCMParameterSpec(GCM_TAG_LENGTH, sealed, 0, IV_LENGTH))
+        cipher.updateAAD(aad(id, kind))
+        return cipher.doFinal(sealed, IV_LENGTH, sealed.size - IV_LENGTH)
+    }
+
+    private fun aad(id: String, kind: String) = "$kind:$id".toByteArray(Charsets.UTF_8)
+}
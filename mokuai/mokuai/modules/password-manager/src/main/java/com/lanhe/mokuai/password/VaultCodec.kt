@@ -0,0 +1,101 @@
+package com.lanhe.mokuai.password
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+/**
+ * 密码库记录明文的二进制编码（大端序）
+ * ```
+ * meta:   version(byte) title username url category(str) createdAt updatedAt lastUsed(long)
+ *         usageCount(int) isFavorite(bool) tagCount(int) { tag(str) }
+ * secret: version(byte) password notes(str)
+ * ```
+ * str 为 长度(int) + UTF-8 字节，不受 writeUTF 的 64KB 限制。
+ */
+internal object VaultCodec {
+
+    const val KIND_META = "meta"
+    const val KIND_SECRET = "secret"
+
+    private const val VERSION: Byte = 1
+
+    fun encodeMeta(summary: PasswordManager.PasswordSummary): ByteArray {
+        return encode { out ->
+            out.writeString(summary.title)
+            out.writeString(summary.username)
+            out.writeString(summary.url)
+            out.writeString(summary.category)
+            out.writeLong(summary.createdAt)
+            out.writeLong(summary.updatedAt)
+            out.writeLong(summary.lastUsed)
+            out.writeInt(summary.usageCount)
+            out.writeBoolean(summary.isFavorite)
+            out.writeInt(summary.tags.size)
+            summary.tags.forEach { out.writeString(it) }
+        }
+    }
+
+    fun decodeMeta(id: String, bytes: ByteArray): PasswordManager.PasswordSummary {
+        return decode(bytes) { input ->
+            PasswordManager.PasswordSummary(
+                id = id,
+                title = input.readString(),
+                username = input.readString(),
+                url = input.readString(),
+                category = input.readString(),
+                createdAt = input.readLong(),
+                updatedAt = input.readLong(),
+                lastUsed = input.readLong(),
+                usageCount = input.readInt(),
+                isFavorite = input.readBoolean(),
+                tags = List(input.readInt()) { input.readString() }
+            )
+        }
+    }
+
+    fun encodeSecret(password: String, notes: String): ByteArray {
+        return encode { out ->
+            out.writeString(password)
+            out.writeString(notes)
+        }
+    }
+
+    /**
+     * 返回 (password, notes)
+     */
+    fun decodeSecret(bytes: ByteArray): Pair<String, String> {
+        return decode(bytes) { input -> input.readString() to input.readString() }
+    }
+
+    private fun encode(block: (DataOutputStream) -> Unit): ByteArray {
+        val buffer = ByteArrayOutputStream()
+        DataOutputStream(buffer).use { out ->
+            out.writeByte(VERSION.toInt())
+            block(out)
+        }
+        return buffer.toByteArray()
+    }
+
+    private fun <T> decode(bytes: ByteArray, block: (DataInputStream) -> T): T {
+        DataInputStream(ByteArrayInputStream(bytes)).use { input ->
+            val version = input.readByte()
+            if (version != VERSION) throw IOException("不支持的密码记录版本: $version")
+            return block(input)
+        }
+    }
+
+    private fun DataOutputStream.writeString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    private fun DataInputStream.readString(): String {
+        val bytes = ByteArray(readInt())
+        readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+}
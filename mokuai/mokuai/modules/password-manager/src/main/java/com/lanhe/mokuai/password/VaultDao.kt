@@ -0,0 +1,41 @@
+package com.lanhe.mokuai.password
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+
+/**
+ * 密码库DAO接口
+ * 每次修改只写入对应条目的一行，使用记录和收藏只重写该条目的元数据
+ */
+@Dao
+internal interface VaultDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insert(record: VaultRecordEntity): Long
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertAll(records: List<VaultRecordEntity>)
+
+    @Query("UPDATE vault_entries SET meta = :meta, secret = :secret WHERE id = :id")
+    fun update(id: String, meta: ByteArray, secret: ByteArray): Int
+
+    @Query("UPDATE vault_entries SET meta = :meta WHERE id = :id")
+    fun updateMeta(id: String, meta: ByteArray): Int
+
+    @Query("SELECT secret FROM vault_entries WHERE id = :id")
+    fun getSecret(id: String): ByteArray?
+
+    @Query("SELECT id, meta FROM vault_entries")
+    fun getAllMeta(): List<VaultMetaRow>
+
+    @Query("SELECT * FROM vault_entries")
+    fun getAll(): List<VaultRecordEntity>
+
+    @Query("DELETE FROM vault_entries WHERE id = :id")
+    fun delete(id: String): Int
+
+    @Query("DELETE FROM vault_entries")
+    fun clear()
+}
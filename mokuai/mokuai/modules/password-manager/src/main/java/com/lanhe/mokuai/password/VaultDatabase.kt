@@ -0,0 +1,43 @@
+package com.lanhe.mokuai.password
+
+import android.content.Context
+import androidx.room.Database
+import androidx.room.Room
+import androidx.room.RoomDatabase
+
+/**
+ * 密码库数据库
+ *
+ * 版本历史：
+ * v1: 初始版本 - 逐条加密的密码记录
+ *
+ * 只在 [PasswordManager] 的挂起函数中通过 IO 线程访问。
+ */
+@Database(
+    entities = [VaultRecordEntity::class],
+    version = 1,
+    exportSchema = false
+)
+internal abstract class VaultDatabase : RoomDatabase() {
+
+    abstract fun vaultDao(): VaultDao
+
+    companion object {
+        private const val DATABASE_NAME = "password_vault.db"
+
+        @Volatile
+        private var INSTANCE: VaultDatabase? = null
+
+        fun getDatabase(context: Context): VaultDatabase {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: Room.databaseBuilder(
+                    context.applicationContext,
+                    VaultDatabase::class.java,
+                    DATABASE_NAME
+                )
+                    .build()
+                    .also { INSTANCE = it }
+            }
+        }
+    }
+}
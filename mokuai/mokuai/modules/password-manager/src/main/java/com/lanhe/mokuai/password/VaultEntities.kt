@@ -0,0 +1,25 @@
+package com.lanhe.mokuai.password
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * 密码库中的一条记录
+ * meta 和 secret 分别用 [VaultCipher] 加密：meta 保存标题、用户名、网址、分类、标签和使用情况，
+ * 加载时解密一次建立内存索引；secret 保存密码和备注，只在打开该条目时解密。
+ */
+@Entity(tableName = "vault_entries")
+internal class VaultRecordEntity(
+    @PrimaryKey
+    val id: String,
+    val meta: ByteArray,
+    val secret: ByteArray
+)
+
+/**
+ * 只含加密元数据的记录，用于建立索引
+ */
+internal class VaultMetaRow(
+    val id: String,
+    val meta: ByteArray
+)
@@ -0,0 +1,167 @@
+package com.lanhe.mokuai.proxy
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 代理健康检查
+ * 后台定期并行探测所有启用的代理，并记录真实连接的结果，每个代理保留最近 [WINDOW_SIZE] 次的
+ * 延迟和成功率。每次更新后重新计算最低延迟代理和故障转移顺序，选择代理时直接读取，不再临时探测。
+ */
+internal class ProxyHealthChecker(
+    private val proxies: () -> List<ProxySelector.ProxyConfig>,
+    private val probe: suspend (ProxySelector.ProxyConfig) -> ProxySelector.ProxyTestResult
+) {
+
+    companion object {
+        const val WINDOW_SIZE = 20
+        private const val MIN_SUCCESS_RATE = 0.5f // 成功率低于该值的代理视为不可用
+    }
+
+    /**
+     * 单个代理的滑动窗口
+     */
+    class Health {
+        private val latencies = LongArray(WINDOW_SIZE)
+        private val successes = BooleanArray(WINDOW_SIZE)
+        private var next = 0
+        private var count = 0
+
+        @Synchronized
+        fun record(success: Boolean, latency: Long) {
+            successes[next] = success
+            latencies[next] = if (success) latency else -1
+            next = (next + 1) % WINDOW_SIZE
+            if (count < WINDOW_SIZE) count++
+        }
+
+        @Synchronized
+        fun successRate(): Float {
+            if (count == 0) return 0f
+            return (0 until count).count { successes[it] }.toFloat() / count
+        }
+
+        /**
+         * 窗口内成功请求的平均延迟，没有成功请求时返回 -1
+         */
+        @Synchronized
+        fun averageLatency(): Long {
+            var sum = 0L
+            var n = 0
+            for (i in 0 until count) {
+                if (successes[i]) {
+                    sum += latencies[i]
+                    n++
+                }
+            }
+            return if (n == 0) -1 else sum / n
+        }
+
+        /**
+         * 最近一次结果是否成功
+         */
+        @Synchronized
+        fun lastSuccess(): Boolean {
+            if (count == 0) return false
+            return successes[(next - 1 + WINDOW_SIZE) % WINDOW_SIZE]
+        }
+
+        val isHealthy: Boolean
+            get() = successRate() >= MIN_SUCCESS_RATE && lastSuccess()
+    }
+
+    /**
+     * 按健康数据排好的选择结果
+     * @param lowestLatency 健康代理中平均延迟最低的
+     * @param failoverOrder 健康代理，保持配置中的顺序
+     */
+    class Ranking(
+        val lowestLatency: ProxySelector.ProxyConfig?,
+        val failoverOrder: List<ProxySelector.ProxyConfig>
+    )
+
+    private val health = ConcurrentHashMap<String, Health>()
+    private var job: Job? = null
+
+    @Volatile
+    private var lastEnabled: List<ProxySelector.ProxyConfig> = emptyList()
+
+    @Volatile
+    var ranking: Ranking? = null
+        private set
+
+    fun healthOf(proxyId: String): Health? = health[proxyId]
+
+    /**
+     * 记录一次探测或真实连接的结果
+     */
+    fun record(proxyId: String, success: Boolean, latency: Long) {
+        health.getOrPut(proxyId) { Health() }.record(success, latency)
+    }
+
+    /**
+     * 并行探测所有启用的代理一次并更新排名
+     */
+    suspend fun checkNow() {
+        val enabled = proxies().filter { it.enabled }
+        coroutineScope {
+            enabled.map { proxy ->
+                async(Dispatchers.IO) {
+                    val result = probe(proxy)
+                    record(proxy.id, result.success, result.latency)
+                }
+            }.awaitAll()
+        }
+        health.keys.retainAll(enabled.map { it.id }.toSet())
+        rerank(enabled)
+    }
+
+    /**
+     * 根据当前窗口重新计算排名，不做探测
+     * @param enabled 参与排名的代理，默认沿用上一次检查时的代理列表
+     */
+    fun rerank(enabled: List<ProxySelector.ProxyConfig> = lastEnabled) {
+        lastEnabled = enabled
+        val healthy = enabled.filter { health[it.id]?.isHealthy == true }
+        ranking = Ranking(
+            lowestLatency = healthy.minByOrNull { health[it.id]?.averageLatency() ?: Long.MAX_VALUE },
+            failoverOrder = healthy
+        )
+    }
+
+    /**
+     * 启动后台检查，重复调用只保留一个检查任务
+     */
+    @Synchronized
+    fun start(intervalMs: Long) {
+        if (job?.isActive == true) return
+        job = CoroutineScope(Dispatchers.IO + SupervisorJob()).launch {
+            while (isActive) {
+                try {
+                    checkNow()
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                }
+                delay(intervalMs)
+            }
+        }
+    }
+
+    @Synchronized
+    fun stop() {
+        job?.cancel()
+        job = null
+    }
+
+    val isRunning: Boolean
+        get() = job?.isActive == true
+}
@@ -0,0 +1,109 @@
+package com.lanhe.mokuai.proxy
+
+import java.net.URI
+
+/**
+ * 编译后的代理规则
+ * 规则只在创建时编译一次：域名规则放入按标签倒序的后缀树，其余规则预编译为正则。
+ * 匹配时先查后缀树得到优先级最高的域名规则，再只检查排在它前面的正则规则。
+ *
+ * 域名规则的写法：
+ * - `domain:example.com` 或 `||example.com`：匹配 example.com 及其所有子域名
+ * - `example.com`：只含字母、数字、点和连字符的模式，同上
+ *
+ * 注意这是行为变化：以前所有模式都当作正则匹配完整URL，上面三种写法实际上几乎匹配不到任何URL，
+ * 现在按域名后缀匹配。
+ *
+ * 其他模式仍按正则匹配完整URL；无法编译的正则被忽略。
+ */
+internal class ProxyRuleMatcher(rules: List<ProxySelector.ProxyRule>) {
+
+    companion object {
+        private val PLAIN_DOMAIN = Regex("^[A-Za-z0-9-]+(\\.[A-Za-z0-9-]+)+$")
+        private const val NO_MATCH = Int.MAX_VALUE
+
+        /**
+         * 模式为域名规则时返回小写域名，否则返回 null
+         */
+        fun domainOf(pattern: String): String? {
+            val domain = when {
+                pattern.startsWith("domain:") -> pattern.removePrefix("domain:")
+                pattern.startsWith("||") -> pattern.removePrefix("||").trimEnd('^', '/')
+                PLAIN_DOMAIN.matches(pattern) -> pattern
+                else -> return null
+            }
+            return domain.trim().trimStart('.').lowercase().takeIf { it.isNotEmpty() }
+        }
+
+        /**
+         * 提取URL中的主机名，没有协议头的URL按 host/path 处理
+         */
+        fun hostOf(url: String): String? {
+            val host = try {
+                URI(url).host
+            } catch (e: Exception) {
+                null
+            } ?: url.substringAfter("://").substringBefore('/').substringBefore(':')
+            return host.lowercase().takeIf { it.isNotEmpty() }
+        }
+    }
+
+    private class Node {
+        val children = HashMap<String, Node>()
+        var rank = NO_MATCH // 在此结束的规则中排名最靠前的一条
+    }
+
+    private class RegexRule(val rank: Int, val regex: Regex)
+
+    // 按优先级从高到低排序，下标即排名，排名越小越优先
+    private val ordered = rules.filter { it.enabled }.sortedByDescending { it.priority }
+    private val root = Node()
+    private val regexRules = ArrayList<RegexRule>()
+
+    init {
+        ordered.forEachIndexed { rank, rule ->
+            val domain = domainOf(rule.pattern)
+            if (domain != null) {
+                var node = root
+                for (label in domain.split('.').asReversed()) {
+                    node = node.children.getOrPut(label) { Node() }
+                }
+                node.rank = minOf(node.rank, rank)
+            } else {
+                try {
+                    regexRules.add(RegexRule(rank, Regex(rule.pattern)))
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                }
+            }
+        }
+    }
+
+    val size: Int get() = ordered.size
+
+    /**
+     * 返回与URL匹配的优先级最高的规则
+     */
+    fun match(url: String): ProxySelector.ProxyRule? {
+        var best = NO_MATCH
+
+        hostOf(url)?.let { host ->
+            var node = root
+            for (label in host.split('.').asReversed()) {
+                node = node.children[label] ?: break
+                best = minOf(best, node.rank)
+            }
+        }
+
+        // 正则规则按排名有序，排在已命中的域名规则之后的不必再检查
+        for (rule in regexRules) {
+            if (rule.rank >= best) break
+            if (rule.regex.matches(url)) {
+                best = rule.rank
+                break
+            }
+        }
+
+        return if (best == NO_MATCH) null else ordered[best]
+    }
+}
@@ -3,12 +3,15 @@ package com.lanhe.mokuai.proxy
 import android.content.Context
 import android.net.Proxy
 import android.os.Build
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
+import java.io.File
 import java.io.IOException
 import java.net.*
 import java.util.*
@@ -25,7 +28,8 @@ class ProxySelector(private val context: Context) {
         private const val KEY_PROXIES = "proxy_list"
         private const val KEY_ACTIVE_PROXY = "active_proxy"
         private const val KEY_RULES = "proxy_rules"
-        private const val KEY_STATISTICS = "proxy_statistics"
+        private const val KEY_STATISTICS = "proxy_statistics" // 旧版统计，已迁移到 STATISTICS_FILE
+        private const val STATISTICS_FILE = "proxy_statistics.bin"
         private const val KEY_AUTO_SWITCH = "auto_switch_enabled"
 
         private const val TEST_URL = "https://www.google.com"
@@ -41,6 +45,20 @@ class ProxySelector(private val context: Context) {
     private val proxyCache = ConcurrentHashMap<String, ProxyConfig>()
     private val latencyCache = ConcurrentHashMap<String, Long>()
 
+    // 编译后的规则，规则变化时置空，下次匹配时重新编译
+    @Volatile
+    private var ruleMatcher: ProxyRuleMatcher? = null
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    // 连接统计在内存中累计，定期写入文件
+    private val statsRecorder by lazy {
+        ProxyStatsRecorder(File(context.filesDir, STATISTICS_FILE), sharedPrefs, KEY_STATISTICS, scope)
+    }
+
+    // 后台健康检查，选择代理时读取其结果
+    private val healthChecker = ProxyHealthChecker({ getAllProxies() }, { testProxy(it) })
+
     data class ProxyConfig(
         val id: String = UUID.randomUUID().toString(),
         val name: String,
@@ -105,6 +123,14 @@ class ProxySelector(private val context: Context) {
         val uptime: Long = 0
     )
 
+    data class LatencyPercentiles(
+        val proxyId: String,
+        val p50: Long,
+        val p90: Long,
+        val p99: Long,
+        val samples: Long
+    )
+
     data class ProxyTestResult(
         val proxyId: String,
         val success: Boolean,
@@ -169,6 +195,7 @@ class ProxySelector(private val context: Context) {
         proxies.removeAll { it.id == id }
         saveProxies(proxies)
         proxyCache.remove(id)
+        statsRecorder.remove(id)
 
         // 如果删除的是当前活动代理，清除活动代理
         if (getActiveProxyId() == id) {
@@ -183,9 +210,7 @@ class ProxySelector(private val context: Context) {
         sharedPrefs.edit().putString(KEY_ACTIVE_PROXY, proxyId).apply()
 
         if (proxyId != null) {
-            updateProxyStatistics(proxyId) { stats ->
-                stats.copy(lastUsed = System.currentTimeMillis())
-            }
+            statsRecorder.touch(proxyId)
         }
     }
 
@@ -375,8 +400,31 @@ class ProxySelector(private val context: Context) {
         }.awaitAll()
     }
 
+    /**
+     * 启动后台健康检查，定期并行探测所有启用的代理
+     */
+    fun startHealthCheck(intervalMs: Long = LATENCY_CHECK_INTERVAL) {
+        healthChecker.start(intervalMs)
+    }
+
+    /**
+     * 停止后台健康检查
+     */
+    fun stopHealthCheck() {
+        healthChecker.stop()
+    }
+
+    /**
+     * 立即探测一次所有启用的代理并更新健康数据
+     */
+    suspend fun refreshHealth() {
+        healthChecker.checkNow()
+    }
+
     /**
      * 自动选择最佳代理
+     * LOWEST_LATENCY 和 FAILOVER 使用后台健康检查的结果，不会在选择时探测代理；
+     * 还没有健康数据时启动后台检查，本次按代理优先级选择。
      */
     suspend fun selectBestProxy(
         proxies: List<ProxyConfig> = getAllProxies(),
@@ -387,13 +435,12 @@ class ProxySelector(private val context: Context) {
 
         when (strategy) {
             SelectionStrategy.LOWEST_LATENCY -> {
-                val testResults = testProxies(enabledProxies)
-                val successful = testResults.filter { it.success }
-                if (successful.isEmpty()) return@withContext null
-
-                val bestResult = successful.minByOrNull { it.latency }
-                bestResult?.let { result ->
-                    enabledProxies.find { it.id == result.proxyId }
+                val ranked = healthChecker.ranking?.lowestLatency
+                if (ranked != null && enabledProxies.any { it.id == ranked.id }) {
+                    return@withContext ranked
+                }
+                selectByHealth(enabledProxies) { healthy ->
+                    healthy.minByOrNull { healthChecker.healthOf(it.id)?.averageLatency() ?: Long.MAX_VALUE }
                 }
             }
             SelectionStrategy.RANDOM -> {
@@ -407,24 +454,34 @@ class ProxySelector(private val context: Context) {
                 enabledProxies[nextIndex]
             }
             SelectionStrategy.LEAST_USED -> {
-                val statistics = getAllStatistics()
                 enabledProxies.minByOrNull { proxy ->
-                    statistics[proxy.id]?.totalConnections ?: 0
+                    statsRecorder.totalConnections(proxy.id)
                 }
             }
             SelectionStrategy.FAILOVER -> {
                 // 故障转移：选择第一个可用的代理
-                for (proxy in enabledProxies) {
-                    val result = testProxy(proxy)
-                    if (result.success) {
-                        return@withContext proxy
-                    }
-                }
-                null
+                val ids = enabledProxies.mapTo(HashSet()) { it.id }
+                healthChecker.ranking?.failoverOrder?.firstOrNull { it.id in ids }
+                    ?: selectByHealth(enabledProxies) { healthy -> healthy.firstOrNull() }
             }
         }
     }
 
+    /**
+     * 按已有的健康数据从候选代理中选择
+     * 候选代理都还没有健康数据时启动后台检查，并返回优先级最高的代理
+     */
+    private fun selectByHealth(
+        candidates: List<ProxyConfig>,
+        choose: (List<ProxyConfig>) -> ProxyConfig?
+    ): ProxyConfig? {
+        if (candidates.none { healthChecker.healthOf(it.id) != null }) {
+            if (!healthChecker.isRunning) startHealthCheck()
+            return candidates.maxByOrNull { it.priority }
+        }
+        return choose(candidates.filter { healthChecker.healthOf(it.id)?.isHealthy == true })
+    }
+
     /**
      * 应用代理设置到系统
      */
@@ -501,6 +558,7 @@ class ProxySelector(private val context: Context) {
         val rules = getRules().toMutableList()
         rules.add(rule)
         saveRules(rules.sortedByDescending { it.priority })
+        invalidateRules()
     }
 
     /**
@@ -518,31 +576,40 @@ class ProxySelector(private val context: Context) {
         val rules = getRules().toMutableList()
         rules.removeAll { it.id == id }
         saveRules(rules)
+        invalidateRules()
     }
 
     /**
      * 根据URL匹配代理规则
      */
     fun matchProxyRule(url: String): ProxyConfig? {
-        val rules = getRules().filter { it.enabled }.sortedByDescending { it.priority }
-
-        for (rule in rules) {
-            if (url.matches(Regex(rule.pattern))) {
-                return when (rule.action) {
-                    RuleAction.USE_PROXY -> rule.proxyId?.let { getProxy(it) }
-                    RuleAction.DIRECT -> ProxyConfig(
-                        name = "Direct",
-                        type = ProxyType.DIRECT,
-                        host = "",
-                        port = 0
-                    )
-                    RuleAction.REJECT -> null
-                    RuleAction.AUTO_SELECT -> null // 需要自动选择
-                }
-            }
+        val rule = compiledRules().match(url) ?: return getActiveProxy()
+
+        return when (rule.action) {
+            RuleAction.USE_PROXY -> rule.proxyId?.let { getProxy(it) }
+            RuleAction.DIRECT -> ProxyConfig(
+                name = "Direct",
+                type = ProxyType.DIRECT,
+                host = "",
+                port = 0
+            )
+            RuleAction.REJECT -> null
+            RuleAction.AUTO_SELECT -> healthChecker.ranking?.lowestLatency // 后台检查尚未完成时为 null
         }
+    }
+
+    private fun invalidateRules() {
+        synchronized(this) { ruleMatcher = null }
+    }
 
-        return getActiveProxy()
+    /**
+     * 获取编译后的规则，规则未变化时复用
+     */
+    private fun compiledRules(): ProxyRuleMatcher {
+        ruleMatcher?.let { return it }
+        return synchronized(this) {
+            ruleMatcher ?: ProxyRuleMatcher(getRules()).also { ruleMatcher = it }
+        }
     }
 
     // ========== 统计管理 ==========
@@ -551,72 +618,39 @@ class ProxySelector(private val context: Context) {
      * 获取代理统计信息
      */
     fun getProxyStatistics(proxyId: String): ProxyStatistics {
-        val statistics = getAllStatistics()
-        return statistics[proxyId] ?: ProxyStatistics(proxyId)
+        return statsRecorder.statistics(proxyId)
     }
 
     /**
-     * 获取所有统计信息
+     * 获取代理成功连接的延迟百分位，单位毫秒，按分桶估算
      */
-    private fun getAllStatistics(): Map<String, ProxyStatistics> {
-        val json = sharedPrefs.getString(KEY_STATISTICS, "{}")
-        val map = mutableMapOf<String, ProxyStatistics>()
-
-        try {
-            val jsonObject = JSONObject(json ?: "{}")
-            jsonObject.keys().forEach { key ->
-                val stats = jsonObject.getJSONObject(key)
-                map[key] = ProxyStatistics(
-                    proxyId = key,
-                    totalConnections = stats.getLong("totalConnections"),
-                    successfulConnections = stats.getLong("successfulConnections"),
-                    failedConnections = stats.getLong("failedConnections"),
-                    totalBandwidth = stats.getLong("totalBandwidth"),
-                    averageLatency = stats.getLong("averageLatency"),
-                    lastUsed = stats.getLong("lastUsed"),
-                    uptime = stats.getLong("uptime")
-                )
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-
-        return map
+    fun getLatencyPercentiles(proxyId: String): LatencyPercentiles {
+        val histogram = statsRecorder.latencyHistogram(proxyId)
+        return LatencyPercentiles(
+            proxyId = proxyId,
+            p50 = ProxyStatsRecorder.percentile(histogram, 50.0),
+            p90 = ProxyStatsRecorder.percentile(histogram, 90.0),
+            p99 = ProxyStatsRecorder.percentile(histogram, 99.0),
+            samples = histogram.sum()
+        )
     }
 
     /**
-     * 更新代理统计信息
+     * 记录连接结果
      */
-    private fun updateProxyStatistics(proxyId: String, update: (ProxyStatistics) -> ProxyStatistics) {
-        val statistics = getAllStatistics().toMutableMap()
-        val current = statistics[proxyId] ?: ProxyStatistics(proxyId)
-        statistics[proxyId] = update(current)
-        saveStatistics(statistics)
+    fun recordConnection(proxyId: String, success: Boolean, latency: Long = 0, bandwidth: Long = 0) {
+        // 真实连接的结果同样计入健康窗口
+        healthChecker.record(proxyId, success, latency)
+        healthChecker.rerank()
+
+        statsRecorder.record(proxyId, success, latency, bandwidth)
     }
 
     /**
-     * 记录连接结果
+     * 立即保存统计信息，应用退到后台时调用
      */
-    fun recordConnection(proxyId: String, success: Boolean, latency: Long = 0, bandwidth: Long = 0) {
-        updateProxyStatistics(proxyId) { stats ->
-            val newTotal = stats.totalConnections + 1
-            val newSuccess = if (success) stats.successfulConnections + 1 else stats.successfulConnections
-            val newFailed = if (!success) stats.failedConnections + 1 else stats.failedConnections
-            val newAvgLatency = if (success && latency > 0) {
-                ((stats.averageLatency * stats.successfulConnections) + latency) / newSuccess
-            } else {
-                stats.averageLatency
-            }
-
-            stats.copy(
-                totalConnections = newTotal,
-                successfulConnections = newSuccess,
-                failedConnections = newFailed,
-                totalBandwidth = stats.totalBandwidth + bandwidth,
-                averageLatency = newAvgLatency,
-                lastUsed = System.currentTimeMillis()
-            )
-        }
+    fun flushStatistics() {
+        statsRecorder.flush()
     }
 
     // ========== 导入导出 ==========
@@ -698,6 +732,9 @@ class ProxySelector(private val context: Context) {
             jsonArray.put(proxyToJson(proxy))
         }
         sharedPrefs.edit().putString(KEY_PROXIES, jsonArray.toString()).apply()
+
+        // 代理增删或启停后重新排名，避免选中已删除或已禁用的代理
+        healthChecker.rerank(proxies.filter { it.enabled })
     }
 
     private fun saveRules(rules: List<ProxyRule>) {
@@ -716,22 +753,6 @@ class ProxySelector(private val context: Context) {
         sharedPrefs.edit().putString(KEY_RULES, jsonArray.toString()).apply()
     }
 
-    private fun saveStatistics(statistics: Map<String, ProxyStatistics>) {
-        val json = JSONObject()
-        statistics.forEach { (key, stats) ->
-            json.put(key, JSONObject().apply {
-                put("totalConnections", stats.totalConnections)
-                put("successfulConnections", stats.successfulConnections)
-                put("failedConnections", stats.failedConnections)
-                put("totalBandwidth", stats.totalBandwidth)
-                put("averageLatency", stats.averageLatency)
-                put("lastUsed", stats.lastUsed)
-                put("uptime", stats.uptime)
-            })
-        }
-        sharedPrefs.edit().putString(KEY_STATISTICS, json.toString()).apply()
-    }
-
     private fun parseProxiesFromJson(json: String): List<ProxyConfig> {
         val list = mutableListOf<ProxyConfig>()
         try {
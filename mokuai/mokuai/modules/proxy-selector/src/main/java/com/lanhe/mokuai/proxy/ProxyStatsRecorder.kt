@@ -0,0 +1,303 @@
+package com.lanhe.mokuai.proxy
+
+import android.content.SharedPreferences
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.json.JSONObject
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * 代理连接统计记录器
+ * 记录连接时只对每个代理的分段计数器 [LongAdder] 做自增，并把延迟计入对数分桶的直方图，
+ * 不读写 SharedPreferences，多线程并发记录互不竞争。
+ * 首次记录后延迟 [FLUSH_INTERVAL_MS] 把所有代理的统计一次性写入二进制文件。
+ *
+ * 文件格式（大端序）：
+ * ```
+ * magic(int) version(int) count(int)
+ * { proxyId(UTF) total failed bytes latencySum lastUsed uptime(long) buckets(int) { count(long) } }
+ * ```
+ * 成功次数为 total - failed。写入时先写临时文件再重命名。
+ */
+internal class ProxyStatsRecorder(
+    private val file: File,
+    private val legacyPrefs: SharedPreferences,
+    private val legacyKey: String,
+    private val scope: CoroutineScope
+) {
+
+    companion object {
+        private const val MAGIC = 0x50585354 // "PXST"
+        private const val VERSION = 1
+        private const val FLUSH_INTERVAL_MS = 30_000L
+        private const val MAX_LATENCY_MS = 65_535L
+
+        // 每个2的幂区间分4个桶，覆盖 0..65535ms，相对误差不超过25%
+        const val BUCKET_COUNT = 60
+
+        /**
+         * 延迟所在的桶
+         */
+        fun bucketOf(latencyMs: Long): Int {
+            val v = latencyMs.coerceIn(0L, MAX_LATENCY_MS)
+            if (v < 4) return v.toInt()
+            val power = 63 - java.lang.Long.numberOfLeadingZeros(v)
+            val sub = ((v shr (power - 2)) and 3).toInt()
+            return 4 * (power - 1) + sub
+        }
+
+        /**
+         * 桶的下界（含）
+         */
+        fun bucketLowerBound(bucket: Int): Long {
+            if (bucket < 4) return bucket.toLong()
+            val power = bucket / 4 + 1
+            val sub = bucket % 4
+            return (4L + sub) shl (power - 2)
+        }
+
+        /**
+         * 按直方图计算百分位，返回所在桶的中点，没有样本时返回 -1
+         */
+        fun percentile(histogram: LongArray, percent: Double): Long {
+            val total = histogram.sum()
+            if (total == 0L) return -1
+            val rank = kotlin.math.ceil(total * percent / 100.0).toLong().coerceIn(1L, total)
+            var seen = 0L
+            for (i in histogram.indices) {
+                seen += histogram[i]
+                if (seen >= rank) {
+                    val low = bucketLowerBound(i)
+                    val high = if (i + 1 < BUCKET_COUNT) bucketLowerBound(i + 1) else MAX_LATENCY_MS + 1
+                    return (low + high - 1) / 2
+                }
+            }
+            return -1
+        }
+    }
+
+    /**
+     * 单个代理的累计统计
+     */
+    private class Aggregate {
+        val total = LongAdder()
+        val failed = LongAdder()
+        val bytes = LongAdder()
+        val latencySum = LongAdder()
+        val histogram = Array(BUCKET_COUNT) { LongAdder() }
+
+        @Volatile
+        var lastUsed = 0L
+
+        @Volatile
+        var uptime = 0L
+
+        fun histogramSnapshot(): LongArray = LongArray(BUCKET_COUNT) { histogram[it].sum() }
+    }
+
+    private val aggregates = ConcurrentHashMap<String, Aggregate>()
+    private val flushScheduled = AtomicBoolean(false)
+    private val lock = Any()
+
+    @Volatile
+    private var loaded = false
+
+    /**
+     * 记录一次连接
+     */
+    fun record(proxyId: String, success: Boolean, latencyMs: Long, bytes: Long) {
+        val aggregate = aggregate(proxyId)
+        aggregate.total.increment()
+        if (success) {
+            if (latencyMs > 0) {
+                aggregate.latencySum.add(latencyMs)
+                aggregate.histogram[bucketOf(latencyMs)].increment()
+            }
+        } else {
+            aggregate.failed.increment()
+        }
+        if (bytes > 0) aggregate.bytes.add(bytes)
+        aggregate.lastUsed = System.currentTimeMillis()
+        scheduleFlush()
+    }
+
+    /**
+     * 记录代理被选为活动代理
+     */
+    fun touch(proxyId: String) {
+        aggregate(proxyId).lastUsed = System.currentTimeMillis()
+        scheduleFlush()
+    }
+
+    fun remove(proxyId: String) {
+        ensureLoaded()
+        if (aggregates.remove(proxyId) != null) scheduleFlush()
+    }
+
+    fun totalConnections(proxyId: String): Long {
+        ensureLoaded()
+        return aggregates[proxyId]?.total?.sum() ?: 0L
+    }
+
+    fun statistics(proxyId: String): ProxySelector.ProxyStatistics {
+        ensureLoaded()
+        val aggregate = aggregates[proxyId] ?: return ProxySelector.ProxyStatistics(proxyId)
+        val total = aggregate.total.sum()
+        val failed = aggregate.failed.sum()
+        val successful = total - failed
+        val sampled = aggregate.histogramSnapshot().sum()
+        return ProxySelector.ProxyStatistics(
+            proxyId = proxyId,
+            totalConnections = total,
+            successfulConnections = successful,
+            failedConnections = failed,
+            totalBandwidth = aggregate.bytes.sum(),
+            averageLatency = if (sampled > 0) aggregate.latencySum.sum() / sampled else 0L,
+            lastUsed = aggregate.lastUsed,
+            uptime = aggregate.uptime
+        )
+    }
+
+    /**
+     * 成功连接的延迟直方图
+     */
+    fun latencyHistogram(proxyId: String): LongArray {
+        ensureLoaded()
+        return aggregates[proxyId]?.histogramSnapshot() ?: LongArray(BUCKET_COUNT)
+    }
+
+    /**
+     * 把所有代理的统计写入文件
+     * 写入的是累计值而不是增量，与并发的记录之间不会丢失计数，最晚在下一次写入时保存
+     */
+    fun flush() {
+        flushScheduled.set(false)
+        synchronized(lock) {
+            ensureLoaded()
+            val snapshot = aggregates.entries.map { it.key to it.value }
+            val tmp = File(file.path + ".tmp")
+            try {
+                file.parentFile?.mkdirs()
+                DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                    out.writeInt(MAGIC)
+                    out.writeInt(VERSION)
+                    out.writeInt(snapshot.size)
+                    snapshot.forEach { (proxyId, aggregate) ->
+                        out.writeUTF(proxyId)
+                        out.writeLong(aggregate.total.sum())
+                        out.writeLong(aggregate.failed.sum())
+                        out.writeLong(aggregate.bytes.sum())
+                        out.writeLong(aggregate.latencySum.sum())
+                        out.writeLong(aggregate.lastUsed)
+                        out.writeLong(aggregate.uptime)
+                        out.writeInt(BUCKET_COUNT)
+                        aggregate.histogramSnapshot().forEach { out.writeLong(it) }
+                    }
+                }
+                if (!tmp.renameTo(file)) {
+                    file.delete()
+                    if (!tmp.renameTo(file)) throw IOException("无法写入代理统计: ${file.path}")
+                }
+                if (legacyPrefs.contains(legacyKey)) {
+                    legacyPrefs.edit().remove(legacyKey).apply()
+                }
+            } catch (e: IOException) {
+                e.printStackTrace()
+            } finally {
+                tmp.delete()
+            }
+        }
+    }
+
+    private fun aggregate(proxyId: String): Aggregate {
+        ensureLoaded()
+        return aggregates.getOrPut(proxyId) { Aggregate() }
+    }
+
+    private fun scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            scope.launch {
+                delay(FLUSH_INTERVAL_MS)
+                flush()
+            }
+        }
+    }
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        synchronized(lock) {
+            if (loaded) return
+            if (file.isFile) {
+                load()
+            } else {
+                migrateLegacy()
+            }
+            loaded = true
+        }
+    }
+
+    private fun load() {
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) return
+                repeat(input.readInt()) {
+                    val proxyId = input.readUTF()
+                    val aggregate = Aggregate()
+                    aggregate.total.add(input.readLong())
+                    aggregate.failed.add(input.readLong())
+                    aggregate.bytes.add(input.readLong())
+                    aggregate.latencySum.add(input.readLong())
+                    aggregate.lastUsed = input.readLong()
+                    aggregate.uptime = input.readLong()
+                    val buckets = input.readInt()
+                    for (i in 0 until buckets) {
+                        val count = input.readLong()
+                        if (i < BUCKET_COUNT) aggregate.histogram[i].add(count)
+                    }
+                    aggregates[proxyId] = aggregate
+                }
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+    }
+
+    // 旧版本把统计保存在 SharedPreferences 的 JSON 中，首次启动时导入；
+    // 旧数据只有平均延迟，按平均值计入直方图，写入新文件后删除旧数据
+    private fun migrateLegacy() {
+        val json = legacyPrefs.getString(legacyKey, null) ?: return
+        try {
+            val obj = JSONObject(json)
+            obj.keys().forEach { proxyId ->
+                val stats = obj.getJSONObject(proxyId)
+                val aggregate = Aggregate()
+                aggregate.total.add(stats.optLong("totalConnections"))
+                aggregate.failed.add(stats.optLong("failedConnections"))
+                aggregate.bytes.add(stats.optLong("totalBandwidth"))
+                aggregate.lastUsed = stats.optLong("lastUsed")
+                aggregate.uptime = stats.optLong("uptime")
+                val averageLatency = stats.optLong("averageLatency")
+                val successful = stats.optLong("successfulConnections")
+                if (averageLatency > 0 && successful > 0) {
+                    aggregate.latencySum.add(averageLatency * successful)
+                    aggregate.histogram[bucketOf(averageLatency)].add(successful)
+                }
+                aggregates[proxyId] = aggregate
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        scheduleFlush()
+    }
+}
@@ -0,0 +1,127 @@
+package com.lanhe.mokuai.proxy
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * ProxyRuleMatcher单元测试
+ * 覆盖域名规则的识别、后缀匹配，以及域名规则和正则规则之间的优先级
+ */
+class ProxyRuleMatcherTest {
+
+    private fun rule(name: String, pattern: String, priority: Int = 0, enabled: Boolean = true) =
+        ProxySelector.ProxyRule(
+            id = name,
+            name = name,
+            pattern = pattern,
+            proxyId = null,
+            action = ProxySelector.RuleAction.DIRECT,
+            enabled = enabled,
+            priority = priority
+        )
+
+    private fun ProxyRuleMatcher.matchName(url: String): String? = match(url)?.name
+
+    /**
+     * 测试三种域名写法被识别为域名规则，其余模式不是
+     */
+    @Test
+    fun `test domainOf recognizes domain patterns`() {
+        assertEquals("example.com", ProxyRuleMatcher.domainOf("domain:Example.com"))
+        assertEquals("ads.example.com", ProxyRuleMatcher.domainOf("||ads.example.com^"))
+        assertEquals("example.com", ProxyRuleMatcher.domainOf("example.com"))
+        assertNull(ProxyRuleMatcher.domainOf(".*\\.example\\.com/.*"))
+        assertNull(ProxyRuleMatcher.domainOf("localhost"))
+    }
+
+    /**
+     * 测试主机名提取忽略用户信息、端口和大小写，没有协议头时按 host/path 处理
+     */
+    @Test
+    fun `test hostOf extracts host`() {
+        assertEquals("sub.example.com", ProxyRuleMatcher.hostOf("https://user@Sub.Example.com:8080/x"))
+        assertEquals("example.com", ProxyRuleMatcher.hostOf("example.com/path"))
+    }
+
+    /**
+     * 测试域名规则匹配自身和子域名，不匹配只是字符串后缀相同的其他域名
+     */
+    @Test
+    fun `test domain rule matches subdomains only`() {
+        // Given
+        val matcher = ProxyRuleMatcher(listOf(rule("bare", "example.com")))
+
+        // Then
+        assertEquals("bare", matcher.matchName("https://example.com/"))
+        assertEquals("bare", matcher.matchName("https://a.b.example.com/path"))
+        assertNull(matcher.matchName("https://notexample.com/"))
+        assertNull(matcher.matchName("https://example.com.evil.org/"))
+    }
+
+    /**
+     * 测试优先级更高的正则规则先于域名规则命中
+     */
+    @Test
+    fun `test higher priority regex beats domain rule`() {
+        // Given
+        val matcher = ProxyRuleMatcher(listOf(
+            rule("domain", "domain:example.com", priority = 1),
+            rule("regex", "https://[^/]*example\\.com/api/.*", priority = 5)
+        ))
+
+        // Then
+        assertEquals("regex", matcher.matchName("https://www.example.com/api/v1"))
+        assertEquals("domain", matcher.matchName("https://www.example.com/home"))
+    }
+
+    /**
+     * 测试优先级更高的域名规则命中时，排在后面的正则规则不再生效
+     */
+    @Test
+    fun `test higher priority domain rule beats regex`() {
+        // Given
+        val matcher = ProxyRuleMatcher(listOf(
+            rule("regex", ".*", priority = 1),
+            rule("domain", "||example.com", priority = 5)
+        ))
+
+        // Then
+        assertEquals("domain", matcher.matchName("https://cdn.example.com/"))
+        assertEquals("regex", matcher.matchName("https://other.org/"))
+    }
+
+    /**
+     * 测试多条域名规则同时命中时按优先级而不是按域名长度选择，同优先级时取先添加的
+     */
+    @Test
+    fun `test domain rules are ordered by priority`() {
+        // Given
+        val matcher = ProxyRuleMatcher(listOf(
+            rule("parent", "domain:example.com", priority = 10),
+            rule("child", "domain:a.example.com", priority = 5),
+            rule("first", "domain:b.example.com", priority = 20),
+            rule("second", "domain:b.example.com", priority = 20)
+        ))
+
+        // Then
+        assertEquals("parent", matcher.matchName("https://x.a.example.com/"))
+        assertEquals("first", matcher.matchName("https://b.example.com/"))
+    }
+
+    /**
+     * 测试禁用的规则和无法编译的正则被忽略
+     */
+    @Test
+    fun `test disabled and invalid rules are ignored`() {
+        // Given
+        val matcher = ProxyRuleMatcher(listOf(
+            rule("disabled", "example.com", priority = 10, enabled = false),
+            rule("invalid", "[", priority = 5),
+            rule("fallback", ".*example.*", priority = 1)
+        ))
+
+        // Then
+        assertEquals(2, matcher.size)
+        assertEquals("fallback", matcher.matchName("https://example.com/"))
+    }
+}
@@ -24,10 +24,14 @@ dependencies {
     implementation(libs.androidx.core.ktx)
     implementation(libs.androidx.appcompat)
     implementation(libs.material)
+    implementation(libs.kotlinx.coroutines.android)
 
     // Apache POI for document extraction
     // TODO: POI requires minSdk 26+ due to MethodHandle usage
     // Commented out for Android 7.0+ compatibility
     // implementation("org.apache.poi:poi:5.2.3")
     // implementation("org.apache.poi:poi-ooxml:5.2.3")
+
+    // Testing
+    testImplementation(libs.junit)
 }
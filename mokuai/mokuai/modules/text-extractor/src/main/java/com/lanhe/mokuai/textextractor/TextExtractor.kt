@@ -1,29 +1,74 @@
 package com.lanhe.mokuai.textextractor
 
 import android.content.Context
-import android.graphics.Bitmap
 import android.graphics.pdf.PdfRenderer
 import android.net.Uri
-import android.os.ParcelFileDescriptor
+import android.util.JsonReader
+import android.util.JsonToken
+import android.util.Xml
 import android.webkit.MimeTypeMap
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.FlowCollector
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
 // import org.apache.poi.xwpf.extractor.XWPFWordExtractor
 // import org.apache.poi.xwpf.usermodel.XWPFDocument
 // import org.apache.poi.xssf.usermodel.XSSFWorkbook
 // import org.apache.poi.hssf.usermodel.HSSFWorkbook
+import org.xmlpull.v1.XmlPullParser
 import java.io.*
 import java.util.zip.ZipFile
-import javax.xml.parsers.DocumentBuilderFactory
-import org.w3c.dom.Document
-import org.w3c.dom.Element
-import org.w3c.dom.NodeList
+
+// 各格式的分段读取，向 metadata 写入格式相关的元数据
+private typealias ChunkEmitter = suspend FlowCollector<TextExtractor.TextChunk>.(MutableMap<String, String>) -> Unit
 
 /**
  * 文本提取器 - 从各种文件格式中提取文本内容
  * 注意：Word和Excel格式支持被禁用以保持Android 7.0+兼容性
+ *
+ * 各格式都按段流式读取：纯文本按约 [CHUNK_CHARS] 个字符在换行处切分，PDF按页，EPUB按章节，
+ * JSON/XML按累计的文本值切分。[extractChunks] 逐段发出 [TextChunk]，[extractTo] 把文本写入
+ * Writer 并增量统计字数，两者的文本缓冲都与文件大小无关。
+ *
+ * 传入 [index] 时，[extractTo]、[extractFromUri] 和 [extractBatch] 提取成功的文档会同时写入
+ * 全文索引，之后可用 [searchIndex] 在所有提取过的文档中搜索。建索引时需在内存中暂存当前文档
+ * 每个词的位置和偏移（每词约8字节）及行首偏移，直到文档提交，因此这部分内存与单个文档的词数成正比。
  */
-class TextExtractor(private val context: Context) {
+class TextExtractor(
+    private val context: Context,
+    private val index: TextIndex? = null
+) {
+
+    companion object {
+        const val CHUNK_CHARS = 64 * 1024
+        const val DEFAULT_PARALLELISM = 4
+        private const val CHUNK_BUFFER = 4 // 生产端最多领先消费端的段数
+
+        private const val PDF_PLACEHOLDER = "[PDF页面内容需要OCR或专门的PDF文本提取库]"
+        private const val IMAGE_PLACEHOLDER = "[图片文本提取需要OCR库支持]"
+
+        private val HTML_TAG = Regex("<[^>]+>")
+        private val WHITESPACE = Regex("\\s+")
+        private val NUMERIC = Regex("^\\d+$")
+
+        // Markdown标记，逐行处理
+        private val MD_HEADER = Regex("^#{1,6}\\s+")
+        private val MD_BOLD = Regex("\\*\\*([^*]+)\\*\\*")
+        private val MD_ITALIC = Regex("\\*([^*]+)\\*")
+        private val MD_LINK = Regex("\\[([^\\]]+)\\]\\([^)]+\\)")
+        private val MD_LIST = Regex("^[*+-]\\s+")
+        private val MD_NUMBERED = Regex("^\\d+\\.\\s+")
+        private val MD_INLINE_CODE = Regex("`([^`]+)`")
+    }
 
     data class ExtractionResult(
         val success: Boolean,
@@ -34,126 +79,195 @@ class TextExtractor(private val context: Context) {
         val error: String? = null
     )
 
+    /**
+     * 流式提取的一段文本
+     * @param index 段在文档中的序号，从0开始
+     * @param label 页、章节的名称，如 "Page 1"，普通文本段为空
+     */
+    data class TextChunk(
+        val index: Int,
+        val type: ChunkType,
+        val label: String,
+        val text: String
+    )
+
+    enum class ChunkType {
+        TEXT, PAGE, CHAPTER, SHEET
+    }
+
+    /**
+     * 不支持的文件类型
+     */
+    class UnsupportedFormatException(message: String) : IOException(message)
+
     /**
      * 从文件URI提取文本
      */
-    suspend fun extractFromUri(uri: Uri): ExtractionResult = withContext(Dispatchers.IO) {
-        try {
-            val mimeType = getMimeType(uri)
-            val fileName = getFileName(uri)
-
-            when {
-                mimeType?.startsWith("text/") == true -> extractFromTextFile(uri)
-                mimeType == "application/pdf" -> extractFromPdf(uri)
-                mimeType in listOf(
-                    "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
-                    "application/msword"
-                ) -> {
-                    // Word extraction disabled for minSdk 24 compatibility
-                    ExtractionResult(
-                        success = false,
-                        error = "Word document extraction requires minSdk 26+ (POI library limitation)"
-                    )
-                }
-                mimeType in listOf(
-                    "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
-                    "application/vnd.ms-excel"
-                ) -> {
-                    // Excel extraction disabled for minSdk 24 compatibility
-                    ExtractionResult(
-                        success = false,
-                        error = "Excel extraction requires minSdk 26+ (POI library limitation)"
-                    )
-                }
-                mimeType == "application/epub+zip" -> extractFromEpub(uri)
-                mimeType?.startsWith("image/") == true -> extractFromImage(uri)
-                fileName?.endsWith(".md") == true -> extractFromMarkdown(uri)
-                fileName?.endsWith(".json") == true -> extractFromJson(uri)
-                fileName?.endsWith(".xml") == true -> extractFromXml(uri)
-                else -> ExtractionResult(
-                    success = false,
-                    error = "Unsupported file type: $mimeType"
-                )
-            }
-        } catch (e: Exception) {
-            ExtractionResult(
-                success = false,
-                error = e.message ?: "Unknown error occurred"
-            )
-        }
+    suspend fun extractFromUri(uri: Uri): ExtractionResult {
+        val writer = StringWriter()
+        val result = extractTo(uri, writer)
+        return if (result.success) result.copy(text = writer.toString()) else result
     }
 
     /**
-     * 从纯文本文件提取
+     * 把文本流式写入 [writer]，返回的结果中 text 为空，字数和元数据边写边统计
+     * 适用于大文件：不在内存中保留完整文本
      */
-    private suspend fun extractFromTextFile(uri: Uri): ExtractionResult = withContext(Dispatchers.IO) {
+    suspend fun extractTo(uri: Uri, writer: Writer): ExtractionResult = withContext(Dispatchers.IO) {
+        val metadata = LinkedHashMap<String, String>()
+        var indexWriter: TextIndexWriter? = null
         try {
-            val text = context.contentResolver.openInputStream(uri)?.use { inputStream ->
-                BufferedReader(InputStreamReader(inputStream)).readText()
-            } ?: ""
+            val emitter = emitterFor(uri)
+            val stats = TextStats()
+            var pageCount = 0
+            indexWriter = index?.newWriter()
+
+            val collector = FlowCollector<TextChunk> { chunk ->
+                val piece = render(chunk)
+                writer.write(piece)
+                stats.accept(piece)
+                indexWriter?.accept(piece)
+                if (chunk.type != ChunkType.TEXT) pageCount++
+            }
+            collector.emitter(metadata)
+            writer.flush()
+
+            indexWriter?.let {
+                indexWriter = null
+                try {
+                    index?.commit(uri.toString(), it)
+                } catch (e: IOException) {
+                    // 索引失败不影响提取结果
+                    e.printStackTrace()
+                }
+            }
 
-            val wordCount = text.split(Regex("\\s+")).filter { it.isNotEmpty() }.size
-            val lineCount = text.lines().size
+            if (metadata["type"] == "text") {
+                metadata["lines"] = stats.lines.toString()
+                metadata["characters"] = stats.characters.toString()
+            }
 
             ExtractionResult(
                 success = true,
-                text = text,
-                metadata = mapOf(
-                    "type" to "text",
-                    "lines" to lineCount.toString(),
-                    "characters" to text.length.toString()
-                ),
-                wordCount = wordCount
+                metadata = metadata,
+                pageCount = pageCount,
+                wordCount = stats.words
             )
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: UnsupportedFormatException) {
+            ExtractionResult(success = false, error = e.message)
         } catch (e: Exception) {
             ExtractionResult(
                 success = false,
-                error = "Failed to read text file: ${e.message}"
+                error = "Failed to extract from ${metadata["type"] ?: "file"}: ${e.message}"
             )
+        } finally {
+            indexWriter?.abort()
         }
     }
 
     /**
-     * 从PDF提取文本
+     * 逐段提取文本
+     * 读取在IO线程进行，最多预读 [CHUNK_BUFFER] 段；收集方取消时停止读取并关闭文件。
+     * 不支持的文件类型以 [UnsupportedFormatException] 结束。
      */
-    private suspend fun extractFromPdf(uri: Uri): ExtractionResult = withContext(Dispatchers.IO) {
-        try {
-            val parcelFileDescriptor = context.contentResolver.openFileDescriptor(uri, "r")
-            parcelFileDescriptor?.use { pfd ->
-                val renderer = PdfRenderer(pfd)
-                val pageCount = renderer.pageCount
-                val textBuilder = StringBuilder()
+    fun extractChunks(uri: Uri): Flow<TextChunk> = flow {
+        val emitter = emitterFor(uri)
+        emitter(HashMap())
+    }.buffer(CHUNK_BUFFER).flowOn(Dispatchers.IO)
 
-                for (i in 0 until pageCount) {
-                    renderer.openPage(i).use { page ->
-                        // 注意：PdfRenderer主要用于渲染，不能直接提取文本
-                        // 这里需要使用OCR或其他PDF库
-                        textBuilder.append("Page ${i + 1}:\n")
-                        textBuilder.append("[PDF页面内容需要OCR或专门的PDF文本提取库]\n\n")
-                    }
+    /**
+     * 页、章节前加上标题，与整篇提取的格式一致
+     */
+    private fun render(chunk: TextChunk): String {
+        return if (chunk.type == ChunkType.TEXT) {
+            chunk.text
+        } else {
+            "${chunk.label}:\n${chunk.text}\n\n"
+        }
+    }
+
+    private fun emitterFor(uri: Uri): ChunkEmitter {
+        val mimeType = getMimeType(uri)
+        val fileName = getFileName(uri)
+
+        return when {
+            mimeType?.startsWith("text/") == true -> { metadata -> emitTextFile(uri, metadata) }
+            mimeType == "application/pdf" -> { metadata -> emitPdf(uri, metadata) }
+            mimeType in listOf(
+                "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+                "application/msword"
+            ) -> {
+                // Word extraction disabled for minSdk 24 compatibility
+                throw UnsupportedFormatException("Word document extraction requires minSdk 26+ (POI library limitation)")
+            }
+            mimeType in listOf(
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+                "application/vnd.ms-excel"
+            ) -> {
+                // Excel extraction disabled for minSdk 24 compatibility
+                throw UnsupportedFormatException("Excel extraction requires minSdk 26+ (POI library limitation)")
+            }
+            mimeType == "application/epub+zip" -> { metadata -> emitEpub(uri, metadata) }
+            mimeType?.startsWith("image/") == true -> { metadata -> emitImage(mimeType, metadata) }
+            fileName?.endsWith(".md") == true -> { metadata -> emitMarkdown(uri, metadata) }
+            fileName?.endsWith(".json") == true -> { metadata -> emitJson(uri, metadata) }
+            fileName?.endsWith(".xml") == true -> { metadata -> emitXml(uri, metadata) }
+            else -> throw UnsupportedFormatException("Unsupported file type: $mimeType")
+        }
+    }
+
+    private fun openReader(uri: Uri): BufferedReader {
+        val stream = context.contentResolver.openInputStream(uri)
+            ?: throw IOException("Failed to open $uri")
+        return BufferedReader(InputStreamReader(stream))
+    }
+
+    /**
+     * 纯文本按段读取，段在最后一个换行处切开，没有换行的超长行按 [CHUNK_CHARS] 切开
+     */
+    private suspend fun FlowCollector<TextChunk>.emitTextFile(uri: Uri, metadata: MutableMap<String, String>) {
+        metadata["type"] = "text"
+        openReader(uri).use { reader ->
+            val buffer = CharArray(CHUNK_CHARS)
+            val pending = StringBuilder()
+            var index = 0
+            while (true) {
+                val read = reader.read(buffer)
+                if (read < 0) break
+                pending.append(buffer, 0, read)
+                if (pending.length >= CHUNK_CHARS) {
+                    val cut = (pending.lastIndexOf("\n") + 1).takeIf { it > 0 } ?: pending.length
+                    emit(TextChunk(index++, ChunkType.TEXT, "", pending.substring(0, cut)))
+                    pending.delete(0, cut)
                 }
+            }
+            if (pending.isNotEmpty()) {
+                emit(TextChunk(index, ChunkType.TEXT, "", pending.toString()))
+            }
+        }
+    }
 
+    /**
+     * 从PDF提取文本，每页一段
+     * PdfRenderer只能渲染页面，不能提取文本，需要OCR或专门的PDF文本提取库
+     */
+    private suspend fun FlowCollector<TextChunk>.emitPdf(uri: Uri, metadata: MutableMap<String, String>) {
+        metadata["type"] = "pdf"
+        val pfd = context.contentResolver.openFileDescriptor(uri, "r")
+            ?: throw IOException("Failed to open PDF file")
+        pfd.use {
+            val renderer = PdfRenderer(it)
+            try {
+                val pageCount = renderer.pageCount
+                metadata["pages"] = pageCount.toString()
+                for (i in 0 until pageCount) {
+                    emit(TextChunk(i, ChunkType.PAGE, "Page ${i + 1}", PDF_PLACEHOLDER))
+                }
+            } finally {
                 renderer.close()
-
-                ExtractionResult(
-                    success = true,
-                    text = textBuilder.toString(),
-                    metadata = mapOf(
-                        "type" to "pdf",
-                        "pages" to pageCount.toString()
-                    ),
-                    pageCount = pageCount,
-                    wordCount = textBuilder.toString().split(Regex("\\s+")).size
-                )
-            } ?: ExtractionResult(
-                success = false,
-                error = "Failed to open PDF file"
-            )
-        } catch (e: Exception) {
-            ExtractionResult(
-                success = false,
-                error = "Failed to extract from PDF: ${e.message}"
-            )
+            }
         }
     }
 
@@ -256,223 +370,177 @@ class TextExtractor(private val context: Context) {
     }
     */
 
+
     /**
-     * 从EPUB电子书提取文本
+     * 从EPUB电子书提取文本，每个章节一段
      */
-    private suspend fun extractFromEpub(uri: Uri): ExtractionResult = withContext(Dispatchers.IO) {
+    private suspend fun FlowCollector<TextChunk>.emitEpub(uri: Uri, metadata: MutableMap<String, String>) {
+        metadata["type"] = "epub"
+        // 每次提取使用独立的临时文件，批量并行提取时互不覆盖
+        val tempFile = File.createTempFile("extract_", ".epub", context.cacheDir)
         try {
-            val tempFile = File(context.cacheDir, "temp_epub.epub")
             context.contentResolver.openInputStream(uri)?.use { input ->
                 tempFile.outputStream().use { output ->
                     input.copyTo(output)
                 }
-            }
+            } ?: throw IOException("Failed to open EPUB file")
 
-            val textBuilder = StringBuilder()
             var chapterCount = 0
-
             ZipFile(tempFile).use { zip ->
-                zip.entries().asSequence()
-                    .filter { it.name.endsWith(".html") || it.name.endsWith(".xhtml") }
-                    .forEach { entry ->
-                        chapterCount++
-                        val content = zip.getInputStream(entry).bufferedReader().readText()
-                        val cleanText = content
-                            .replace(Regex("<[^>]+>"), "") // Remove HTML tags
-                            .replace(Regex("\\s+"), " ")   // Normalize whitespace
-                            .trim()
-
-                        textBuilder.append("Chapter $chapterCount:\n")
-                        textBuilder.append(cleanText)
-                        textBuilder.append("\n\n")
-                    }
+                val entries = zip.entries()
+                while (entries.hasMoreElements()) {
+                    val entry = entries.nextElement()
+                    if (!entry.name.endsWith(".html") && !entry.name.endsWith(".xhtml")) continue
+
+                    val content = zip.getInputStream(entry).bufferedReader().use { it.readText() }
+                    val cleanText = content
+                        .replace(HTML_TAG, "") // Remove HTML tags
+                        .replace(WHITESPACE, " ") // Normalize whitespace
+                        .trim()
+
+                    emit(TextChunk(chapterCount, ChunkType.CHAPTER, "Chapter ${chapterCount + 1}", cleanText))
+                    chapterCount++
+                }
             }
-
+            metadata["chapters"] = chapterCount.toString()
+        } finally {
             tempFile.delete()
-
-            ExtractionResult(
-                success = true,
-                text = textBuilder.toString(),
-                metadata = mapOf(
-                    "type" to "epub",
-                    "chapters" to chapterCount.toString()
-                ),
-                pageCount = chapterCount,
-                wordCount = textBuilder.toString().split(Regex("\\s+")).size
-            )
-        } catch (e: Exception) {
-            ExtractionResult(
-                success = false,
-                error = "Failed to extract from EPUB: ${e.message}"
-            )
         }
     }
 
     /**
      * 从图片提取文本（需要OCR）
      */
-    private suspend fun extractFromImage(uri: Uri): ExtractionResult = withContext(Dispatchers.IO) {
-        try {
-            // 这里需要集成OCR库，如ML Kit或Tesseract
-            ExtractionResult(
-                success = true,
-                text = "[图片文本提取需要OCR库支持]",
-                metadata = mapOf(
-                    "type" to "image",
-                    "mimeType" to (getMimeType(uri) ?: "unknown")
-                )
-            )
-        } catch (e: Exception) {
-            ExtractionResult(
-                success = false,
-                error = "Failed to extract from image: ${e.message}"
-            )
-        }
+    private suspend fun FlowCollector<TextChunk>.emitImage(mimeType: String, metadata: MutableMap<String, String>) {
+        // 这里需要集成OCR库，如ML Kit或Tesseract
+        metadata["type"] = "image"
+        metadata["mimeType"] = mimeType
+        emit(TextChunk(0, ChunkType.TEXT, "", IMAGE_PLACEHOLDER))
     }
 
     /**
-     * 从Markdown文件提取纯文本
+     * 从Markdown文件提取纯文本，逐行去除标记
      */
-    private suspend fun extractFromMarkdown(uri: Uri): ExtractionResult = withContext(Dispatchers.IO) {
-        try {
-            val markdown = context.contentResolver.openInputStream(uri)?.use { inputStream ->
-                BufferedReader(InputStreamReader(inputStream)).readText()
-            } ?: ""
-
-            // 移除Markdown标记
-            val plainText = markdown
-                .replace(Regex("^#{1,6}\\s+", RegexOption.MULTILINE), "") // Headers
-                .replace(Regex("\\*\\*([^*]+)\\*\\*"), "$1") // Bold
-                .replace(Regex("\\*([^*]+)\\*"), "$1") // Italic
-                .replace(Regex("\\[([^\\]]+)\\]\\([^)]+\\)"), "$1") // Links
-                .replace(Regex("^[*+-]\\s+", RegexOption.MULTILINE), "") // Lists
-                .replace(Regex("^\\d+\\.\\s+", RegexOption.MULTILINE), "") // Numbered lists
-                .replace(Regex("`([^`]+)`"), "$1") // Inline code
-                .replace(Regex("```[\\s\\S]*?```"), "[Code Block]") // Code blocks
-
-            val wordCount = plainText.split(Regex("\\s+")).filter { it.isNotEmpty() }.size
-
-            ExtractionResult(
-                success = true,
-                text = plainText,
-                metadata = mapOf(
-                    "type" to "markdown",
-                    "originalLength" to markdown.length.toString()
-                ),
-                wordCount = wordCount
-            )
-        } catch (e: Exception) {
-            ExtractionResult(
-                success = false,
-                error = "Failed to extract from Markdown: ${e.message}"
-            )
+    private suspend fun FlowCollector<TextChunk>.emitMarkdown(uri: Uri, metadata: MutableMap<String, String>) {
+        metadata["type"] = "markdown"
+        var originalLength = 0L
+        val chunks = ChunkBuilder(this)
+
+        openReader(uri).use { reader ->
+            var inCodeBlock = false
+            var first = true
+            while (true) {
+                val line = reader.readLine() ?: break
+                originalLength += line.length + if (first) 0 else 1
+                val separator = if (first) "" else "\n"
+                first = false
+
+                // 代码块整体替换为占位文本
+                if (line.trimStart().startsWith("```")) {
+                    if (!inCodeBlock) chunks.append(separator + "[Code Block]")
+                    inCodeBlock = !inCodeBlock
+                    continue
+                }
+                if (inCodeBlock) continue
+
+                val plain = line
+                    .replace(MD_HEADER, "") // Headers
+                    .replace(MD_BOLD, "$1") // Bold
+                    .replace(MD_ITALIC, "$1") // Italic
+                    .replace(MD_LINK, "$1") // Links
+                    .replace(MD_LIST, "") // Lists
+                    .replace(MD_NUMBERED, "") // Numbered lists
+                    .replace(MD_INLINE_CODE, "$1") // Inline code
+                chunks.append(separator + plain)
+            }
         }
+        chunks.flush()
+        metadata["originalLength"] = originalLength.toString()
     }
 
     /**
-     * 从JSON文件提取文本
+     * 从JSON文件提取所有字符串值，流式解析，不读入整个文件
      */
-    private suspend fun extractFromJson(uri: Uri): ExtractionResult = withContext(Dispatchers.IO) {
-        try {
-            val jsonText = context.contentResolver.openInputStream(uri)?.use { inputStream ->
-                BufferedReader(InputStreamReader(inputStream)).readText()
-            } ?: ""
-
-            // 提取JSON中的所有字符串值
-            val textValues = mutableListOf<String>()
-            extractJsonStrings(jsonText, textValues)
-
-            val extractedText = textValues.joinToString("\n")
-            val wordCount = extractedText.split(Regex("\\s+")).filter { it.isNotEmpty() }.size
-
-            ExtractionResult(
-                success = true,
-                text = extractedText,
-                metadata = mapOf(
-                    "type" to "json",
-                    "stringCount" to textValues.size.toString()
-                ),
-                wordCount = wordCount
-            )
-        } catch (e: Exception) {
-            ExtractionResult(
-                success = false,
-                error = "Failed to extract from JSON: ${e.message}"
-            )
+    private suspend fun FlowCollector<TextChunk>.emitJson(uri: Uri, metadata: MutableMap<String, String>) {
+        metadata["type"] = "json"
+        var stringCount = 0
+        val chunks = ChunkBuilder(this)
+
+        openReader(uri).use { input ->
+            val reader = JsonReader(input)
+            reader.isLenient = true
+            loop@ while (true) {
+                when (reader.peek()) {
+                    JsonToken.BEGIN_OBJECT -> reader.beginObject()
+                    JsonToken.END_OBJECT -> reader.endObject()
+                    JsonToken.BEGIN_ARRAY -> reader.beginArray()
+                    JsonToken.END_ARRAY -> reader.endArray()
+                    JsonToken.NAME -> reader.nextName()
+                    JsonToken.STRING -> {
+                        val value = reader.nextString()
+                        if (value.isNotEmpty() && !value.matches(NUMERIC)) {
+                            chunks.append(if (stringCount == 0) value else "\n$value")
+                            stringCount++
+                        }
+                    }
+                    JsonToken.NULL -> reader.nextNull()
+                    JsonToken.END_DOCUMENT -> break@loop
+                    else -> reader.skipValue()
+                }
+            }
         }
+        chunks.flush()
+        metadata["stringCount"] = stringCount.toString()
     }
 
     /**
-     * 从XML文件提取文本
+     * 从XML文件提取文本，用pull解析器流式读取，文本节点以空格连接
      */
-    private suspend fun extractFromXml(uri: Uri): ExtractionResult = withContext(Dispatchers.IO) {
-        try {
-            context.contentResolver.openInputStream(uri)?.use { inputStream ->
-                val dbFactory = DocumentBuilderFactory.newInstance()
-                val dBuilder = dbFactory.newDocumentBuilder()
-                val doc = dBuilder.parse(inputStream)
-                doc.documentElement.normalize()
-
-                val textContent = extractTextFromNode(doc.documentElement)
-                val wordCount = textContent.split(Regex("\\s+")).filter { it.isNotEmpty() }.size
-
-                ExtractionResult(
-                    success = true,
-                    text = textContent,
-                    metadata = mapOf(
-                        "type" to "xml",
-                        "rootElement" to doc.documentElement.nodeName
-                    ),
-                    wordCount = wordCount
-                )
-            } ?: ExtractionResult(
-                success = false,
-                error = "Failed to open XML file"
-            )
-        } catch (e: Exception) {
-            ExtractionResult(
-                success = false,
-                error = "Failed to extract from XML: ${e.message}"
-            )
+    private suspend fun FlowCollector<TextChunk>.emitXml(uri: Uri, metadata: MutableMap<String, String>) {
+        metadata["type"] = "xml"
+        val chunks = ChunkBuilder(this)
+
+        openReader(uri).use { input ->
+            val parser = Xml.newPullParser()
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false)
+            parser.setInput(input)
+            var first = true
+            var event = parser.eventType
+            while (event != XmlPullParser.END_DOCUMENT) {
+                when (event) {
+                    XmlPullParser.START_TAG -> {
+                        if (parser.depth == 1) metadata["rootElement"] = parser.name
+                    }
+                    XmlPullParser.TEXT -> {
+                        val text = parser.text.trim()
+                        if (text.isNotEmpty()) {
+                            chunks.append(if (first) text else " $text")
+                            first = false
+                        }
+                    }
+                }
+                event = parser.next()
+            }
         }
+        chunks.flush()
     }
 
     /**
-     * 递归提取XML节点中的文本
+     * 把连续的文本片段累计到约 [CHUNK_CHARS] 个字符后作为一段发出
      */
-    private fun extractTextFromNode(node: org.w3c.dom.Node): String {
-        val textBuilder = StringBuilder()
+    private class ChunkBuilder(private val collector: FlowCollector<TextChunk>) {
+        private val builder = StringBuilder()
+        private var index = 0
 
-        if (node.nodeType == org.w3c.dom.Node.TEXT_NODE) {
-            textBuilder.append(node.textContent.trim())
+        suspend fun append(text: String) {
+            builder.append(text)
+            if (builder.length >= CHUNK_CHARS) flush()
         }
 
-        val children = node.childNodes
-        for (i in 0 until children.length) {
-            val childText = extractTextFromNode(children.item(i))
-            if (childText.isNotEmpty()) {
-                if (textBuilder.isNotEmpty()) {
-                    textBuilder.append(" ")
-                }
-                textBuilder.append(childText)
-            }
-        }
-
-        return textBuilder.toString()
-    }
-
-    /**
-     * 从JSON字符串中提取所有文本值
-     */
-    private fun extractJsonStrings(json: String, result: MutableList<String>) {
-        // 简单的正则提取，实际应用应使用JSON解析库
-        val pattern = "\"([^\"\\\\]*(\\\\.[^\"\\\\]*)*)\""
-        val regex = Regex(pattern)
-        regex.findAll(json).forEach { match ->
-            val value = match.groupValues[1]
-            if (value.isNotEmpty() && !value.matches(Regex("^\\d+$"))) {
-                result.add(value)
-            }
+        suspend fun flush() {
+            if (builder.isEmpty()) return
+            collector.emit(TextChunk(index++, ChunkType.TEXT, "", builder.toString()))
+            builder.setLength(0)
         }
     }
 
@@ -495,20 +563,39 @@ class TextExtractor(private val context: Context) {
 
     /**
      * 批量提取文本
+     * 最多同时提取 [parallelism] 个文件，结果顺序与 [uris] 一致；
+     * 取消调用方协程会取消所有未完成的提取并关闭已打开的文件。
      */
-    suspend fun extractBatch(uris: List<Uri>): List<ExtractionResult> = withContext(Dispatchers.IO) {
+    suspend fun extractBatch(
+        uris: List<Uri>,
+        parallelism: Int = DEFAULT_PARALLELISM
+    ): List<ExtractionResult> = coroutineScope {
+        val semaphore = Semaphore(parallelism.coerceAtLeast(1))
         uris.map { uri ->
-            extractFromUri(uri)
-        }
+            async(Dispatchers.IO) {
+                semaphore.withPermit { extractFromUri(uri) }
+            }
+        }.awaitAll()
+    }
+
+    /**
+     * 在所有提取过的文档中搜索，未配置索引时返回空列表
+     * 查询语法见 [TextIndex]
+     */
+    suspend fun searchIndex(query: String, limit: Int = 20): List<TextIndex.SearchHit> {
+        return index?.search(query, limit) ?: emptyList()
     }
 
     /**
      * 搜索提取的文本
+     * 行首偏移只计算一次，每个匹配的行号用二分查找得到
      */
     fun searchInText(text: String, query: String, caseSensitive: Boolean = false): List<SearchMatch> {
+        if (query.isEmpty()) return emptyList()
         val results = mutableListOf<SearchMatch>()
         val pattern = if (caseSensitive) query else query.lowercase()
         val searchText = if (caseSensitive) text else text.lowercase()
+        val lineOffsets = lineOffsetsOf(text)
 
         var index = 0
         while (index < searchText.length) {
@@ -524,7 +611,7 @@ class TextExtractor(private val context: Context) {
                 position = foundIndex,
                 matchedText = text.substring(foundIndex, foundIndex + pattern.length),
                 context = context,
-                lineNumber = text.substring(0, foundIndex).count { it == '\n' } + 1
+                lineNumber = TextIndex.lineNumberOf(lineOffsets, foundIndex)
             ))
 
             index = foundIndex + 1
@@ -533,10 +620,17 @@ class TextExtractor(private val context: Context) {
         return results
     }
 
+    private fun lineOffsetsOf(text: String): IntArray {
+        val offsets = TextIndexWriter.IntList()
+        offsets.add(0)
+        text.forEachIndexed { i, c -> if (c == '\n') offsets.add(i + 1) }
+        return offsets.toArray()
+    }
+
     data class SearchMatch(
         val position: Int,
         val matchedText: String,
         val context: String,
         val lineNumber: Int
     )
-}
\ No newline at end of file
+}
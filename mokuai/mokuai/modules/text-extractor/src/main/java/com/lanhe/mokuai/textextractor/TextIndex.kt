@@ -0,0 +1,575 @@
+package com.lanhe.mokuai.textextractor
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.util.TreeMap
+import java.util.UUID
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+import kotlin.math.ln
+
+/**
+ * 已提取文档的全文倒排索引
+ * 每个文档保存为一个索引文件和一个文本文件，启动后首次使用时加载。
+ * 内存中只保留词典（词条 -> 各文档中的出现次数和倒排数据在索引文件中的位置，按词条排序以支持前缀查询）
+ * 和每个文档的长度、词数，即每个文档的每个不同词条一项；词位置、字符偏移和行首偏移留在索引文件中，
+ * 查询时按需读取，内存占用不随文档总词数增长。
+ *
+ * 查询语法：空格分隔的条件需同时满足
+ * - `word`：词条
+ * - `wor*`：前缀
+ * - `"two words"`：短语，词位置必须连续；不加引号的中文按单字短语处理
+ *
+ * 结果按 BM25 排序，每个匹配带行号（查预先记录的行首偏移表）和上下文。
+ *
+ * 索引文件格式（大端序）：
+ * ```
+ * magic(int) version(int) uri(string) length(int) tokenCount(int) lineCount(int) termCount(int)
+ * { term(string) count(int) }
+ * { lineOffset(int) }
+ * { { position(int) } { offset(int) } }  // 按词典顺序，每个词条 count 个
+ * ```
+ * string 为 UTF-8 字节数(int) 加字节，不受 writeUTF 的 64KB 限制。
+ * 行首偏移和倒排数据位于文件末尾，其起始位置可由文件长度和词典中的数量算出。
+ */
+class TextIndex(private val dir: File) {
+
+    companion object {
+        private const val MAGIC = 0x54584958 // "TXIX"
+        private const val VERSION = 3
+        private const val INDEX_SUFFIX = ".idx"
+        private const val TEXT_SUFFIX = ".txt"
+        private const val CONTEXT_CHARS = 50
+        private const val MAX_MATCHES_PER_DOC = 5
+        private const val MAX_OPEN_FILES = 16 // 一次查询中同时打开的索引文件数
+
+        // 词条的最大长度，更长的字母数字串只索引前面的部分
+        internal const val MAX_TOKEN_LENGTH = 255
+
+        // BM25 参数
+        private const val K1 = 1.2
+        private const val B = 0.75
+
+        // 引号内为短语，其余按空白分隔
+        private val QUERY_PART = Regex("\"([^\"]*)\"|(\\S+)")
+
+        /**
+         * 中日韩文字逐字作为词条
+         */
+        fun isIdeograph(c: Char): Boolean {
+            if (c.code < 0x2E80) return false
+            return when (Character.UnicodeScript.of(c.code)) {
+                Character.UnicodeScript.HAN,
+                Character.UnicodeScript.HIRAGANA,
+                Character.UnicodeScript.KATAKANA,
+                Character.UnicodeScript.HANGUL -> true
+                else -> false
+            }
+        }
+
+        /**
+         * 按索引时的规则切分查询文本
+         */
+        fun tokenize(text: String): List<String> {
+            val tokens = mutableListOf<String>()
+            val token = StringBuilder()
+            for (c in text) {
+                when {
+                    isIdeograph(c) -> {
+                        if (token.isNotEmpty()) tokens.add(token.toString())
+                        token.setLength(0)
+                        tokens.add(c.toString())
+                    }
+                    Character.isLetterOrDigit(c) -> if (token.length < MAX_TOKEN_LENGTH) token.append(c.lowercaseChar())
+                    else -> {
+                        if (token.isNotEmpty()) tokens.add(token.toString())
+                        token.setLength(0)
+                    }
+                }
+            }
+            if (token.isNotEmpty()) tokens.add(token.toString())
+            return tokens
+        }
+
+        /**
+         * 字符偏移所在的行号（从1开始）
+         */
+        fun lineNumberOf(lineOffsets: IntArray, offset: Int): Int {
+            val found = lineOffsets.binarySearch(offset)
+            return if (found >= 0) found + 1 else -found - 1
+        }
+    }
+
+    /**
+     * 跨文档搜索的结果
+     */
+    data class SearchHit(
+        val uri: String,
+        val score: Double,
+        val matchCount: Int,
+        val matches: List<TextExtractor.SearchMatch>
+    )
+
+    /**
+     * @param lineOffsetsAt 行首偏移表在索引文件中的字节位置
+     */
+    private class DocInfo(
+        val id: Int,
+        val uri: String,
+        val length: Int,
+        val tokenCount: Int,
+        val lineCount: Int,
+        val lineOffsetsAt: Long,
+        val terms: List<String>
+    )
+
+    /**
+     * 词条在一个文档中的倒排数据：索引文件 [at] 处先是 [count] 个词位置，再是 [count] 个字符偏移
+     */
+    private class PostingRef(val docId: Int, val at: Long, val count: Int)
+
+    /**
+     * 一个查询条件在某个文档中的匹配
+     */
+    private sealed class ClauseMatch {
+        abstract val count: Int
+
+        /**
+         * 词条和前缀：出现次数来自词典，生成摘要时才读取字符偏移
+         */
+        class Terms(val refs: List<Pair<String, PostingRef>>) : ClauseMatch() {
+            override val count = refs.sumOf { it.second.count }
+        }
+
+        /**
+         * 短语：匹配时已读出位置，直接保存 start/end 字符偏移
+         */
+        class Spans(val starts: IntArray, val ends: IntArray) : ClauseMatch() {
+            override val count: Int get() = starts.size
+        }
+    }
+
+    /**
+     * 一次查询中读取索引文件，最多同时打开 [MAX_OPEN_FILES] 个文件
+     */
+    private inner class PostingReader : Closeable {
+        private val files = object : LinkedHashMap<Int, RandomAccessFile>(MAX_OPEN_FILES, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, RandomAccessFile>): Boolean {
+                if (size <= MAX_OPEN_FILES) return false
+                eldest.value.close()
+                return true
+            }
+        }
+
+        fun positions(ref: PostingRef): IntArray = readInts(ref.docId, ref.at, ref.count)
+
+        fun offsets(ref: PostingRef): IntArray = readInts(ref.docId, ref.at + ref.count * 4L, ref.count)
+
+        fun lineOffsets(doc: DocInfo): IntArray = readInts(doc.id, doc.lineOffsetsAt, doc.lineCount)
+
+        private fun readInts(docId: Int, at: Long, count: Int): IntArray {
+            val file = files.getOrPut(docId) { RandomAccessFile(indexFileOf(docId), "r") }
+            val bytes = ByteArray(count * 4)
+            file.seek(at)
+            file.readFully(bytes)
+            return IntArray(count).also { ByteBuffer.wrap(bytes).asIntBuffer().get(it) }
+        }
+
+        override fun close() {
+            files.values.forEach { it.close() }
+            files.clear()
+        }
+    }
+
+    /**
+     * 排名靠前、待生成摘要的文档，spans 为按位置排序的所有匹配
+     */
+    private class RankedDoc(val doc: DocInfo, val score: Double, val spans: List<Pair<Int, Int>>, val lineOffsets: IntArray)
+
+    private sealed class Clause {
+        class Term(val term: String) : Clause()
+        class Prefix(val prefix: String) : Clause()
+        class Phrase(val terms: List<String>) : Clause()
+    }
+
+    private val lock = ReentrantReadWriteLock()
+    private val docs = HashMap<Int, DocInfo>()
+    private val docsByUri = HashMap<String, Int>()
+    private val postings = TreeMap<String, MutableList<PostingRef>>()
+    private var totalTokens = 0L
+    private var nextId = 1
+
+    @Volatile
+    private var loaded = false
+
+    /**
+     * 已索引的文档数
+     */
+    val documentCount: Int
+        get() {
+            ensureLoaded()
+            return lock.read { docs.size }
+        }
+
+    /**
+     * 开始索引一个文档
+     */
+    internal fun newWriter(): TextIndexWriter {
+        // 先完成加载：加载时会清理上次遗留的 pending 文件，不能删到本进程正在写的
+        ensureLoaded()
+        dir.mkdirs()
+        return TextIndexWriter(File(dir, "pending_${UUID.randomUUID()}$TEXT_SUFFIX"))
+    }
+
+    /**
+     * 保存文档索引并把词典加入内存，同一URI的旧索引被替换
+     */
+    internal fun commit(uri: String, writer: TextIndexWriter) {
+        ensureLoaded()
+        writer.finish()
+        val id = lock.write { nextId++ }
+        val terms = writer.terms.keys.sorted()
+        val lineOffsets = writer.lineOffsets.toArray()
+        val entries = ArrayList<Pair<String, PostingRef>>(terms.size)
+        var lineOffsetsAt = 0L
+
+        // 序列化在锁外进行，只有改名和替换内存中的词典需要写锁
+        val indexFile = indexFileOf(id)
+        val tmp = File(dir, "doc_$id$INDEX_SUFFIX.tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(VERSION)
+                out.writeString(uri)
+                out.writeInt(writer.length)
+                out.writeInt(writer.tokenCount)
+                out.writeInt(lineOffsets.size)
+                out.writeInt(terms.size)
+                terms.forEach { term ->
+                    out.writeString(term)
+                    out.writeInt(writer.terms.getValue(term).positions.size)
+                }
+                lineOffsetsAt = out.size().toLong()
+                lineOffsets.forEach { out.writeInt(it) }
+                terms.forEach { term ->
+                    val occurrences = writer.terms.getValue(term)
+                    entries.add(term to PostingRef(id, out.size().toLong(), occurrences.positions.size))
+                    occurrences.positions.toArray().forEach { out.writeInt(it) }
+                    occurrences.offsets.toArray().forEach { out.writeInt(it) }
+                }
+            }
+        } catch (e: IOException) {
+            tmp.delete()
+            writer.textFile.delete()
+            throw e
+        }
+
+        lock.write {
+            if (!writer.textFile.renameTo(textFileOf(id)) || !tmp.renameTo(indexFile)) {
+                tmp.delete()
+                writer.textFile.delete()
+                textFileOf(id).delete()
+                throw IOException("无法保存文本索引: $uri")
+            }
+            // 同一URI并发提交时以编号较大的为准，与加载时的规则一致
+            val existing = docsByUri[uri]
+            if (existing != null && existing > id) {
+                indexFile.delete()
+                textFileOf(id).delete()
+                return
+            }
+            existing?.let { removeLocked(it) }
+            addLocked(DocInfo(id, uri, writer.length, writer.tokenCount, lineOffsets.size, lineOffsetsAt, terms), entries)
+        }
+    }
+
+    /**
+     * 删除文档的索引
+     */
+    fun remove(uri: String) {
+        ensureLoaded()
+        lock.write {
+            docsByUri[uri]?.let { removeLocked(it) }
+        }
+    }
+
+    /**
+     * 清空索引
+     */
+    fun clear() {
+        lock.write {
+            docs.clear()
+            docsByUri.clear()
+            postings.clear()
+            totalTokens = 0
+            dir.listFiles()?.forEach { it.delete() }
+            loaded = true
+        }
+    }
+
+    /**
+     * 在所有已索引的文档中搜索，返回得分最高的 [limit] 个文档
+     */
+    suspend fun search(query: String, limit: Int = 20): List<SearchHit> = withContext(Dispatchers.IO) {
+        ensureLoaded()
+        val clauses = parse(query)
+        if (clauses.isEmpty()) return@withContext emptyList()
+
+        val ranked = lock.read {
+            PostingReader().use { reader ->
+                // 所有条件都匹配的文档
+                var candidates: Map<Int, MutableList<ClauseMatch>>? = null
+                val documentFrequency = IntArray(clauses.size)
+                clauses.forEachIndexed { i, clause ->
+                    val matches = matchClause(clause, reader)
+                    documentFrequency[i] = matches.size
+                    candidates = if (candidates == null) {
+                        matches.mapValuesTo(HashMap()) { mutableListOf(it.value) }
+                    } else {
+                        candidates!!.filterKeys { it in matches }
+                            .mapValuesTo(HashMap()) { (docId, list) -> list.apply { add(matches.getValue(docId)) } }
+                    }
+                }
+
+                val docCount = docs.size.toDouble()
+                val averageLength = if (docs.isEmpty()) 1.0 else totalTokens.toDouble() / docs.size
+                candidates.orEmpty().map { (docId, matches) ->
+                    val doc = docs.getValue(docId)
+                    var score = 0.0
+                    matches.forEachIndexed { i, match ->
+                        val df = documentFrequency[i].toDouble()
+                        val idf = ln(1.0 + (docCount - df + 0.5) / (df + 0.5))
+                        val tf = match.count.toDouble()
+                        score += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * doc.tokenCount / averageLength))
+                    }
+                    Triple(doc, score, matches)
+                }.sortedByDescending { it.second }.take(limit).mapNotNull { (doc, score, matches) ->
+                    // 只为返回的文档读取字符偏移和行首偏移
+                    try {
+                        val spans = matches.flatMap { spansOf(it, reader) }.sortedBy { it.first }
+                        RankedDoc(doc, score, spans, reader.lineOffsets(doc))
+                    } catch (e: IOException) {
+                        e.printStackTrace()
+                        null
+                    }
+                }
+            }
+        }
+
+        ranked.map { toHit(it) }
+    }
+
+    private fun toHit(ranked: RankedDoc): SearchHit {
+        val doc = ranked.doc
+        // 所有条件的匹配按位置合并，取前几个生成摘要
+        val shown = ranked.spans.take(MAX_MATCHES_PER_DOC).mapNotNull { (start, end) ->
+            val contextStart = maxOf(0, start - CONTEXT_CHARS)
+            val contextEnd = minOf(doc.length, end + CONTEXT_CHARS)
+            val context = readText(doc.id, contextStart, contextEnd) ?: return@mapNotNull null
+            TextExtractor.SearchMatch(
+                position = start,
+                matchedText = context.substring(start - contextStart, end - contextStart),
+                context = context,
+                lineNumber = lineNumberOf(ranked.lineOffsets, start)
+            )
+        }
+        return SearchHit(doc.uri, ranked.score, ranked.spans.size, shown)
+    }
+
+    private fun spansOf(match: ClauseMatch, reader: PostingReader): List<Pair<Int, Int>> {
+        return when (match) {
+            is ClauseMatch.Terms -> match.refs.flatMap { (term, ref) ->
+                reader.offsets(ref).map { it to it + term.length }
+            }
+            is ClauseMatch.Spans -> match.starts.indices.map { match.starts[it] to match.ends[it] }
+        }
+    }
+
+    private fun matchClause(clause: Clause, reader: PostingReader): Map<Int, ClauseMatch> {
+        return when (clause) {
+            is Clause.Term -> postings[clause.term].orEmpty().associate { ref ->
+                ref.docId to ClauseMatch.Terms(listOf(clause.term to ref))
+            }
+            is Clause.Prefix -> {
+                val refs = HashMap<Int, MutableList<Pair<String, PostingRef>>>()
+                postings.subMap(clause.prefix, true, clause.prefix + Char.MAX_VALUE, false).forEach { (term, list) ->
+                    list.forEach { ref -> refs.getOrPut(ref.docId) { mutableListOf() }.add(term to ref) }
+                }
+                refs.mapValues { ClauseMatch.Terms(it.value) }
+            }
+            is Clause.Phrase -> matchPhrase(clause.terms, reader)
+        }
+    }
+
+    private fun matchPhrase(terms: List<String>, reader: PostingReader): Map<Int, ClauseMatch> {
+        val lists = terms.map { term ->
+            postings[term]?.associateBy { it.docId } ?: return emptyMap()
+        }
+        val result = HashMap<Int, ClauseMatch>()
+        // 从出现文档最少的词开始求交集，只读取同时含有所有词的文档的词位置
+        val docIds = lists.minByOrNull { it.size }!!.keys.filter { docId -> lists.all { docId in it } }
+        for (docId in docIds) {
+            try {
+                val refs = lists.map { it.getValue(docId) }
+                val positions = refs.map { reader.positions(it) }
+                val firstOffsets = reader.offsets(refs[0])
+                val lastOffsets = reader.offsets(refs.last())
+                val starts = TextIndexWriter.IntList()
+                val ends = TextIndexWriter.IntList()
+                positions[0].forEachIndexed { i, position ->
+                    val consecutive = (1 until positions.size).all { k ->
+                        positions[k].binarySearch(position + k) >= 0
+                    }
+                    if (consecutive) {
+                        val lastIndex = positions.last().binarySearch(position + positions.size - 1)
+                        starts.add(firstOffsets[i])
+                        ends.add(lastOffsets[lastIndex] + terms.last().length)
+                    }
+                }
+                if (starts.size > 0) result[docId] = ClauseMatch.Spans(starts.toArray(), ends.toArray())
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+        }
+        return result
+    }
+
+    private fun parse(query: String): List<Clause> {
+        val clauses = mutableListOf<Clause>()
+        QUERY_PART.findAll(query).forEach { match ->
+            val quoted = match.groups[1]?.value
+            val text = quoted ?: match.value
+            val tokens = tokenize(text)
+            when {
+                tokens.isEmpty() -> Unit
+                quoted == null && tokens.size == 1 && text.endsWith("*") -> clauses.add(Clause.Prefix(tokens[0]))
+                tokens.size == 1 -> clauses.add(Clause.Term(tokens[0]))
+                else -> clauses.add(Clause.Phrase(tokens))
+            }
+        }
+        return clauses
+    }
+
+    private fun readText(docId: Int, start: Int, end: Int): String? {
+        return try {
+            RandomAccessFile(textFileOf(docId), "r").use { file ->
+                val bytes = ByteArray((end - start) * 2)
+                file.seek(start * 2L)
+                file.readFully(bytes)
+                String(bytes, Charsets.UTF_16BE)
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            null
+        }
+    }
+
+    private fun textFileOf(id: Int) = File(dir, "doc_$id$TEXT_SUFFIX")
+
+    private fun indexFileOf(id: Int) = File(dir, "doc_$id$INDEX_SUFFIX")
+
+    private fun addLocked(doc: DocInfo, entries: List<Pair<String, PostingRef>>) {
+        docs[doc.id] = doc
+        docsByUri[doc.uri] = doc.id
+        totalTokens += doc.tokenCount
+        entries.forEach { (term, ref) ->
+            postings.getOrPut(term) { mutableListOf() }.add(ref)
+        }
+    }
+
+    private fun removeLocked(id: Int) {
+        val doc = docs.remove(id) ?: return
+        docsByUri.remove(doc.uri)
+        totalTokens -= doc.tokenCount
+        doc.terms.forEach { term ->
+            val list = postings[term] ?: return@forEach
+            list.removeAll { it.docId == id }
+            if (list.isEmpty()) postings.remove(term)
+        }
+        indexFileOf(id).delete()
+        textFileOf(id).delete()
+    }
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        lock.write {
+            if (loaded) return
+            dir.listFiles()?.forEach { file ->
+                when {
+                    file.name.startsWith("pending_") || file.name.endsWith(".tmp") -> file.delete()
+                    file.name.startsWith("doc_") && file.name.endsWith(INDEX_SUFFIX) -> load(file)
+                }
+            }
+            loaded = true
+        }
+    }
+
+    private fun load(file: File) {
+        val id = file.name.removePrefix("doc_").removeSuffix(INDEX_SUFFIX).toIntOrNull() ?: return
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != MAGIC) return
+                if (input.readInt() != VERSION) {
+                    // 旧格式的索引不再读取，删除后再次提取时重建
+                    file.delete()
+                    textFileOf(id).delete()
+                    return
+                }
+                val uri = input.readString()
+                val length = input.readInt()
+                val tokenCount = input.readInt()
+                val lineCount = input.readInt()
+                val terms = ArrayList<String>()
+                val counts = TextIndexWriter.IntList()
+                var postingInts = 0L
+                repeat(input.readInt()) {
+                    terms.add(input.readString())
+                    counts.add(input.readInt())
+                    postingInts += counts[counts.size - 1] * 2L
+                }
+                // 行首偏移和倒排数据在文件末尾
+                val lineOffsetsAt = file.length() - (lineCount + postingInts) * 4
+                var at = lineOffsetsAt + lineCount * 4L
+                val entries = terms.mapIndexed { i, term ->
+                    term to PostingRef(id, at, counts[i]).also { at += counts[i] * 8L }
+                }
+                nextId = maxOf(nextId, id + 1)
+                // 同一URI有多个索引时保留较新的
+                val existing = docsByUri[uri]
+                if (existing != null && existing > id) {
+                    file.delete()
+                    textFileOf(id).delete()
+                    return
+                }
+                existing?.let { removeLocked(it) }
+                addLocked(DocInfo(id, uri, length, tokenCount, lineCount, lineOffsetsAt, terms), entries)
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+    }
+
+    private fun DataOutputStream.writeString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    private fun DataInputStream.readString(): String {
+        val bytes = ByteArray(readInt())
+        readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+}
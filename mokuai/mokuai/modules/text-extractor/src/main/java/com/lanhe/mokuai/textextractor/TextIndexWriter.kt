@@ -0,0 +1,104 @@
+package com.lanhe.mokuai.textextractor
+
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStreamWriter
+
+/**
+ * 单个文档的索引构建器
+ * 随提取逐段接收文本：切分词条、记录每个词条的位置和字符偏移、记录每行的起始偏移，
+ * 同时把文本以 UTF-16BE 写入文件，字符偏移乘2即为文件中的字节偏移，生成摘要时可直接定位。
+ * 词条跨两段文本时会被正确拼接。
+ * 词条的位置和偏移在提交前都保存在内存中，占用约为文档词数的8字节。
+ */
+internal class TextIndexWriter(val textFile: File) {
+
+    /**
+     * 可增长的 int 数组
+     */
+    class IntList(capacity: Int = 8) {
+        private var values = IntArray(capacity)
+        var size = 0
+            private set
+
+        fun add(value: Int) {
+            if (size == values.size) values = values.copyOf(size * 2)
+            values[size++] = value
+        }
+
+        operator fun get(index: Int): Int = values[index]
+
+        fun toArray(): IntArray = values.copyOf(size)
+    }
+
+    class TermOccurrences {
+        val positions = IntList()
+        val offsets = IntList()
+    }
+
+    private val writer = OutputStreamWriter(BufferedOutputStream(FileOutputStream(textFile)), Charsets.UTF_16BE)
+    private val token = StringBuilder()
+    private var tokenStart = 0
+
+    val terms = HashMap<String, TermOccurrences>()
+    val lineOffsets = IntList().apply { add(0) }
+
+    var length = 0
+        private set
+
+    var tokenCount = 0
+        private set
+
+    fun accept(text: CharSequence) {
+        writer.append(text)
+        for (c in text) {
+            when {
+                TextIndex.isIdeograph(c) -> {
+                    finishToken()
+                    addToken(c.toString(), length)
+                }
+                Character.isLetterOrDigit(c) -> {
+                    if (token.isEmpty()) tokenStart = length
+                    // 与 TextIndex.tokenize 一致，超长的串只保留前 MAX_TOKEN_LENGTH 个字符
+                    if (token.length < TextIndex.MAX_TOKEN_LENGTH) token.append(c.lowercaseChar())
+                }
+                else -> finishToken()
+            }
+            if (c == '\n') lineOffsets.add(length + 1)
+            length++
+        }
+    }
+
+    /**
+     * 结束输入并关闭文本文件
+     */
+    fun finish() {
+        finishToken()
+        writer.close()
+    }
+
+    /**
+     * 放弃索引，删除已写入的文本
+     */
+    fun abort() {
+        try {
+            writer.close()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        textFile.delete()
+    }
+
+    private fun finishToken() {
+        if (token.isEmpty()) return
+        addToken(token.toString(), tokenStart)
+        token.setLength(0)
+    }
+
+    private fun addToken(term: String, offset: Int) {
+        val occurrences = terms.getOrPut(term) { TermOccurrences() }
+        occurrences.positions.add(tokenCount++)
+        occurrences.offsets.add(offset)
+    }
+}
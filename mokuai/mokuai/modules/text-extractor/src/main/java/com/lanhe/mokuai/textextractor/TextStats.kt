@@ -0,0 +1,33 @@
+package com.lanhe.mokuai.textextractor
+
+/**
+ * 增量文本统计
+ * 逐段累计字符数、换行数和单词数（连续非空白字符算一个词），
+ * 单词跨越两段文本时只计一次，不需要拼出完整文本再切分。
+ */
+internal class TextStats {
+
+    var characters = 0L
+        private set
+
+    var words = 0
+        private set
+
+    private var newlines = 0
+    private var inWord = false
+
+    val lines: Int get() = newlines + 1
+
+    fun accept(text: CharSequence) {
+        characters += text.length
+        for (c in text) {
+            if (c == '\n') newlines++
+            if (c.isWhitespace()) {
+                inWord = false
+            } else if (!inWord) {
+                inWord = true
+                words++
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.lanhe.mokuai.textextractor
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+/**
+ * TextIndex单元测试
+ * 覆盖切分规则、行号查找、词条/前缀/短语匹配，以及提交后重新加载索引
+ */
+class TextIndexTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun add(index: TextIndex, uri: String, text: String) {
+        val writer = index.newWriter()
+        writer.accept(text)
+        index.commit(uri, writer)
+    }
+
+    /**
+     * 测试字母数字转小写成词，中日韩文字逐字成词，其余字符作为分隔
+     */
+    @Test
+    fun `test tokenize splits words and ideographs`() {
+        // When
+        val tokens = TextIndex.tokenize("Hello, World2 中文abc")
+
+        // Then
+        assertEquals(listOf("hello", "world2", "中", "文", "abc"), tokens)
+    }
+
+    /**
+     * 测试超长的字母数字串只保留前 MAX_TOKEN_LENGTH 个字符
+     */
+    @Test
+    fun `test tokenize caps token length`() {
+        // When
+        val tokens = TextIndex.tokenize("a".repeat(100_000) + " b")
+
+        // Then
+        assertEquals(listOf("a".repeat(TextIndex.MAX_TOKEN_LENGTH), "b"), tokens)
+    }
+
+    /**
+     * 测试行首偏移表的行号查找，行首字符属于该行
+     */
+    @Test
+    fun `test lineNumberOf`() {
+        // Given
+        val lineOffsets = intArrayOf(0, 6, 12)
+
+        // Then
+        assertEquals(1, TextIndex.lineNumberOf(lineOffsets, 0))
+        assertEquals(1, TextIndex.lineNumberOf(lineOffsets, 5))
+        assertEquals(2, TextIndex.lineNumberOf(lineOffsets, 6))
+        assertEquals(3, TextIndex.lineNumberOf(lineOffsets, 13))
+    }
+
+    /**
+     * 测试短语要求词位置连续，匹配带行号和原文
+     */
+    @Test
+    fun `test phrase matches consecutive terms only`() = runBlocking {
+        // Given
+        val index = TextIndex(folder.newFolder())
+        add(index, "doc1", "The quick brown fox\njumps over")
+        add(index, "doc2", "brown and quick fox")
+
+        // When
+        val hits = index.search("\"Quick Brown\"")
+
+        // Then
+        assertEquals(listOf("doc1"), hits.map { it.uri })
+        assertEquals("quick brown", hits[0].matches[0].matchedText)
+        assertEquals(1, hits[0].matches[0].lineNumber)
+        assertEquals(2, index.search("jumps")[0].matches[0].lineNumber)
+    }
+
+    /**
+     * 测试前缀查询匹配所有以其开头的词条，多个条件需同时满足
+     */
+    @Test
+    fun `test prefix and term clauses`() = runBlocking {
+        // Given
+        val index = TextIndex(folder.newFolder())
+        add(index, "doc1", "quick brown fox")
+        add(index, "doc2", "quiet brown dog")
+        add(index, "doc3", "slow fox")
+
+        // Then
+        assertEquals(setOf("doc1", "doc2"), index.search("qui*").map { it.uri }.toSet())
+        assertEquals(listOf("doc1"), index.search("qui* fox").map { it.uri })
+        assertEquals("quiet", index.search("qui* dog")[0].matches[0].matchedText)
+        assertTrue(index.search("qui").isEmpty())
+    }
+
+    /**
+     * 测试不加引号的中文按单字短语匹配
+     */
+    @Test
+    fun `test ideographs match as phrase`() = runBlocking {
+        // Given
+        val index = TextIndex(folder.newFolder())
+        add(index, "doc1", "我们学习中文")
+        add(index, "doc2", "文中有字")
+
+        // When
+        val hits = index.search("中文")
+
+        // Then
+        assertEquals(listOf("doc1"), hits.map { it.uri })
+        assertEquals("中文", hits[0].matches[0].matchedText)
+    }
+
+    /**
+     * 测试提交的索引重新加载后结果一致，同一URI的旧索引被替换
+     */
+    @Test
+    fun `test index survives reload`() = runBlocking {
+        // Given
+        val dir = folder.newFolder()
+        val index = TextIndex(dir)
+        add(index, "doc1", "first version\nold words")
+        add(index, "doc1", "second version\nnew words")
+        add(index, "doc2", "other words")
+
+        // When
+        val reloaded = TextIndex(dir)
+
+        // Then
+        assertEquals(2, reloaded.documentCount)
+        assertTrue(reloaded.search("old").isEmpty())
+        val hit = reloaded.search("\"new words\"").single()
+        assertEquals("doc1", hit.uri)
+        assertEquals(2, hit.matches[0].lineNumber)
+        assertEquals(2, reloaded.search("words").size)
+    }
+
+    /**
+     * 测试超过64KB的URI和超长的词不会导致文档无法保存
+     */
+    @Test
+    fun `test long uri and long token are indexed`() = runBlocking {
+        // Given
+        val dir = folder.newFolder()
+        val uri = "content://docs/" + "x".repeat(70_000)
+        val index = TextIndex(dir)
+        add(index, uri, "a".repeat(100_000) + " tail")
+
+        // When
+        val reloaded = TextIndex(dir)
+
+        // Then
+        assertEquals(uri, reloaded.search("tail").single().uri)
+        assertEquals(uri, reloaded.search("a".repeat(300)).single().uri)
+    }
+}